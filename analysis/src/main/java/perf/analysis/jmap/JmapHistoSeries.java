@@ -0,0 +1,345 @@
+package perf.analysis.jmap;
+
+import perf.parse.Parser;
+import perf.parse.factory.JmapHistoFactory;
+import perf.parse.reader.TextLineReader;
+import perf.util.Indexer;
+import perf.util.StringUtil;
+import perf.util.file.FileUtility;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares a series of jmap -histo snapshots from one run to find the classes that keep growing.
+ * The histos are parsed in parallel with the JmapHistoFactory parser then merged in timestamp order. Class names are
+ * interned with perf.util.Indexer and the instances and bytes of each class are kept in a long[] with one entry per
+ * snapshot (0 when the class is not in the snapshot) so the growth of every class is a loop over primitive arrays.
+ * The timestamp of a snapshot is either passed to add or read from a yyyyMMdd_HHmmss in the file name. If any
+ * snapshot does not have a timestamp, or every snapshot has the same timestamp, the series uses the snapshot number
+ * instead so the slopes are per snapshot rather than per second.
+ */
+public class JmapHistoSeries {
+
+    private static final Pattern FILE_TIMESTAMP = Pattern.compile(".*(\\d{8}_\\d{6}).*");
+
+    /**
+     * The growth of one class over the series
+     */
+    public static class Growth {
+        private final String className;
+        private final long firstBytes;
+        private final long lastBytes;
+        private final long lastInstances;
+        private final double bytesSlope;
+        private final double instancesSlope;
+        private final double increaseRatio;
+        private Growth(String className,long firstBytes,long lastBytes,long lastInstances,double bytesSlope,double instancesSlope,double increaseRatio){
+            this.className = className;
+            this.firstBytes = firstBytes;
+            this.lastBytes = lastBytes;
+            this.lastInstances = lastInstances;
+            this.bytesSlope = bytesSlope;
+            this.instancesSlope = instancesSlope;
+            this.increaseRatio = increaseRatio;
+        }
+        public String getClassName(){return className;}
+        public long getFirstBytes(){return firstBytes;}
+        public long getLastBytes(){return lastBytes;}
+        public long getLastInstances(){return lastInstances;}
+        /**
+         * @return the least squares slope of bytes per second (or per snapshot)
+         */
+        public double getBytesSlope(){return bytesSlope;}
+        public double getInstancesSlope(){return instancesSlope;}
+        /**
+         * @return the fraction of consecutive snapshots where the bytes increased, close to 1 for a steady leak
+         */
+        public double getIncreaseRatio(){return increaseRatio;}
+    }
+
+    /**
+     * One parsed histo, only referenced by the thread that parses it until it is merged
+     */
+    private static class Snapshot {
+        final String path;
+        final long timestamp; // Long.MIN_VALUE when unknown
+        final List<String> classNames = new ArrayList<>();
+        long[] instances = new long[1024];
+        long[] bytes = new long[1024];
+        Snapshot(String path,long timestamp){
+            this.path = path;
+            this.timestamp = timestamp;
+        }
+        void add(String className,long instanceCount,long byteCount){
+            int index = classNames.size();
+            if(index == instances.length){
+                instances = Arrays.copyOf(instances,index*2);
+                bytes = Arrays.copyOf(bytes,index*2);
+            }
+            classNames.add(className);
+            instances[index] = instanceCount;
+            bytes[index] = byteCount;
+        }
+    }
+
+    private final List<String> paths = new LinkedList<>();
+    private final List<Long> pathTimestamps = new LinkedList<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final Indexer<String> classes = new Indexer<>();
+    private final List<Snapshot> snapshots = new ArrayList<>(); // merged, sorted by timestamp
+    private long[][] instances = new long[0][]; // [class][snapshot]
+    private long[][] bytes = new long[0][];
+
+    public void add(String path){
+        add(path,fileTimestamp(path));
+    }
+    public void add(String path,long timestamp){
+        paths.add(path);
+        pathTimestamps.add(timestamp);
+    }
+    public void addAll(List<String> paths){
+        for(String path : paths){
+            add(path);
+        }
+    }
+    public void setThreads(int threads){
+        if(threads <= 0){
+            throw new IllegalArgumentException("threads must be positive but was "+threads);
+        }
+        this.threads = threads;
+    }
+
+    private static long fileTimestamp(String path){
+        Matcher matcher = FILE_TIMESTAMP.matcher(new File(path).getName()); // not a timestamp in a directory name
+        if(matcher.matches()){
+            try {
+                return new SimpleDateFormat("yyyyMMdd_HHmmss").parse(matcher.group(1)).getTime();
+            } catch (ParseException e) {
+                e.printStackTrace();
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Parse and merge every histo added since the last call
+     */
+    public void analyze(){
+        List<String> toParse = new ArrayList<>(paths);
+        List<Long> timestamps = new ArrayList<>(pathTimestamps);
+        paths.clear();
+        pathTimestamps.clear();
+        AtomicInteger threadCount = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads,Math.max(1,toParse.size())),(runnable)->{
+            Thread thread = new Thread(runnable,"JmapHistoSeries-"+threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Snapshot> parsed = new ArrayList<>(toParse.size());
+        try {
+            List<Future<Snapshot>> futures = new ArrayList<>(toParse.size());
+            for(int i=0; i<toParse.size(); i++){
+                String path = toParse.get(i);
+                long timestamp = timestamps.get(i);
+                futures.add(executor.submit(()->parse(path,timestamp)));
+            }
+            for(Future<Snapshot> future : futures){
+                parsed.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to parse histo",e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        merge(parsed);
+    }
+
+    private static Snapshot parse(String path,long timestamp){
+        Snapshot snapshot = new Snapshot(path,timestamp);
+        Parser parser = new JmapHistoFactory().newParser();
+        parser.add((json)->snapshot.add(json.getString("className"),json.getLong("instances"),json.getLong("bytes")));
+        TextLineReader reader = new TextLineReader();
+        reader.addParser(parser);
+        reader.read(path);
+        return snapshot;
+    }
+
+    /**
+     * Add the snapshots in timestamp order (add order for equal or missing timestamps) and rebuild the class arrays
+     */
+    private void merge(List<Snapshot> parsed){
+        snapshots.addAll(parsed);
+        if(isTimed()){
+            snapshots.sort((a,b)->Long.compare(a.timestamp,b.timestamp)); // stable
+        }
+        for(Snapshot snapshot : parsed){
+            for(String className : snapshot.classNames){
+                classes.add(className);
+            }
+        }
+        int snapshotCount = snapshots.size();
+        instances = new long[classes.size()][snapshotCount];
+        bytes = new long[classes.size()][snapshotCount];
+        for(int s=0; s<snapshotCount; s++){
+            Snapshot snapshot = snapshots.get(s);
+            for(int i=0; i<snapshot.classNames.size(); i++){
+                int classId = classes.get(snapshot.classNames.get(i));
+                instances[classId][s]+=snapshot.instances[i];
+                bytes[classId][s]+=snapshot.bytes[i];
+            }
+        }
+    }
+
+    /**
+     * @return true if every snapshot has a timestamp and they are not all the same, false if the series uses the snapshot number
+     */
+    public boolean isTimed(){
+        boolean different = false;
+        for(Snapshot snapshot : snapshots){
+            if(snapshot.timestamp == Long.MIN_VALUE){
+                return false;
+            }
+            different |= snapshot.timestamp != snapshots.get(0).timestamp;
+        }
+        return different;
+    }
+    public int getSnapshotCount(){return snapshots.size();}
+    public List<String> getSnapshots(){
+        List<String> rtrn = new ArrayList<>(snapshots.size());
+        for(Snapshot snapshot : snapshots){
+            rtrn.add(snapshot.path);
+        }
+        return rtrn;
+    }
+    public List<String> getClassNames(){return classes.getIndexedList();}
+
+    /**
+     * @return the bytes of the class in each snapshot or an empty array if the class is not in any snapshot
+     */
+    public long[] getBytes(String className){
+        int classId = classes.get(className);
+        return classId < 0 || classId >= bytes.length ? new long[0] : bytes[classId].clone();
+    }
+    public long[] getInstances(String className){
+        int classId = classes.get(className);
+        return classId < 0 || classId >= instances.length ? new long[0] : instances[classId].clone();
+    }
+
+    /**
+     * @return the seconds from the first snapshot (or the snapshot number) for each snapshot
+     */
+    private double[] x(){
+        double[] x = new double[snapshots.size()];
+        boolean timed = isTimed();
+        for(int s=0; s<x.length; s++){
+            x[s] = timed ? (snapshots.get(s).timestamp-snapshots.get(0).timestamp)/1000.0 : s;
+        }
+        return x;
+    }
+
+    /**
+     * The least squares slope is sum((x-xMean)*y)/sum((x-xMean)^2) so the centered x is computed once and each
+     * class is one pass over its arrays
+     * @return the growth of every class in class id order
+     */
+    public List<Growth> getGrowth(){
+        int n = snapshots.size();
+        double[] x = x();
+        double xMean = 0;
+        for(int s=0; s<n; s++){
+            xMean+=x[s];
+        }
+        xMean = n == 0 ? 0 : xMean/n;
+        double[] centered = new double[n];
+        double sxx = 0;
+        for(int s=0; s<n; s++){
+            centered[s] = x[s]-xMean;
+            sxx+=centered[s]*centered[s];
+        }
+        List<Growth> rtrn = new ArrayList<>(classes.size());
+        for(int c=0; c<classes.size(); c++){
+            long[] classBytes = bytes[c];
+            long[] classInstances = instances[c];
+            double bytesSum = 0;
+            double instancesSum = 0;
+            int increases = 0;
+            for(int s=0; s<n; s++){
+                bytesSum+=centered[s]*classBytes[s];
+                instancesSum+=centered[s]*classInstances[s];
+                if(s > 0 && classBytes[s] > classBytes[s-1]){
+                    increases++;
+                }
+            }
+            rtrn.add(new Growth(
+                classes.get(c),
+                n == 0 ? 0 : classBytes[0],
+                n == 0 ? 0 : classBytes[n-1],
+                n == 0 ? 0 : classInstances[n-1],
+                sxx == 0 ? 0 : bytesSum/sxx,
+                sxx == 0 ? 0 : instancesSum/sxx,
+                n < 2 ? 0 : increases/(double)(n-1)
+            ));
+        }
+        return rtrn;
+    }
+
+    /**
+     * @return the classes with the largest positive bytes slope
+     */
+    public List<Growth> getTopGrowers(int limit){
+        List<Growth> rtrn = new ArrayList<>();
+        for(Growth growth : getGrowth()){
+            if(growth.getBytesSlope() > 0){
+                rtrn.add(growth);
+            }
+        }
+        rtrn.sort((a,b)->Double.compare(b.getBytesSlope(),a.getBytesSlope()));
+        return rtrn.size() > limit ? new ArrayList<>(rtrn.subList(0,limit)) : rtrn;
+    }
+
+    public void printReport(PrintStream out,int limit){
+        out.printf("%d histos, %d classes%n",snapshots.size(),classes.size());
+        String unit = isTimed() ? "/s" : "/histo";
+        List<Growth> top = getTopGrowers(limit);
+        int nameSize = top.stream().mapToInt(growth -> growth.getClassName().length()).max().orElse(5);
+        out.printf("%"+nameSize+"s %14s %14s %14s %14s %9s%n","class","first bytes","last bytes","bytes"+unit,"instances"+unit,"increases");
+        for(Growth growth : top){
+            out.printf("%"+nameSize+"s %14d %14d %14.1f %14.1f %8.0f%%%n",
+                growth.getClassName(),growth.getFirstBytes(),growth.getLastBytes(),growth.getBytesSlope(),growth.getInstancesSlope(),growth.getIncreaseRatio()*100);
+        }
+    }
+
+    public static void main(String[] args) {
+        if(args.length < 1){
+            System.out.println("usage: JmapHistoSeries <path> [top classes]");
+            return;
+        }
+        List<String> histos = FileUtility.getFiles(args[0],".histo",true);
+        histos.sort(String.CASE_INSENSITIVE_ORDER);
+        JmapHistoSeries series = new JmapHistoSeries();
+        series.addAll(histos);
+        long start = System.currentTimeMillis();
+        series.analyze();
+        long stop = System.currentTimeMillis();
+        System.out.println(histos.size()+" histos in "+ StringUtil.durationToString((stop-start)));
+        series.printReport(System.out,args.length > 1 ? Integer.parseInt(args[1]) : 20);
+    }
+}
@@ -0,0 +1,345 @@
+package perf.analysis.jstack;
+
+import perf.parse.Parser;
+import perf.parse.factory.JStackFactory;
+import perf.parse.reader.TextLineReader;
+import perf.util.Counters;
+import perf.util.Indexer;
+import perf.util.StringUtil;
+import perf.util.file.FileUtility;
+import perf.util.json.JsonArray;
+import perf.util.json.Jsons;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Analyzes a series of jstack dumps (e.g. one every few seconds for a run) in one pass.
+ * The dumps are parsed in parallel with the JStackFactory thread parser then merged in the order they were added.
+ * Frames, whole stacks, thread names and states are interned into shared ids with perf.util.Indexer so a stack that
+ * appears in thousands of dumps is only kept once.
+ * The state of a thread is the first word of the java.lang.Thread.State line (e.g. WAITING) or UNKNOWN for the VM
+ * threads that do not have one. Frames are the method and source (lock and wait lines are not part of the stack)
+ * so the same code path has the same stack id across dumps.
+ */
+public class JStackCorpus {
+
+    public static final String UNKNOWN_STATE = "UNKNOWN";
+
+    /**
+     * The number of times a stack was seen across the corpus
+     */
+    public static class StackCount {
+        private final int stackId;
+        private final int count;
+        private final List<String> frames;
+        private StackCount(int stackId,int count,List<String> frames){
+            this.stackId = stackId;
+            this.count = count;
+            this.frames = frames;
+        }
+        public int getStackId(){return stackId;}
+        public int getCount(){return count;}
+        public List<String> getFrames(){return frames;}
+    }
+
+    /**
+     * The threads of one dump, interned into ids local to the dump so it can be parsed on any thread
+     */
+    private static class Dump {
+        final String path;
+        final Indexer<String> frames = new Indexer<>();
+        final Indexer<List<Integer>> stacks = new Indexer<>();
+        final List<String> threadNames = new ArrayList<>();
+        final List<String> threadStates = new ArrayList<>();
+        final List<Integer> threadStacks = new ArrayList<>();
+        Dump(String path){
+            this.path = path;
+        }
+    }
+
+    private final List<String> paths = new LinkedList<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final Indexer<String> frames = new Indexer<>();
+    private final Indexer<List<Integer>> stacks = new Indexer<>();
+    private final Indexer<String> threadNames = new Indexer<>();
+    private final Indexer<String> states = new Indexer<>();
+
+    private final List<String> dumps = new ArrayList<>();
+    private final List<int[]> dumpThreads = new ArrayList<>(); // per dump: thread id, state id, stack id triples
+    private int[] stackCounts = new int[1024];
+    private final Map<Integer,Counters<Integer>> stateStackCounts = new HashMap<>();
+
+    public void add(String path){
+        paths.add(path);
+    }
+    public void addAll(List<String> paths){
+        this.paths.addAll(paths);
+    }
+    public void setThreads(int threads){
+        if(threads <= 0){
+            throw new IllegalArgumentException("threads must be positive but was "+threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Parse and merge every dump added since the last call
+     */
+    public void analyze(){
+        List<String> toParse = new ArrayList<>(paths);
+        paths.clear();
+        AtomicInteger threadCount = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads,Math.max(1,toParse.size())),(runnable)->{
+            Thread thread = new Thread(runnable,"JStackCorpus-"+threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Dump>> futures = new ArrayList<>(toParse.size());
+            for(String path : toParse){
+                futures.add(executor.submit(()->parse(path)));
+            }
+            for(Future<Dump> future : futures){
+                merge(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to parse jstack",e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Dump parse(String path){
+        Dump dump = new Dump(path);
+        Parser parser = new JStackFactory().newThreadParser();
+        parser.add((json)->{
+            if(!json.has("name")){
+                return;
+            }
+            List<Integer> stack = new ArrayList<>();
+            if(json.has("stack")){
+                JsonArray frames = json.getJsonArray("stack");
+                for(int i=0; i<frames.length(); i++){
+                    Jsons frame = frames.getJson(i);
+                    if(frame.has("frame")){
+                        stack.add(dump.frames.add(frameName(frame)));
+                    }
+                }
+            }
+            dump.threadNames.add(json.getString("name"));
+            dump.threadStates.add(json.has("state") ? state(json.getString("state")) : UNKNOWN_STATE);
+            dump.threadStacks.add(dump.stacks.add(Collections.unmodifiableList(stack)));
+        });
+        TextLineReader reader = new TextLineReader();
+        reader.addParser(parser);
+        reader.read(path);
+        return dump;
+    }
+    private static String frameName(Jsons frame){
+        StringBuilder sb = new StringBuilder(frame.getString("frame"));
+        if(frame.has("nativeMethod")){
+            sb.append("(Native Method)");
+        }else if(frame.has("file")){
+            sb.append("(").append(frame.getString("file")).append(":").append(frame.get("line")).append(")");
+        }
+        return sb.toString();
+    }
+    private static String state(String state){
+        int space = state.indexOf(' ');
+        return (space < 0 ? state : state.substring(0,space)).trim();
+    }
+
+    /**
+     * Move the dump ids to the shared ids, only called from the thread that called analyze
+     */
+    private void merge(Dump dump){
+        int[] frameIds = new int[dump.frames.size()];
+        for(int i=0; i<frameIds.length; i++){
+            frameIds[i] = frames.add(dump.frames.get(i));
+        }
+        int[] stackIds = new int[dump.stacks.size()];
+        for(int i=0; i<stackIds.length; i++){
+            List<Integer> local = dump.stacks.get(i);
+            Integer[] shared = new Integer[local.size()];
+            for(int f=0; f<shared.length; f++){
+                shared[f] = frameIds[local.get(f)];
+            }
+            stackIds[i] = stacks.add(Collections.unmodifiableList(Arrays.asList(shared)));
+        }
+        int size = dump.threadNames.size();
+        int[] triples = new int[size*3];
+        for(int t=0; t<size; t++){
+            int stackId = stackIds[dump.threadStacks.get(t)];
+            int stateId = states.add(dump.threadStates.get(t));
+            triples[t*3] = threadNames.add(dump.threadNames.get(t));
+            triples[t*3+1] = stateId;
+            triples[t*3+2] = stackId;
+            if(stackId >= stackCounts.length){
+                stackCounts = Arrays.copyOf(stackCounts,Math.max(stackCounts.length*2,stackId+1));
+            }
+            stackCounts[stackId]++;
+            if(!stateStackCounts.containsKey(stateId)){
+                stateStackCounts.put(stateId,new Counters<>());
+            }
+            stateStackCounts.get(stateId).add(stackId);
+        }
+        dumps.add(dump.path);
+        dumpThreads.add(triples);
+    }
+
+    public List<String> getDumps(){return Collections.unmodifiableList(dumps);}
+    public int getFrameCount(){return frames.size();}
+    public int getStackCount(){return stacks.size();}
+    public List<String> getStates(){return states.getIndexedList();}
+    public List<String> getThreadNames(){return threadNames.getIndexedList();}
+
+    /**
+     * @return the frames of the stack, top of the stack first
+     */
+    public List<String> getStack(int stackId){
+        List<Integer> ids = stacks.get(stackId);
+        if(ids == null){
+            return Collections.emptyList();
+        }
+        List<String> rtrn = new ArrayList<>(ids.size());
+        for(Integer id : ids){
+            rtrn.add(frames.get(id));
+        }
+        return rtrn;
+    }
+
+    /**
+     * @return the number of threads in the state for each dump in order
+     */
+    public int[] getStateTimeline(String state){
+        int stateId = states.get(state);
+        int[] rtrn = new int[dumps.size()];
+        if(stateId < 0){
+            return rtrn;
+        }
+        for(int d=0; d<rtrn.length; d++){
+            int[] triples = dumpThreads.get(d);
+            for(int t=1; t<triples.length; t+=3){
+                if(triples[t] == stateId){
+                    rtrn[d]++;
+                }
+            }
+        }
+        return rtrn;
+    }
+
+    /**
+     * @return the state of the named thread in each dump or null for the dumps where the thread does not exist.
+     * Threads with the same name in a dump (e.g. pool threads without a number) report the first one.
+     */
+    public String[] getThreadTimeline(String threadName){
+        int threadId = threadNames.get(threadName);
+        String[] rtrn = new String[dumps.size()];
+        if(threadId < 0){
+            return rtrn;
+        }
+        for(int d=0; d<rtrn.length; d++){
+            int[] triples = dumpThreads.get(d);
+            for(int t=0; t<triples.length; t+=3){
+                if(triples[t] == threadId){
+                    rtrn[d] = states.get(triples[t+1]);
+                    break;
+                }
+            }
+        }
+        return rtrn;
+    }
+
+    /**
+     * @return the stacks seen the most across every dump and thread
+     */
+    public List<StackCount> getHottestStacks(int limit){
+        List<Integer> ids = new ArrayList<>();
+        for(int i=0; i<stacks.size(); i++){
+            if(stackCounts[i] > 0){
+                ids.add(i);
+            }
+        }
+        return top(ids,(id)->stackCounts[id],limit);
+    }
+    /**
+     * @return the stacks seen the most for threads in the state
+     */
+    public List<StackCount> getHottestStacks(String state,int limit){
+        int stateId = states.get(state);
+        if(stateId < 0){
+            return Collections.emptyList();
+        }
+        Counters<Integer> counts = stateStackCounts.get(stateId);
+        return top(counts.entries(),counts::count,limit);
+    }
+    private interface Count {
+        int of(int stackId);
+    }
+    private List<StackCount> top(List<Integer> ids,Count count,int limit){
+        ids.sort((a,b)->{
+            int diff = Integer.compare(count.of(b),count.of(a));
+            return diff != 0 ? diff : Integer.compare(a,b);
+        });
+        List<StackCount> rtrn = new ArrayList<>();
+        for(int i=0; i<ids.size() && i<limit; i++){
+            int id = ids.get(i);
+            rtrn.add(new StackCount(id,count.of(id),getStack(id)));
+        }
+        return rtrn;
+    }
+
+    public void printReport(PrintStream out,int limit){
+        out.printf("%d dumps, %d threads, %d unique stacks from %d unique frames%n",
+            dumps.size(),threadNames.size(),stacks.size(),frames.size());
+        List<String> stateList = getStates();
+        int stateSize = stateList.stream().mapToInt(String::length).max().orElse(5);
+        for(String state : stateList){
+            out.printf("%"+(stateSize+1)+"s",state);
+            for(int count : getStateTimeline(state)){
+                out.printf("%5d",count);
+            }
+            out.printf("%n");
+        }
+        for(StackCount stackCount : getHottestStacks(limit)){
+            out.printf("%n%d threads in stack %d%n",stackCount.getCount(),stackCount.getStackId());
+            if(stackCount.getFrames().isEmpty()){
+                out.printf("  (no java frames)%n");
+            }
+            for(String frame : stackCount.getFrames()){
+                out.printf("  at %s%n",frame);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if(args.length < 1){
+            System.out.println("usage: JStackCorpus <path> [top stacks]");
+            return;
+        }
+        List<String> jstacks = FileUtility.getFiles(args[0],"jstack",true);
+        jstacks.sort(String::compareTo);
+        JStackCorpus corpus = new JStackCorpus();
+        corpus.addAll(jstacks);
+        long start = System.currentTimeMillis();
+        corpus.analyze();
+        long stop = System.currentTimeMillis();
+        System.out.println(jstacks.size()+" jstacks in "+ StringUtil.durationToString((stop-start)));
+        corpus.printReport(System.out,args.length > 1 ? Integer.parseInt(args[1]) : 10);
+    }
+}
@@ -2,7 +2,7 @@ package perf.analysis.jstack;
 
 import perf.parse.Parser;
 import perf.parse.factory.JStackFactory;
-import perf.parse.reader.TextLineReader;
+import perf.parse.reader.MultiParserTextLineReader;
 import perf.util.AsciiArt;
 import perf.util.Counters;
 import perf.util.StringUtil;
@@ -74,7 +74,7 @@ public class ThreadGroups {
 
         List<String> jstacks = FileUtility.getFiles(path,"jstack",true);
         jstacks.sort(String::compareTo);
-        TextLineReader reader = new TextLineReader();
+        MultiParserTextLineReader reader = new MultiParserTextLineReader();
 
         JStackFactory jStackFactory = new JStackFactory();
         Parser fileStartParser = jStackFactory.newFileStartParser();
@@ -0,0 +1,114 @@
+package perf.analysis.jmap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class JmapHistoSeriesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @param classes className then bytes for each class, instances are bytes/10
+     */
+    private static String histo(File directory,String name,Object...classes) throws IOException {
+        File file = new File(directory,name);
+        try (FileWriter writer = new FileWriter(file)){
+            writer.write(" num     #instances         #bytes  class name\n");
+            writer.write("----------------------------------------------\n");
+            for(int i=0; i<classes.length; i+=2){
+                long bytes = ((Number)classes[i+1]).longValue();
+                writer.write(String.format("%4d:%14d%15d  %s%n",i/2+1,bytes/10,bytes,classes[i]));
+            }
+        }
+        return file.getPath();
+    }
+    private static JmapHistoSeries.Growth growth(JmapHistoSeries series,String className){
+        for(JmapHistoSeries.Growth growth : series.getGrowth()){
+            if(growth.getClassName().equals(className)){
+                return growth;
+            }
+        }
+        throw new AssertionError("missing "+className);
+    }
+
+    @Test
+    public void timedFromFileNames() throws IOException {
+        File directory = folder.getRoot();
+        String second = histo(directory,"jmap_20200101_120010.histo","Leak",2000,"Stable",500,"Shrink",200);
+        String first = histo(directory,"jmap_20200101_120000.histo","Leak",1000,"Stable",500,"Shrink",300);
+        String third = histo(directory,"jmap_20200101_120020.histo","Leak",3000,"Stable",500,"Shrink",100,"Late",40);
+
+        JmapHistoSeries series = new JmapHistoSeries();
+        series.setThreads(2);
+        series.addAll(Arrays.asList(second,third,first)); // merged in timestamp order
+        series.analyze();
+
+        assertTrue(series.isTimed());
+        assertEquals(Arrays.asList(first,second,third),series.getSnapshots());
+        assertArrayEquals(new long[]{1000,2000,3000},series.getBytes("Leak"));
+        assertArrayEquals(new long[]{0,0,40},series.getBytes("Late"));
+
+        JmapHistoSeries.Growth leak = growth(series,"Leak");
+        assertEquals(100,leak.getBytesSlope(),1e-9); // bytes per second
+        assertEquals(10,leak.getInstancesSlope(),1e-9);
+        assertEquals(1.0,leak.getIncreaseRatio(),0.0);
+        assertEquals(1000,leak.getFirstBytes());
+        assertEquals(3000,leak.getLastBytes());
+        assertEquals(0,growth(series,"Stable").getBytesSlope(),0.0);
+        assertEquals(0,growth(series,"Stable").getIncreaseRatio(),0.0);
+        assertEquals(-10,growth(series,"Shrink").getBytesSlope(),1e-9);
+        assertEquals(0.5,growth(series,"Late").getIncreaseRatio(),0.0);
+
+        List<JmapHistoSeries.Growth> top = series.getTopGrowers(10);
+        assertEquals(2,top.size());
+        assertEquals("Leak",top.get(0).getClassName());
+        assertEquals("Late",top.get(1).getClassName());
+        assertEquals(1,series.getTopGrowers(1).size());
+    }
+
+    @Test
+    public void untimedUsesSnapshotOrder() throws IOException {
+        File directory = folder.newFolder("histos_20200101_120000"); // not a timestamp for the files in it
+        String first = histo(directory,"a.histo","Leak",1000,"Wobble",1000);
+        String second = histo(directory,"b.histo","Leak",1500,"Wobble",900);
+        String third = histo(directory,"c.histo","Leak",2000,"Wobble",1100);
+
+        JmapHistoSeries series = new JmapHistoSeries();
+        series.addAll(Arrays.asList(first,second,third));
+        series.analyze();
+
+        assertFalse(series.isTimed());
+        assertEquals(Arrays.asList(first,second,third),series.getSnapshots());
+        assertEquals(500,growth(series,"Leak").getBytesSlope(),1e-9); // bytes per snapshot
+        assertEquals(0.5,growth(series,"Wobble").getIncreaseRatio(),0.0);
+        assertEquals("Leak",series.getTopGrowers(1).get(0).getClassName());
+    }
+
+    @Test
+    public void equalTimestampsUseSnapshotOrder() throws IOException {
+        File directory = folder.getRoot();
+        JmapHistoSeries series = new JmapHistoSeries();
+        series.add(histo(directory,"x.histo","Leak",100),42_000);
+        series.add(histo(directory,"y.histo","Leak",300),42_000);
+        series.analyze();
+
+        assertFalse(series.isTimed());
+        assertEquals(200,growth(series,"Leak").getBytesSlope(),1e-9);
+    }
+}
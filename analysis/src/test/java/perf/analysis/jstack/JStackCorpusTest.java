@@ -0,0 +1,125 @@
+package perf.analysis.jstack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class JStackCorpusTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String[] RUNNING = new String[]{
+        "\tat sun.nio.ch.EPollArrayWrapper.epollWait(Native Method)",
+        "\tat sun.nio.ch.SelectorImpl.lockAndDoSelect(SelectorImpl.java:86)",
+        "\t- locked <LOCK> (a sun.nio.ch.Util$3)",
+        "\tat com.example.Worker.run(Worker.java:42)"
+    };
+    private static final String[] PARKED = new String[]{
+        "\tat java.lang.Object.wait(Native Method)",
+        "\t- waiting on <LOCK> (a java.lang.ref.ReferenceQueue$Lock)",
+        "\tat java.lang.ref.ReferenceQueue.remove(ReferenceQueue.java:143)",
+        "\t- locked <LOCK> (a java.lang.ref.ReferenceQueue$Lock)",
+        "\tat com.example.Worker.run(Worker.java:17)"
+    };
+    private static final String[] SLEEPING = new String[]{
+        "\tat java.lang.Thread.sleep(Native Method)",
+        "\tat com.example.Filler.run(Filler.java:9)"
+    };
+
+    private int lock = 0;
+    private void thread(StringBuilder sb,String name,String state,String[] frames){
+        sb.append("\"").append(name).append("\" #12 prio=5 os_prio=0 tid=0x00007f9b4c0b4800 nid=0x4d16 waiting on condition [0x0000000000000000]\n");
+        sb.append("   java.lang.Thread.State: ").append(state).append("\n");
+        for(String frame : frames){
+            sb.append(frame.replace("LOCK",String.format("0x%016x",++lock))).append("\n"); // a new lock address in each dump
+        }
+        sb.append("\n");
+    }
+    private static void vmThread(StringBuilder sb){
+        sb.append("\"VM Thread\" os_prio=0 tid=0x00007f9b4c023000 nid=0x4d0c runnable \n\n");
+    }
+    private String write(String name,StringBuilder sb) throws IOException {
+        File file = folder.newFile(name);
+        try (FileWriter writer = new FileWriter(file)){
+            writer.write(sb.toString());
+        }
+        return file.getPath();
+    }
+
+    @Test
+    public void corpus() throws IOException {
+        StringBuilder big = new StringBuilder();
+        thread(big,"worker-1","RUNNABLE",RUNNING);
+        for(int i=0; i<2000; i++){
+            thread(big,"filler-"+i,"TIMED_WAITING (sleeping)",SLEEPING);
+        }
+        vmThread(big);
+        StringBuilder second = new StringBuilder();
+        thread(second,"worker-1","RUNNABLE",RUNNING);
+        thread(second,"worker-2","WAITING (on object monitor)",PARKED);
+        vmThread(second);
+        StringBuilder third = new StringBuilder();
+        thread(third,"worker-1","WAITING (on object monitor)",PARKED);
+        thread(third,"worker-2","WAITING (on object monitor)",PARKED);
+        vmThread(third);
+        // the first dump takes the longest to parse so the others finish first
+        List<String> paths = Arrays.asList(write("a.jstack",big),write("b.jstack",second),write("c.jstack",third));
+
+        JStackCorpus corpus = new JStackCorpus();
+        corpus.setThreads(3);
+        corpus.addAll(paths);
+        corpus.analyze();
+
+        assertEquals("merged in the order the dumps were added",paths,corpus.getDumps());
+        assertEquals("running, parked, sleeping and the empty VM thread stack",4,corpus.getStackCount());
+
+        assertArrayEquals(new int[]{1,1,0},corpus.getStateTimeline("RUNNABLE"));
+        assertArrayEquals(new int[]{0,1,2},corpus.getStateTimeline("WAITING"));
+        assertArrayEquals(new int[]{2000,0,0},corpus.getStateTimeline("TIMED_WAITING"));
+        assertArrayEquals(new int[]{1,1,1},corpus.getStateTimeline(JStackCorpus.UNKNOWN_STATE));
+        assertArrayEquals(new int[]{0,0,0},corpus.getStateTimeline("BLOCKED"));
+
+        assertArrayEquals(new String[]{"RUNNABLE","RUNNABLE","WAITING"},corpus.getThreadTimeline("worker-1"));
+        assertArrayEquals(new String[]{null,"WAITING","WAITING"},corpus.getThreadTimeline("worker-2"));
+        assertArrayEquals(new String[]{"TIMED_WAITING",null,null},corpus.getThreadTimeline("filler-7"));
+        String unknown = JStackCorpus.UNKNOWN_STATE;
+        assertArrayEquals(new String[]{unknown,unknown,unknown},corpus.getThreadTimeline("VM Thread"));
+
+        //the lock addresses change in every dump but the stack id does not
+        List<JStackCorpus.StackCount> running = corpus.getHottestStacks("RUNNABLE",10);
+        assertEquals(1,running.size());
+        assertEquals(2,running.get(0).getCount());
+        assertEquals(3,running.get(0).getFrames().size());
+        assertEquals("sun.nio.ch.EPollArrayWrapper.epollWait(Native Method)",running.get(0).getFrames().get(0));
+        List<JStackCorpus.StackCount> waiting = corpus.getHottestStacks("WAITING",10);
+        assertEquals(1,waiting.size());
+        assertEquals(3,waiting.get(0).getCount());
+        assertEquals(3,waiting.get(0).getFrames().size());
+        assertEquals(corpus.getStack(waiting.get(0).getStackId()),waiting.get(0).getFrames());
+
+        List<JStackCorpus.StackCount> vm = corpus.getHottestStacks(unknown,10);
+        assertEquals(1,vm.size());
+        assertEquals(3,vm.get(0).getCount());
+        assertEquals(Collections.emptyList(),vm.get(0).getFrames());
+
+        List<JStackCorpus.StackCount> hottest = corpus.getHottestStacks(2);
+        assertEquals(2,hottest.size());
+        assertEquals(2000,hottest.get(0).getCount());
+        assertEquals(3,hottest.get(1).getCount()); // parked and VM tie, the lower stack id first
+        assertEquals(Collections.emptyList(),corpus.getHottestStacks("BLOCKED",10));
+    }
+}
@@ -0,0 +1,69 @@
+package perf.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import perf.parse.Exp;
+import perf.parse.Parser;
+import perf.parse.internal.CheatChars;
+import perf.parse.internal.JsonBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exp.apply for one pattern of each factory over the synthetic body lines, one line per operation.
+ * Run with -prof gc for the bytes allocated per line (gc.alloc.rate.norm).
+ * compiled=true uses the bytecode from Exp.compile / Parser.compile instead of the interpreter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpBenchmark {
+
+    private static final int LINES = 1024;
+
+    @Param({"Gc","JStack","Dstat","JmapHisto","ServerLog"})
+    public SyntheticLog type;
+
+    @Param({"false","true"})
+    public boolean compiled;
+
+    private Exp exp;
+    private Parser parser;
+    private JsonBuilder builder;
+    private CheatChars line;
+    private String[] lines;
+    private int index;
+
+    @Setup
+    public void setup(){
+        exp = type.newExp();
+        if(compiled){
+            exp.compile();
+        }
+        parser = new Parser();
+        builder = new JsonBuilder();
+        line = new CheatChars();
+        lines = type.lines(LINES);
+        index = 0;
+    }
+
+    @Benchmark
+    public boolean apply(){
+        builder.reset();
+        boolean rtrn = exp.apply(line.reset(lines[index]),builder,parser);
+        index = (index+1) % LINES;
+        return rtrn;
+    }
+}
@@ -0,0 +1,86 @@
+package perf.jmh;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import perf.parse.Parser;
+import perf.parse.internal.CheatChars;
+import perf.parse.internal.JsonBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per record overhead of JsonBuilder: record is one JStack thread (8 lines) through the JStackFactory thread
+ * parser per operation and contexts is the push / pop / close / take of one record without any matching.
+ * Run with -prof gc for the bytes allocated per record (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBuilderBenchmark {
+
+    private static final int RECORD_LINES = 8;
+    private static final int RECORDS = 512;
+
+    private Parser parser;
+    private CheatChars line;
+    private String[] lines;
+    private int index;
+
+    private JsonBuilder builder;
+    private JSONObject[] groups;
+
+    @Setup
+    public void setup(){
+        parser = SyntheticLog.JStack.newParser();
+        line = new CheatChars();
+        lines = SyntheticLog.JStack.lines(RECORDS*RECORD_LINES);
+        index = 0;
+
+        builder = new JsonBuilder();
+        groups = new JSONObject[]{new JSONObject(),new JSONObject(),new JSONObject(),new JSONObject()};
+    }
+
+    @Benchmark
+    public JSONObject record(){
+        JSONObject rtrn = null;
+        for(int i=0; i<RECORD_LINES; i++){
+            JSONObject emitted = parser.onLine(line.reset(lines[index++]));
+            if(emitted != null){
+                rtrn = emitted;
+            }
+        }
+        if(index == lines.length){
+            index = 0;
+        }
+        return rtrn;
+    }
+
+    @Benchmark
+    public JSONObject contexts(){
+        for(int i=0; i<RECORD_LINES; i++){
+            for(JSONObject group : groups){
+                builder.setCurrentContext(group);
+            }
+            builder.getCurrentContext();
+            for(int g=0; g<groups.length; g++){
+                builder.popContext();
+            }
+        }
+        builder.setCurrentContext(groups[0]);
+        builder.getRoot().put("record",index++);
+        builder.close();
+        return builder.takeClosedRoot();
+    }
+}
@@ -0,0 +1,66 @@
+package perf.jmh;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import perf.parse.Parser;
+import perf.parse.internal.CheatChars;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parser.onLine for each factory Parser over the synthetic body lines, one line per operation so the score is lines/sec.
+ * Run with -prof gc for the bytes allocated per line (gc.alloc.rate.norm).
+ * compiled=true uses the bytecode from Exp.compile / Parser.compile instead of the interpreter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    private static final int LINES = 4096;
+
+    @Param({"Gc","JStack","Dstat","JmapHisto","ServerLog"})
+    public SyntheticLog type;
+
+    @Param({"false","true"})
+    public boolean compiled;
+
+    private Parser parser;
+    private CheatChars line;
+    private String[] lines;
+    private int index;
+
+    @Setup
+    public void setup(){
+        parser = type.newParser();
+        if(compiled){
+            parser.compile();
+        }
+        for(String preamble : type.preamble()){
+            parser.onLine(preamble);
+        }
+        line = new CheatChars();
+        lines = type.lines(LINES);
+        index = 0;
+    }
+
+    @Benchmark
+    public JSONObject onLine(){
+        JSONObject rtrn = parser.onLine(line.reset(lines[index]));
+        index = (index+1) % LINES;
+        return rtrn;
+    }
+}
@@ -0,0 +1,89 @@
+package perf.jmh;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import perf.parse.Parser;
+import perf.parse.reader.MappedTextLineReader;
+import perf.parse.reader.TextLineReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a whole synthetic log file with each TextLineReader implementation.
+ * The file is written to java.io.tmpdir once per size and re-used, use -p sizeMB=4096 to compare the readers on a multi-GB file.
+ * The score is files/sec and the lines and bytes counters are lines/sec and bytes/sec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReaderBenchmark {
+
+    public enum Reader {
+        Text {
+            @Override TextLineReader newReader(){return new TextLineReader();}
+        },
+        Mapped {
+            @Override TextLineReader newReader(){return new MappedTextLineReader();}
+        };
+        abstract TextLineReader newReader();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long lines;
+        public long bytes;
+        @Setup(Level.Iteration)
+        public void clear(){
+            lines = 0;
+            bytes = 0;
+        }
+    }
+
+    @Param({"Gc","JStack","Dstat","JmapHisto","ServerLog"})
+    public SyntheticLog type;
+
+    @Param({"Text","Mapped"})
+    public Reader reader;
+
+    @Param({"64"})
+    public int sizeMB;
+
+    private File file;
+    private long lineCount;
+
+    @Setup(Level.Trial)
+    public void writeLog() throws IOException {
+        file = new File(System.getProperty("java.io.tmpdir"),"perf-jmh-"+type+"-"+sizeMB+"MB.log");
+        lineCount = type.write(file,sizeMB*1024L*1024L);
+    }
+
+    @Benchmark
+    public long read(Counters counters){
+        long[] records = new long[1];
+        Parser parser = type.newParser();
+        parser.add(json->records[0]++);
+        TextLineReader textLineReader = reader.newReader();
+        textLineReader.addParser(parser);
+        textLineReader.read(file.getPath());
+        counters.lines += lineCount;
+        counters.bytes += file.length();
+        return records[0];
+    }
+}
@@ -0,0 +1,70 @@
+package perf.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import perf.parse.JsonEventSink;
+import perf.parse.Parser;
+import perf.parse.internal.CheatChars;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parser.onLine with a JsonEventSink for the factory Parsers that can stream, one line per operation so the score is
+ * lines/sec. Compare with ParserBenchmark compiled=false (the JSONObject records) and run with -prof gc for the bytes
+ * allocated per line (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamingBenchmark {
+
+    private static final int LINES = 4096;
+
+    @Param({"Gc","JStack","JmapHisto","ServerLog"})
+    public SyntheticLog type;
+
+    private Parser parser;
+    private CheatChars line;
+    private String[] lines;
+    private int index;
+
+    @Setup
+    public void setup(Blackhole blackhole){
+        parser = type.newParser();
+        parser.add(new JsonEventSink(){
+            @Override public void startObject(String name){blackhole.consume(name);}
+            @Override public void field(String name,String value){blackhole.consume(value);}
+            @Override public void field(String name,double value){blackhole.consume(value);}
+            @Override public void field(String name,long value){blackhole.consume(value);}
+            @Override public void field(String name,boolean value){blackhole.consume(value);}
+            @Override public void endObject(){}
+            @Override public void startArray(String name){blackhole.consume(name);}
+            @Override public void endArray(){}
+        });
+        for(String preamble : type.preamble()){
+            parser.onLine(preamble);
+        }
+        line = new CheatChars();
+        lines = type.lines(LINES);
+        index = 0;
+    }
+
+    @Benchmark
+    public void onLine(){
+        parser.onLine(line.reset(lines[index]));
+        index = (index+1) % LINES;
+    }
+}
@@ -0,0 +1,167 @@
+package perf.jmh;
+
+import perf.parse.Exp;
+import perf.parse.Parser;
+import perf.parse.factory.DstatFactory;
+import perf.parse.factory.JStackFactory;
+import perf.parse.factory.JmapHistoFactory;
+import perf.parse.factory.OpenJdkGcFactory;
+import perf.parse.factory.ServerLogFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Generates lines in the format of each parse factory so the benchmarks do not depend on captured logs.
+ * The preamble is the lines the Parser needs before the repeating body (e.g. the dstat headers).
+ */
+public enum SyntheticLog {
+
+    Gc {
+        @Override public Parser newParser(){ return new OpenJdkGcFactory().newGcParser(); }
+        @Override public Exp newExp(){ return new OpenJdkGcFactory().newRegionPattern(); }
+        @Override public String line(int i){
+            int young = 10000+(i%5000);
+            return String.format("2015-03-24T13:%02d:%02d.%03d-0400: %d.%03d: [GC (Allocation Failure) [PSYoungGen: %dK->%dK(8388608K)] %dK->%dK(10485760K), 0.0%06d secs] [Times: user=0.46 sys=0.03, real=0.04 secs] ",
+                (i/60000)%60,(i/1000)%60,i%1000,i/1000,i%1000,young,young/10,young+20000,20000+young/10,i%1000000);
+        }
+    },
+    JStack {
+        private final String[] frames = new String[]{
+            "\tat sun.nio.ch.EPollArrayWrapper.epollWait(Native Method)",
+            "\tat sun.nio.ch.SelectorImpl.lockAndDoSelect(SelectorImpl.java:86)",
+            "\t- locked <0x00000000d440b740> (a io.netty.channel.nio.SelectedSelectionKeySet)",
+            "\tat sun.nio.ch.SelectorImpl.select(SelectorImpl.java:97)",
+            "\tat java.lang.Thread.run(Thread.java:745)",
+        };
+        @Override public Parser newParser(){ return new JStackFactory().newThreadParser(); }
+        @Override public Exp newExp(){ return new JStackFactory().newTidPattern(); }
+        @Override public String line(int i){
+            int thread = i/8;
+            switch(i%8){
+                case 0: return String.format("\"worker-%d\" #%d daemon prio=5 os_prio=0 tid=0x00007f9b4c%06x nid=0x%x runnable [0x00007fe42eef5000]",thread,thread,thread%0xffffff,thread);
+                case 1: return "   java.lang.Thread.State: RUNNABLE";
+                case 7: return "";
+                default: return frames[i%8-2];
+            }
+        }
+    },
+    Dstat {
+        @Override public Parser newParser(){
+            DstatFactory f = new DstatFactory();
+            Parser p = new Parser();
+            p.add(f.defaultMessageExp());
+            p.add(f.headerGroupExp());
+            p.add(f.columnGroupExp());
+            return p;
+        }
+        /**
+         * @return the Exp the DstatFactory creates for the preamble column headers
+         */
+        @Override public Exp newExp(){
+            Exp[] entry = new Exp[1];
+            DstatFactory f = new DstatFactory();
+            Parser p = new Parser(){
+                @Override public void addAhead(Exp pattern){
+                    entry[0] = pattern;
+                    super.addAhead(pattern);
+                }
+            };
+            p.add(f.headerGroupExp());
+            p.add(f.columnGroupExp());
+            for(String line : preamble()){
+                p.onLine(line);
+            }
+            return entry[0];
+        }
+        @Override public List<String> preamble(){
+            return Arrays.asList(
+                "----total-cpu-usage---- -dsk/total- -net/total- ---paging-- ---system--",
+                "usr sys idl wai hiq siq| read  writ| recv  send|  in   out | int   csw "
+            );
+        }
+        @Override public String line(int i){
+            return String.format(" %2d   1  %2d   0   0   0|   0    %2dk| %3dB %4dB|   0     0 |%4d  %4d ",
+                i%10,89-(i%10),i%100,i%1000,i%10000,1000+i%1000,1800+i%100);
+        }
+    },
+    JmapHisto {
+        @Override public Parser newParser(){ return new JmapHistoFactory().newParser(); }
+        @Override public Exp newExp(){ return new JmapHistoFactory().classEntryPattern(); }
+        @Override public List<String> preamble(){
+            return Arrays.asList(
+                "",
+                " num     #instances         #bytes  class name",
+                "----------------------------------------------"
+            );
+        }
+        @Override public String line(int i){
+            return String.format("%4d:  %12d  %14d  java.util.concurrent.ConcurrentHashMap$Node%d",i%10000+1,100000-(i%100000),(100000-(i%100000))*32L,i%500);
+        }
+    },
+    ServerLog {
+        @Override public Parser newParser(){ return new ServerLogFactory().newLogEntryParser(); }
+        @Override public Exp newExp(){ return new ServerLogFactory().newStartEntryExp(); }
+        @Override public String line(int i){
+            int entry = i/3;
+            switch(i%3){
+                case 0: return String.format("2013-10-24 09:21:%02d,%03d WARN  [org.jboss.jca.core.connectionmanager.pool.strategy.OnePool] (JCA PoolFiller) IJ000610: Unable to fill pool %d",entry%60,entry%1000,entry);
+                case 1: return String.format("\tat org.jboss.jca.core.connectionmanager.pool.mcp.SemaphoreArrayListManagedConnectionPool.fillToMin(SemaphoreArrayListManagedConnectionPool.java:%d)",entry%1000);
+                default: return "\tat java.lang.Thread.run(Thread.java:745)";
+            }
+        }
+    };
+
+    public abstract Parser newParser();
+
+    /**
+     * @return a single Exp that matches some of the body lines
+     */
+    public abstract Exp newExp();
+
+    public List<String> preamble(){return Collections.emptyList();}
+
+    /**
+     * @param i the index of the line in the body
+     * @return the line without a line terminator
+     */
+    public abstract String line(int i);
+
+    public String[] lines(int count){
+        String[] rtrn = new String[count];
+        for(int i=0; i<count; i++){
+            rtrn[i] = line(i);
+        }
+        return rtrn;
+    }
+
+    /**
+     * Write the preamble then body lines until the file is at least bytes long
+     * @return the number of lines written
+     */
+    public long write(File file,long bytes) throws IOException {
+        long lines = 0;
+        long written = 0;
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))){
+            for(String line : preamble()){
+                writer.write(line);
+                writer.newLine();
+                written+=line.length()+1;
+                lines++;
+            }
+            for(int i=0; written < bytes; i++){
+                String line = line(i);
+                writer.write(line);
+                writer.newLine();
+                written+=line.length()+1;
+                lines++;
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,70 @@
+package perf.parse;
+
+import org.json.JSONObject;
+import perf.parse.internal.CheatChars;
+import perf.parse.internal.IMatcher;
+import perf.parse.internal.JsonBuilder;
+
+/**
+ * The superclass of the classes ExpCompiler generates for a perf.parse.Exp.
+ * The generated apply does the matching, rules, eat, values and children of the perf.parse.Exp without checking the
+ * definition and calls back to the perf.parse.Exp for the grouping, Parser state and MatchActions.
+ * The generated classes are in their own ClassLoader so everything they use here is public or protected.
+ */
+public abstract class CompiledExp {
+
+    /**
+     * A child that is not compiled
+     */
+    static final class Interpreted extends CompiledExp {
+        Interpreted(Exp exp){
+            super(exp,exp.matcher,new CompiledExp[0]);
+        }
+        @Override
+        public boolean apply(CheatChars line,JsonBuilder builder,Parser parser,int start){
+            return exp.applyWithStart(line,builder,parser,start);
+        }
+    }
+
+    protected final Exp exp;
+    protected final IMatcher matcher;
+    protected final CompiledExp[] children; // called directly by the parent so they check isCurrent
+
+    protected CompiledExp(Exp exp,IMatcher matcher,CompiledExp[] children){
+        this.exp = exp;
+        this.matcher = matcher;
+        this.children = children;
+    }
+
+    /**
+     * Same as the interpreter in perf.parse.Exp
+     * @return true if the perf.parse.Exp matched the line
+     */
+    public abstract boolean apply(CheatChars line,JsonBuilder builder,Parser parser,int start);
+
+    /**
+     * @return false if the perf.parse.Exp changed or is instrumented since this was generated
+     */
+    protected final boolean isCurrent(){
+        return exp.isCurrent(this);
+    }
+    protected final boolean interpret(CheatChars line,JsonBuilder builder,Parser parser,int start){
+        return exp.interpret(line,builder,parser,start);
+    }
+    protected final boolean satisfiesRequired(Parser parser){
+        return exp.satisfiesRequired(parser);
+    }
+    protected final JSONObject grouped(JSONObject target,CheatChars line){
+        return exp.grouped(target,line);
+    }
+
+    /**
+     * Notify the MatchActions with the target of the last match then update the Parser states
+     */
+    protected final void matched(JSONObject target,Parser parser){
+        for(MatchAction action : exp.actions){
+            action.onMatch(target,exp,parser);
+        }
+        exp.updateStates(parser);
+    }
+}
@@ -3,16 +3,18 @@ package perf.parse;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import perf.parse.internal.CheatChars;
+import perf.parse.internal.EventBuilder;
 import perf.parse.internal.IMatcher;
 import perf.parse.internal.JsonBuilder;
-import perf.parse.internal.RegexMatcher;
+import perf.parse.internal.PatternCache;
 
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Created by wreicher
@@ -21,14 +23,47 @@ public class Exp {
 
     public static final String CHILD_KEY = "_children";
 
-    private final Matcher fieldMatcher = java.util.regex.Pattern.compile("\\(\\?<([^>]+)>").matcher("");
+    private static final Pattern KMG_PATTERN = Pattern.compile("(?<number>\\d+\\.?\\d*)(?<kmg>[kmgtpezyKMGTPEZY]*)(?<bB>[bB]*)");
 
     //Execute Rule
     private LinkedList<MatchAction> callbacks;
 
-    private IMatcher matcher;
+    private String pattern;
+    private String requiredLiteral;
+    IMatcher matcher;
     private LinkedHashMap<String,String> fieldValues; //Map<Name,Value|name of value for KeyValue pair>
 
+    /**
+     * fieldValues resolved against the matcher so populate does not look up the Value or group by name
+     */
+    static class Field {
+        final String name;
+        final Value value;
+        final int group; // -1 if the pattern does not have the group
+        final String key; // name of the value group for Value.Key
+        final int keyGroup;
+        Field(String name,Value value,int group,String key,int keyGroup){
+            this.name = name;
+            this.value = value;
+            this.group = group;
+            this.key = key;
+            this.keyGroup = keyGroup;
+        }
+    }
+    Field[] fields;
+
+    /**
+     * Instrumentation counters, only updated by the thread using the Parser
+     */
+    static class Counters {
+        long attempts;
+        long matches;
+        long filtered;
+        long nanos;
+        long consumed;
+    }
+    private Counters counters; // null unless the Parser is instrumented
+
     private LinkedHashSet<Rule> rules;
     private LinkedHashSet<String> enables;
     private LinkedHashSet<String> disables;
@@ -38,18 +73,39 @@ public class Exp {
 
     private LinkedHashMap<String,GroupType> grouping;
 
-    private int eat=Eat.None.getId();
+    int eat=Eat.None.getId();
 
-    private Merge merge = Merge.Collection;
+    Merge merge = Merge.Collection;
 
     private String name;
 
     private LinkedList<Exp> children;
 
+    //the definition compiled into flags and arrays as it is set, like fields, so applying does not search the collections
+    //package private for ExpCompiler
+    boolean lineStart = false;
+    boolean repeat = false;
+    boolean avoidContext = false;
+    boolean pushContext = false;
+    boolean popContext = false;
+    boolean clearContext = false;
+    Eat eatType = Eat.None;
+    String[] groupNames = new String[0];
+    private GroupType[] groupTypes = new GroupType[0];
+    private int[] groupIndexes = new int[0]; // matcher group for GroupType.Key, -1 otherwise
+    private Exp[] childArray = new Exp[0];
+    MatchAction[] actions = new MatchAction[0];
+    String[] enabledStates = new String[0];
+    String[] disabledStates = new String[0];
+    String[] requiredStates = new String[0];
+
+    private CompiledExp compiled; // null unless compile() generated bytecode for the current definition
+
     private boolean debug=false;
 
     public Exp debug(){
         debug=true;
+        compiled = null;
         return this;
     }
     public boolean isDebug(){return debug;}
@@ -59,13 +115,26 @@ public class Exp {
 
     public String matcherClass(){return matcher.getClass().toString();}
 
+    private static volatile boolean stringMatching = true;
+
+    /**
+     * Use a StringMatcher instead of java.util.regex for the patterns it supports (default is true).
+     * Only changes perf.parse.Exp created after the call.
+     * @param enabled
+     */
+    public static void setStringMatching(boolean enabled){stringMatching = enabled;}
+    public static boolean isStringMatching(){return stringMatching;}
 
     public Exp(String name, String pattern){
         this.name = name;
 
-        this.matcher = /* StringMatcher.canMatch(pattern) ? new StringMatcher(pattern) :*/ new RegexMatcher(pattern);
+        this.pattern = pattern;
+        PatternCache.Compiled compiled = PatternCache.get(pattern);
+        this.requiredLiteral = compiled.getRequiredLiteral();
+        this.matcher = compiled.newMatcher(stringMatching);
 
-        this.fieldValues = parsePattern(pattern);
+        this.fieldValues = parsePattern(compiled);
+        compileFields();
 
         this.callbacks = new LinkedList<>();
 
@@ -105,6 +174,12 @@ public class Exp {
         return rtrn;
     }
     public String getName(){return this.name;}
+    public String getPattern(){return this.pattern;}
+
+    /**
+     * @return a literal that must be in the input for the pattern to match or null if one is not known
+     */
+    public String getRequiredLiteral(){return this.requiredLiteral;}
 
     public Exp forEachField(Consumer<String> fieldVisitor){
         for(String value : fieldValues.keySet()){
@@ -114,7 +189,7 @@ public class Exp {
     }
 
     public static long parseKMG(String kmg){
-        Matcher m = java.util.regex.Pattern.compile("(?<number>\\d+\\.?\\d*)(?<kmg>[kmgtpezyKMGTPEZY]*)(?<bB>[bB]*)").matcher(kmg);
+        Matcher m = KMG_PATTERN.matcher(kmg);
         if(m.matches()){
 
             double mult = 1;
@@ -139,16 +214,14 @@ public class Exp {
     }
 
     /**
-     * parses a java.util.Regex pattern to identify the group names and associated them with a default perf.parse.Value.List
-     * @param pattern - the java.util.Regex pattern
+     * associates the group names of a java.util.Regex pattern with a default perf.parse.Value.List
+     * @param compiled - the cached java.util.Regex pattern
      * @return - a LinkedHashMap<MatchGroupName,perf.parse.Value.List.getId()>
      */
-    private LinkedHashMap<String,String> parsePattern(String pattern){
+    private LinkedHashMap<String,String> parsePattern(PatternCache.Compiled compiled){
         LinkedHashMap<String,String> rtrn = new LinkedHashMap<>();
-
-        fieldMatcher.reset(pattern);
-        while(fieldMatcher.find()){
-            rtrn.put(fieldMatcher.group(1),Value.List.getId());
+        for(String groupName : compiled.getGroupNames()){
+            rtrn.put(groupName,Value.List.getId());
         }
         return rtrn;
     }
@@ -157,30 +230,58 @@ public class Exp {
 
     public Exp group(String name){
         grouping.put(name,GroupType.Name);
+        compileGrouping();
         return this;
     }
     public Exp key(String name){
         grouping.put(name,GroupType.Key);
+        compileGrouping();
         return this;
     }
     public Exp extend(String name){
         grouping.put(name,GroupType.Extend);
+        compileGrouping();
         return this;
     }
+    private void compileGrouping(){
+        int size = grouping.size();
+        String[] names = new String[size];
+        GroupType[] types = new GroupType[size];
+        int[] indexes = new int[size];
+        int index = 0;
+        for(String groupName : grouping.keySet()){
+            names[index] = groupName;
+            types[index] = grouping.get(groupName);
+            indexes[index] = types[index] == GroupType.Key ? matcher.groupIndex(groupName) : -1;
+            index++;
+        }
+        groupTypes = types;
+        groupIndexes = indexes;
+        groupNames = names;
+        compiled = null;
+    }
     public Exp eat(int width){
         eat = width;
+        eatType = Eat.from(eat);
+        compiled = null;
         return this;
     }
     public Exp eat(Eat toEat){
         eat = toEat.getId();
+        eatType = toEat;
+        compiled = null;
         return this;
     }
     public Exp execute(MatchAction action){
         callbacks.add(action);
+        actions = callbacks.toArray(new MatchAction[callbacks.size()]);
+        compiled = null;
         return this;
     }
     public Exp add(Exp child){
         children.add(child);
+        childArray = children.toArray(new Exp[children.size()]);
+        compiled = null;
         return this;
     }
     public boolean hasChildren(){return !children.isEmpty();}
@@ -190,6 +291,7 @@ public class Exp {
             throw new IllegalArgumentException("set(String name,Value value) cannot be used for Value.Key, use set(String name,String valueKey)");
         }
         fieldValues.put(name,value.getId());
+        compileFields();
         return this;
     }
     public Exp set(String name,String valueKey){
@@ -197,8 +299,24 @@ public class Exp {
             fieldValues.remove(valueKey);
         }
         fieldValues.put(name,valueKey);
+        compileFields();
         return this;
     }
+    private void compileFields(){
+        Field[] compiled = new Field[fieldValues.size()];
+        int index = 0;
+        for(String fieldName : fieldValues.keySet()){
+            String vString = fieldValues.get(fieldName);
+            Value v = Value.from(vString);
+            int keyGroup = v == Value.Key ? matcher.groupIndex(vString) : -1;
+            compiled[index++] = new Field(fieldName,v,matcher.groupIndex(fieldName),vString,keyGroup);
+        }
+        fields = compiled;
+        this.compiled = null;
+    }
+    private static String group(IMatcher m,String name,int index){
+        return index < 0 ? m.group(name) : m.group(index); // group(name) reports the missing group
+    }
 
     /**
      * Add a Rule for action to take when the perf.parse.Exp matches the input
@@ -207,6 +325,13 @@ public class Exp {
      */
     public Exp set(Rule rule){
         rules.add(rule);
+        lineStart = rules.contains(Rule.LineStart);
+        repeat = rules.contains(Rule.Repeat);
+        avoidContext = rules.contains(Rule.AvoidContext);
+        pushContext = rules.contains(Rule.PushContext);
+        popContext = rules.contains(Rule.PopContext);
+        clearContext = rules.contains(Rule.ClearContext);
+        compiled = null;
         return this;
     }
 
@@ -217,6 +342,7 @@ public class Exp {
      */
     public Exp set(Merge merge){
         this.merge = merge;
+        compiled = null;
         return this;
     }
 
@@ -238,12 +364,12 @@ public class Exp {
         boolean changedContext = false;
         JSONObject targetContext = builder.getCurrentContext();
 
-        for(String fieldName : fieldValues.keySet()){
-            String vString = fieldValues.get(fieldName);
-            Value v = Value.from(vString);
-            String fieldValue = m.group(fieldName);
+        for(int f=0; f<fields.length; f++){
+            Field field = fields[f];
+            String fieldName = field.name;
+            String fieldValue = group(m,fieldName,field.group);
 
-            switch(v){
+            switch(field.value){
                 case NestLength:
                     int length = fieldValue.length();
                     if( targetContext.has(fieldName) ) { // child
@@ -292,7 +418,7 @@ public class Exp {
                     targetContext.put(fieldName,targetContext.optDouble(fieldName,0)+sum);
                     break;
                 case Key:
-                    String keyValue = m.group(vString);
+                    String keyValue = group(m,field.key,field.keyGroup);
                     if(!keyValue.isEmpty()){
                         targetContext.put(fieldValue,keyValue);
                     }
@@ -317,6 +443,75 @@ public class Exp {
         }
         return changedContext;
     }
+    /**
+     * matcher.find() that updates the counters when instrumented
+     */
+    private boolean find(){
+        Counters c = counters;
+        if(c == null){
+            return matcher.find();
+        }
+        long start = System.nanoTime();
+        boolean rtrn = matcher.find();
+        c.nanos += System.nanoTime()-start;
+        return rtrn;
+    }
+    private void drop(CheatChars line,int start,int end){
+        int length = line.length();
+        line.drop(start,end);
+        if(counters != null){
+            counters.consumed += length-line.length();
+        }
+    }
+    private void countAttempt(boolean matched){
+        if(counters != null){
+            counters.attempts++;
+            if(matched){
+                counters.matches++;
+            }
+        }
+    }
+
+    /**
+     * Start or stop counting attempts, matches, time in find() and consumed characters for this and the children
+     */
+    void setInstrumented(boolean instrumented){
+        if(instrumented != (counters != null)){
+            counters = instrumented ? new Counters() : null;
+        }
+        for(Exp child : children){
+            child.setInstrumented(instrumented);
+        }
+    }
+    /**
+     * Count a line the Parser did not pass to this perf.parse.Exp because it did not have the required literal
+     */
+    void countFiltered(){
+        if(counters != null){
+            counters.filtered++;
+        }
+    }
+    void resetStats(){
+        if(counters != null){
+            counters = new Counters();
+        }
+        for(Exp child : children){
+            child.resetStats();
+        }
+    }
+    /**
+     * Add a snapshot of the counters for this and the children (depth first) to stats
+     */
+    void appendStats(List<ExpStats> stats,int depth){
+        Counters c = counters;
+        if(c != null){
+            stats.add(new ExpStats(name,pattern,depth,c.attempts,c.matches,c.filtered,c.nanos,c.consumed));
+        }
+        for(Exp child : children){
+            child.appendStats(stats,depth+1);
+        }
+    }
+
     public boolean test(CharSequence input){
         matcher.reset(input);
         return matcher.find();
@@ -328,30 +523,44 @@ public class Exp {
 
     public Exp enables(String state){
         this.enables.add(state);
+        enabledStates = enables.toArray(new String[enables.size()]);
+        compiled = null;
         return this;
     }
     public Exp disables(String state){
         this.disables.add(state);
+        disabledStates = disables.toArray(new String[disables.size()]);
+        compiled = null;
         return this;
     }
     public Exp requires(String state){
         this.requires.add(state);
+        requiredStates = requires.toArray(new String[requires.size()]);
+        compiled = null;
         return this;
     }
 
-    private boolean applyWithStart(CheatChars line,JsonBuilder builder,Parser parser,int start){
+    boolean applyWithStart(CheatChars line,JsonBuilder builder,Parser parser,int start){
+        CompiledExp generated = compiled;
+        if(generated != null){
+            return generated.apply(line,builder,parser,start);
+        }
+        return interpret(line,builder,parser,start);
+    }
+    /**
+     * @return true if generated is the bytecode for the current definition and the counters are off (the generated
+     * code does not update them)
+     */
+    boolean isCurrent(CompiledExp generated){
+        return compiled == generated && counters == null;
+    }
+    boolean interpret(CheatChars line,JsonBuilder builder,Parser parser,int start){
 
         //TODO enable disable Exp with a boolean state? allows state dependent parsers similar to child parsers but for other lines
         //Parser would maintain the "state" of what is enabled / disabled and the expression would check if it is enabled
 
-        if(!this.requires.isEmpty()){
-            boolean satisfyRequired = true;
-            for(String required : requires){
-                satisfyRequired = satisfyRequired & parser.getState(required);
-            }
-            if( !satisfyRequired ){
-                return false;
-            }
+        if( !satisfiesRequired(parser) ){
+            return false;
         }
 
         if(isDebug()){
@@ -360,13 +569,15 @@ public class Exp {
         }
         boolean rtrn = false;
         matcher.reset(line);
-        int startPoint = is(Rule.LineStart) ? 0 : start;
+        int startPoint = lineStart ? 0 : start;
         if(isDebug()){
             System.out.printf("%10s startPoint=%d\n",this.getName(),startPoint);
         }
         matcher.region( startPoint,line.length() );
 
-        if(matcher.find()){
+        boolean found = find();
+        countAttempt(found);
+        if(found){
             if(isDebug()){
                 System.out.printf("%10s found match\n",this.getName());
             }
@@ -375,7 +586,7 @@ public class Exp {
             if ( is(Merge.NewStart) ) {
                 if(isDebug()){System.out.printf("%10s NewStart\n",this.getName());}
                 builder.close();
-            }else if( is(Rule.AvoidContext) ) {
+            }else if( avoidContext ) {
                 if(isDebug()){System.out.printf("%10s AvoidContext\n",this.getName());}
                 builder.popContext();
             }
@@ -385,94 +596,7 @@ public class Exp {
 
             do {
                 target = context;
-                JSONObject grouped = target;
-
-                for(Iterator<String> groupIter = grouping.keySet().iterator(); groupIter.hasNext();){
-                    String groupName = groupIter.next();
-                    GroupType groupType = grouping.get(groupName);
-                    boolean extend = false;
-                    if(isDebug()){
-                        System.out.printf("%10s grouping %s = %s\n",this.getName(),groupType,groupName);
-                    }
-                    if( GroupType.Key.equals(groupType) ){
-                        groupName = matcher.group( groupName );
-                        if( groupName.isEmpty() ) {
-                            throw new IllegalArgumentException("Cannot group with "+groupName+", match not found in line="+line);
-                        }
-                    }
-                    if( GroupType.Extend.equals(groupType) ) {
-                        extend=true;
-                    }
-                    if ( !groupIter.hasNext() ) {
-                        if ( is(Merge.Entry) ) {
-                            if( grouped.has(groupName) ) {
-                                if(isDebug()){
-                                    System.out.printf("%10s already has %s\n",this.getName(),groupName);
-                                }
-                                JSONObject entry = new JSONObject();
-                                grouped.append(groupName,entry);
-                                grouped = entry;
-                            } else {
-                                if(isDebug()){
-                                    System.out.printf("%10s does not have %s\n",this.getName(),groupName);
-                                }
-                                JSONObject entry = new JSONObject();
-                                JSONArray arry = new JSONArray();
-                                arry.put(entry);
-                                grouped.put(groupName,arry);
-                                grouped = entry;
-                            }
-                        } else if ( is(Merge.Extend) ) {
-                            if( grouped.has(groupName) ) {
-                                JSONArray arry = grouped.getJSONArray(groupName);
-                                JSONObject last = arry.getJSONObject(arry.length()-1);
-                                grouped = last;
-                            }else{
-                                JSONObject entry = new JSONObject();
-                                JSONArray arry = new JSONArray();
-                                arry.put(entry);
-                                grouped.put(groupName,arry);
-                                grouped = entry;
-                            }
-
-                        } else if ( is(Merge.Collection) ) {
-                            if( grouped.has(groupName) ) {
-                                grouped = grouped.getJSONObject(groupName);
-                            } else {
-                                JSONObject newJSON = new JSONObject();
-                                grouped.put(groupName,newJSON);
-                                grouped = newJSON;
-                            }
-                        } else {
-                            //will happen if NewEntry, no action because new-entry merges with the current context :)
-                            if(isDebug()){
-                                System.out.printf("%10s new entry automatically merges with existing context",this.getName());
-                            }
-                        }
-                    } else {
-                        //same behavior as Merge.Collection
-                        if(grouped.has(groupName)){
-                            //could be an array
-                            Object obj = grouped.get(groupName);
-                            if(obj instanceof JSONArray){
-                                JSONArray groupArry = (JSONArray)obj;
-                                if( (extend || is(Merge.Extend)) && groupArry.length()>0){
-                                    grouped = groupArry.getJSONObject(groupArry.length()-1);
-                                }else{
-                                    JSONObject newInstance = new JSONObject();
-                                    groupArry.put(newInstance);
-                                    grouped = newInstance;
-                                }
-                            }else {
-                                grouped = grouped.getJSONObject(groupName);
-                            }
-                        }else{
-                            JSONObject newJSON = new JSONObject();
-                            grouped.put(groupName,newJSON);
-                            grouped = newJSON;
-                        }
-                    }
-                }
+                JSONObject grouped = grouped(target,line);
 
                 boolean needPop = false;
                 if(target != grouped){
@@ -490,26 +614,10 @@ public class Exp {
                     target = cc;
                 }
 
-                Eat toEat = Eat.from(this.eat);
-                int mStart = matcher.start();
-                int mEnd = matcher.end();
-                switch(toEat){
-                    case Match:
-                        int mStop = matcher.end();
-                        line.drop(mStart,mStop);
-                        matcher.region(mStart,line.length());
-                        mEnd = mStart;
-                        break;
-                    case Width:
-                        int wStop = this.eat;
-                        line.drop(mStart,wStop);
-                        matcher.region(mStart,line.length());
-                        mEnd = mStart;
-                        break;
-                }
+                int mEnd = eatMatch(line);
 
                 //call each child
-                for(Exp child : children){
+                for(Exp child : childArray){
                     child.applyWithStart(line,builder,parser,mEnd);
                 }
 
@@ -517,47 +625,421 @@ public class Exp {
                     builder.popContext();//pop target
                 }
                 //only notify the callbacks for the last occurrence of a match
-                if(!is(Rule.Repeat)) {
-                    for (MatchAction action : callbacks) {
+                if(!repeat) {
+                    for (MatchAction action : actions) {
                         action.onMatch(target, this, parser);
                     }
                 }
 
-            }while( is(Rule.Repeat) && matcher.find() );
+            }while( repeat && find() );
 
             //only notify the callbacks for the last occurrence of a match
-            if( is(Rule.Repeat) && rtrn){
-                for (MatchAction action : callbacks) {
+            if( repeat && rtrn){
+                for (MatchAction action : actions) {
                     action.onMatch(target, this, parser);
                 }
             }
 
             //update the parser states after looping
-            if(!disables.isEmpty()){
-                disables.forEach((disable)->parser.setState(disable,false));
-            }
-            if(!enables.isEmpty()){
-                enables.forEach(((enable)->parser.setState(enable,true)));
-            }
+            updateStates(parser);
 
-            if( is(Rule.PopContext) ) {
+            if( popContext ) {
                 builder.popContext();
             }
-            if( is(Rule.ClearContext) ) {
+            if( clearContext ) {
                 builder.clearContext();
             }
-            if( is(Rule.PushContext) ) {
+            if( pushContext ) {
                 builder.setCurrentContext(target);
             }
 
-            if(Eat.from(this.eat) == Eat.Line){ // eat the line after applying children and repeating
-                line.drop(0,line.length());
+            if(eatType == Eat.Line){ // eat the line after applying children and repeating
+                drop(line,0,line.length());
             }
 
         }//matched
 
         return rtrn;
     }
+    /**
+     * Find or create the object for the groupings of the current match under target
+     * @return the object to populate, target if there is no grouping
+     */
+    JSONObject grouped(JSONObject target,CheatChars line){
+        JSONObject grouped = target;
+        for(int g=0; g<groupNames.length; g++){
+            String groupName = groupNames[g];
+            GroupType groupType = groupTypes[g];
+            boolean extend = false;
+            if(isDebug()){
+                System.out.printf("%10s grouping %s = %s\n",this.getName(),groupType,groupName);
+            }
+            if( GroupType.Key.equals(groupType) ){
+                groupName = group(matcher,groupName,groupIndexes[g]);
+                if( groupName.isEmpty() ) {
+                    throw new IllegalArgumentException("Cannot group with "+groupName+", match not found in line="+line);
+                }
+            }
+            if( GroupType.Extend.equals(groupType) ) {
+                extend=true;
+            }
+            if ( g == groupNames.length-1 ) {
+                if ( is(Merge.Entry) ) {
+                    if( grouped.has(groupName) ) {
+                        if(isDebug()){
+                            System.out.printf("%10s already has %s\n",this.getName(),groupName);
+                        }
+                        JSONObject entry = new JSONObject();
+                        grouped.append(groupName,entry);
+                        grouped = entry;
+                    } else {
+                        if(isDebug()){
+                            System.out.printf("%10s does not have %s\n",this.getName(),groupName);
+                        }
+                        JSONObject entry = new JSONObject();
+                        JSONArray arry = new JSONArray();
+                        arry.put(entry);
+                        grouped.put(groupName,arry);
+                        grouped = entry;
+                    }
+                } else if ( is(Merge.Extend) ) {
+                    if( grouped.has(groupName) ) {
+                        JSONArray arry = grouped.getJSONArray(groupName);
+                        JSONObject last = arry.getJSONObject(arry.length()-1);
+                        grouped = last;
+                    }else{
+                        JSONObject entry = new JSONObject();
+                        JSONArray arry = new JSONArray();
+                        arry.put(entry);
+                        grouped.put(groupName,arry);
+                        grouped = entry;
+                    }
+
+                } else if ( is(Merge.Collection) ) {
+                    if( grouped.has(groupName) ) {
+                        grouped = grouped.getJSONObject(groupName);
+                    } else {
+                        JSONObject newJSON = new JSONObject();
+                        grouped.put(groupName,newJSON);
+                        grouped = newJSON;
+                    }
+                } else {
+                    //will happen if NewEntry, no action because new-entry merges with the current context :)
+                    if(isDebug()){
+                        System.out.printf("%10s new entry automatically merges with existing context",this.getName());
+                    }
+                }
+            } else {
+                //same behavior as Merge.Collection
+                if(grouped.has(groupName)){
+                    //could be an array
+                    Object obj = grouped.get(groupName);
+                    if(obj instanceof JSONArray){
+                        JSONArray groupArry = (JSONArray)obj;
+                        if( (extend || is(Merge.Extend)) && groupArry.length()>0){
+                            grouped = groupArry.getJSONObject(groupArry.length()-1);
+                        }else{
+                            JSONObject newInstance = new JSONObject();
+                            groupArry.put(newInstance);
+                            grouped = newInstance;
+                        }
+                    }else {
+                        grouped = grouped.getJSONObject(groupName);
+                    }
+                }else{
+                    JSONObject newJSON = new JSONObject();
+                    grouped.put(groupName,newJSON);
+                    grouped = newJSON;
+                }
+            }
+        }
+        return grouped;
+    }
+    boolean satisfiesRequired(Parser parser){
+        for(String required : requiredStates){
+            if(!parser.getState(required)){
+                return false;
+            }
+        }
+        return true;
+    }
+    void updateStates(Parser parser){
+        for(String disable : disabledStates){
+            parser.setState(disable,false);
+        }
+        for(String enable : enabledStates){
+            parser.setState(enable,true);
+        }
+    }
+
+    /**
+     * Remove the current match from the line according to the Eat setting
+     * @return where the children should start matching
+     */
+    private int eatMatch(CheatChars line){
+        Eat toEat = eatType;
+        int mStart = matcher.start();
+        int mEnd = matcher.end();
+        switch(toEat){
+            case Match:
+                int mStop = matcher.end();
+                drop(line,mStart,mStop);
+                matcher.region(mStart,line.length());
+                mEnd = mStart;
+                break;
+            case Width:
+                int wStop = this.eat;
+                drop(line,mStart,wStop);
+                matcher.region(mStart,line.length());
+                mEnd = mStart;
+                break;
+        }
+        return mEnd;
+    }
+
+    /**
+     * Check if this perf.parse.Exp and its children can send matches to a JsonEventSink.
+     * Streaming does not build a JSONObject so it cannot support a MatchAction or Value.NestLength.
+     * @return a description of the first problem or null if the perf.parse.Exp can stream
+     */
+    public String getStreamingProblem(){
+        if(!callbacks.isEmpty()){
+            return getName()+" has a MatchAction";
+        }
+        for(Field field : fields){
+            if(field.value == Value.NestLength){
+                return getName()+" uses Value."+field.value+" for "+field.name;
+            }
+        }
+        for(Exp child : children){
+            String problem = child.getStreamingProblem();
+            if(problem != null){
+                return problem;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if the Parser can change when this perf.parse.Exp is tried relative to the patterns around it (see Parser.setAdaptiveOrder).
+     * The perf.parse.Exp and its children cannot use Parser state or a MatchAction and cannot leave a partly eaten line
+     * for the patterns that follow it.
+     * @return a description of the first problem or null if the perf.parse.Exp can be reordered
+     */
+    public String getReorderProblem(){
+        Eat toEat = Eat.from(this.eat);
+        if(toEat != Eat.None && toEat != Eat.Line){
+            return getName()+" eats part of the line";
+        }
+        return getReorderProblem(toEat == Eat.Line);
+    }
+    private String getReorderProblem(boolean lineEaten){
+        if(!callbacks.isEmpty()){
+            return getName()+" has a MatchAction";
+        }
+        if(!enables.isEmpty() || !disables.isEmpty() || !requires.isEmpty()){
+            return getName()+" uses Parser state";
+        }
+        if(!lineEaten && Eat.from(this.eat) != Eat.None){
+            return getName()+" eats part of the line";
+        }
+        for(Exp child : children){
+            String problem = child.getReorderProblem(lineEaten);
+            if(problem != null){
+                return problem;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Generate bytecode for this perf.parse.Exp and its children with ExpCompiler. Changing the perf.parse.Exp after it
+     * is compiled, instrumenting it or sending events to a JsonEventSink uses the interpreter.
+     * @return true if this perf.parse.Exp was compiled, the children are compiled when they can be even if this is not
+     */
+    public boolean compile(){
+        for(Exp child : children){
+            child.compile();
+        }
+        compiled = null;
+        if(getCompileProblem() != null){
+            return false;
+        }
+        CompiledExp[] compiledChildren = new CompiledExp[childArray.length];
+        for(int i=0; i<compiledChildren.length; i++){
+            Exp child = childArray[i];
+            compiledChildren[i] = child.compiled != null ? child.compiled : new CompiledExp.Interpreted(child);
+        }
+        compiled = ExpCompiler.compile(this,compiledChildren);
+        return true;
+    }
+    public boolean isCompiled(){return compiled != null;}
+    void appendCompileProblems(List<String> problems){
+        if(compiled == null){
+            problems.add(getName());
+        }
+        for(Exp child : children){
+            child.appendCompileProblems(problems);
+        }
+    }
+
+    /**
+     * Check if ExpCompiler can generate bytecode for this perf.parse.Exp. The children are checked when they are compiled.
+     * @return a description of the first problem or null if the perf.parse.Exp can be compiled
+     */
+    public String getCompileProblem(){
+        if(debug){
+            return getName()+" is in debug";
+        }
+        for(Field field : fields){
+            switch(field.value){
+                case NestLength:
+                case String:
+                    return getName()+" uses Value."+field.value+" for "+field.name;
+            }
+            if(field.group < 0 || (field.value == Value.Key && field.keyGroup < 0)){
+                return getName()+" does not have a group for "+field.name;
+            }
+        }
+        return null;
+    }
+
+    public boolean apply(CheatChars line, EventBuilder events, Parser parser){
+        return applyEventsWithStart(line,events,parser,0);
+    }
+    /**
+     * The same as interpret without the MatchActions
+     */
+    private boolean applyEventsWithStart(CheatChars line,EventBuilder events,Parser parser,int start){
+        if( !satisfiesRequired(parser) ){
+            return false;
+        }
+        matcher.reset(line);
+        int startPoint = lineStart ? 0 : start;
+        matcher.region( startPoint,line.length() );
+        boolean found = find();
+        countAttempt(found);
+        if(!found){
+            return false;
+        }
+        if( is(Merge.NewStart) ) {
+            events.closeRecord();
+        }else if( avoidContext ) {
+            events.popContext();
+        }
+        int context = events.getCurrentContext();
+        int target;
+        do {
+            target = grouped(context,events,line);
+            boolean needPop = false;
+            if(target != context){
+                events.setCurrentContext(target);
+                needPop = true;
+            }
+
+            populate(matcher,events);
+
+            int mEnd = eatMatch(line);
+
+            for(Exp child : childArray){
+                child.applyEventsWithStart(line,events,parser,mEnd);
+            }
+
+            if(needPop){
+                events.popContext();
+            }
+        }while( repeat && find() );
+
+        updateStates(parser);
+
+        if( popContext ) {
+            events.popContext();
+        }
+        if( clearContext ) {
+            events.clearContext();
+        }
+        if( pushContext ) {
+            events.setCurrentContext(target);
+        }
+        if(eatType == Eat.Line){
+            drop(line,0,line.length());
+        }
+        return true;
+    }
+    /**
+     * The same as grouped(JSONObject,CheatChars) for the objects of an EventBuilder
+     * @return the object to populate, target if there is no grouping
+     */
+    private int grouped(int target,EventBuilder events,CheatChars line){
+        int grouped = target;
+        for(int g=0; g<groupNames.length; g++){
+            String groupName = groupNames[g];
+            GroupType groupType = groupTypes[g];
+            if( GroupType.Key.equals(groupType) ){
+                groupName = group(matcher,groupName,groupIndexes[g]);
+                if( groupName.isEmpty() ) {
+                    throw new IllegalArgumentException("Cannot group with "+groupName+", match not found in line="+line);
+                }
+            }
+            if ( g == groupNames.length-1 ) {
+                if ( is(Merge.Entry) ) {
+                    grouped = events.entry(grouped,groupName);
+                } else if ( is(Merge.Extend) ) {
+                    grouped = events.extend(grouped,groupName);
+                } else if ( is(Merge.Collection) ) {
+                    grouped = events.collection(grouped,groupName);
+                }//NewStart merges with the current context
+            } else {
+                grouped = events.group(grouped,groupName,GroupType.Extend.equals(groupType) || is(Merge.Extend));
+            }
+        }
+        return grouped;
+    }
+    private void populate(IMatcher m,EventBuilder events){
+        for(int f=0; f<fields.length; f++){
+            Field field = fields[f];
+            String fieldName = field.name;
+            String fieldValue = group(m,fieldName,field.group);
+
+            switch(field.value){
+                case Number:
+                    events.put(fieldName,Double.parseDouble(fieldValue));
+                    break;
+                case KMG:
+                    events.put(fieldName,parseKMG(fieldValue));
+                    break;
+                case Count:
+                    events.increment(fieldValue);
+                    break;
+                case Sum:
+                    double sum = Double.parseDouble(fieldValue);
+                    events.put(fieldName,events.optDouble(fieldName,0)+sum);
+                    break;
+                case Key:
+                    String keyValue = group(m,field.key,field.keyGroup);
+                    if(!keyValue.isEmpty()){
+                        events.put(fieldValue,keyValue);
+                    }
+                    break;
+                case BooleanKey:
+                    events.put(fieldName,true);
+                    break;
+                case BooleanValue:
+                    events.put(fieldValue,true);
+                    break;
+                case Position:
+                    events.put(fieldName,(long)m.start());
+                    break;
+                case String:
+                    events.put(fieldName,events.optString(fieldName)+System.lineSeparator()+fieldValue);
+                    break;
+                default:
+                    events.accumulate(fieldName,fieldValue);
+                    break;
+            }
+        }
+    }
+
     public static String pad(int i){
         if(i<=0)
             return "";
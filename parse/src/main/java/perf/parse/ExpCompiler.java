@@ -0,0 +1,397 @@
+package perf.parse;
+
+import org.json.JSONObject;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import perf.parse.internal.CheatChars;
+import perf.parse.internal.IMatcher;
+import perf.parse.internal.JsonBuilder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates a CompiledExp for a perf.parse.Exp with ASM.
+ * The Rules, Merge, Eat, values and number of children are constants when the class is generated so apply is
+ * straight line code for the definition: a check or a call is only generated when the perf.parse.Exp uses it, each
+ * value is put with the group index and name as constants and each child is called from its own call site so the JIT
+ * can inline the class generated for the child.
+ * Grouping, Parser state and MatchActions call back to the perf.parse.Exp so the JsonBuilder merge semantics are
+ * only implemented once.
+ */
+class ExpCompiler implements Opcodes {
+
+    private static final String SUPER = Type.getInternalName(CompiledExp.class);
+    private static final String EXP = Type.getInternalName(Exp.class);
+    private static final String MATCHER = Type.getInternalName(IMatcher.class);
+    private static final String CHARS = Type.getInternalName(CheatChars.class);
+    private static final String BUILDER = Type.getInternalName(JsonBuilder.class);
+    private static final String JSON = Type.getInternalName(JSONObject.class);
+
+    private static final String CONSTRUCTOR = Type.getMethodDescriptor(Type.VOID_TYPE,
+        Type.getType(Exp.class),Type.getType(IMatcher.class),Type.getType(CompiledExp[].class));
+    private static final String APPLY = Type.getMethodDescriptor(Type.BOOLEAN_TYPE,
+        Type.getType(CheatChars.class),Type.getType(JsonBuilder.class),Type.getType(Parser.class),Type.INT_TYPE);
+
+    //the locals of apply
+    private static final int THIS = 0;
+    private static final int LINE = 1;
+    private static final int BUILDER_ARG = 2;
+    private static final int PARSER = 3;
+    private static final int START = 4;
+    private static final int M = 5;
+    private static final int CONTEXT = 6;
+    private static final int TARGET = 7;
+    private static final int END = 8;
+    private static final int MATCH_START = 9;
+    private static final int KEY = 10;
+
+    private static final AtomicInteger generated = new AtomicInteger(0);
+
+    /**
+     * One per generated class so the class can be unloaded with the perf.parse.Exp
+     */
+    private static class Loader extends ClassLoader {
+        Loader(ClassLoader parent){
+            super(parent);
+        }
+        Class<?> define(String name,byte[] bytes){
+            return defineClass(name,bytes,0,bytes.length);
+        }
+    }
+
+    static CompiledExp compile(Exp exp,CompiledExp[] children){
+        String name = "perf/parse/generated/"+javaName(exp.getName())+"$"+generated.incrementAndGet();
+        byte[] bytes = generate(exp,name,children.length);
+        try {
+            Class<?> generatedClass = new Loader(CompiledExp.class.getClassLoader()).define(name.replace('/','.'),bytes);
+            return (CompiledExp)generatedClass
+                .getConstructor(Exp.class,IMatcher.class,CompiledExp[].class)
+                .newInstance(exp,exp.matcher,children);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot create the class generated for "+exp.getName(),e);
+        }
+    }
+    private static String javaName(String name){
+        StringBuilder rtrn = new StringBuilder("Exp_");
+        for(int i=0; i<name.length(); i++){
+            char c = name.charAt(i);
+            rtrn.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        return rtrn.toString();
+    }
+
+    static byte[] generate(Exp exp,String name,int childCount){
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES){
+            @Override
+            protected String getCommonSuperClass(String type1,String type2){
+                return "java/lang/Object"; // locals only merge with the same type, avoids loading classes from the wrong loader
+            }
+        };
+        cw.visit(V1_8,ACC_PUBLIC | ACC_FINAL | ACC_SUPER,name,null,SUPER,null);
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC,"<init>",CONSTRUCTOR,null,null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD,0);
+        mv.visitVarInsn(ALOAD,1);
+        mv.visitVarInsn(ALOAD,2);
+        mv.visitVarInsn(ALOAD,3);
+        mv.visitMethodInsn(INVOKESPECIAL,SUPER,"<init>",CONSTRUCTOR,false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0,0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC,"apply",APPLY,null,null);
+        mv.visitCode();
+        apply(mv,exp,childCount);
+        mv.visitMaxs(0,0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void apply(MethodVisitor mv,Exp exp,int childCount){
+        Label current = new Label();
+        mv.visitVarInsn(ALOAD,THIS);
+        mv.visitMethodInsn(INVOKEVIRTUAL,SUPER,"isCurrent","()Z",false);
+        mv.visitJumpInsn(IFNE,current);
+        mv.visitVarInsn(ALOAD,THIS);
+        mv.visitVarInsn(ALOAD,LINE);
+        mv.visitVarInsn(ALOAD,BUILDER_ARG);
+        mv.visitVarInsn(ALOAD,PARSER);
+        mv.visitVarInsn(ILOAD,START);
+        mv.visitMethodInsn(INVOKEVIRTUAL,SUPER,"interpret",APPLY,false);
+        mv.visitInsn(IRETURN);
+        mv.visitLabel(current);
+
+        if(exp.requiredStates.length > 0){
+            Label satisfied = new Label();
+            mv.visitVarInsn(ALOAD,THIS);
+            mv.visitVarInsn(ALOAD,PARSER);
+            mv.visitMethodInsn(INVOKEVIRTUAL,SUPER,"satisfiesRequired","(L"+Type.getInternalName(Parser.class)+";)Z",false);
+            mv.visitJumpInsn(IFNE,satisfied);
+            mv.visitInsn(ICONST_0);
+            mv.visitInsn(IRETURN);
+            mv.visitLabel(satisfied);
+        }
+
+        mv.visitVarInsn(ALOAD,THIS);
+        mv.visitFieldInsn(GETFIELD,SUPER,"matcher","L"+MATCHER+";");
+        mv.visitVarInsn(ASTORE,M);
+        mv.visitVarInsn(ALOAD,M);
+        mv.visitVarInsn(ALOAD,LINE);
+        mv.visitMethodInsn(INVOKEINTERFACE,MATCHER,"reset","(Ljava/lang/CharSequence;)V",true);
+        mv.visitVarInsn(ALOAD,M);
+        if(exp.lineStart){
+            mv.visitInsn(ICONST_0);
+        }else{
+            mv.visitVarInsn(ILOAD,START);
+        }
+        lineLength(mv);
+        mv.visitMethodInsn(INVOKEINTERFACE,MATCHER,"region","(II)V",true);
+
+        Label found = new Label();
+        find(mv);
+        mv.visitJumpInsn(IFNE,found);
+        mv.visitInsn(ICONST_0);
+        mv.visitInsn(IRETURN);
+        mv.visitLabel(found);
+
+        if(exp.merge == Merge.NewStart){
+            mv.visitVarInsn(ALOAD,BUILDER_ARG);
+            mv.visitMethodInsn(INVOKEVIRTUAL,BUILDER,"close","()Z",false);
+            mv.visitInsn(POP);
+        }else if(exp.avoidContext){
+            builder(mv,"popContext");
+        }
+        mv.visitVarInsn(ALOAD,BUILDER_ARG);
+        mv.visitMethodInsn(INVOKEVIRTUAL,BUILDER,"getCurrentContext","()L"+JSON+";",false);
+        mv.visitVarInsn(ASTORE,CONTEXT);
+
+        boolean grouping = exp.groupNames.length > 0;
+        Label loop = new Label();
+        mv.visitLabel(loop);
+        if(grouping){
+            mv.visitVarInsn(ALOAD,THIS);
+            mv.visitVarInsn(ALOAD,CONTEXT);
+            mv.visitVarInsn(ALOAD,LINE);
+            mv.visitMethodInsn(INVOKEVIRTUAL,SUPER,"grouped","(L"+JSON+";L"+CHARS+";)L"+JSON+";",false);
+            mv.visitVarInsn(ASTORE,TARGET);
+            Label ungrouped = new Label();
+            mv.visitVarInsn(ALOAD,TARGET);
+            mv.visitVarInsn(ALOAD,CONTEXT);
+            mv.visitJumpInsn(IF_ACMPEQ,ungrouped);
+            mv.visitVarInsn(ALOAD,BUILDER_ARG);
+            mv.visitVarInsn(ALOAD,TARGET);
+            mv.visitMethodInsn(INVOKEVIRTUAL,BUILDER,"setCurrentContext","(L"+JSON+";)V",false);
+            mv.visitLabel(ungrouped);
+        }else{
+            mv.visitVarInsn(ALOAD,CONTEXT);
+            mv.visitVarInsn(ASTORE,TARGET);
+        }
+
+        for(Exp.Field field : exp.fields){
+            populate(mv,field);
+        }
+
+        switch(exp.eatType){
+            case Match:
+            case Width:
+                mv.visitVarInsn(ALOAD,M);
+                mv.visitMethodInsn(INVOKEINTERFACE,MATCHER,"start","()I",true);
+                mv.visitVarInsn(ISTORE,MATCH_START);
+                mv.visitVarInsn(ALOAD,LINE);
+                mv.visitVarInsn(ILOAD,MATCH_START);
+                if(exp.eatType == Eat.Match){
+                    mv.visitVarInsn(ALOAD,M);
+                    mv.visitMethodInsn(INVOKEINTERFACE,MATCHER,"end","()I",true);
+                }else{
+                    push(mv,exp.eat);
+                }
+                mv.visitMethodInsn(INVOKEVIRTUAL,CHARS,"drop","(II)V",false);
+                mv.visitVarInsn(ALOAD,M);
+                mv.visitVarInsn(ILOAD,MATCH_START);
+                lineLength(mv);
+                mv.visitMethodInsn(INVOKEINTERFACE,MATCHER,"region","(II)V",true);
+                mv.visitVarInsn(ILOAD,MATCH_START);
+                mv.visitVarInsn(ISTORE,END);
+                break;
+            default:
+                if(childCount > 0){
+                    mv.visitVarInsn(ALOAD,M);
+                    mv.visitMethodInsn(INVOKEINTERFACE,MATCHER,"end","()I",true);
+                    mv.visitVarInsn(ISTORE,END);
+                }
+        }
+
+        for(int i=0; i<childCount; i++){
+            mv.visitVarInsn(ALOAD,THIS);
+            mv.visitFieldInsn(GETFIELD,SUPER,"children","[L"+SUPER+";");
+            push(mv,i);
+            mv.visitInsn(AALOAD);
+            mv.visitVarInsn(ALOAD,LINE);
+            mv.visitVarInsn(ALOAD,BUILDER_ARG);
+            mv.visitVarInsn(ALOAD,PARSER);
+            mv.visitVarInsn(ILOAD,END);
+            mv.visitMethodInsn(INVOKEVIRTUAL,SUPER,"apply",APPLY,false);
+            mv.visitInsn(POP);
+        }
+
+        if(grouping){
+            Label ungrouped = new Label();
+            mv.visitVarInsn(ALOAD,TARGET);
+            mv.visitVarInsn(ALOAD,CONTEXT);
+            mv.visitJumpInsn(IF_ACMPEQ,ungrouped);
+            builder(mv,"popContext");
+            mv.visitLabel(ungrouped);
+        }
+        if(exp.repeat){
+            find(mv);
+            mv.visitJumpInsn(IFNE,loop);
+        }
+
+        if(exp.actions.length > 0 || exp.enabledStates.length > 0 || exp.disabledStates.length > 0){
+            mv.visitVarInsn(ALOAD,THIS);
+            mv.visitVarInsn(ALOAD,TARGET);
+            mv.visitVarInsn(ALOAD,PARSER);
+            mv.visitMethodInsn(INVOKEVIRTUAL,SUPER,"matched","(L"+JSON+";L"+Type.getInternalName(Parser.class)+";)V",false);
+        }
+        if(exp.popContext){
+            builder(mv,"popContext");
+        }
+        if(exp.clearContext){
+            builder(mv,"clearContext");
+        }
+        if(exp.pushContext){
+            mv.visitVarInsn(ALOAD,BUILDER_ARG);
+            mv.visitVarInsn(ALOAD,TARGET);
+            mv.visitMethodInsn(INVOKEVIRTUAL,BUILDER,"setCurrentContext","(L"+JSON+";)V",false);
+        }
+        if(exp.eatType == Eat.Line){
+            mv.visitVarInsn(ALOAD,LINE);
+            mv.visitInsn(ICONST_0);
+            lineLength(mv);
+            mv.visitMethodInsn(INVOKEVIRTUAL,CHARS,"drop","(II)V",false);
+        }
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(IRETURN);
+    }
+
+    /**
+     * Put the value of field into the JSONObject in TARGET, the same as Exp.populate
+     */
+    private static void populate(MethodVisitor mv,Exp.Field field){
+        switch(field.value){
+            case Number:
+                mv.visitVarInsn(ALOAD,TARGET);
+                mv.visitLdcInsn(field.name);
+                group(mv,field.group);
+                mv.visitMethodInsn(INVOKESTATIC,"java/lang/Double","parseDouble","(Ljava/lang/String;)D",false);
+                put(mv,"D");
+                break;
+            case KMG:
+                mv.visitVarInsn(ALOAD,TARGET);
+                mv.visitLdcInsn(field.name);
+                group(mv,field.group);
+                mv.visitMethodInsn(INVOKESTATIC,EXP,"parseKMG","(Ljava/lang/String;)J",false);
+                put(mv,"J");
+                break;
+            case Count:
+                mv.visitVarInsn(ALOAD,TARGET);
+                group(mv,field.group);
+                mv.visitMethodInsn(INVOKEVIRTUAL,JSON,"increment","(Ljava/lang/String;)L"+JSON+";",false);
+                mv.visitInsn(POP);
+                break;
+            case Sum:
+                mv.visitVarInsn(ALOAD,TARGET);
+                mv.visitLdcInsn(field.name);
+                mv.visitVarInsn(ALOAD,TARGET);
+                mv.visitLdcInsn(field.name);
+                mv.visitInsn(DCONST_0);
+                mv.visitMethodInsn(INVOKEVIRTUAL,JSON,"optDouble","(Ljava/lang/String;D)D",false);
+                group(mv,field.group);
+                mv.visitMethodInsn(INVOKESTATIC,"java/lang/Double","parseDouble","(Ljava/lang/String;)D",false);
+                mv.visitInsn(DADD);
+                put(mv,"D");
+                break;
+            case Key:
+                Label empty = new Label();
+                group(mv,field.keyGroup);
+                mv.visitVarInsn(ASTORE,KEY);
+                mv.visitVarInsn(ALOAD,KEY);
+                mv.visitMethodInsn(INVOKEVIRTUAL,"java/lang/String","isEmpty","()Z",false);
+                mv.visitJumpInsn(IFNE,empty);
+                mv.visitVarInsn(ALOAD,TARGET);
+                group(mv,field.group);
+                mv.visitVarInsn(ALOAD,KEY);
+                put(mv,"Ljava/lang/Object;");
+                mv.visitLabel(empty);
+                break;
+            case BooleanKey:
+                mv.visitVarInsn(ALOAD,TARGET);
+                mv.visitLdcInsn(field.name);
+                mv.visitInsn(ICONST_1);
+                put(mv,"Z");
+                break;
+            case BooleanValue:
+                mv.visitVarInsn(ALOAD,TARGET);
+                group(mv,field.group);
+                mv.visitInsn(ICONST_1);
+                put(mv,"Z");
+                break;
+            case Position:
+                mv.visitVarInsn(ALOAD,TARGET);
+                mv.visitLdcInsn(field.name);
+                mv.visitVarInsn(ALOAD,M);
+                mv.visitMethodInsn(INVOKEINTERFACE,MATCHER,"start","()I",true);
+                put(mv,"I");
+                break;
+            case NestLength:
+            case String:
+                throw new IllegalArgumentException("cannot compile Value."+field.value+" for "+field.name);
+            default:
+                mv.visitVarInsn(ALOAD,TARGET);
+                mv.visitLdcInsn(field.name);
+                group(mv,field.group);
+                mv.visitMethodInsn(INVOKEVIRTUAL,JSON,"accumulate","(Ljava/lang/String;Ljava/lang/Object;)L"+JSON+";",false);
+                mv.visitInsn(POP);
+                break;
+        }
+    }
+
+    private static void put(MethodVisitor mv,String valueDescriptor){
+        mv.visitMethodInsn(INVOKEVIRTUAL,JSON,"put","(Ljava/lang/String;"+valueDescriptor+")L"+JSON+";",false);
+        mv.visitInsn(POP);
+    }
+    private static void group(MethodVisitor mv,int index){
+        mv.visitVarInsn(ALOAD,M);
+        push(mv,index);
+        mv.visitMethodInsn(INVOKEINTERFACE,MATCHER,"group","(I)Ljava/lang/String;",true);
+    }
+    private static void find(MethodVisitor mv){
+        mv.visitVarInsn(ALOAD,M);
+        mv.visitMethodInsn(INVOKEINTERFACE,MATCHER,"find","()Z",true);
+    }
+    private static void lineLength(MethodVisitor mv){
+        mv.visitVarInsn(ALOAD,LINE);
+        mv.visitMethodInsn(INVOKEVIRTUAL,CHARS,"length","()I",false);
+    }
+    private static void builder(MethodVisitor mv,String method){
+        mv.visitVarInsn(ALOAD,BUILDER_ARG);
+        mv.visitMethodInsn(INVOKEVIRTUAL,BUILDER,method,"()V",false);
+    }
+    private static void push(MethodVisitor mv,int value){
+        if(value >= -1 && value <= 5){
+            mv.visitInsn(ICONST_0+value);
+        }else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE){
+            mv.visitIntInsn(BIPUSH,value);
+        }else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE){
+            mv.visitIntInsn(SIPUSH,value);
+        }else{
+            mv.visitLdcInsn(value);
+        }
+    }
+}
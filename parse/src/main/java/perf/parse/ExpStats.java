@@ -0,0 +1,66 @@
+package perf.parse;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the counters for one perf.parse.Exp from an instrumented Parser
+ */
+public class ExpStats {
+
+    private final String name;
+    private final String pattern;
+    private final int depth;
+    private final long attempts;
+    private final long matches;
+    private final long filtered;
+    private final long nanos;
+    private final long consumed;
+
+    @ConstructorProperties({"name","pattern","depth","attempts","matches","filtered","nanos","consumed"})
+    public ExpStats(String name,String pattern,int depth,long attempts,long matches,long filtered,long nanos,long consumed){
+        this.name = name;
+        this.pattern = pattern;
+        this.depth = depth;
+        this.attempts = attempts;
+        this.matches = matches;
+        this.filtered = filtered;
+        this.nanos = nanos;
+        this.consumed = consumed;
+    }
+
+    public String getName(){return name;}
+    public String getPattern(){return pattern;}
+    /**
+     * @return 0 for a pattern added to the Parser, 1 for its children...
+     */
+    public int getDepth(){return depth;}
+    /**
+     * @return the number of times the pattern searched a line
+     */
+    public long getAttempts(){return attempts;}
+    /**
+     * @return the number of lines the pattern matched (a Rule.Repeat match on a line counts once)
+     */
+    public long getMatches(){return matches;}
+    /**
+     * @return the number of lines the Parser skipped because they did not have the required literal of the pattern
+     */
+    public long getFiltered(){return filtered;}
+    /**
+     * @return the total time in find() including the repeated finds of Rule.Repeat
+     */
+    public long getNanos(){return nanos;}
+    /**
+     * @return the number of characters removed from lines by the Eat setting of the pattern
+     */
+    public long getConsumed(){return consumed;}
+
+    public double getMatchRate(){return attempts == 0 ? 0 : (double)matches/attempts;}
+    public double getAverageNanos(){return attempts == 0 ? 0 : (double)nanos/attempts;}
+
+    @Override
+    public String toString(){
+        return String.format("%s%s attempts=%d matches=%d filtered=%d nanos=%d consumed=%d",
+            Exp.pad(depth*2),name,attempts,matches,filtered,nanos,consumed);
+    }
+}
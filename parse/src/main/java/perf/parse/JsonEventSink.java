@@ -0,0 +1,27 @@
+package perf.parse;
+
+/**
+ * Receives the output of a Parser as a stream of events instead of a JSONObject per record.
+ * Each record is a startObject(null) followed by the fields and nested objects of the record and an endObject().
+ * A name that matched more than once in a record is merged the same way as the JSONObject records,
+ * either the last value or a startArray(name) with the values followed by endArray().
+ * The values in an array have a null name.
+ */
+public interface JsonEventSink {
+
+    default public void start(){}
+    default public void close(){}
+
+    /**
+     * @param name the name of the nested object or null for the start of a record or an object in an array
+     */
+    public void startObject(String name);
+    public void field(String name,String value);
+    public void field(String name,double value);
+    public void field(String name,long value);
+    public void field(String name,boolean value);
+    public void endObject();
+    public void startArray(String name);
+    public void endArray();
+
+}
@@ -2,9 +2,15 @@ package perf.parse;
 
 import org.json.JSONObject;
 import perf.parse.internal.CheatChars;
+import perf.parse.internal.EventBuilder;
 import perf.parse.internal.JsonBuilder;
+import perf.parse.internal.LiteralIndex;
 import perf.util.json.Jsons;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -16,12 +22,50 @@ public class Parser {
 
 
     private List<JsonConsumer> consumers;
+    private List<JsonEventSink> sinks;
+    private EventBuilder events;
     private LinkedList<Exp> patterns;
     private HashMap<String,Boolean> states;
     private JsonBuilder builder;
 
+    //prefilter so onLine only calls patterns whose required literal is in the line
+    private Exp[] ordered;
+    private int[] literalIds;
+    private LiteralIndex literalIndex;
+    private long[] foundLiterals;
+
+    //adaptive order, see setAdaptiveOrder
+    private static final int ADAPTIVE_WARMUP = 1024; // lines in declared order that also check every line for overlaps
+    private static final int ADAPTIVE_INTERVAL = 8192; // lines between reordering
+    private static final int ADAPTIVE_SAMPLE = 64; // check every 64th line for overlaps after the warmup
+
+    /**
+     * Consecutive patterns in ordered that can be tried in any order as long as they do not match the same line
+     */
+    private static class Run {
+        final int from;
+        final int to;
+        boolean exclusive = true;
+        Run(int from,int to){
+            this.from = from;
+            this.to = to;
+        }
+    }
+    private boolean adaptiveOrder = false;
+    private long adaptiveLines = 0;
+    private Run[] runs; // runs[i] is the Run that starts at ordered[i] or null
+    private int[] declared; // the position of ordered[i] in patterns
+    private long[] matchCounts; // matches of ordered[i]
+
+    //instrumentation, see setInstrumented
+    private boolean instrumented = false;
+    private long lines = 0;
+    private ObjectName mbeanName;
+
     public Parser(){
         consumers = new LinkedList<JsonConsumer>();
+        sinks = new ArrayList<>();
+        events = new EventBuilder(sinks);
         patterns = new LinkedList<Exp>();
         builder = new JsonBuilder();
         states = new HashMap<>();
@@ -47,15 +91,55 @@ public class Parser {
     public JsonBuilder getBuilder(){return builder;}
 
     public void addAhead(Exp pattern){
+        checkStreaming(pattern);
         patterns.add(0,pattern);
+        pattern.setInstrumented(instrumented);
+        ordered = null;
     }
     public void add(Exp pattern){
+        checkStreaming(pattern);
         patterns.add(pattern);
+        pattern.setInstrumented(instrumented);
+        ordered = null;
     }
     public void add(JsonConsumer consumer){
+        if(isStreaming()){
+            throw new IllegalStateException("cannot add a JsonConsumer to a Parser with a JsonEventSink");
+        }
         consumers.add(consumer);
     }
-    public void clearConsumers(){consumers.clear();}
+
+    /**
+     * Send matches to the sink as events instead of building a JSONObject for each record.
+     * A Parser with a JsonEventSink does not build JSONObject so it cannot also have JsonConsumers
+     * and every perf.parse.Exp must support streaming (see Exp.getStreamingProblem)
+     * @param sink
+     */
+    public void add(JsonEventSink sink){
+        if(!consumers.isEmpty()){
+            throw new IllegalStateException("cannot add a JsonEventSink to a Parser with a JsonConsumer");
+        }
+        for(Exp pattern : patterns){
+            String problem = pattern.getStreamingProblem();
+            if(problem != null){
+                throw new IllegalArgumentException("cannot stream events: "+problem);
+            }
+        }
+        sinks.add(sink);
+    }
+    public boolean isStreaming(){return !sinks.isEmpty();}
+    private void checkStreaming(Exp pattern){
+        if(isStreaming()){
+            String problem = pattern.getStreamingProblem();
+            if(problem != null){
+                throw new IllegalArgumentException("cannot stream events: "+problem);
+            }
+        }
+    }
+    public void clearConsumers(){
+        consumers.clear();
+        sinks.clear();
+    }
 
     public boolean test(CharSequence line){
         for(Exp pattern : patterns){
@@ -70,41 +154,328 @@ public class Parser {
     public JSONObject onLine(String str){
         return onLine(new CheatChars(str));
     }
+    /**
+     * @return the record that was completed by this line or null if there is not one (always null when streaming)
+     */
     public JSONObject onLine(CheatChars line){
+        if(ordered == null){
+            indexPatterns();
+        }
+        //local copies because a MatchAction can add patterns while the line is being parsed
+        Exp[] exps = ordered;
+        int[] ids = literalIds;
+        LiteralIndex index = literalIndex;
+        long[] found = foundLiterals;
+        //Exp can only shorten the line so a change in length means the literals need to be found again
+        int scannedLength = -1;
+        boolean streaming = isStreaming();
+        if(instrumented){
+            lines++;
+        }
+        Run[] starts = runs;
+        long[] counts = matchCounts;
+        boolean checkOverlap = starts != null && (adaptiveLines < ADAPTIVE_WARMUP || adaptiveLines % ADAPTIVE_SAMPLE == 0);
 
-        boolean matched = false;
-
-        for(Exp pattern : patterns){
-            matched = pattern.apply(line,builder,this) && matched;
+        for(int i=0; i<exps.length; i++){
+            if(checkOverlap && starts[i] != null && starts[i].exclusive && exps == ordered){
+                checkOverlap(starts[i],line);
+            }
+            int literalId = ids[i];
+            if(literalId >= 0){
+                if(scannedLength != line.length()){
+                    index.scan(line,found);
+                    scannedLength = line.length();
+                }
+                if(!LiteralIndex.has(found,literalId)){
+                    if(instrumented){
+                        exps[i].countFiltered();
+                    }
+                    continue;
+                }
+            }
+            boolean matched;
+            if(streaming){
+                matched = exps[i].apply(line,events,this);
+            }else{
+                matched = exps[i].apply(line,builder,this);
+            }
+            if(matched && counts != null){
+                counts[i]++;
+            }
             if(line.isEmpty()){
                 break;
             }
         }
+        if(starts != null && exps == ordered){ // a MatchAction can add patterns which resets the order
+            adaptiveLines++;
+            if(adaptiveLines == ADAPTIVE_WARMUP || (adaptiveLines > ADAPTIVE_WARMUP && adaptiveLines % ADAPTIVE_INTERVAL == 0)){
+                reorder();
+            }
+        }
+        if(streaming){
+            events.endLine();
+            return null;
+        }
         return emit();
     }
 
+    private void indexPatterns(){
+        Exp[] newOrdered = patterns.toArray(new Exp[patterns.size()]);
+        int[] newLiteralIds = new int[newOrdered.length];
+        ArrayList<String> literals = new ArrayList<>();
+        for(int i=0; i<newOrdered.length; i++){
+            String literal = newOrdered[i].getRequiredLiteral();
+            if(literal != null && LiteralIndex.isIndexable(literal)){
+                newLiteralIds[i] = literals.size();
+                literals.add(literal);
+            }else{
+                newLiteralIds[i] = -1;
+            }
+        }
+        literalIndex = new LiteralIndex(literals);
+        foundLiterals = literalIndex.newResult();
+        literalIds = newLiteralIds;
+        ordered = newOrdered;
+        indexRuns();
+    }
+
+    /**
+     * Find the runs of patterns that can be reordered
+     */
+    private void indexRuns(){
+        if(!adaptiveOrder){
+            runs = null;
+            declared = null;
+            matchCounts = null;
+            return;
+        }
+        Run[] newRuns = new Run[ordered.length];
+        int from = 0;
+        for(int i=0; i<=ordered.length; i++){
+            if(i == ordered.length || ordered[i].getReorderProblem() != null){
+                if(i - from > 1){
+                    newRuns[from] = new Run(from,i);
+                }
+                from = i+1;
+            }
+        }
+        declared = new int[ordered.length];
+        for(int i=0; i<declared.length; i++){
+            declared[i] = i;
+        }
+        matchCounts = new long[ordered.length];
+        adaptiveLines = 0;
+        runs = newRuns;
+    }
+
+    /**
+     * Test every pattern in the run against the line before any of them is applied. If more than one matches then
+     * the order changes the result so the run goes back to the declared order.
+     */
+    private void checkOverlap(Run run,CheatChars line){
+        int matched = 0;
+        for(int i=run.from; i<run.to; i++){
+            if(ordered[i].test(line) && ++matched > 1){
+                run.exclusive = false;
+                sortRun(run,false);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Try the patterns that match the most lines first in each run that has not matched the same line twice.
+     * The counts are halved so the order follows changes in the input.
+     */
+    private void reorder(){
+        for(Run run : runs){
+            if(run != null && run.exclusive){
+                sortRun(run,true);
+            }
+        }
+        for(int i=0; i<matchCounts.length; i++){
+            matchCounts[i] = matchCounts[i] >> 1;
+        }
+    }
+
+    /**
+     * Insertion sort the run by match count (descending) or just by declared order. Runs are short and usually sorted.
+     */
+    private void sortRun(Run run,boolean byMatches){
+        for(int i=run.from+1; i<run.to; i++){
+            Exp exp = ordered[i];
+            int literalId = literalIds[i];
+            int position = declared[i];
+            long count = matchCounts[i];
+            int j = i-1;
+            while(j >= run.from && ((byMatches && matchCounts[j] < count) || ((!byMatches || matchCounts[j] == count) && declared[j] > position))){
+                ordered[j+1] = ordered[j];
+                literalIds[j+1] = literalIds[j];
+                declared[j+1] = declared[j];
+                matchCounts[j+1] = matchCounts[j];
+                j--;
+            }
+            ordered[j+1] = exp;
+            literalIds[j+1] = literalId;
+            declared[j+1] = position;
+            matchCounts[j+1] = count;
+        }
+    }
+
+    /**
+     * Let the Parser change the order it tries consecutive patterns based on how often they match so a pattern that
+     * eats the line is tried before the patterns that rarely match. Only patterns without Parser state, MatchActions
+     * or partial eats are reordered (see Exp.getReorderProblem) and only while they do not match the same line.
+     * Overlaps are checked on every line of the first 1024 then every 64th line, a run that overlaps goes back to
+     * the declared order. Only use it when the patterns that can be reordered are meant to match different lines.
+     */
+    public void setAdaptiveOrder(boolean adaptiveOrder){
+        this.adaptiveOrder = adaptiveOrder;
+        ordered = null;
+    }
+    public boolean isAdaptiveOrder(){return adaptiveOrder;}
+
+    /**
+     * @return the names of the patterns in the order the Parser currently tries them
+     */
+    public List<String> getOrder(){
+        if(ordered == null){
+            indexPatterns();
+        }
+        List<String> rtrn = new ArrayList<>(ordered.length);
+        for(Exp exp : ordered){
+            rtrn.add(exp.getName());
+        }
+        return rtrn;
+    }
+
+    /**
+     * Generate bytecode for each perf.parse.Exp and its children (see Exp.compile). Call it once the patterns are added,
+     * patterns added or changed afterwards are interpreted until compile is called again.
+     * @return the names of the patterns (including children) that are interpreted because they cannot be compiled
+     */
+    public List<String> compile(){
+        List<String> rtrn = new ArrayList<>();
+        for(Exp pattern : patterns){
+            pattern.compile();
+            pattern.appendCompileProblems(rtrn);
+        }
+        return rtrn;
+    }
+
+    /**
+     * Count the attempts, matches, time in find() and consumed characters of each perf.parse.Exp (including children).
+     * The counters are not thread safe so read them from the parsing thread or accept approximate values.
+     */
+    public void setInstrumented(boolean instrumented){
+        this.instrumented = instrumented;
+        for(Exp pattern : patterns){
+            pattern.setInstrumented(instrumented);
+        }
+    }
+    public boolean isInstrumented(){return instrumented;}
+
+    /**
+     * @return the number of lines parsed since instrumentation started or the last resetStats
+     */
+    public long getLines(){return lines;}
+
+    /**
+     * @return a snapshot of the counters for each perf.parse.Exp in the order they are added followed by their children
+     * or an empty list if the Parser is not instrumented
+     */
+    public List<ExpStats> getStats(){
+        List<ExpStats> rtrn = new ArrayList<>();
+        for(Exp pattern : patterns){
+            pattern.appendStats(rtrn,0);
+        }
+        return rtrn;
+    }
+    public void resetStats(){
+        lines = 0;
+        for(Exp pattern : patterns){
+            pattern.resetStats();
+        }
+    }
+
+    /**
+     * Register a ParserStatsMXBean for this Parser with the platform MBeanServer as perf.parse:type=Parser,name=[name].
+     * Also turns on instrumentation.
+     * @param name the name for the ObjectName
+     */
+    public void registerMBean(String name){
+        setInstrumented(true);
+        unregisterMBean();
+        try {
+            ObjectName objectName = new ObjectName("perf.parse:type=Parser,name="+ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(server.isRegistered(objectName)){
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new ParserStats(this),objectName);
+            mbeanName = objectName;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+    public void unregisterMBean(){
+        if(mbeanName == null){
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(server.isRegistered(mbeanName)){
+                server.unregisterMBean(mbeanName);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        mbeanName = null;
+    }
+    public ObjectName getMBeanName(){return mbeanName;}
+
     public void setup(){
         for (JsonConsumer consumer : consumers) {
             consumer.start();
         }
+        for (JsonEventSink sink : sinks) {
+            sink.start();
+        }
     }
 
     public JSONObject close(){
-        builder.close();
-        JSONObject rtrn = emit();
+        JSONObject rtrn = null;
+        if(isStreaming()){
+            events.close();
+        }else{
+            builder.close();
+            rtrn = emit();
+        }
         for (JsonConsumer consumer : consumers) {
             consumer.close();
         }
+        for (JsonEventSink sink : sinks) {
+            sink.close();
+        }
         return rtrn;
     }
     private JSONObject emit(){
         JSONObject toEmit = builder.takeClosedRoot();
+        emit(toEmit);
+        return toEmit;
+    }
+
+    /**
+     * Send a record to the consumers as if this Parser had built it.
+     * Used when another instance of the same parser did the matching (e.g. on a different thread)
+     * @param toEmit the record, ignored if null
+     */
+    public void emit(JSONObject toEmit){
         if(toEmit != null) {
             Jsons json = new Jsons(toEmit);
             for (JsonConsumer consumer : consumers) {
                 consumer.consume(json);
             }
         }
-        return toEmit;
     }
 }
@@ -0,0 +1,22 @@
+package perf.parse;
+
+import java.util.List;
+
+/**
+ * Exposes the counters of an instrumented Parser as a ParserStatsMXBean
+ */
+class ParserStats implements ParserStatsMXBean {
+
+    private final Parser parser;
+
+    ParserStats(Parser parser){
+        this.parser = parser;
+    }
+
+    @Override
+    public long getLines(){return parser.getLines();}
+    @Override
+    public List<ExpStats> getExpStats(){return parser.getStats();}
+    @Override
+    public void reset(){parser.resetStats();}
+}
@@ -0,0 +1,12 @@
+package perf.parse;
+
+import java.util.List;
+
+/**
+ * The JMX view of the instrumentation counters of a Parser, see Parser.registerMBean
+ */
+public interface ParserStatsMXBean {
+    long getLines();
+    List<ExpStats> getExpStats();
+    void reset();
+}
@@ -0,0 +1,159 @@
+package perf.parse.consumers;
+
+import perf.parse.JsonConsumer;
+import perf.parse.internal.RingBuffer;
+import perf.util.json.Jsons;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes each Jsons to a group of JsonConsumers on a separate thread so slow consumers do not stall the Parser.
+ * The parsing thread puts each Jsons in a bounded RingBuffer and the consumer thread takes them out in order.
+ * The Backpressure decides what happens when the RingBuffer is full.
+ * start starts the consumer thread (which calls start on the consumers), close waits for the RingBuffer to drain then closes the consumers.
+ * consume after close throws an IllegalStateException until start is called again.
+ * Add an AsyncConsumer for each consumer (or group of consumers) that should run on its own thread.
+ */
+public class AsyncConsumer implements JsonConsumer {
+
+    public enum Backpressure {
+        /** wait until the consumer thread takes a Jsons from the RingBuffer */
+        Block,
+        /** discard the Jsons and increment getDropped */
+        Drop
+    }
+
+    private static final AtomicInteger threadCount = new AtomicInteger(0);
+
+    private final List<JsonConsumer> consumers;
+    private final RingBuffer<Jsons> buffer;
+    private final Backpressure backpressure;
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    private volatile boolean running = false;
+    private volatile boolean closed = false;
+    private volatile Thread thread;
+
+    public AsyncConsumer(JsonConsumer...consumers){
+        this(1024,Backpressure.Block,consumers);
+    }
+    public AsyncConsumer(int capacity,Backpressure backpressure,JsonConsumer...consumers){
+        if(backpressure == null){
+            throw new IllegalArgumentException("backpressure cannot be null");
+        }
+        this.buffer = new RingBuffer<>(capacity);
+        this.backpressure = backpressure;
+        this.consumers = new LinkedList<>();
+        for(JsonConsumer consumer : consumers){
+            addConsumer(consumer);
+        }
+    }
+
+    public void addConsumer(JsonConsumer consumer){
+        if(thread != null){
+            throw new IllegalStateException("cannot add a consumer after start");
+        }
+        consumers.add(consumer);
+    }
+
+    public Backpressure getBackpressure(){return backpressure;}
+    public int getCapacity(){return buffer.capacity();}
+    /**
+     * @return the number of Jsons discarded because the RingBuffer was full
+     */
+    public long getDropped(){return dropped.get();}
+    /**
+     * @return the number of Jsons waiting for the consumer thread
+     */
+    public int getPending(){return buffer.size();}
+
+    @Override
+    public synchronized void start(){
+        if(thread != null){
+            return;
+        }
+        closed = false;
+        running = true;
+        thread = new Thread(this::run,"AsyncConsumer-"+threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void consume(Jsons object) {
+        if(closed){
+            throw new IllegalStateException("cannot consume after close");
+        }
+        if(thread == null){
+            start();
+        }
+        if(buffer.offer(object)){
+            return;
+        }
+        switch (backpressure){
+            case Drop:
+                dropped.incrementAndGet();
+                break;
+            case Block:
+                Thread worker = thread;
+                if(worker == null){ // closed by another thread
+                    throw new IllegalStateException("cannot consume after close");
+                }
+                int spins = 0;
+                while(!buffer.offer(object)){
+                    if(!worker.isAlive()){
+                        throw new IllegalStateException(worker.getName()+" stopped before consuming all the objects");
+                    }
+                    spins = RingBuffer.idle(spins);
+                }
+                break;
+        }
+    }
+
+    @Override
+    public synchronized void close(){
+        if(thread == null){
+            return;
+        }
+        closed = true;
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void run(){
+        for(JsonConsumer consumer : consumers){
+            consumer.start();
+        }
+        int spins = 0;
+        while(true){
+            Jsons next = buffer.poll();
+            if(next != null){
+                spins = 0;
+                for(JsonConsumer consumer : consumers){
+                    try {
+                        consumer.consume(next);
+                    } catch (RuntimeException e){
+                        e.printStackTrace();
+                    }
+                }
+            }else if(running){
+                spins = RingBuffer.idle(spins);
+            }else if(buffer.isEmpty()){ // consume must not be called after close so nothing else can arrive
+                break;
+            }
+        }
+        for(JsonConsumer consumer : consumers){
+            consumer.close();
+        }
+    }
+}
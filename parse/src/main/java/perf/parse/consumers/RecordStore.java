@@ -0,0 +1,351 @@
+package perf.parse.consumers;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import perf.parse.JsonConsumer;
+import perf.parse.JsonEventSink;
+import perf.parse.Parser;
+import perf.parse.Value;
+import perf.util.Indexer;
+import perf.util.json.Jsons;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Stores Parser records in primitive columns, one column per field with nested objects joined by '.' (e.g. heap.size).
+ * Value.Number fields are stored as double, Value.KMG and Value.Position as long and everything else
+ * as an id from a shared string dictionary. Booleans are stored as a long 1.
+ * The columns for the fields from Parser.getNames are created up front, any other field gets a column the first
+ * time it is seen using the type of that first value.
+ * A column has at most one value per record, if a field matches more than once in a record the last value is kept.
+ * Works as a JsonConsumer or, without the JSONObject per record, as a JsonEventSink.
+ */
+public class RecordStore implements JsonConsumer, JsonEventSink {
+
+    public enum Type {Double,Long,String}
+
+    public class Column {
+        private final String name;
+        private final Type type;
+        private double[] doubles;
+        private long[] longs;
+        private int[] ids;
+        private long[] present; // bit per record that has a value
+        private int length;
+
+        private Column(String name,Type type){
+            this.name = name;
+            this.type = type;
+            this.length = Math.max(INITIAL_CAPACITY,size+1);
+            switch (type){
+                case Double: doubles = new double[length]; break;
+                case Long: longs = new long[length]; break;
+                case String: ids = new int[length]; break;
+            }
+            present = new long[(length+63)/64];
+        }
+        public String getName(){return name;}
+        public Type getType(){return type;}
+
+        private void ensureCapacity(int row){
+            if(row < length){
+                return;
+            }
+            length = Math.max(length*2,row+1);
+            switch (type){
+                case Double: doubles = Arrays.copyOf(doubles,length); break;
+                case Long: longs = Arrays.copyOf(longs,length); break;
+                case String: ids = Arrays.copyOf(ids,length); break;
+            }
+            present = Arrays.copyOf(present,(length+63)/64);
+        }
+        private void mark(int row){
+            present[row >>> 6] |= 1L << row;
+        }
+        private void set(int row,double value){
+            ensureCapacity(row);
+            switch (type){
+                case Double: doubles[row] = value; break;
+                case Long: longs[row] = (long)value; break;
+                case String: ids[row] = dictionary.add(JSONObject.doubleToString(value)); break;
+            }
+            mark(row);
+        }
+        private void set(int row,long value){
+            ensureCapacity(row);
+            switch (type){
+                case Double: doubles[row] = value; break;
+                case Long: longs[row] = value; break;
+                case String: ids[row] = dictionary.add(Long.toString(value)); break;
+            }
+            mark(row);
+        }
+        private void set(int row,String value){
+            ensureCapacity(row);
+            switch (type){
+                case Double: doubles[row] = parseDouble(value); break;
+                case Long: longs[row] = (long)parseDouble(value); break;
+                case String: ids[row] = dictionary.add(value); break;
+            }
+            mark(row);
+        }
+
+        public boolean has(int row){
+            return row < size && row < length && (present[row >>> 6] & (1L << row)) != 0;
+        }
+
+        /**
+         * @return the value as a double, NaN if the record does not have a value or it is not a number
+         */
+        public double getDouble(int row){
+            if(!has(row)){
+                return Double.NaN;
+            }
+            switch (type){
+                case Double: return doubles[row];
+                case Long: return longs[row];
+                default: return parseDouble(dictionary.get(ids[row]));
+            }
+        }
+        /**
+         * @return the value as a long or 0 if the record does not have a value
+         */
+        public long getLong(int row){
+            if(!has(row)){
+                return 0;
+            }
+            switch (type){
+                case Double: return (long)doubles[row];
+                case Long: return longs[row];
+                default: return (long)parseDouble(dictionary.get(ids[row]));
+            }
+        }
+        /**
+         * @return the dictionary id of a Type.String value or -1
+         */
+        public int getId(int row){
+            return type == Type.String && has(row) ? ids[row] : -1;
+        }
+        /**
+         * @return the value as a String or null if the record does not have a value
+         */
+        public String getString(int row){
+            if(!has(row)){
+                return null;
+            }
+            switch (type){
+                case Double: return JSONObject.doubleToString(doubles[row]);
+                case Long: return Long.toString(longs[row]);
+                default: return dictionary.get(ids[row]);
+            }
+        }
+    }
+
+    /**
+     * The columns under one nested object so finding the column for a field does not build the dotted name
+     */
+    private class Node {
+        private final String prefix;
+        private final HashMap<String,Node> children = new HashMap<>();
+        private final HashMap<String,Column> fields = new HashMap<>();
+        Node(String prefix){
+            this.prefix = prefix;
+        }
+        Node child(String name){
+            Node rtrn = children.get(name);
+            if(rtrn == null){
+                rtrn = new Node(prefix+name+".");
+                children.put(name,rtrn);
+            }
+            return rtrn;
+        }
+        Column column(String name,Type type){
+            Column rtrn = fields.get(name);
+            if(rtrn == null){
+                rtrn = new Column(prefix+name,type);
+                fields.put(name,rtrn);
+                columns.put(rtrn.getName(),rtrn);
+            }
+            return rtrn;
+        }
+    }
+
+    private final Indexer<String> dictionary;
+    private final LinkedHashMap<String,Column> columns;
+    private final Node root;
+    private static final int INITIAL_CAPACITY = 1024;
+    private int size = 0;
+
+    //JsonEventSink position
+    private Node[] path = new Node[8];
+    private String[] arrayNames = new String[8]; // name of the open array at each depth
+    private int depth = -1;
+
+    public RecordStore(){
+        dictionary = new Indexer<>();
+        columns = new LinkedHashMap<>();
+        root = new Node("");
+    }
+
+    /**
+     * Create the columns for the fields the parser can find
+     * @param parser
+     */
+    public RecordStore(Parser parser){
+        this();
+        addNames(root,parser.getNames());
+    }
+    private void addNames(Node node,JSONObject names){
+        for(String key : names.keySet()){
+            Object value = names.get(key);
+            if(value instanceof JSONObject){
+                addNames(node.child(key),(JSONObject)value);
+            }else if(value instanceof JSONArray){
+                JSONArray array = (JSONArray)value;
+                for(int i=0; i<array.length(); i++){
+                    if(array.get(i) instanceof JSONObject){
+                        addNames(node.child(key),array.getJSONObject(i));
+                    }
+                }
+            }else if(value instanceof Value){
+                switch ((Value)value){
+                    case Number:
+                    case Sum:
+                        node.column(key,Type.Double);
+                        break;
+                    case KMG:
+                    case Position:
+                    case NestLength:
+                    case BooleanKey:
+                        node.column(key,Type.Long);
+                        break;
+                    case Key: //the name of the field comes from the input
+                    case BooleanValue:
+                    case Count:
+                        break;
+                    default:
+                        node.column(key,Type.String);
+                }
+            }
+        }
+    }
+
+    private static double parseDouble(String value){
+        try {
+            return Double.parseDouble(value);
+        }catch (NumberFormatException e){
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * @return the number of complete records
+     */
+    public int size(){return size;}
+    public Column getColumn(String name){return columns.get(name);}
+    public boolean hasColumn(String name){return columns.containsKey(name);}
+    public List<Column> getColumns(){return Collections.unmodifiableList(new ArrayList<>(columns.values()));}
+    public Indexer<String> getDictionary(){return dictionary;}
+
+    private void endRecord(){
+        size++;
+    }
+
+    @Override
+    public void start(){}
+    @Override
+    public void close(){}
+
+    @Override
+    public void consume(Jsons object) {
+        add(root,object.asJSON());
+        endRecord();
+    }
+    private void add(Node node,JSONObject json){
+        for(String key : json.keySet()){
+            Object value = json.get(key);
+            if(value instanceof JSONArray){
+                JSONArray array = (JSONArray)value;
+                for(int i=0; i<array.length(); i++){
+                    add(node,key,array.get(i));
+                }
+            }else{
+                add(node,key,value);
+            }
+        }
+    }
+    private void add(Node node,String key,Object value){
+        if(value instanceof JSONObject){
+            add(node.child(key),(JSONObject)value);
+        }else if(value instanceof Double || value instanceof Float){
+            node.column(key,Type.Double).set(size,((Number)value).doubleValue());
+        }else if(value instanceof Number){
+            node.column(key,Type.Long).set(size,((Number)value).longValue());
+        }else if(value instanceof Boolean){
+            node.column(key,Type.Long).set(size,((Boolean)value) ? 1 : 0);
+        }else if(value != null && value != JSONObject.NULL){
+            node.column(key,Type.String).set(size,value.toString());
+        }
+    }
+
+    /**
+     * Values in an array use the name of the array, the same as the JSONArray values in add(Node,JSONObject)
+     */
+    private String name(String name){
+        return name == null ? arrayNames[depth] : name;
+    }
+
+    @Override
+    public void startObject(String name) {
+        if(depth+1 == path.length){
+            path = Arrays.copyOf(path,path.length*2);
+            arrayNames = Arrays.copyOf(arrayNames,arrayNames.length*2);
+        }
+        path[depth+1] = depth < 0 ? root : path[depth].child(name(name));
+        arrayNames[depth+1] = null;
+        depth++;
+    }
+
+    @Override
+    public void field(String name, String value) {
+        path[depth].column(name(name),Type.String).set(size,value);
+    }
+
+    @Override
+    public void field(String name, double value) {
+        path[depth].column(name(name),Type.Double).set(size,value);
+    }
+
+    @Override
+    public void field(String name, long value) {
+        path[depth].column(name(name),Type.Long).set(size,value);
+    }
+
+    @Override
+    public void field(String name, boolean value) {
+        path[depth].column(name(name),Type.Long).set(size,value ? 1 : 0);
+    }
+
+    @Override
+    public void endObject() {
+        depth--;
+        if(depth < 0){
+            endRecord();
+        }
+    }
+
+    @Override
+    public void startArray(String name) {
+        arrayNames[depth] = name;
+    }
+
+    @Override
+    public void endArray() {
+        arrayNames[depth] = null;
+    }
+}
@@ -0,0 +1,265 @@
+package perf.parse.consumers;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import perf.parse.JsonConsumer;
+import perf.parse.internal.Columnar;
+import perf.util.Indexer;
+import perf.util.json.Jsons;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes records in the binary columnar format (see perf.parse.internal.Columnar) for ColumnarReader.
+ * Records are buffered into blocks so the memory use is bound by the block size rather than the number of records.
+ * Keys and string values that are short or were seen before are added to the dictionary until it holds maxDictionary
+ * strings, every other string is written inline so unique values (stack traces, command lines...) do not grow the
+ * dictionary for the rest of the file.
+ */
+public class WriteColumnarConsumer implements JsonConsumer {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    public static final int DEFAULT_MAX_DICTIONARY = 64*1024;
+    public static final int SHORT_STRING = 32;
+    private static final int SEEN_SLOTS = 4096;
+
+    private final String fileName;
+    private final OutputStream stream;
+    private final int blockSize;
+    private final int maxDictionary;
+
+    private final Indexer<String> dictionary = new Indexer<>();
+    private int dictionaryWritten = 0;
+    //hash of the long strings that were written inline, a collision only adds a string to the dictionary on its first use
+    private final int[] seen = new int[SEEN_SLOTS];
+
+    private int records = 0;
+    private byte[] tags = new byte[1024];
+    private int tagCount = 0;
+    private int[] keys = new int[256];
+    private int keyCount = 0;
+    private int[] strings = new int[256];
+    private int stringCount = 0;
+    private String[] inline = new String[64];
+    private int inlineCount = 0;
+    private long[] longs = new long[256];
+    private int longCount = 0;
+    private double[] doubles = new double[256];
+    private int doubleCount = 0;
+
+    private boolean closed = false;
+
+    public WriteColumnarConsumer(String fileName){
+        this(fileName,DEFAULT_BLOCK_SIZE);
+    }
+    public WriteColumnarConsumer(String fileName,int blockSize){
+        this(fileName,open(fileName),blockSize);
+    }
+    public WriteColumnarConsumer(OutputStream stream,int blockSize){
+        this(null,stream,blockSize,DEFAULT_MAX_DICTIONARY);
+    }
+    public WriteColumnarConsumer(OutputStream stream,int blockSize,int maxDictionary){
+        this(null,stream,blockSize,maxDictionary);
+    }
+    private WriteColumnarConsumer(String fileName,OutputStream stream,int blockSize){
+        this(fileName,stream,blockSize,DEFAULT_MAX_DICTIONARY);
+    }
+    private WriteColumnarConsumer(String fileName,OutputStream stream,int blockSize,int maxDictionary){
+        if(blockSize <= 0){
+            throw new IllegalArgumentException("blockSize must be positive but was "+blockSize);
+        }
+        if(maxDictionary < 0){
+            throw new IllegalArgumentException("maxDictionary cannot be negative but was "+maxDictionary);
+        }
+        this.fileName = fileName;
+        this.stream = stream instanceof BufferedOutputStream ? stream : new BufferedOutputStream(stream,64*1024);
+        this.blockSize = blockSize;
+        this.maxDictionary = maxDictionary;
+    }
+    private static OutputStream open(String fileName){
+        try {
+            return new FileOutputStream(fileName);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot write to "+fileName,e);
+        }
+    }
+
+    public String getFileName(){return fileName;}
+    public int getBlockSize(){return blockSize;}
+    public int getMaxDictionary(){return maxDictionary;}
+    public int getDictionarySize(){return dictionary.size();}
+
+    @Override
+    public void start(){
+        try {
+            Columnar.writeInt(stream,Columnar.MAGIC);
+            Columnar.writeInt(stream,Columnar.VERSION);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void consume(Jsons object){
+        encode(object.asJSON());
+        records++;
+        if(records >= blockSize){
+            writeBlock();
+        }
+    }
+
+    @Override
+    public void close(){
+        if(closed){
+            return;
+        }
+        closed = true;
+        if(records > 0){
+            writeBlock();
+        }
+        try {
+            Columnar.writeVarLong(stream,0);
+            stream.flush();
+            stream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void encode(Object value){
+        if(value instanceof JSONObject){
+            JSONObject object = (JSONObject)value;
+            tag(Columnar.OBJECT_START);
+            for(String key : object.keySet()){
+                if(keyCount == keys.length){
+                    keys = Arrays.copyOf(keys,keys.length*2);
+                }
+                int id = dictionary.get(key);
+                if(id < 0 && dictionary.size() < maxDictionary){
+                    id = dictionary.add(key);
+                }
+                if(id < 0){
+                    inline(key);
+                }
+                keys[keyCount++] = id+1;
+                encode(object.opt(key));
+            }
+            tag(Columnar.OBJECT_END);
+        }else if(value instanceof JSONArray){
+            JSONArray array = (JSONArray)value;
+            tag(Columnar.ARRAY_START);
+            for(int i=0; i<array.length(); i++){
+                encode(array.opt(i));
+            }
+            tag(Columnar.ARRAY_END);
+        }else if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte){
+            tag(Columnar.LONG);
+            if(longCount == longs.length){
+                longs = Arrays.copyOf(longs,longs.length*2);
+            }
+            longs[longCount++] = ((Number)value).longValue();
+        }else if(value instanceof Number){
+            tag(Columnar.DOUBLE);
+            if(doubleCount == doubles.length){
+                doubles = Arrays.copyOf(doubles,doubles.length*2);
+            }
+            doubles[doubleCount++] = ((Number)value).doubleValue();
+        }else if(value instanceof Boolean){
+            tag((Boolean)value ? Columnar.TRUE : Columnar.FALSE);
+        }else if(value == null || JSONObject.NULL.equals(value)){
+            tag(Columnar.NULL);
+        }else{
+            String string = value.toString();
+            int id = dictionary.get(string);
+            if(id < 0 && dictionary.size() < maxDictionary && (string.length() <= SHORT_STRING || repeated(string))){
+                id = dictionary.add(string);
+            }
+            if(id < 0){
+                tag(Columnar.INLINE_STRING);
+                inline(string);
+            }else{
+                tag(Columnar.STRING);
+                if(stringCount == strings.length){
+                    strings = Arrays.copyOf(strings,strings.length*2);
+                }
+                strings[stringCount++] = id;
+            }
+        }
+    }
+    /**
+     * @return true if a long string with the same hash was already written inline
+     */
+    private boolean repeated(String string){
+        int hash = string.hashCode() | 1;//0 is an empty slot
+        int slot = (hash ^ (hash >>> 16)) & (SEEN_SLOTS-1);
+        if(seen[slot] == hash){
+            return true;
+        }
+        seen[slot] = hash;
+        return false;
+    }
+    private void inline(String string){
+        if(inlineCount == inline.length){
+            inline = Arrays.copyOf(inline,inline.length*2);
+        }
+        inline[inlineCount++] = string;
+    }
+    private void tag(byte tag){
+        if(tagCount == tags.length){
+            tags = Arrays.copyOf(tags,tags.length*2);
+        }
+        tags[tagCount++] = tag;
+    }
+
+    private void writeBlock(){
+        try {
+            Columnar.writeVarLong(stream,records);
+
+            int dictionarySize = dictionary.size();
+            Columnar.writeVarLong(stream,dictionarySize-dictionaryWritten);
+            for(int i=dictionaryWritten; i<dictionarySize; i++){
+                Columnar.writeString(stream,dictionary.get(i));
+            }
+            dictionaryWritten = dictionarySize;
+
+            Columnar.writeVarLong(stream,tagCount);
+            stream.write(tags,0,tagCount);
+            Columnar.writeVarLong(stream,keyCount);
+            for(int i=0; i<keyCount; i++){
+                Columnar.writeVarLong(stream,keys[i]);
+            }
+            Columnar.writeVarLong(stream,stringCount);
+            for(int i=0; i<stringCount; i++){
+                Columnar.writeVarLong(stream,strings[i]);
+            }
+            Columnar.writeVarLong(stream,inlineCount);
+            for(int i=0; i<inlineCount; i++){
+                Columnar.writeString(stream,inline[i]);
+            }
+            Columnar.writeVarLong(stream,longCount);
+            for(int i=0; i<longCount; i++){
+                Columnar.writeVarLong(stream,Columnar.zigZag(longs[i]));
+            }
+            Columnar.writeVarLong(stream,doubleCount);
+            for(int i=0; i<doubleCount; i++){
+                long bits = Double.doubleToRawLongBits(doubles[i]);
+                Columnar.writeInt(stream,(int)(bits >>> 32));
+                Columnar.writeInt(stream,(int)bits);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        records = 0;
+        tagCount = 0;
+        keyCount = 0;
+        stringCount = 0;
+        Arrays.fill(inline,0,inlineCount,null);
+        inlineCount = 0;
+        longCount = 0;
+        doubleCount = 0;
+    }
+}
@@ -0,0 +1,151 @@
+package perf.parse.consumers;
+
+import org.json.JSONObject;
+import perf.parse.JsonEventSink;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writes the events from a streaming Parser as a json array of records without building a JSONObject.
+ * A name that matched more than once in a record is written as a json array.
+ */
+public class WriteJsonEventSink implements JsonEventSink {
+
+    private Writer writer;
+    private boolean[] hasEntry = new boolean[8]; // if each open object or array (the records array at 0) already has an entry
+    private int depth = 0;
+
+    public WriteJsonEventSink(String fileName){
+        try {
+            writer = new BufferedWriter(new FileWriter(fileName));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    public WriteJsonEventSink(Writer writer){
+        this.writer = writer;
+    }
+
+    private void separator() throws IOException {
+        if(hasEntry[depth]){
+            writer.write(',');
+        }else{
+            hasEntry[depth] = true;
+        }
+    }
+    private void name(String name) throws IOException {
+        separator();
+        if(name != null){ // values in an array do not have a name
+            JSONObject.quote(name,writer);
+            writer.write(':');
+        }
+    }
+    private void open(char c) throws IOException {
+        writer.write(c);
+        depth++;
+        if(depth == hasEntry.length){
+            hasEntry = Arrays.copyOf(hasEntry,hasEntry.length*2);
+        }
+        hasEntry[depth] = false;
+    }
+
+    @Override public void start() {
+        try {
+            depth = 0;
+            hasEntry[0] = false;
+            writer.write('[');
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override public void startObject(String name) {
+        try {
+            name(name);
+            if(depth == 0){
+                writer.write(System.lineSeparator());
+            }
+            open('{');
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override public void field(String name, String value) {
+        try {
+            name(name);
+            JSONObject.quote(value,writer);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override public void field(String name, double value) {
+        try {
+            name(name);
+            writer.write(JSONObject.doubleToString(value));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override public void field(String name, long value) {
+        try {
+            name(name);
+            writer.write(Long.toString(value));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override public void field(String name, boolean value) {
+        try {
+            name(name);
+            writer.write(value ? "true" : "false");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override public void endObject() {
+        try {
+            writer.write('}');
+            depth--;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override public void startArray(String name) {
+        try {
+            name(name);
+            open('[');
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override public void endArray() {
+        try {
+            writer.write(']');
+            depth--;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override public void close() {
+        try {
+            writer.write(System.lineSeparator());
+            writer.write(']');
+            writer.flush();
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
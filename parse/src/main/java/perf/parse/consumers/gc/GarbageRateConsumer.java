@@ -1,29 +1,9 @@
 package perf.parse.consumers.gc;
 
-import perf.parse.JsonConsumer;
-import perf.util.json.Jsons;
-
 /**
  * Created by wreicher
+ * @deprecated the allocation and promotion rates are in GcStatsConsumer
  */
-public class GarbageRateConsumer implements JsonConsumer {
-
-
-    private double previousYoungSize;
-    private double previousYoungAfterGC;
-
-    private double previousHeapSize;
-    private double previousHeapAfterGC;
-
-    @Override
-    public void consume(Jsons object) {
-        if(object.has("heap")){
-            object.getJson("heap").getDouble("postgc");
-            object.getJson("heap").getDouble("size");
-
-        }
-        if(object.has("region") && object.getJson("regoin").has("PSYoungGen")){
-
-        }
-    }
+@Deprecated
+public class GarbageRateConsumer extends GcStatsConsumer {
 }
@@ -0,0 +1,286 @@
+package perf.parse.consumers.gc;
+
+import perf.parse.JsonConsumer;
+import perf.parse.Parser;
+import perf.parse.factory.OpenJdkGcFactory;
+import perf.parse.reader.TextLineReader;
+import perf.util.AsciiArt;
+import perf.util.LogLinearHistogram;
+import perf.util.json.Jsons;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * GC health metrics from the OpenJdkGcFactory records in one pass without keeping the records.
+ * Allocation is the young gen (or heap when there are no regions) before a collection minus after the previous one,
+ * promotion is what left the young gen in a young collection but was not freed from the heap. Pauses are gctime (or the
+ * real time of the collection) and are counted in a LogLinearHistogram of microseconds so the percentiles use the same
+ * memory for a 10 minute or a 10 day log.
+ * The sliding window metrics use a ring of slots, each slot is windowSeconds/slots of elapsed time, so the window
+ * rates and throughput also use constant memory. The worst full window is kept to gate a run on its worst period
+ * rather than its average.
+ */
+public class GcStatsConsumer implements JsonConsumer {
+
+    private final double slotSeconds;
+    private final int slots;
+    private final double[] slotPause;
+    private final double[] slotAllocated;
+    private final double[] slotPromoted;
+    private long firstSlot = -1;
+    private long currentSlot = -1;
+
+    private final LogLinearHistogram pauses = new LogLinearHistogram();
+
+    private long gcCount = 0;
+    private long fullGcCount = 0;
+    private double lastElapsed = 0;
+    private double totalPause = 0;
+    private double totalStopped = 0;
+    private double allocated = 0;
+    private double promoted = 0;
+    private double previousYoungAfterGC = 0;
+    private double previousHeapAfterGC = 0;
+
+    private double minWindowThroughput = Double.NaN;
+    private double maxWindowAllocationRate = Double.NaN;
+    private double maxWindowPromotionRate = Double.NaN;
+
+    public GcStatsConsumer(){
+        this(60,12);
+    }
+    public GcStatsConsumer(double windowSeconds,int slots){
+        if(windowSeconds <= 0){
+            throw new IllegalArgumentException("windowSeconds must be positive but was "+windowSeconds);
+        }
+        if(slots <= 0){
+            throw new IllegalArgumentException("slots must be positive but was "+slots);
+        }
+        this.slots = slots;
+        this.slotSeconds = windowSeconds/slots;
+        this.slotPause = new double[slots];
+        this.slotAllocated = new double[slots];
+        this.slotPromoted = new double[slots];
+    }
+
+    @Override
+    public void start(){
+        Arrays.fill(slotPause,0);
+        Arrays.fill(slotAllocated,0);
+        Arrays.fill(slotPromoted,0);
+        firstSlot = -1;
+        currentSlot = -1;
+        pauses.reset();
+        gcCount = 0;
+        fullGcCount = 0;
+        lastElapsed = 0;
+        totalPause = 0;
+        totalStopped = 0;
+        allocated = 0;
+        promoted = 0;
+        previousYoungAfterGC = 0;
+        previousHeapAfterGC = 0;
+        minWindowThroughput = Double.NaN;
+        maxWindowAllocationRate = Double.NaN;
+        maxWindowPromotionRate = Double.NaN;
+    }
+
+    private static boolean isYoung(String regionName){
+        return regionName.contains("Young") || regionName.contains("New");
+    }
+
+    @Override
+    public void consume(Jsons object) {
+        if(!object.has("elapsed")){
+            return;
+        }
+        double elapsed = object.getDouble("elapsed");
+        if(elapsed < lastElapsed){ // the JVM restarted and is writing to the same log
+            start();
+        }
+        lastElapsed = elapsed;
+        int slot = advance(elapsed);
+
+        if(object.has("threadpause")){
+            totalStopped+=object.getDouble("threadpause");
+        }
+        if(!object.has("gctype")){
+            return;
+        }
+        gcCount++;
+        boolean full = object.getString("gctype").contains("Full");
+        if(full){
+            fullGcCount++;
+        }
+
+        double pause = Double.NaN;
+        if(object.has("gctime")){
+            pause = object.getDouble("gctime");
+        }else if(object.has("times") && object.getJson("times").has("real")){
+            pause = object.getJson("times").getDouble("real");
+        }
+        if(!Double.isNaN(pause)){
+            pauses.add(Math.round(pause*1_000_000));
+            totalPause+=pause;
+            slotPause[slot]+=pause;
+        }
+
+        if(!object.has("heap")){
+            return;
+        }
+        Jsons heap = object.getJson("heap");
+        double heapBefore = heap.getDouble("pregc");
+        double heapAfter = heap.getDouble("postgc");
+        Jsons young = null;
+        if(object.has("region")){
+            Jsons region = object.getJson("region");
+            for(String name : region.keySet()){
+                if(isYoung(name)){
+                    young = region.getJson(name);
+                    break;
+                }
+            }
+        }
+        double allocatedBytes;
+        if(young != null){
+            double youngBefore = young.getDouble("pregc");
+            double youngAfter = young.getDouble("postgc");
+            allocatedBytes = youngBefore-previousYoungAfterGC;
+            if(!full){
+                double promotedBytes = Math.max(0,(youngBefore-youngAfter)-(heapBefore-heapAfter));
+                promoted+=promotedBytes;
+                slotPromoted[slot]+=promotedBytes;
+            }
+            previousYoungAfterGC = youngAfter;
+        }else{
+            allocatedBytes = heapBefore-previousHeapAfterGC;
+        }
+        previousHeapAfterGC = heapAfter;
+        allocatedBytes = Math.max(0,allocatedBytes);
+        allocated+=allocatedBytes;
+        slotAllocated[slot]+=allocatedBytes;
+    }
+
+    /**
+     * Move the window to the slot of elapsed, clearing the slots that leave the window
+     * @return the index of the slot for elapsed
+     */
+    private int advance(double elapsed){
+        long slot = (long)(elapsed/slotSeconds);
+        if(firstSlot < 0){
+            firstSlot = slot;
+            currentSlot = slot;
+        }
+        if(slot > currentSlot){
+            if(currentSlot-firstSlot+1 >= slots){ // the window before it moves is a full window
+                double throughput = getWindowThroughput();
+                double allocationRate = getWindowAllocationRate();
+                double promotionRate = getWindowPromotionRate();
+                minWindowThroughput = Double.isNaN(minWindowThroughput) ? throughput : Math.min(minWindowThroughput,throughput);
+                maxWindowAllocationRate = Double.isNaN(maxWindowAllocationRate) ? allocationRate : Math.max(maxWindowAllocationRate,allocationRate);
+                maxWindowPromotionRate = Double.isNaN(maxWindowPromotionRate) ? promotionRate : Math.max(maxWindowPromotionRate,promotionRate);
+            }
+            for(long s = currentSlot+1; s <= slot && s <= currentSlot+slots; s++){
+                int index = (int)(s % slots);
+                slotPause[index] = 0;
+                slotAllocated[index] = 0;
+                slotPromoted[index] = 0;
+            }
+            currentSlot = slot;
+        }
+        return (int)(Math.max(slot,currentSlot) % slots);
+    }
+
+    private double windowSeconds(){
+        return currentSlot < 0 ? 0 : Math.min(slots,currentSlot-firstSlot+1)*slotSeconds;
+    }
+    private static double sum(double[] values){
+        double rtrn = 0;
+        for(double value : values){
+            rtrn+=value;
+        }
+        return rtrn;
+    }
+
+    public long getGcCount(){return gcCount;}
+    public long getFullGcCount(){return fullGcCount;}
+    /**
+     * @return the elapsed seconds of the last record
+     */
+    public double getElapsed(){return lastElapsed;}
+    public double getAllocatedBytes(){return allocated;}
+    public double getPromotedBytes(){return promoted;}
+    public double getTotalPause(){return totalPause;}
+    /**
+     * @return the seconds from Total time for which application threads were stopped, which includes the GC pauses
+     */
+    public double getTotalStopped(){return totalStopped;}
+
+    /**
+     * @return bytes per second since the JVM started
+     */
+    public double getAllocationRate(){return lastElapsed == 0 ? 0 : allocated/lastElapsed;}
+    public double getPromotionRate(){return lastElapsed == 0 ? 0 : promoted/lastElapsed;}
+    /**
+     * @return the fraction of time since the JVM started that was not in a GC pause
+     */
+    public double getThroughput(){return lastElapsed == 0 ? 1 : 1-totalPause/lastElapsed;}
+
+    /**
+     * @return the pauses in microseconds
+     */
+    public LogLinearHistogram getPauses(){return pauses;}
+    /**
+     * @param percentile from 0 to 100
+     * @return the pause in seconds
+     */
+    public double getPausePercentile(double percentile){return pauses.getPercentile(percentile)/1_000_000.0;}
+    public double getMaxPause(){return pauses.getMax()/1_000_000.0;}
+
+    public double getWindowThroughput(){
+        double seconds = windowSeconds();
+        return seconds == 0 ? 1 : 1-sum(slotPause)/seconds;
+    }
+    public double getWindowAllocationRate(){
+        double seconds = windowSeconds();
+        return seconds == 0 ? 0 : sum(slotAllocated)/seconds;
+    }
+    public double getWindowPromotionRate(){
+        double seconds = windowSeconds();
+        return seconds == 0 ? 0 : sum(slotPromoted)/seconds;
+    }
+
+    /**
+     * @return the lowest throughput of a full window or NaN if the log is shorter than the window
+     */
+    public double getMinWindowThroughput(){return minWindowThroughput;}
+    public double getMaxWindowAllocationRate(){return maxWindowAllocationRate;}
+    public double getMaxWindowPromotionRate(){return maxWindowPromotionRate;}
+
+    public void printReport(PrintStream out){
+        out.printf("%d GCs (%d full) over %.1f s%n",gcCount,fullGcCount,lastElapsed);
+        out.printf("allocation %s/s (worst window %s/s)%n",AsciiArt.printKMG(getAllocationRate()),AsciiArt.printKMG(maxWindowAllocationRate));
+        out.printf("promotion  %s/s (worst window %s/s)%n",AsciiArt.printKMG(getPromotionRate()),AsciiArt.printKMG(maxWindowPromotionRate));
+        out.printf("pause p50 %.4f p90 %.4f p99 %.4f max %.4f s%n",
+            getPausePercentile(50),getPausePercentile(90),getPausePercentile(99),getMaxPause());
+        out.printf("throughput %.2f%% (worst window %.2f%%)%n",getThroughput()*100,minWindowThroughput*100);
+    }
+
+    public static void main(String[] args) {
+        if(args.length < 1){
+            System.out.println("usage: GcStatsConsumer <gclog>...");
+            return;
+        }
+        TextLineReader r = new TextLineReader();
+        Parser p = new OpenJdkGcFactory().newGcParser();
+        GcStatsConsumer stats = new GcStatsConsumer();
+        p.add(stats);
+        r.addParser(p);
+        for(String file : args){
+            System.out.println(AsciiArt.ANSI_BLUE+file+AsciiArt.ANSI_RESET);
+            r.read(file);
+            stats.printReport(System.out);
+        }
+    }
+}
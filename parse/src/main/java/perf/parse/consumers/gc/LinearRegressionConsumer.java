@@ -42,6 +42,7 @@ public class LinearRegressionConsumer implements JsonConsumer {
 
     long count = 0;
     double sum = 0;
+    double minX = Double.NEGATIVE_INFINITY;
 
     public LinearRegressionConsumer(String keyX, String keyY){
         this(new JsonAccessorFunction(keyX),new JsonAccessorFunction(keyY));
@@ -52,12 +53,18 @@ public class LinearRegressionConsumer implements JsonConsumer {
         this.regression = new SimpleRegression();
     }
 
+    /**
+     * Only use the points with an x above minX (e.g. to skip the warmup at the start of a run)
+     */
+    public void setMinX(double minX){this.minX = minX;}
+    public double getMinX(){return minX;}
+
     @Override
     public void consume(Jsons object) {
         Double x = converterX.apply(object);
         Double y = converterY.apply(object);
 
-        if(!y.isNaN() && !x.isNaN() && x > 120){
+        if(!y.isNaN() && !x.isNaN() && x > minX){
             regression.addData(x,y);
         }
     }
@@ -82,6 +89,7 @@ public class LinearRegressionConsumer implements JsonConsumer {
                     }
                      return Double.NaN;
                 });
+        sc.setMinX(120); // skip the first 2 minutes
         p.add(sc);
 
         r.addParser(p);
@@ -10,6 +10,7 @@ import perf.parse.Merge;
 import perf.parse.Parser;
 import perf.parse.Rule;
 import perf.parse.Value;
+import perf.parse.reader.DstatReader;
 import perf.parse.reader.TextLineReader;
 import perf.util.AsciiArt;
 import perf.util.json.Jsons;
@@ -19,7 +20,8 @@ import java.util.LinkedHashMap;
 import java.util.function.Consumer;
 
 /**
- * DstatFactory - creates a Parser for
+ * DstatFactory - creates a Parser for dstat output that creates a JSONObject for each row.
+ * Use DstatReader to read the rows into a double[] with rolling windows for each column.
  */
 public class DstatFactory {
 
@@ -31,29 +33,9 @@ public class DstatFactory {
     private MatchAction headerMatch = new MatchAction() {
         @Override
         public void onMatch(JSONObject match, Exp pattern, Parser parser) {
-            System.out.println(match.toString(2));
             JSONArray arry = match.getJSONArray("header");
             for(int i=0; i<arry.length(); i++){
-                String header = arry.getString(i);
-
-                if(header.matches(".*[_\\-/].*")){
-                    StringBuilder fixHeader = new StringBuilder(header.length());
-                    for(int c=0; c<header.length(); c++){
-                        char l = header.charAt(c);
-                        if( "_/-".indexOf(l)>-1){
-                            c++;
-                            if(c<header.length()){
-                              fixHeader.append(Character.toUpperCase(header.charAt(c)));
-                            }
-                        }else{
-                            fixHeader.append(l);
-                        }
-                    }
-                    headers.add(fixHeader.toString());
-                }else{
-                    headers.add(header);
-                }
-
+                headers.add(DstatReader.groupName(arry.getString(i)));
             }
         }
     };
@@ -1,44 +1,150 @@
 package perf.parse.internal;
 
+import java.util.Arrays;
+
 /**
- * A mutable wrapper for String that allows us to repeatedly match a pattern and remove the match substring
+ * A mutable, reusable CharSequence that allows us to repeatedly match a pattern and remove the match substring.
+ * The characters are kept in a gap buffer so dropping from the front of the line or just after a previous drop
+ * (the common case for a chain of eating perf.parse.Exp) does not copy or allocate.
  * Created by wreicher
  */
 public class CheatChars implements CharSequence {
 
-    private String line;
+    private char[] chars;
+    private int length; // number of characters in the sequence (excludes the gap)
+    private int gapStart;
+    private int gapLength;
 
+    public CheatChars(){
+        this.chars = new char[256];
+    }
     public CheatChars(String line){
-        this.line = line;
+        this.chars = new char[Math.max(16,line.length())];
+        reset(line);
+    }
+
+    /**
+     * Replace the content with line, re-using the existing buffer when it is large enough
+     * @param line the new content
+     * @return this
+     */
+    public CheatChars reset(CharSequence line){
+        int newLength = line.length();
+        ensureCapacity(newLength);
+        if(line instanceof String){
+            ((String) line).getChars(0,newLength,chars,0);
+        }else{
+            for(int i=0; i<newLength; i++){
+                chars[i] = line.charAt(i);
+            }
+        }
+        setLength(newLength);
+        return this;
+    }
+    public CheatChars reset(char[] source,int offset,int count){
+        ensureCapacity(count);
+        System.arraycopy(source,offset,chars,0,count);
+        setLength(count);
+        return this;
+    }
+    private void ensureCapacity(int capacity){
+        if(capacity > chars.length){
+            chars = new char[Math.max(capacity,chars.length*2)];
+        }
+    }
+    private void setLength(int newLength){
+        length = newLength;
+        gapStart = 0;
+        gapLength = 0;
     }
 
     public void drop(int start, int end){
-        if(start>end || start < 0 || end > line.length()){
-            throw new IllegalArgumentException("Invalid drop range. [length="+line.length()+" start="+start+" end="+end+"] line="+this.toString());
+        if(start>end || start < 0 || end > length){
+            throw new IllegalArgumentException("Invalid drop range. [length="+length+" start="+start+" end="+end+"] line="+this.toString());
+        }
+        if( start==0 && end == length){ //shortcut for common case of dropping the entire line
+            setLength(0);
+            return;
+        }
+        int count = end-start;
+        if(count == 0){
+            return;
         }
-        if( start==0 && end == line.length()){ //shortcut for common case of dropping the entire line
-            line = "";
+        if(end == gapStart){ // dropping the characters right before the gap
+            gapStart = start;
         } else {
-            line = line.substring(0, start) + line.substring(end);
+            moveGap(start);
+        }
+        gapLength+=count;
+        length-=count;
+    }
+    private void moveGap(int position){
+        if(gapLength == 0){
+            gapStart = position;
+            return;
+        }
+        if(position < gapStart){
+            System.arraycopy(chars,position,chars,position+gapLength,gapStart-position);
+        } else if (position > gapStart){
+            System.arraycopy(chars,gapStart+gapLength,chars,gapStart,position-gapStart);
         }
+        gapStart = position;
     }
 
-    public boolean isEmpty(){ return line.isEmpty();}
+    public boolean isEmpty(){ return length == 0;}
 
     @Override
-    public int length() { return line.length(); }
+    public int length() { return length; }
     @Override
-    public char charAt(int index) { return line.charAt(index); }
+    public char charAt(int index) {
+        if(index < 0 || index >= length){
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        return index < gapStart ? chars[index] : chars[index+gapLength];
+    }
     @Override
     public CharSequence subSequence(int start, int end) {
-        return line.subSequence(start,end);
+        if(start < 0 || start > end || end > length){
+            throw new StringIndexOutOfBoundsException("start="+start+" end="+end+" length="+length);
+        }
+        if(end <= gapStart){
+            return new String(chars,start,end-start);
+        }
+        if(start >= gapStart){
+            return new String(chars,start+gapLength,end-start);
+        }
+        char[] joined = Arrays.copyOfRange(chars,start,end+gapLength);
+        System.arraycopy(joined,gapStart-start+gapLength,joined,gapStart-start,end-gapStart);
+        return new String(joined,0,end-start);
     }
     @Override
-    public String toString(){ return line; }
+    public String toString(){ return subSequence(0,length).toString(); }
     @Override
-    public boolean equals(Object obj){ return line.equals(obj); }
+    public boolean equals(Object obj){
+        if(obj == this){
+            return true;
+        }
+        if( !(obj instanceof String) && !(obj instanceof CheatChars) ){
+            return false;
+        }
+        CharSequence other = (CharSequence)obj;
+        if(other.length() != length){
+            return false;
+        }
+        for(int i=0; i<length; i++){
+            if(charAt(i) != other.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
     @Override
-    public int hashCode(){ return line.hashCode(); }
+    public int hashCode(){ // same as String.hashCode
+        int rtrn = 0;
+        for(int i=0; i<length; i++){
+            rtrn = 31*rtrn + charAt(i);
+        }
+        return rtrn;
+    }
 
 }
-
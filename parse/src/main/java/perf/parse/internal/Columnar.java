@@ -0,0 +1,115 @@
+package perf.parse.internal;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary columnar record format written by WriteColumnarConsumer and read by ColumnarReader.
+ * <pre>
+ * file  = MAGIC VERSION block* end
+ * block = records dictionary tags keys strings inline longs doubles
+ * end   = varint 0
+ * </pre>
+ * Each block holds up to a block size of records split into one column per kind of token so the column for the
+ * structure (tags) and the columns for the values compress and decode independently of each other:
+ * <ul>
+ *     <li>records: varint number of records in the block</li>
+ *     <li>dictionary: varint count then each string added to the dictionary in this block as a varint length and UTF-8 bytes.
+ *     The dictionary is shared by every block so a repeated string (thread name, gc cause, key...) is only written once.
+ *     The writer caps the size of the dictionary and only adds keys and short or repeated values</li>
+ *     <li>tags: varint count then one byte per token (see the TAG constants)</li>
+ *     <li>keys: varint count then the varint dictionary id + 1 of the key for each member of an object or 0 for a key
+ *     that is the next string in inline</li>
+ *     <li>strings: varint count then the varint dictionary id of each STRING value</li>
+ *     <li>inline: varint count then each INLINE_STRING value and inline key as a varint length and UTF-8 bytes</li>
+ *     <li>longs: varint count then each integral number as a zig-zag varint</li>
+ *     <li>doubles: varint count then each floating point number as 8 bytes</li>
+ * </ul>
+ */
+public class Columnar {
+
+    public static final int MAGIC = 0x50524342; // PRCB
+    public static final int VERSION = 2;
+
+    public static final byte OBJECT_START = 1;
+    public static final byte OBJECT_END = 2;
+    public static final byte ARRAY_START = 3;
+    public static final byte ARRAY_END = 4;
+    public static final byte STRING = 5;
+    public static final byte LONG = 6;
+    public static final byte DOUBLE = 7;
+    public static final byte TRUE = 8;
+    public static final byte FALSE = 9;
+    public static final byte NULL = 10;
+    public static final byte INLINE_STRING = 11;
+
+    public static void writeInt(OutputStream out,int value) throws IOException {
+        out.write((value >>> 24) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write(value & 0xff);
+    }
+    public static int readInt(InputStream in) throws IOException {
+        return (readByte(in) << 24) | (readByte(in) << 16) | (readByte(in) << 8) | readByte(in);
+    }
+
+    public static void writeVarLong(OutputStream out,long value) throws IOException {
+        while((value & ~0x7fL) != 0){
+            out.write((int)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int)value);
+    }
+    public static long readVarLong(InputStream in) throws IOException {
+        long rtrn = 0;
+        for(int shift=0; shift<64; shift+=7){
+            int b = readByte(in);
+            rtrn |= (long)(b & 0x7f) << shift;
+            if((b & 0x80) == 0){
+                return rtrn;
+            }
+        }
+        throw new IOException("varint is longer than 64 bits");
+    }
+    public static int readVarInt(InputStream in) throws IOException {
+        long value = readVarLong(in);
+        if(value < 0 || value > Integer.MAX_VALUE){
+            throw new IOException("varint "+value+" is not a valid count or id");
+        }
+        return (int)value;
+    }
+
+    public static void writeString(OutputStream out,String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out,bytes.length);
+        out.write(bytes);
+    }
+
+    public static long zigZag(long value){
+        return (value << 1) ^ (value >> 63);
+    }
+    public static long unZigZag(long value){
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if(b < 0){
+            throw new EOFException("columnar stream is truncated");
+        }
+        return b;
+    }
+    public static void readFully(InputStream in,byte[] bytes,int length) throws IOException {
+        int offset = 0;
+        while(offset < length){
+            int read = in.read(bytes,offset,length-offset);
+            if(read < 0){
+                throw new EOFException("columnar stream is truncated");
+            }
+            offset+=read;
+        }
+    }
+}
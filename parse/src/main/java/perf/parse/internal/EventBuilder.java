@@ -0,0 +1,373 @@
+package perf.parse.internal;
+
+import perf.parse.JsonEventSink;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sends perf.parse.Exp matches to JsonEventSinks with the same merge and context rules as the JsonBuilder.
+ * A later line can still replace, extend or add to any name of the open record so the record is kept until the
+ * next record starts. It is kept as slots in primitive arrays that are reused for every record: each slot is an object,
+ * an array or a value with a link to the next slot of its parent. A record does not allocate more than the
+ * String values the matcher returns.
+ * Like JsonBuilder a record can only be closed once per line so the NewStart patterns that follow the first on a
+ * line merge with the new record.
+ */
+public class EventBuilder {
+
+    private static final byte OBJECT = 0;
+    private static final byte ARRAY = 1;
+    private static final byte STRING = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte LONG = 4;
+    private static final byte BOOLEAN = 5;
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private final List<JsonEventSink> sinks;
+
+    //slot columns, the root object of the record is slot 0
+    private byte[] kinds = new byte[64];
+    private String[] names = new String[64]; // null for the values of an array
+    private String[] strings = new String[64];
+    private long[] bits = new long[64]; // long, Double.doubleToRawLongBits or 1 for true
+    private int[] first = new int[64]; // first slot of an object or array
+    private int[] last = new int[64]; // last slot of an object or array
+    private int[] next = new int[64]; // next slot of the parent
+    private int[] lengths = new int[64]; // number of values in an array
+    private int size = 0;
+
+    private int[] contexts = new int[8];
+    private int depth = 0;
+
+    private boolean closedLine = false; // closeRecord was already called on this line
+
+    public EventBuilder(List<JsonEventSink> sinks){
+        this.sinks = sinks;
+    }
+
+    public boolean inRecord(){return size > 0;}
+
+    /**
+     * Send the current record to the sinks and start a new one unless a record was already closed on this line
+     * @return true if the record was closed
+     */
+    public boolean closeRecord(){
+        if(closedLine){
+            return false;
+        }
+        closedLine = true;
+        if(size > 0 && first[ROOT] != NONE){
+            for(int i=0; i<sinks.size(); i++){
+                JsonEventSink sink = sinks.get(i);
+                sink.startObject(null);
+                sendEntries(sink,ROOT);
+                sink.endObject();
+            }
+        }
+        Arrays.fill(names,0,size,null);
+        Arrays.fill(strings,0,size,null);
+        size = 0;
+        clearContext();
+        return true;
+    }
+    /**
+     * Called after each line so the next line can close the record
+     */
+    public void endLine(){
+        closedLine = false;
+    }
+    /**
+     * Send the last record
+     */
+    public void close(){
+        endLine();
+        closeRecord();
+    }
+
+    //contexts, the same as JsonBuilder
+
+    /**
+     * @return the slot of the object that values are added to
+     */
+    public int getCurrentContext(){
+        return depth == 0 ? root() : contexts[depth-1];
+    }
+    public void setCurrentContext(int object){
+        if(depth == 0 || contexts[depth-1] != object){
+            if(depth == contexts.length){
+                contexts = Arrays.copyOf(contexts,depth*2);
+            }
+            contexts[depth++] = object;
+        }
+    }
+    public void popContext(){
+        if(depth > 0){
+            depth--;
+        }
+    }
+    public void clearContext(){
+        depth = 0;
+    }
+
+    //groupings, the same as Exp.grouped for a JSONObject
+
+    /**
+     * Add a new object to the array name of object, creating the array if it is missing (Merge.Entry)
+     * @return the new object
+     */
+    public int entry(int object,String name){
+        int array = find(object,name);
+        if(array == NONE){
+            array = add(object,name,ARRAY);
+        }else if(kinds[array] != ARRAY){
+            throw new IllegalStateException(name+" is not an array");
+        }
+        return add(array,null,OBJECT);
+    }
+    /**
+     * Get the last object in the array name of object or add an array with a new object (Merge.Extend)
+     */
+    public int extend(int object,String name){
+        int array = find(object,name);
+        if(array == NONE){
+            return entry(object,name);
+        }
+        if(kinds[array] != ARRAY){
+            throw new IllegalStateException(name+" is not an array");
+        }
+        return lastObject(array,name);
+    }
+    /**
+     * Get the object name of object, creating it if it is missing (Merge.Collection)
+     */
+    public int collection(int object,String name){
+        int child = find(object,name);
+        if(child == NONE){
+            return add(object,name,OBJECT);
+        }
+        if(kinds[child] != OBJECT){
+            throw new IllegalStateException(name+" is not an object");
+        }
+        return child;
+    }
+    /**
+     * Get the object for a grouping that is not the last grouping of the perf.parse.Exp. An existing array gets a new
+     * object unless extend, then the last object in the array is used.
+     */
+    public int group(int object,String name,boolean extend){
+        int child = find(object,name);
+        if(child != NONE && kinds[child] == ARRAY){
+            if(extend && lengths[child] > 0){
+                return lastObject(child,name);
+            }
+            return add(child,null,OBJECT);
+        }
+        return collection(object,name);
+    }
+    private int lastObject(int array,String name){
+        int rtrn = last[array];
+        if(rtrn == NONE || kinds[rtrn] != OBJECT){
+            throw new IllegalStateException("the last value of "+name+" is not an object");
+        }
+        return rtrn;
+    }
+
+    //values in the current context, the same as the JSONObject methods
+
+    public void put(String name,String value){
+        int slot = replace(name,STRING);
+        strings[slot] = value;
+    }
+    public void put(String name,double value){
+        int slot = replace(name,DOUBLE);
+        bits[slot] = Double.doubleToRawLongBits(value);
+    }
+    public void put(String name,long value){
+        int slot = replace(name,LONG);
+        bits[slot] = value;
+    }
+    public void put(String name,boolean value){
+        int slot = replace(name,BOOLEAN);
+        bits[slot] = value ? 1 : 0;
+    }
+    /**
+     * Add the value to name, turning name into an array if it already has a value
+     */
+    public void accumulate(String name,String value){
+        int object = getCurrentContext();
+        int existing = find(object,name);
+        int slot;
+        if(existing == NONE){
+            slot = add(object,name,STRING);
+        }else{
+            if(kinds[existing] != ARRAY){
+                toArray(existing);
+            }
+            slot = add(existing,null,STRING);
+        }
+        strings[slot] = value;
+    }
+    /**
+     * Add 1 to name, starting at 1 if it does not have a number
+     */
+    public void increment(String name){
+        int object = getCurrentContext();
+        int existing = find(object,name);
+        if(existing != NONE && kinds[existing] == LONG){
+            bits[existing]++;
+        }else if(existing != NONE && kinds[existing] == DOUBLE){
+            bits[existing] = Double.doubleToRawLongBits(Double.longBitsToDouble(bits[existing])+1);
+        }else{
+            put(name,1L);
+        }
+    }
+    public double optDouble(String name,double defaultValue){
+        int existing = find(getCurrentContext(),name);
+        if(existing == NONE){
+            return defaultValue;
+        }
+        switch(kinds[existing]){
+            case DOUBLE: return Double.longBitsToDouble(bits[existing]);
+            case LONG: return bits[existing];
+            case STRING:
+                try {
+                    return Double.parseDouble(strings[existing]);
+                } catch (NumberFormatException e){
+                    return defaultValue;
+                }
+            default: return defaultValue;
+        }
+    }
+    public String optString(String name){
+        int existing = find(getCurrentContext(),name);
+        if(existing == NONE){
+            return "";
+        }
+        switch(kinds[existing]){
+            case STRING: return strings[existing];
+            case DOUBLE: return Double.toString(Double.longBitsToDouble(bits[existing]));
+            case LONG: return Long.toString(bits[existing]);
+            case BOOLEAN: return Boolean.toString(bits[existing] != 0);
+            default: return "";
+        }
+    }
+
+    private int root(){
+        if(size == 0){
+            slot(OBJECT,null);
+        }
+        return ROOT;
+    }
+    private int find(int object,String name){
+        for(int slot = first[object]; slot != NONE; slot = next[slot]){
+            String slotName = names[slot];
+            if(slotName == name || slotName.equals(name)){
+                return slot;
+            }
+        }
+        return NONE;
+    }
+    /**
+     * Get the slot for name in the current context, reusing it as a value of kind if it exists
+     */
+    private int replace(String name,byte kind){
+        int object = getCurrentContext();
+        int existing = find(object,name);
+        if(existing == NONE){
+            return add(object,name,kind);
+        }
+        kinds[existing] = kind;
+        first[existing] = NONE; // drops the content of an object or array
+        last[existing] = NONE;
+        lengths[existing] = 0;
+        strings[existing] = null;
+        return existing;
+    }
+    /**
+     * Move the value in slot to a new slot and make slot an array with it as the first value
+     */
+    private void toArray(int slot){
+        int value = slot(kinds[slot],null);
+        strings[value] = strings[slot];
+        bits[value] = bits[slot];
+        first[value] = first[slot];
+        last[value] = last[slot];
+        lengths[value] = lengths[slot];
+        kinds[slot] = ARRAY;
+        strings[slot] = null;
+        first[slot] = value;
+        last[slot] = value;
+        lengths[slot] = 1;
+    }
+    /**
+     * Add a new slot to the end of parent
+     */
+    private int add(int parent,String name,byte kind){
+        int slot = slot(kind,name);
+        if(last[parent] == NONE){
+            first[parent] = slot;
+        }else{
+            next[last[parent]] = slot;
+        }
+        last[parent] = slot;
+        lengths[parent]++;
+        return slot;
+    }
+    private int slot(byte kind,String name){
+        if(size == kinds.length){
+            int length = size*2;
+            kinds = Arrays.copyOf(kinds,length);
+            names = Arrays.copyOf(names,length);
+            strings = Arrays.copyOf(strings,length);
+            bits = Arrays.copyOf(bits,length);
+            first = Arrays.copyOf(first,length);
+            last = Arrays.copyOf(last,length);
+            next = Arrays.copyOf(next,length);
+            lengths = Arrays.copyOf(lengths,length);
+        }
+        int rtrn = size++;
+        kinds[rtrn] = kind;
+        names[rtrn] = name;
+        first[rtrn] = NONE;
+        last[rtrn] = NONE;
+        next[rtrn] = NONE;
+        lengths[rtrn] = 0;
+        return rtrn;
+    }
+
+    private void sendEntries(JsonEventSink sink,int parent){
+        for(int slot = first[parent]; slot != NONE; slot = next[slot]){
+            send(sink,slot);
+        }
+    }
+    private void send(JsonEventSink sink,int slot){
+        String name = names[slot];
+        switch(kinds[slot]){
+            case OBJECT:
+                sink.startObject(name);
+                sendEntries(sink,slot);
+                sink.endObject();
+                break;
+            case ARRAY:
+                sink.startArray(name);
+                sendEntries(sink,slot);
+                sink.endArray();
+                break;
+            case STRING:
+                sink.field(name,strings[slot]);
+                break;
+            case DOUBLE:
+                sink.field(name,Double.longBitsToDouble(bits[slot]));
+                break;
+            case LONG:
+                sink.field(name,bits[slot]);
+                break;
+            case BOOLEAN:
+                sink.field(name,bits[slot] != 0);
+                break;
+        }
+    }
+}
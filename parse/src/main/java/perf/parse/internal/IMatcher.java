@@ -10,4 +10,11 @@ public interface IMatcher {
     public int start();
     public int end();
     public String group(String name);
+
+    /**
+     * @param name the name of a capture group
+     * @return the index to use with group(int) or -1 if the pattern does not have the group
+     */
+    public int groupIndex(String name);
+    public String group(int index);
 }
@@ -2,37 +2,44 @@ package perf.parse.internal;
 
 import org.json.JSONObject;
 
-import java.util.Stack;
-import java.util.function.Consumer;
+import java.util.Arrays;
 
 /**
  * Created by wreicher
  */
 public class JsonBuilder {
     private JSONObject root;
-    private Stack<JSONObject> currentContext;
+    //context stacks are arrays so push / pop are not synchronized like java.util.Stack and close can swap them
+    private JSONObject[] currentContext;
+    private int currentSize;
 
     private JSONObject closedRoot;
-    private Stack<JSONObject> closedContext;
+    private JSONObject[] closedContext;
+    private int closedSize;
 
     public JsonBuilder(){
         this(new JSONObject());
     }
     public JsonBuilder(JSONObject json){
         root = json;
-        currentContext = new Stack<JSONObject>();
+        currentContext = new JSONObject[8];
+        currentSize = 0;
 
         closedRoot = null;
-        closedContext = new Stack<JSONObject>();;
+        closedContext = new JSONObject[8];
+        closedSize = 0;
     }
 
 
     public boolean close(){
         if(closedRoot == null ){
             closedRoot = root;
-            Stack<JSONObject> tmp = closedContext;
+            JSONObject[] tmp = closedContext;
             closedContext = currentContext;
             currentContext = tmp;
+            int tmpSize = closedSize;
+            closedSize = currentSize;
+            currentSize = tmpSize;
             root = new JSONObject();
             return true;
         }
@@ -51,32 +58,35 @@ public class JsonBuilder {
             rtrn = null;
         }
         closedRoot = null;
-        closedContext.clear();
+        Arrays.fill(closedContext,0,closedSize,null);
+        closedSize = 0;
         return rtrn;
     }
-    public int depth(){return currentContext.size();}
-    public boolean hasContext(){return !currentContext.isEmpty();}
+    public int depth(){return currentSize;}
+    public boolean hasContext(){return currentSize > 0;}
     public JSONObject getRoot(){return root;}
 
     public JSONObject getCurrentContext(){
-        if(currentContext.isEmpty())
+        if(currentSize == 0)
             return root;
         else
-            return currentContext.peek();
+            return currentContext[currentSize-1];
     }
     public void setCurrentContext(JSONObject json){
-        if(currentContext.isEmpty() || currentContext.peek()!=json) {
-
-            currentContext.push(json);
-        } else {
+        if(currentSize == 0 || currentContext[currentSize-1]!=json) {
+            if(currentSize == currentContext.length){
+                currentContext = Arrays.copyOf(currentContext,currentSize*2);
+            }
+            currentContext[currentSize++] = json;
         }
     }
     public void popContext(){
-        if(!currentContext.isEmpty())
-            currentContext.pop();
+        if(currentSize > 0)
+            currentContext[--currentSize] = null;
     }
     public void clearContext(){
-        currentContext.clear();
+        Arrays.fill(currentContext,0,currentSize,null);
+        currentSize = 0;
     }
     public void reset(){
         reset(new JSONObject());
@@ -86,12 +96,9 @@ public class JsonBuilder {
         clearContext();
     }
     public void printContext(){
-        currentContext.forEach(new Consumer<JSONObject>() {
-            @Override
-            public void accept(JSONObject jsonObject) {
-                System.out.println(jsonObject.toString());
-            }
-        });
+        for(int i=0; i<currentSize; i++){
+            System.out.println(currentContext[i].toString());
+        }
 
     }
 }
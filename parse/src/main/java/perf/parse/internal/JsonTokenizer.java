@@ -0,0 +1,332 @@
+package perf.parse.internal;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Tokenizes UTF-8 JSON from the bytes of a stream without decoding them to chars first.
+ * Values can be skipped without building them and the raw bytes of a value can be kept (see mark) so it can be
+ * decoded later.
+ * Syntax errors throw IllegalArgumentException with the byte offset in the input.
+ */
+public class JsonTokenizer {
+
+    private final InputStream stream;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean end;
+    private long discarded = 0; // bytes removed from the front of buffer, for error offsets
+
+    private int mark = -1; // bytes from mark are kept in the buffer when it is refilled
+    private int tokenStart = -1; // start of the token being read, also kept
+
+    public JsonTokenizer(InputStream stream){
+        this(stream,64*1024);
+    }
+    public JsonTokenizer(InputStream stream,int bufferSize){
+        this.stream = stream;
+        this.buffer = new byte[bufferSize];
+        this.position = 0;
+        this.limit = 0;
+        this.end = false;
+    }
+
+    /**
+     * Tokenize bytes that are already in memory, the array is not copied
+     */
+    public JsonTokenizer(byte[] bytes,int offset,int length){
+        this.stream = null;
+        this.buffer = bytes;
+        this.position = offset;
+        this.limit = offset+length;
+        this.end = true;
+    }
+
+    /**
+     * Keep the bytes from the current position in the buffer until clearMark
+     */
+    public void mark(){mark = position;}
+    public void clearMark(){mark = -1;}
+    /**
+     * @return the index in getBuffer of the current position
+     */
+    public int position(){return position;}
+    /**
+     * @return the buffer, only valid until the next read because a refill can move the bytes
+     */
+    public byte[] getBuffer(){return buffer;}
+    /**
+     * @return the index in getBuffer of the byte at mark
+     */
+    public int getMark(){return mark;}
+    /**
+     * @return the offset of the current position in the input
+     */
+    public long offset(){return discarded+position;}
+
+    /**
+     * Move the unread bytes (and any marked bytes) to the front of the buffer and read more
+     * @return false at the end of the input
+     */
+    private boolean fill(){
+        if(end){
+            return false;
+        }
+        int keep = position;
+        if(mark >= 0 && mark < keep){
+            keep = mark;
+        }
+        if(tokenStart >= 0 && tokenStart < keep){
+            keep = tokenStart;
+        }
+        if(keep > 0){
+            System.arraycopy(buffer,keep,buffer,0,limit-keep);
+            limit-=keep;
+            position-=keep;
+            discarded+=keep;
+            if(mark >= 0){
+                mark-=keep;
+            }
+            if(tokenStart >= 0){
+                tokenStart-=keep;
+            }
+        }
+        if(limit == buffer.length){
+            buffer = Arrays.copyOf(buffer,buffer.length*2);
+        }
+        try {
+            int read = stream.read(buffer,limit,buffer.length-limit);
+            if(read < 0){
+                end = true;
+                return false;
+            }
+            limit+=read;
+            return true;
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to read json at byte "+offset(),e);
+        }
+    }
+
+    /**
+     * @return the next non whitespace byte without consuming it or -1 at the end of the input
+     */
+    public int peek(){
+        while(true){
+            while(position < limit){
+                byte b = buffer[position];
+                if(b == ' ' || b == '\n' || b == '\r' || b == '\t'){
+                    position++;
+                }else{
+                    return b & 0xff;
+                }
+            }
+            if(!fill()){
+                return -1;
+            }
+        }
+    }
+    /**
+     * @return the next non whitespace byte or -1 at the end of the input
+     */
+    public int next(){
+        int rtrn = peek();
+        if(rtrn >= 0){
+            position++;
+        }
+        return rtrn;
+    }
+    public void expect(char expected){
+        int b = next();
+        if(b != expected){
+            throw error("Expected "+expected+" but encountered "+describe(b));
+        }
+    }
+    private int read(){
+        if(position == limit && !fill()){
+            throw error("Unexpected end of input");
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    public IllegalArgumentException error(String message){
+        return new IllegalArgumentException(message+" at byte "+offset());
+    }
+    private static String describe(int b){
+        return b < 0 ? "end of input" : "["+(char)b+"]";
+    }
+
+    /**
+     * Read a string, the opening quote must be the next non whitespace byte
+     */
+    public String readString(){
+        expect('"');
+        tokenStart = position;
+        boolean escaped = false;
+        int b;
+        while( (b = read()) != '"' ){
+            if(b == '\\'){
+                escaped = true;
+                read();
+            }
+        }
+        int start = tokenStart;
+        tokenStart = -1;
+        int length = position-1-start;
+        if(!escaped){
+            return new String(buffer,start,length,StandardCharsets.UTF_8);
+        }
+        return unescape(buffer,start,length);
+    }
+    private String unescape(byte[] bytes,int start,int length){
+        StringBuilder sb = new StringBuilder(length);
+        int stop = start+length;
+        int segment = start;
+        for(int i=start; i<stop; i++){
+            if(bytes[i] != '\\'){
+                continue;
+            }
+            //multi byte UTF-8 sequences never contain \ so the segment can be decoded on its own
+            sb.append(new String(bytes,segment,i-segment,StandardCharsets.UTF_8));
+            i++;
+            switch (bytes[i]){
+                case '"': sb.append('"'); break;
+                case '\\': sb.append('\\'); break;
+                case '/': sb.append('/'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if(i+4 >= stop){
+                        throw error("Invalid unicode escape");
+                    }
+                    try {
+                        sb.append((char)Integer.parseInt(new String(bytes,i+1,4,StandardCharsets.US_ASCII),16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    i+=4;
+                    break;
+                default:
+                    throw error("Invalid escape \\"+(char)bytes[i]);
+            }
+            segment = i+1;
+        }
+        sb.append(new String(bytes,segment,stop-segment,StandardCharsets.UTF_8));
+        return sb.toString();
+    }
+
+    /**
+     * Skip the next value (including any nested objects or arrays) without decoding it
+     */
+    public void skipValue(){
+        int b = peek();
+        switch (b){
+            case '"':
+                position++;
+                skipStringBody();
+                break;
+            case '{':
+            case '[':
+                int depth = 0;
+                do {
+                    b = read();
+                    if(b == '"'){
+                        skipStringBody();
+                    }else if(b == '{' || b == '['){
+                        depth++;
+                    }else if(b == '}' || b == ']'){
+                        depth--;
+                    }
+                }while(depth > 0);
+                break;
+            case -1:
+                throw error("Unexpected end of input");
+            default:
+                skipLiteral();
+        }
+    }
+    private void skipStringBody(){
+        int b;
+        while( (b = read()) != '"' ){
+            if(b == '\\'){
+                read();
+            }
+        }
+    }
+    private void skipLiteral(){
+        while(true){
+            while(position < limit){
+                byte b = buffer[position];
+                if(b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t'){
+                    return;
+                }
+                position++;
+            }
+            if(!fill()){
+                return;
+            }
+        }
+    }
+
+    /**
+     * Build the next value as JSONObject, JSONArray, String, Boolean, Number or JSONObject.NULL (the same types as JSONTokener)
+     */
+    public Object readValue(){
+        int b = peek();
+        switch (b){
+            case '"':
+                return readString();
+            case '{':
+                position++;
+                JSONObject object = new JSONObject();
+                if(peek() == '}'){
+                    position++;
+                    return object;
+                }
+                do {
+                    String key = readString();
+                    expect(':');
+                    object.put(key,readValue());
+                    b = next();
+                }while(b == ',');
+                if(b != '}'){
+                    throw error("Expected , or } but encountered "+describe(b));
+                }
+                return object;
+            case '[':
+                position++;
+                JSONArray array = new JSONArray();
+                if(peek() == ']'){
+                    position++;
+                    return array;
+                }
+                do {
+                    array.put(readValue());
+                    b = next();
+                }while(b == ',');
+                if(b != ']'){
+                    throw error("Expected , or ] but encountered "+describe(b));
+                }
+                return array;
+            case -1:
+                throw error("Unexpected end of input");
+            default:
+                tokenStart = position;
+                skipLiteral();
+                int start = tokenStart;
+                tokenStart = -1;
+                if(position == start){
+                    throw error("Unexpected "+describe(b));
+                }
+                return JSONObject.stringToValue(new String(buffer,start,position-start,StandardCharsets.US_ASCII));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package perf.parse.internal;
+
+import org.json.JSONObject;
+import perf.util.json.JsonArray;
+import perf.util.json.Jsons;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A record from JsonArrayReader that keeps the raw bytes of each field and only builds a field the first time it
+ * is read. Decoded fields are kept so reading a field again does not decode it again.
+ * The same record can be read by several threads (e.g. AsyncConsumers) so decoding and reading the decoded fields
+ * hold the lock of the record.
+ */
+public class LazyJsons extends Jsons {
+
+    private final byte[] bytes;
+    private final String[] keys;
+    private final int[] starts;
+    private final int[] ends;
+    private final JSONObject decoded;
+    private int decodedCount = 0;
+    private Set<String> keySet;
+
+    /**
+     * @param bytes the raw UTF-8 JSON of the values
+     * @param keys the name of each field
+     * @param starts where the value of each field starts in bytes
+     * @param ends where the value of each field ends in bytes
+     * @param count the number of fields
+     */
+    public LazyJsons(byte[] bytes,String[] keys,int[] starts,int[] ends,int count){
+        super(null);
+        this.bytes = bytes;
+        this.keys = count == keys.length ? keys : Arrays.copyOf(keys,count);
+        this.starts = starts;
+        this.ends = ends;
+        this.decoded = new JSONObject();
+    }
+
+    private int indexOf(String key){
+        for(int i=keys.length-1; i>=0; i--){ // the last duplicate wins, like JSONObject.put
+            if(keys[i].equals(key)){
+                return i;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Build the field if it has not been built
+     */
+    private synchronized JSONObject decode(String key){
+        if(decodedCount < keys.length && !decoded.has(key)){
+            int index = indexOf(key);
+            if(index >= 0){
+                decoded.put(key,new JsonTokenizer(bytes,starts[index],ends[index]-starts[index]).readValue());
+                decodedCount++;
+            }
+        }
+        return decoded;
+    }
+
+    @Override public boolean has(String key){return indexOf(key) >= 0;}
+    @Override public synchronized Jsons getJson(String key){return new Jsons(decode(key).getJSONObject(key));}
+    @Override public synchronized JsonArray getJsonArray(String key){return new JsonArray(decode(key).getJSONArray(key));}
+    @Override public synchronized double getDouble(String key){return decode(key).getDouble(key);}
+    @Override public synchronized Double optDouble(String key){return decode(key).optDouble(key);}
+    @Override public synchronized long getLong(String key){return decode(key).getLong(key);}
+    @Override public synchronized Long optLong(String key){return decode(key).optLong(key);}
+    @Override public synchronized String getString(String key){return decode(key).getString(key);}
+    @Override public synchronized String optString(String key){return decode(key).optString(key);}
+    @Override public synchronized Object get(String key){return decode(key).get(key);}
+
+    @Override
+    public synchronized Set<String> keySet(){
+        if(keySet == null){
+            LinkedHashSet<String> set = new LinkedHashSet<>();
+            Collections.addAll(set,keys);
+            keySet = Collections.unmodifiableSet(set);
+        }
+        return keySet;
+    }
+
+    @Override
+    public String toString(int indent){
+        return asJSON().toString(indent);
+    }
+
+    /**
+     * @return the record with every field built
+     */
+    @Override
+    public synchronized JSONObject asJSON(){
+        for(String key : keys){
+            decode(key);
+        }
+        return decoded;
+    }
+}
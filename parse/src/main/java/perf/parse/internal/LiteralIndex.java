@@ -0,0 +1,333 @@
+package perf.parse.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An Aho-Corasick automaton over the literal substrings that must appear in a line for each perf.parse.Exp to match.
+ * Scanning a line once marks which literals are present so the Parser can skip patterns that cannot match
+ * without calling the regex engine.
+ * Only ASCII literals are indexed, any other character resets the automaton to the root state.
+ */
+public class LiteralIndex {
+
+    private static final int ALPHABET = 128;
+
+    private static class GiveUp extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        GiveUp(){super(null,null,false,false);}
+    }
+
+    private final int words;
+    private int[] transitions; // state * ALPHABET + char -> next state
+    private long[][] outputs; // state -> ids of the literals that end at the state
+    private int states;
+
+    /**
+     * @param literals the literal for each id, null entries are not indexed
+     */
+    public LiteralIndex(List<String> literals){
+        this.words = Math.max(1,(literals.size()+63)/64);
+        this.transitions = new int[ALPHABET*8];
+        this.outputs = new long[8][];
+        this.states = 1;
+        Arrays.fill(transitions,-1);
+        for(int id=0; id<literals.size(); id++){
+            String literal = literals.get(id);
+            if(literal == null || literal.isEmpty() || !isIndexable(literal)){
+                continue;
+            }
+            int state = 0;
+            for(int i=0; i<literal.length(); i++){
+                int idx = state*ALPHABET+literal.charAt(i);
+                if(transitions[idx] < 0){
+                    int next = newState(); // can replace transitions
+                    transitions[idx] = next;
+                }
+                state = transitions[idx];
+            }
+            output(state)[id>>>6] |= 1L << id;
+        }
+        link();
+    }
+
+    public static boolean isIndexable(String literal){
+        for(int i=0; i<literal.length(); i++){
+            if(literal.charAt(i) >= ALPHABET){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int newState(){
+        if( (states+1)*ALPHABET > transitions.length ){
+            int[] grown = Arrays.copyOf(transitions,transitions.length*2);
+            Arrays.fill(grown,transitions.length,grown.length,-1);
+            transitions = grown;
+        }
+        if( states >= outputs.length ){
+            outputs = Arrays.copyOf(outputs,outputs.length*2);
+        }
+        return states++;
+    }
+    private long[] output(int state){
+        if(outputs[state] == null){
+            outputs[state] = new long[words];
+        }
+        return outputs[state];
+    }
+
+    /**
+     * Turns the trie into a dfa by following the failure links breadth first
+     */
+    private void link(){
+        int[] fail = new int[states];
+        LinkedList<Integer> queue = new LinkedList<>();
+        for(int c=0; c<ALPHABET; c++){
+            int next = transitions[c];
+            if(next < 0){
+                transitions[c] = 0;
+            }else{
+                fail[next] = 0;
+                queue.add(next);
+            }
+        }
+        while(!queue.isEmpty()){
+            int state = queue.removeFirst();
+            if(outputs[fail[state]] != null){
+                long[] target = output(state);
+                long[] inherited = outputs[fail[state]];
+                for(int w=0; w<words; w++){
+                    target[w] |= inherited[w];
+                }
+            }
+            for(int c=0; c<ALPHABET; c++){
+                int idx = state*ALPHABET+c;
+                int next = transitions[idx];
+                if(next < 0){
+                    transitions[idx] = transitions[fail[state]*ALPHABET+c];
+                }else{
+                    fail[next] = transitions[fail[state]*ALPHABET+c];
+                    queue.add(next);
+                }
+            }
+        }
+        transitions = Arrays.copyOf(transitions,states*ALPHABET);
+    }
+
+    public long[] newResult(){return new long[words];}
+
+    /**
+     * Marks the id of every literal that occurs in input
+     * @param input the line to scan
+     * @param found receives the ids of the literals, created by newResult()
+     */
+    public void scan(CharSequence input,long[] found){
+        Arrays.fill(found,0);
+        int state = 0;
+        final int length = input.length();
+        for(int i=0; i<length; i++){
+            char c = input.charAt(i);
+            state = c < ALPHABET ? transitions[state*ALPHABET+c] : 0;
+            long[] out = outputs[state];
+            if(out != null){
+                for(int w=0; w<words; w++){
+                    found[w] |= out[w];
+                }
+            }
+        }
+    }
+    public static boolean has(long[] found,int id){
+        return (found[id>>>6] & (1L << id)) != 0;
+    }
+
+    /**
+     * Finds the longest literal that must appear in any input matched by the java.util.regex pattern.
+     * The analysis is conservative, anything optional, alternated or otherwise uncertain is not considered required.
+     * @param pattern - the java.util.Regex pattern
+     * @return the longest required literal or null if one could not be identified
+     */
+    public static String requiredLiteral(String pattern){
+        List<String> literals;
+        try {
+            int[] idx = new int[]{0};
+            literals = sequence(pattern,idx);
+            if(idx[0] < pattern.length()){
+                return null; //unbalanced )
+            }
+        }catch(GiveUp | IndexOutOfBoundsException e){
+            return null;
+        }
+        String rtrn = null;
+        for(String literal : literals){
+            if(rtrn == null || literal.length() > rtrn.length()){
+                rtrn = literal;
+            }
+        }
+        return rtrn;
+    }
+
+    private static List<String> sequence(String pattern,int[] idx){
+        List<String> rtrn = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        boolean alternation = false;
+        while(idx[0] < pattern.length()){
+            char c = pattern.charAt(idx[0]);
+            if(c == ')'){
+                break;
+            }
+            if(c == '|'){
+                alternation = true;
+                idx[0]++;
+                continue;
+            }
+            int literal = -1;
+            List<String> inner = null;
+            switch(c){
+                case '\\':
+                    char n = pattern.charAt(idx[0]+1);
+                    idx[0]+=2;
+                    if(Character.isLetterOrDigit(n)){
+                        switch (n){
+                            case 'Q': case 'x': case 'u': case 'c': case '0':
+                                throw new GiveUp();
+                            case 'p': case 'P':
+                                if(pattern.charAt(idx[0]) == '{'){
+                                    idx[0] = pattern.indexOf('}',idx[0])+1;
+                                    if(idx[0]==0){ throw new GiveUp(); }
+                                }else{
+                                    idx[0]++;
+                                }
+                                break;
+                            case 'k':
+                                idx[0] = pattern.indexOf('>',idx[0])+1;
+                                if(idx[0]==0){ throw new GiveUp(); }
+                                break;
+                            default:
+                                while(Character.isDigit(n) && idx[0] < pattern.length() && Character.isDigit(pattern.charAt(idx[0]))){
+                                    idx[0]++;
+                                }
+                        }
+                    }else{
+                        literal = n;
+                    }
+                    break;
+                case '[':
+                    skipClass(pattern,idx);
+                    break;
+                case '(':
+                    idx[0]++;
+                    boolean lookaround = false;
+                    if(pattern.startsWith("?:",idx[0]) || pattern.startsWith("?>",idx[0])){
+                        idx[0]+=2;
+                    }else if(pattern.startsWith("?=",idx[0]) || pattern.startsWith("?!",idx[0])){
+                        idx[0]+=2;
+                        lookaround = true;
+                    }else if(pattern.startsWith("?<=",idx[0]) || pattern.startsWith("?<!",idx[0])){
+                        idx[0]+=3;
+                        lookaround = true;
+                    }else if(pattern.startsWith("?<",idx[0])){
+                        idx[0] = pattern.indexOf('>',idx[0])+1;
+                        if(idx[0]==0){ throw new GiveUp(); }
+                    }else if(pattern.startsWith("?",idx[0])){
+                        throw new GiveUp(); //inline flags can change how literals match
+                    }
+                    inner = sequence(pattern,idx);
+                    if(idx[0] >= pattern.length() || pattern.charAt(idx[0]) != ')'){
+                        throw new GiveUp();
+                    }
+                    idx[0]++;
+                    if(lookaround){
+                        inner = null;
+                    }
+                    break;
+                case '*': case '+': case '?': case '{':
+                    throw new GiveUp(); //dangling quantifier
+                case '.': case '^': case '$':
+                    idx[0]++;
+                    break;
+                default:
+                    literal = c;
+                    idx[0]++;
+            }
+
+            int min = 1;
+            boolean quantified = false;
+            if(idx[0] < pattern.length()){
+                char q = pattern.charAt(idx[0]);
+                if(q == '?' || q == '*'){
+                    min = 0;
+                    quantified = true;
+                    idx[0]++;
+                }else if(q == '+'){
+                    quantified = true;
+                    idx[0]++;
+                }else if(q == '{'){
+                    int close = pattern.indexOf('}',idx[0]);
+                    if(close < 0){ throw new GiveUp(); }
+                    String range = pattern.substring(idx[0]+1,close);
+                    int comma = range.indexOf(',');
+                    try {
+                        min = Integer.parseInt(comma < 0 ? range : range.substring(0, comma));
+                    }catch(NumberFormatException e){
+                        throw new GiveUp();
+                    }
+                    quantified = true;
+                    idx[0] = close+1;
+                }
+                if(quantified && idx[0] < pattern.length() && (pattern.charAt(idx[0]) == '?' || pattern.charAt(idx[0]) == '+')){
+                    idx[0]++;
+                }
+            }
+            if(literal >= 0 && !quantified){
+                run.append((char)literal);
+                continue;
+            }
+            if(literal >= 0 && min > 0){
+                run.append((char)literal);
+            }
+            if(run.length() > 0){
+                rtrn.add(run.toString());
+                run.setLength(0);
+            }
+            if(inner != null && min > 0){
+                rtrn.addAll(inner);
+            }
+        }
+        if(run.length() > 0){
+            rtrn.add(run.toString());
+        }
+        if(alternation){
+            rtrn.clear();
+        }
+        return rtrn;
+    }
+    private static void skipClass(String pattern,int[] idx){
+        int depth = 0;
+        do {
+            char c = pattern.charAt(idx[0]);
+            if(c == '\\'){
+                idx[0]+=2;
+                continue;
+            }
+            if(c == '['){
+                depth++;
+                idx[0]++;
+                if(pattern.charAt(idx[0]) == '^'){
+                    idx[0]++;
+                }
+                if(pattern.charAt(idx[0]) == ']'){
+                    idx[0]++; // leading ] is a literal
+                }
+                continue;
+            }
+            if(c == ']'){
+                depth--;
+            }
+            idx[0]++;
+        }while(depth > 0);
+    }
+}
@@ -0,0 +1,130 @@
+package perf.parse.internal;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process wide cache of the work done for each pattern when an Exp is created (compiling the matcher, finding
+ * the group names and the required literal) so creating the same Exp again only creates a new matcher.
+ * The cache keeps the most recently used patterns up to the maximum size.
+ */
+public class PatternCache {
+
+    private static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    /**
+     * Everything about a pattern that does not change between Exp. Creates a new IMatcher for each Exp because
+     * matchers are not thread safe.
+     */
+    public static class Compiled {
+        private final String pattern;
+        private final List<String> groupNames;
+        private final String requiredLiteral;
+        private final StringMatcher stringMatcher; // null if the pattern is not supported
+        private volatile RegexMatcher regexMatcher; // only compiled when needed
+
+        private Compiled(String pattern){
+            this.pattern = pattern;
+            this.groupNames = Collections.unmodifiableList(RegexMatcher.groupNames(pattern));
+            this.requiredLiteral = LiteralIndex.requiredLiteral(pattern);
+            this.stringMatcher = StringMatcher.compile(pattern);
+            if(stringMatcher == null){
+                regexMatcher = new RegexMatcher(pattern); // report an invalid pattern when the Exp is created
+            }
+        }
+
+        public String getPattern(){return pattern;}
+        public List<String> getGroupNames(){return groupNames;}
+        public String getRequiredLiteral(){return requiredLiteral;}
+        public boolean hasStringMatcher(){return stringMatcher != null;}
+
+        /**
+         * @param stringMatching use a StringMatcher if the pattern supports it
+         * @return a new matcher for the pattern
+         */
+        public IMatcher newMatcher(boolean stringMatching){
+            if(stringMatching && stringMatcher != null){
+                return stringMatcher.copy();
+            }
+            RegexMatcher regex = regexMatcher;
+            if(regex == null){
+                regex = new RegexMatcher(pattern);
+                regexMatcher = regex;
+            }
+            return regex.copy();
+        }
+    }
+
+    private static int maximumSize = DEFAULT_MAXIMUM_SIZE;
+    private static final LinkedHashMap<String,Compiled> cache = new LinkedHashMap<String,Compiled>(64,0.75f,true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Compiled> eldest){
+            return size() > maximumSize;
+        }
+    };
+    private static final AtomicLong hits = new AtomicLong(0);
+    private static final AtomicLong misses = new AtomicLong(0);
+
+    /**
+     * @param pattern the java.util.regex pattern
+     * @return the cached Compiled for the pattern, compiling it if it is not in the cache
+     * @throws java.util.regex.PatternSyntaxException if the pattern is not valid
+     */
+    public static Compiled get(String pattern){
+        Compiled rtrn;
+        synchronized (cache){
+            rtrn = cache.get(pattern);
+        }
+        if(rtrn != null){
+            hits.incrementAndGet();
+            return rtrn;
+        }
+        misses.incrementAndGet();
+        Compiled compiled = new Compiled(pattern); // outside the lock so other patterns are not blocked
+        synchronized (cache){
+            rtrn = cache.get(pattern);
+            if(rtrn == null){
+                cache.put(pattern,compiled);
+                rtrn = compiled;
+            }
+        }
+        return rtrn;
+    }
+
+    /**
+     * @param size the number of patterns to keep, 0 disables the cache
+     */
+    public static void setMaximumSize(int size){
+        if(size < 0){
+            throw new IllegalArgumentException("maximum size cannot be negative but was "+size);
+        }
+        synchronized (cache){
+            maximumSize = size;
+            while(cache.size() > maximumSize){
+                cache.remove(cache.keySet().iterator().next());
+            }
+        }
+    }
+    public static int getMaximumSize(){
+        synchronized (cache){
+            return maximumSize;
+        }
+    }
+    public static int size(){
+        synchronized (cache){
+            return cache.size();
+        }
+    }
+    public static void clear(){
+        synchronized (cache){
+            cache.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+    public static long getHits(){return hits.get();}
+    public static long getMisses(){return misses.get();}
+}
@@ -1,6 +1,9 @@
 package perf.parse.internal;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -9,14 +12,17 @@ import java.util.regex.Pattern;
  */
 public class RegexMatcher implements IMatcher {
 
-    private Matcher matcher;
-    private final Matcher fieldMatcher = java.util.regex.Pattern.compile("\\(\\?<([^>]+)>").matcher("");
-    private LinkedHashMap<String,String> renames;
+    private static final Pattern FIELD_PATTERN = Pattern.compile("\\(\\?<([^>]+)>");
+
+    private final Pattern pattern;
+    private final Matcher matcher;
+    private final HashMap<String,String> renames;
+    private final HashMap<String,Integer> groupIndexes;
 
     public RegexMatcher(String pattern){
+        LinkedHashMap<String,String> renames = new LinkedHashMap<>();
         String newPattern = pattern;
-        renames = new LinkedHashMap<>();
-        fieldMatcher.reset(pattern);
+        Matcher fieldMatcher = FIELD_PATTERN.matcher(pattern);
         while(fieldMatcher.find()){
             String realName = fieldMatcher.group(1);
             String compName = realName.replaceAll("\\.","xx");
@@ -25,8 +31,81 @@ public class RegexMatcher implements IMatcher {
             }
             renames.put(realName,compName);
         }
+        this.pattern = Pattern.compile(newPattern);
+        this.matcher = this.pattern.matcher("");
+        this.renames = renames;
+        this.groupIndexes = indexGroups(pattern);
+    }
+
+    /**
+     * Share the compiled pattern and group names with another RegexMatcher
+     */
+    private RegexMatcher(RegexMatcher compiled){
+        this.pattern = compiled.pattern;
+        this.matcher = pattern.matcher("");
+        this.renames = compiled.renames;
+        this.groupIndexes = compiled.groupIndexes;
+    }
+
+    /**
+     * @return a new RegexMatcher for the same pattern that does not recompile the pattern
+     */
+    public RegexMatcher copy(){
+        return new RegexMatcher(this);
+    }
+
+    /**
+     * @return the names of the named groups in the order they appear in the pattern
+     */
+    public static List<String> groupNames(String pattern){
+        List<String> rtrn = new ArrayList<>();
+        Matcher fieldMatcher = FIELD_PATTERN.matcher(pattern);
+        while(fieldMatcher.find()){
+            rtrn.add(fieldMatcher.group(1));
+        }
+        return rtrn;
+    }
 
-        matcher = Pattern.compile(newPattern).matcher("");
+    /**
+     * Find the group number of each named group by counting the capturing groups that open before it
+     */
+    private static HashMap<String,Integer> indexGroups(String pattern){
+        HashMap<String,Integer> rtrn = new HashMap<>();
+        int count = 0;
+        boolean inClass = false;
+        for(int i=0; i<pattern.length(); i++){
+            char c = pattern.charAt(i);
+            if(c == '\\'){
+                if(pattern.startsWith("Q",i+1)){ // quoted until \E
+                    int quoteEnd = pattern.indexOf("\\E",i+2);
+                    i = quoteEnd < 0 ? pattern.length() : quoteEnd+1;
+                }else{
+                    i++;
+                }
+            }else if(inClass){
+                if(c == ']'){
+                    inClass = false;
+                }
+            }else if(c == '['){
+                inClass = true;
+                if(pattern.startsWith("^]",i+1)){
+                    i+=2;
+                }else if(pattern.startsWith("]",i+1)){
+                    i++;
+                }
+            }else if(c == '('){
+                if(!pattern.startsWith("?",i+1)){
+                    count++;
+                }else if(pattern.startsWith("?<",i+1) && !pattern.startsWith("?<=",i+1) && !pattern.startsWith("?<!",i+1)){
+                    count++;
+                    int close = pattern.indexOf('>',i);
+                    if(close > 0){
+                        rtrn.put(pattern.substring(i+3,close),count);
+                    }
+                }
+            }
+        }
+        return rtrn;
     }
 
 
@@ -49,4 +128,11 @@ public class RegexMatcher implements IMatcher {
         String newName = renames.containsKey(name) ? renames.get(name) : name;
         return matcher.group( newName );
     }
+    public int groupIndex(String name){
+        Integer rtrn = groupIndexes.get(name);
+        return rtrn == null ? -1 : rtrn;
+    }
+    public String group(int index){
+        return matcher.group(index);
+    }
 }
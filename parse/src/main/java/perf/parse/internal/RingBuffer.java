@@ -0,0 +1,105 @@
+package perf.parse.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded lock-free queue for many producers and a single consumer.
+ * Each slot has a sequence number that tells a producer when the slot is free and the consumer when it is published
+ * so producers only contend on claiming the tail and never wait on each other.
+ */
+public class RingBuffer<T> {
+
+    private static final int SPINS = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    /**
+     * Wait before trying the RingBuffer again. Spin, then yield, then park so a busy producer is not slowed by a
+     * context switch but an idle thread does not burn a core.
+     * @param spins how many times the caller has already waited
+     * @return the value of spins for the next call
+     */
+    public static int idle(int spins){
+        if(spins < SPINS){
+            // busy spin
+        }else if(spins < SPINS*2){
+            Thread.yield();
+        }else{
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return spins+1;
+    }
+
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(0); // next position to claim
+    private final AtomicLong head = new AtomicLong(0); // next position to consume
+
+    /**
+     * @param capacity rounded up to a power of 2
+     */
+    public RingBuffer(int capacity){
+        if(capacity <= 0){
+            throw new IllegalArgumentException("capacity must be positive but was "+capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity){
+            size = size << 1;
+        }
+        items = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for(int i=0; i<size; i++){
+            sequences.set(i,i);
+        }
+        mask = size-1;
+    }
+
+    public int capacity(){return items.length;}
+    public int size(){
+        return (int)Math.max(0,tail.get()-head.get());
+    }
+    public boolean isEmpty(){return size() == 0;}
+
+    /**
+     * @return false if the buffer is full
+     */
+    public boolean offer(T item){
+        long position = tail.get();
+        while(true){
+            int index = (int)position & mask;
+            long difference = sequences.get(index) - position;
+            if(difference == 0){
+                if(tail.compareAndSet(position,position+1)){
+                    items[index] = item;
+                    sequences.lazySet(index,position+1); // publish
+                    return true;
+                }
+                position = tail.get();
+            }else if(difference < 0){
+                return false; // the consumer has not freed the slot
+            }else{
+                position = tail.get(); // another producer claimed the slot
+            }
+        }
+    }
+
+    /**
+     * Only call from the consumer thread
+     * @return the next item or null if there is not a published item
+     */
+    @SuppressWarnings("unchecked")
+    public T poll(){
+        long position = head.get();
+        int index = (int)position & mask;
+        if(sequences.get(index) != position+1){
+            return null;
+        }
+        T rtrn = (T)items[index];
+        items[index] = null;
+        sequences.lazySet(index,position+items.length); // free for the producer one lap later
+        head.lazySet(position+1);
+        return rtrn;
+    }
+}
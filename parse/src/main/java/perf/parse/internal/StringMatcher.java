@@ -1,234 +1,545 @@
 package perf.parse.internal;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
- *
+ * Matches the subset of java.util.regex patterns that can be matched without backtracking.
+ * A supported pattern is a sequence of literal characters and character class runs (\d \s \w . [...] with
+ * ? * + {n} {n,} or {n,m}) with named groups around any part of the sequence and an optional leading ^.
+ * A run that can vary in length must be followed by something that cannot start with a character in the run
+ * so the greedy (longest) run is the only possible match. This makes find(), start(), end() and group()
+ * identical to java.util.regex.Matcher for the supported patterns.
+ * Groups are captured as offsets into the input, the only allocation is the String returned by group().
  */
 public class StringMatcher implements IMatcher {
 
+    /**
+     * An ASCII lookup table with a single answer for characters >= 128
+     */
+    private static class CharClass {
+        final boolean[] ascii = new boolean[128];
+        boolean nonAscii = false;
+        boolean dot = false; // . does not match the unicode line terminators
+
+        static CharClass of(char c){
+            CharClass rtrn = new CharClass();
+            rtrn.ascii[c] = true;
+            return rtrn;
+        }
+        static CharClass dot(){
+            CharClass rtrn = new CharClass();
+            Arrays.fill(rtrn.ascii,true);
+            rtrn.ascii['\n'] = false;
+            rtrn.ascii['\r'] = false;
+            rtrn.dot = true;
+            return rtrn;
+        }
+        /**
+         * @param c the letter after the \
+         * @return the class or null if c is not a class escape
+         */
+        static CharClass escape(char c){
+            CharClass rtrn = new CharClass();
+            switch(c){
+                case 'd': case 'D':
+                    for(char i='0'; i<='9'; i++){ rtrn.ascii[i] = true; }
+                    break;
+                case 's': case 'S':
+                    for(char i : new char[]{' ','\t','\n',0x0B,'\f','\r'}){ rtrn.ascii[i] = true; }
+                    break;
+                case 'w': case 'W':
+                    for(char i='0'; i<='9'; i++){ rtrn.ascii[i] = true; }
+                    for(char i='a'; i<='z'; i++){ rtrn.ascii[i] = true; }
+                    for(char i='A'; i<='Z'; i++){ rtrn.ascii[i] = true; }
+                    rtrn.ascii['_'] = true;
+                    break;
+                default:
+                    return null;
+            }
+            if(Character.isUpperCase(c)){
+                rtrn.negate();
+            }
+            return rtrn;
+        }
+        void negate(){
+            for(int i=0; i<ascii.length; i++){
+                ascii[i] = !ascii[i];
+            }
+            nonAscii = !nonAscii;
+        }
+        void add(CharClass other){
+            for(int i=0; i<ascii.length; i++){
+                ascii[i] |= other.ascii[i];
+            }
+            nonAscii |= other.nonAscii;
+        }
+        boolean matches(char c){
+            if(c < 128){
+                return ascii[c];
+            }
+            if(dot){
+                return c != 0x85 && c != 0x2028 && c != 0x2029;
+            }
+            return nonAscii;
+        }
+        boolean intersects(CharClass other){
+            for(int i=0; i<ascii.length; i++){
+                if(ascii[i] && other.ascii[i]){
+                    return true;
+                }
+            }
+            return (nonAscii || dot) && (other.nonAscii || other.dot);
+        }
+    }
 
-    private static class Matchable {
-        public String prefix = null;
-        public String name = null;
-        public String expected = null;
-        public String suffix = null;
-        public boolean lastSuffix = false;
-        public boolean forceStart = false;
-        public boolean expectString = false;
-        public boolean forceEnd = false;
+    /**
+     * A literal character or a run of characters from a CharClass
+     */
+    private static class Element {
+        final char literal;
+        final CharClass charClass; // null for a literal
+        final int min;
+        final int max; // -1 for unbounded
+        Element(char literal){
+            this.literal = literal;
+            this.charClass = null;
+            this.min = 1;
+            this.max = 1;
+        }
+        Element(CharClass charClass,int min,int max){
+            this.literal = 0;
+            this.charClass = charClass;
+            this.min = min;
+            this.max = max;
+        }
+        boolean isLiteral(){return charClass == null;}
+        CharClass first(){
+            return isLiteral() ? CharClass.of(literal) : charClass;
+        }
     }
 
-    private LinkedList<Matchable> matchers;
+    private static class Unsupported extends Exception {
+        private static final long serialVersionUID = 1L;
+        Unsupported(){super(null,null,false,false);}
+    }
 
-    private int regionStart;
-    private int regionEnd;
+    private final Element[] elements;
+    private final boolean anchored;
+    private final String[] groupNames;
+    private final int[] groupFirst; // index of the first element in the group
+    private final int[] groupLast; // index after the last element in the group
 
-    private int matchStart;
-    private int matchEnd;
+    private final int[] positions; // offset in the input where each element matched, the last entry is the match end
 
     private CharSequence input;
+    private int regionStart;
+    private int regionEnd;
+    private int searchFrom;
+    private boolean matched;
+
+    private StringMatcher(Element[] elements,boolean anchored,String[] groupNames,int[] groupFirst,int[] groupLast){
+        this.elements = elements;
+        this.anchored = anchored;
+        this.groupNames = groupNames;
+        this.groupFirst = groupFirst;
+        this.groupLast = groupLast;
+        this.positions = new int[elements.length+1];
+    }
 
-    private HashMap<String,String> matches;
-
+    /**
+     * @param pattern the java.util.regex pattern
+     * @throws IllegalArgumentException if the pattern is not supported, check with canMatch
+     */
     public StringMatcher(String pattern){
-        this.matchers = parsePattern(pattern);
-        matches = new HashMap<>();
+        this(compileOrThrow(pattern));
+    }
+    private StringMatcher(StringMatcher compiled){
+        this(compiled.elements,compiled.anchored,compiled.groupNames,compiled.groupFirst,compiled.groupLast);
+    }
+    private static StringMatcher compileOrThrow(String pattern){
+        StringMatcher rtrn = compile(pattern);
+        if(rtrn == null){
+            throw new IllegalArgumentException("StringMatcher does not support "+pattern);
+        }
+        return rtrn;
+    }
+
+    /**
+     * @return a new StringMatcher for the same pattern that shares the compiled elements
+     */
+    public StringMatcher copy(){
+        return new StringMatcher(this);
+    }
+
+    public static boolean canMatch(String pattern){
+        return compile(pattern) != null;
     }
 
     @Override
     public void reset(CharSequence input) {
         this.input = input;
-        regionStart = 0;
-        regionEnd = input.length();
-        matchStart = 0;
-        matchEnd = -1;
+        region(0,input.length());
     }
 
     @Override
-    public boolean find() {
-        int startIdx = matchEnd+1;
-        matches.clear();
-        String str = input.toString();
-        matchEnd = regionStart;
-        matchStart = regionEnd;
-        for( Matchable m : this.matchers ){
-            int prefixIdx = str.indexOf(m.prefix, startIdx);
-            if(prefixIdx < 0 || (m.forceStart && prefixIdx > 0) ){
-                return false;
-            }
+    public void region(int start, int end) {
+        regionStart = start;
+        regionEnd = end;
+        searchFrom = start;
+        matched = false;
+    }
 
-            int suffixIdx = prefixIdx+m.prefix.length();
-            if( m.lastSuffix ){
-                suffixIdx = str.lastIndexOf(m.suffix,regionEnd);
-            } else {
-                suffixIdx = str.indexOf(m.suffix,suffixIdx);
+    @Override
+    public boolean find() {
+        if(anchored){
+            if(searchFrom != regionStart){
+                return matched = false;
             }
-            if(suffixIdx < 0 || ( suffixIdx + m.suffix.length() ) > regionEnd ){
-                return false;
+            matched = matchAt(regionStart);
+        }else{
+            matched = false;
+            int from = searchFrom;
+            while(from < regionEnd && !matched){
+                from = nextCandidate(from);
+                if(from < 0){
+                    break;
+                }
+                matched = matchAt(from);
+                from++;
             }
-            if(m.forceEnd && ( suffixIdx + m.suffix.length() ) != regionEnd){
-                return false;
+        }
+        if(matched){
+            searchFrom = positions[elements.length];
+        }else{
+            searchFrom = regionEnd+1;
+        }
+        return matched;
+    }
+
+    /**
+     * @return the first offset at or after from where the first element could match or -1
+     */
+    private int nextCandidate(int from){
+        Element first = elements[0];
+        if(first.min == 0){
+            return from;
+        }
+        for(int i=from; i<regionEnd; i++){
+            char c = input.charAt(i);
+            if(first.isLiteral() ? c == first.literal : first.charClass.matches(c)){
+                return i;
             }
+        }
+        return -1;
+    }
 
-            if( m.expectString ) {
-                int expectIdx = str.indexOf(m.expected,prefixIdx+m.prefix.length());
-                if(expectIdx < 0 || expectIdx + m.expected.length() != suffixIdx){
+    private boolean matchAt(int start){
+        int pos = start;
+        for(int e=0; e<elements.length; e++){
+            Element element = elements[e];
+            positions[e] = pos;
+            if(element.isLiteral()){
+                if(pos >= regionEnd || input.charAt(pos) != element.literal){
+                    return false;
+                }
+                pos++;
+            }else{
+                int count = 0;
+                while(count != element.max && pos < regionEnd && element.charClass.matches(input.charAt(pos))){
+                    pos++;
+                    count++;
+                }
+                if(count < element.min){
                     return false;
                 }
             }
-
-            matches.put(m.name,str.substring(prefixIdx+m.prefix.length(),suffixIdx));
-
-            if( prefixIdx < matchStart ) {
-                matchStart = prefixIdx;
-            }
-            if(suffixIdx + m.suffix.length() > matchEnd){
-                matchEnd = suffixIdx + m.suffix.length();
-            }
-            startIdx = suffixIdx;
-        }
-        if(matches.size() < matchers.size()) {
-            return false;
         }
+        positions[elements.length] = pos;
         return true;
     }
 
-    @Override
-    public void region(int start, int end) {
-        regionStart = start;
-        regionEnd = end;
-        matchStart = regionStart;
-        matchEnd = regionStart-1;
-    }
-
     @Override
     public int start() {
-        return matchStart;
+        checkMatch();
+        return positions[0];
     }
 
     @Override
     public int end() {
-        return matchEnd;
+        checkMatch();
+        return positions[elements.length];
     }
 
+    @Override
+    public int groupIndex(String name){
+        for(int i=0; i<groupNames.length; i++){
+            if(groupNames[i].equals(name)){
+                return i;
+            }
+        }
+        return -1;
+    }
+    @Override
+    public String group(int index){
+        checkMatch();
+        return input.subSequence(positions[groupFirst[index]],positions[groupLast[index]]).toString();
+    }
     @Override
     public String group(String name) {
-        return matches.get(name);
+        int index = groupIndex(name);
+        if(index < 0){
+            throw new IllegalArgumentException("No group with name <"+name+">");
+        }
+        return group(index);
+    }
+    private void checkMatch(){
+        if(!matched){
+            throw new IllegalStateException("No match found");
+        }
     }
 
+    /**
+     * @return a StringMatcher for the pattern or null if the pattern is not supported
+     */
+    public static StringMatcher compile(String pattern){
+        try {
+            return parse(pattern);
+        } catch (Unsupported | IndexOutOfBoundsException e){
+            return null;
+        }
+    }
 
+    private static StringMatcher parse(String pattern) throws Unsupported {
+        List<Element> elements = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<Integer> firsts = new ArrayList<>();
+        List<Integer> lasts = new ArrayList<>();
+        LinkedList<Integer> open = new LinkedList<>(); // index into names for each open group, -1 for unnamed
+        boolean anchored = false;
+        int idx = 0;
+        if(pattern.startsWith("^")){
+            anchored = true;
+            idx++;
+        }
+        while(idx < pattern.length()){
+            char c = pattern.charAt(idx);
+            CharClass charClass = null;
+            char literal = 0;
+            switch(c){
+                case '(':
+                    if(pattern.startsWith("(?<",idx) && !pattern.startsWith("(?<=",idx) && !pattern.startsWith("(?<!",idx)){
+                        int close = pattern.indexOf('>',idx);
+                        if(close < 0){
+                            throw new Unsupported();
+                        }
+                        open.push(names.size());
+                        names.add(pattern.substring(idx+3,close));
+                        firsts.add(elements.size());
+                        lasts.add(-1);
+                        idx = close+1;
+                    }else if(pattern.startsWith("(?:",idx)){
+                        open.push(-1);
+                        idx+=3;
+                    }else if(pattern.startsWith("(?",idx)){
+                        throw new Unsupported(); // flags, lookaround, atomic groups
+                    }else{
+                        throw new Unsupported(); // unnamed capture groups would change the group numbering
+                    }
+                    continue;
+                case ')':
+                    if(open.isEmpty()){
+                        throw new Unsupported();
+                    }
+                    int group = open.pop();
+                    if(group >= 0){
+                        lasts.set(group,elements.size());
+                    }
+                    idx++;
+                    if(idx < pattern.length() && "?*+{".indexOf(pattern.charAt(idx)) > -1){
+                        throw new Unsupported(); // quantified groups need backtracking
+                    }
+                    continue;
+                case '\\':
+                    char escaped = pattern.charAt(idx+1);
+                    idx+=2;
+                    if(Character.isLetterOrDigit(escaped)){
+                        charClass = CharClass.escape(escaped);
+                        if(charClass == null){
+                            literal = controlEscape(escaped);
+                        }
+                    }else{
+                        literal = escaped;
+                    }
+                    break;
+                case '[':
+                    int[] end = new int[1];
+                    charClass = parseClass(pattern,idx,end);
+                    idx = end[0];
+                    break;
+                case '.':
+                    charClass = CharClass.dot();
+                    idx++;
+                    break;
+                case '^': case '$': case '|': case '?': case '*': case '+': case '{': case '}': case ']':
+                    throw new Unsupported();
+                default:
+                    literal = c;
+                    idx++;
+            }
+            if(literal >= 128){
+                throw new Unsupported();
+            }
+            int min = 1;
+            int max = 1;
+            boolean quantified = false;
+            if(idx < pattern.length()){
+                char q = pattern.charAt(idx);
+                if(q == '?'){
+                    min = 0; max = 1; quantified = true; idx++;
+                }else if(q == '*'){
+                    min = 0; max = -1; quantified = true; idx++;
+                }else if(q == '+'){
+                    min = 1; max = -1; quantified = true; idx++;
+                }else if(q == '{'){
+                    int close = pattern.indexOf('}',idx);
+                    if(close < 0){
+                        throw new Unsupported();
+                    }
+                    String range = pattern.substring(idx+1,close);
+                    int comma = range.indexOf(',');
+                    try {
+                        if(comma < 0){
+                            min = max = Integer.parseInt(range);
+                        }else{
+                            min = Integer.parseInt(range.substring(0,comma));
+                            max = comma == range.length()-1 ? -1 : Integer.parseInt(range.substring(comma+1));
+                        }
+                    }catch (NumberFormatException e){
+                        throw new Unsupported();
+                    }
+                    if(max == 0 || (max > 0 && max < min)){
+                        throw new Unsupported();
+                    }
+                    quantified = true;
+                    idx = close+1;
+                }
+                if(quantified && idx < pattern.length() && (pattern.charAt(idx) == '?' || pattern.charAt(idx) == '+')){
+                    throw new Unsupported(); // reluctant and possessive quantifiers
+                }
+            }
+            if(charClass == null && !quantified){
+                elements.add(new Element(literal));
+            }else{
+                elements.add(new Element(charClass == null ? CharClass.of(literal) : charClass,min,max));
+            }
+        }
+        if(!open.isEmpty() || elements.isEmpty()){
+            throw new Unsupported();
+        }
 
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-    public void print(){
-        System.out.println("StringMatcher: ");
-        System.out.println("input="+input);
-        for(Matchable m : matchers){
-            System.out.println("  Matchable="+m.prefix+"("+m.name+":"+m.expected+")"+m.suffix+" start="+m.forceStart+" end="+m.forceEnd+" last"+m.lastSuffix+" expect="+m.expectString);
+        //a run that can vary in length must not overlap with what can follow it
+        boolean canBeEmpty = true;
+        for(int e=elements.size()-1; e>=0; e--){
+            Element element = elements.get(e);
+            if(element.isLiteral() || element.min == element.max){
+                canBeEmpty = canBeEmpty && element.min == 0;
+                continue;
+            }
+            CharClass follow = new CharClass();
+            for(int f=e+1; f<elements.size(); f++){
+                Element next = elements.get(f);
+                follow.add(next.first());
+                if(next.min > 0){
+                    break;
+                }
+            }
+            if(element.charClass.intersects(follow)){
+                throw new Unsupported();
+            }
+            canBeEmpty = canBeEmpty && element.min == 0;
         }
-        System.out.println("region=("+regionStart+", "+regionEnd+") match=("+matchStart+", "+matchEnd);
-        for(String key : matches.keySet()){
-            System.out.println("  Match <"+key+"> = "+matches.get(key));
+        if(canBeEmpty){
+            throw new Unsupported(); // empty matches change how find() advances
         }
 
+        int[] groupFirst = new int[names.size()];
+        int[] groupLast = new int[names.size()];
+        for(int i=0; i<names.size(); i++){
+            groupFirst[i] = firsts.get(i);
+            groupLast[i] = lasts.get(i);
+        }
+        return new StringMatcher(elements.toArray(new Element[elements.size()]),anchored,names.toArray(new String[names.size()]),groupFirst,groupLast);
     }
 
+    private static char controlEscape(char c) throws Unsupported {
+        switch(c){
+            case 't': return '\t';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 'f': return '\f';
+            case 'a': return '\u0007';
+            case 'e': return '\u001B';
+            default:
+                throw new Unsupported(); // word boundaries, hex and unicode escapes, properties, back references etc
+        }
+    }
 
-
-    public static boolean canMatch(String pattern){
-        return parsePattern(pattern)!=null; // wasteful use of the parsing but nothing compared to the waste of using Regex
-    }
-    private static LinkedList<Matchable> parsePattern(String pattern){
-        LinkedList<Matchable> rtrn = new LinkedList<>();
-        int idx=0;
-        int startIdx = 0;
-        int closeCarretIdx = 0;
-        int closePatternIdx = 0;
-        Matchable prev = null;
-        while(idx<pattern.length() && ( startIdx=pattern.indexOf("(?<",idx)) > -1){
-            closeCarretIdx = pattern.indexOf(">",startIdx);
-            closePatternIdx=closeCarretIdx;
-            while( ( closePatternIdx=pattern.indexOf(")",closePatternIdx+1)) > -1 && pattern.charAt(closePatternIdx-1)== '\\' ) {
-                //do nothing
-            }
-            Matchable next = new Matchable();
-            if (startIdx <= idx ) {
-                return null; // cannot use this form of matcher if each pattern does not have a prefix
-            }
-            next.prefix = pattern.substring(idx,startIdx);
-            if(next.prefix.startsWith("^")){
-                next.forceStart=true;
-                next.prefix = next.prefix.substring(1);
-            }
-            if(prev!=null){
-                prev.suffix=next.prefix;
-                if(prev.suffix.endsWith("$")){
-                    prev.forceEnd = true;
-                    prev.suffix=prev.suffix.substring(0,prev.suffix.length()-1);
+    private static CharClass parseClass(String pattern,int start,int[] end) throws Unsupported {
+        CharClass rtrn = new CharClass();
+        int idx = start+1;
+        boolean negate = false;
+        if(pattern.charAt(idx) == '^'){
+            negate = true;
+            idx++;
+        }
+        if(pattern.charAt(idx) == ']'){
+            throw new Unsupported();
+        }
+        while(pattern.charAt(idx) != ']'){
+            char c = pattern.charAt(idx);
+            char from;
+            if(c == '['  || pattern.startsWith("&&",idx)){
+                throw new Unsupported();
+            }
+            if(c == '\\'){
+                char escaped = pattern.charAt(idx+1);
+                idx+=2;
+                if(Character.isLetterOrDigit(escaped)){
+                    CharClass escapedClass = CharClass.escape(escaped);
+                    if(escapedClass != null){
+                        rtrn.add(escapedClass);
+                        continue;
+                    }
+                    from = controlEscape(escaped);
+                }else{
+                    from = escaped;
                 }
+            }else{
+                from = c;
+                idx++;
             }
-            if(closeCarretIdx <= startIdx+3){
-                return null; //each pattern must have a name
+            char to = from;
+            if(pattern.charAt(idx) == '-' && pattern.charAt(idx+1) != ']'){
+                to = pattern.charAt(idx+1);
+                idx+=2;
+                if(to == '\\' || to == '['){
+                    throw new Unsupported();
+                }
             }
-            next.name = pattern.substring(startIdx+3,closeCarretIdx);
-            String p = pattern.substring(closeCarretIdx + 1, closePatternIdx);
-            if(p == ".*" || p == ".+") {
-                next.lastSuffix=true;
+            if(to >= 128 || to < from){
+                throw new Unsupported();
             }
-            if(!p.matches(".*(?<=\\\\)[dDsSwW].*") && !p.matches(".*(?<!\\\\)[\\.\\*].*")){
-                next.expected = p;
-                next.expectString=true;
+            for(char i=from; i<=to; i++){
+                rtrn.ascii[i] = true;
             }
-            rtrn.add(next);
-            prev = next;
-            idx=closePatternIdx+1;
         }
-        if(closePatternIdx+1 < pattern.length()){
-            prev.suffix = pattern.substring(closePatternIdx+1);
-            if(prev.suffix.endsWith("$")){
-                prev.forceEnd = true;
-                prev.suffix=prev.suffix.substring(0,prev.suffix.length()-1);
-            }
+        end[0] = idx+1;
+        if(negate){
+            rtrn.negate();
         }
-        LinkedList<String> l = new LinkedList<>();
-        l.add(pattern.substring(closePatternIdx+1));
-
         return rtrn;
     }
-
-    public static String pad(int i){
-        if(i<=0)
-            return "";
-        return "                                                                                                                                                                                                              ".substring(0,i);
-    }
-
-
-    public static void main(String[] args) {
-        String pattern = "^(?<timestamp>.{10}T.{17}): ";
-
-        System.out.println(canMatch(pattern));
-
-        String line = "OpenJDK 64-Bit Server VM (25.0-b70) for linux-amd64 JRE (1.8.0-internal-benchuser_2015_01_29_15_41-b00), built on Jan 29 2015 15:43:22 by \"benchuser\" with gcc 4.8.2 20140120 (Red Hat 4.8.2-16)\n";
-        StringMatcher m = new StringMatcher("^\\[(?<gctype>GC) ");
-        m.reset(line);
-        boolean found = m.find();
-        System.out.println("found = "+found);
-        m.print();
-    }
 }
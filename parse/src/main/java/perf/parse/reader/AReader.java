@@ -4,13 +4,14 @@ package perf.parse.reader;
 import perf.parse.Parser;
 import perf.util.file.FileUtility;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Iterator;
 import java.util.Set;
 
 /**
- *
+ * Passes the input to the Parsers in the order they were added
  */
 public abstract class AReader {
 
@@ -24,7 +25,11 @@ public abstract class AReader {
         while(iter.hasNext()){
             iter.next().setup();
         }
-        processInputStream(FileUtility.getInputStream(path));
+        try (InputStream stream = FileUtility.getInputStream(path)){ // an archive entry does not read the stream to the end
+            processInputStream(stream);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
         iter = parsers();
         while(iter.hasNext()){
@@ -35,7 +40,7 @@ public abstract class AReader {
     private Set<Parser> parsers;
 
     public AReader(){
-        parsers = new HashSet<Parser>();
+        parsers = new LinkedHashSet<Parser>();
     }
 
     public void addParser(Parser toAdd){
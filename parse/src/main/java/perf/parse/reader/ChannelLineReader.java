@@ -0,0 +1,123 @@
+package perf.parse.reader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads lines from a FileChannel starting at a byte offset while tracking the byte offset of the next line.
+ * Lines end on '\n', '\r' or "\r\n" the same as TextLineReader. The terminators are single bytes so offsets are
+ * valid for ASCII and UTF-8 input.
+ */
+public class ChannelLineReader {
+
+    private final FileChannel channel;
+    private final Charset charset;
+    private final ByteBuffer buffer;
+
+    private byte[] line;
+    private long position; // offset of the first byte not yet returned in a line
+    private long bufferPosition; // offset of buffer[0]
+    private boolean skipLF = false; // the last line ended with '\r' at the end of the input so a '\n' could follow
+
+    public ChannelLineReader(FileChannel channel,long start){
+        this(channel,start,Charset.defaultCharset(),64*1024);
+    }
+    public ChannelLineReader(FileChannel channel,long start,Charset charset,int bufferSize){
+        this.channel = channel;
+        this.charset = charset;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.flip();
+        this.line = new byte[256];
+        this.position = start;
+        this.bufferPosition = start;
+    }
+
+    /**
+     * @return the byte offset of the start of the next line
+     */
+    public long position(){return position;}
+
+    /**
+     * Read the next line
+     * @return the line without the line terminator or null if there are no more lines
+     * @throws IOException
+     */
+    public String readLine() throws IOException {
+        return readLine(true);
+    }
+
+    /**
+     * Read the next line only if it ends with a line terminator, used to follow a file that is still being written
+     * @return the line without the line terminator or null if there is not a complete line
+     * @throws IOException
+     */
+    public String readCompleteLine() throws IOException {
+        return readLine(false);
+    }
+
+    /**
+     * Read more of the channel if the buffer is empty
+     * @return false if there is nothing left to read
+     */
+    private boolean fill() throws IOException {
+        if(buffer.hasRemaining()){
+            return true;
+        }
+        bufferPosition += buffer.limit();
+        buffer.clear();
+        int read = channel.read(buffer,bufferPosition);
+        buffer.flip();
+        return read > 0;
+    }
+    /**
+     * Consume the next byte if it is the '\n' of a "\r\n"
+     */
+    private void skipLF() throws IOException {
+        if(fill()){
+            skipLF = false;
+            if(buffer.get(buffer.position()) == '\n'){
+                buffer.get();
+                position++;
+            }
+        }else{
+            skipLF = true;
+        }
+    }
+
+    private String readLine(boolean allowPartial) throws IOException {
+        if(skipLF){
+            skipLF();
+        }
+        long lineStart = position;
+        int length = 0;
+        boolean found = false;
+        while(!found && fill()){
+            byte b = buffer.get();
+            position++;
+            if(b == '\n'){
+                found = true;
+            } else if(b == '\r'){
+                found = true;
+                skipLF();
+            } else {
+                if(length == line.length){
+                    line = Arrays.copyOf(line,line.length*2);
+                }
+                line[length++] = b;
+            }
+        }
+        if(!found && (length == 0 || !allowPartial)){
+            if(length > 0){ // read the partial line again once it is complete
+                position = lineStart;
+                bufferPosition = lineStart;
+                buffer.clear();
+                buffer.flip();
+            }
+            return null;
+        }
+        return new String(line,0,length,charset);
+    }
+}
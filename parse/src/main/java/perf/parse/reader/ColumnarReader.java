@@ -0,0 +1,190 @@
+package perf.parse.reader;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import perf.parse.JsonConsumer;
+import perf.parse.internal.Columnar;
+import perf.util.json.Jsons;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * Reads the records written by WriteColumnarConsumer and sends them to the JsonConsumers, like JsonArrayReader
+ * but without tokenizing text.
+ */
+public class ColumnarReader extends AReader {
+
+    private LinkedList<JsonConsumer> consumers;
+
+    //the current block
+    private final ArrayList<String> dictionary = new ArrayList<>();
+    private byte[] tags = new byte[0];
+    private int[] keys = new int[0];
+    private int[] strings = new int[0];
+    private String[] inline = new String[0];
+    private byte[] bytes = new byte[64];
+    private long[] longs = new long[0];
+    private double[] doubles = new double[0];
+    private int tagCount,tagIndex,keyIndex,stringIndex,inlineIndex,longIndex,doubleIndex;
+
+    public ColumnarReader(){
+        consumers = new LinkedList<>();
+    }
+
+    public void add(JsonConsumer consumer){
+        consumers.add(consumer);
+    }
+
+    @Override protected void processInputStream(InputStream stream) {
+        for(JsonConsumer c : consumers){
+            c.start();
+        }
+        dictionary.clear();
+        try (InputStream in = stream instanceof BufferedInputStream ? stream : new BufferedInputStream(stream,64*1024)){
+            int magic = Columnar.readInt(in);
+            if(magic != Columnar.MAGIC){
+                throw new IllegalArgumentException("Expect stream to start with "+Integer.toHexString(Columnar.MAGIC)+" but encountered "+Integer.toHexString(magic));
+            }
+            int version = Columnar.readInt(in);
+            if(version != Columnar.VERSION){
+                throw new IllegalArgumentException("Unsupported columnar version "+version);
+            }
+            int records;
+            while( (records = Columnar.readVarInt(in)) > 0 ){
+                readBlock(in);
+                for(int r=0; r<records; r++){
+                    Object value = decode();
+                    if(!(value instanceof JSONObject)){
+                        throw new IllegalArgumentException("Expect each record to be an object but encountered "+value);
+                    }
+                    Jsons json = new Jsons((JSONObject)value);
+                    for(JsonConsumer jc : consumers){
+                        jc.consume(json);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for(JsonConsumer c : consumers){
+            c.close();
+        }
+    }
+
+    private String readString(InputStream in) throws IOException {
+        int length = Columnar.readVarInt(in);
+        if(length > bytes.length){
+            bytes = new byte[Math.max(length,bytes.length*2)];
+        }
+        Columnar.readFully(in,bytes,length);
+        return new String(bytes,0,length,StandardCharsets.UTF_8);
+    }
+
+    private void readBlock(InputStream in) throws IOException {
+        int added = Columnar.readVarInt(in);
+        for(int i=0; i<added; i++){
+            dictionary.add(readString(in));
+        }
+
+        int count = Columnar.readVarInt(in);
+        if(tags.length < count){
+            tags = new byte[count];
+        }
+        Columnar.readFully(in,tags,count);
+        tagCount = count;
+        keys = readIds(in,keys,1);
+        strings = readIds(in,strings,0);
+        count = Columnar.readVarInt(in);
+        if(inline.length < count){
+            inline = new String[count];
+        }
+        for(int i=0; i<count; i++){
+            inline[i] = readString(in);
+        }
+
+        count = Columnar.readVarInt(in);
+        if(longs.length < count){
+            longs = new long[count];
+        }
+        for(int i=0; i<count; i++){
+            longs[i] = Columnar.unZigZag(Columnar.readVarLong(in));
+        }
+        count = Columnar.readVarInt(in);
+        if(doubles.length < count){
+            doubles = new double[count];
+        }
+        for(int i=0; i<count; i++){
+            long bits = ((long)Columnar.readInt(in) << 32) | (Columnar.readInt(in) & 0xffffffffL);
+            doubles[i] = Double.longBitsToDouble(bits);
+        }
+        tagIndex = 0;
+        keyIndex = 0;
+        stringIndex = 0;
+        inlineIndex = 0;
+        longIndex = 0;
+        doubleIndex = 0;
+    }
+    /**
+     * @param offset added to the dictionary ids in the column
+     */
+    private int[] readIds(InputStream in,int[] ids,int offset) throws IOException {
+        int count = Columnar.readVarInt(in);
+        if(ids.length < count){
+            ids = new int[count];
+        }
+        for(int i=0; i<count; i++){
+            int id = Columnar.readVarInt(in)-offset;
+            if(id >= dictionary.size()){
+                throw new IOException("dictionary id "+id+" is not defined");
+            }
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    private Object decode(){
+        if(tagIndex >= tagCount){
+            throw new IllegalArgumentException("Block ended before the last record");
+        }
+        byte tag = tags[tagIndex++];
+        switch (tag){
+            case Columnar.OBJECT_START:
+                JSONObject object = new JSONObject();
+                while(tagIndex < tagCount && tags[tagIndex] != Columnar.OBJECT_END){
+                    int id = keys[keyIndex++];
+                    String key = id < 0 ? inline[inlineIndex++] : dictionary.get(id);
+                    object.put(key,decode());
+                }
+                tagIndex++;
+                return object;
+            case Columnar.ARRAY_START:
+                JSONArray array = new JSONArray();
+                while(tagIndex < tagCount && tags[tagIndex] != Columnar.ARRAY_END){
+                    array.put(decode());
+                }
+                tagIndex++;
+                return array;
+            case Columnar.STRING:
+                return dictionary.get(strings[stringIndex++]);
+            case Columnar.INLINE_STRING:
+                return inline[inlineIndex++];
+            case Columnar.LONG:
+                return longs[longIndex++];
+            case Columnar.DOUBLE:
+                return doubles[doubleIndex++];
+            case Columnar.TRUE:
+                return Boolean.TRUE;
+            case Columnar.FALSE:
+                return Boolean.FALSE;
+            case Columnar.NULL:
+                return JSONObject.NULL;
+            default:
+                throw new IllegalArgumentException("Unknown columnar tag "+tag+" at "+(tagIndex-1));
+        }
+    }
+}
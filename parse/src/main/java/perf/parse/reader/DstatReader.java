@@ -0,0 +1,480 @@
+package perf.parse.reader;
+
+import perf.util.RollingWindow;
+
+import java.io.InputStream;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.Year;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Reads dstat output (the terminal output or the file from dstat --output) into a double[] per row instead of a
+ * JSONObject per row. The header groups and columns are parsed once and every following row is split and converted in
+ * place against that fixed schema. Columns are named group.column with the same names as DstatFactory
+ * (e.g. totalCpuUsage.idl). Sizes with a K, M, G... suffix are converted to a number the same way as Exp.parseKMG and
+ * time columns (dd-mm HH:MM:SS) are converted to epoch milliseconds in the year from setYear.
+ * Each column also has a RollingWindow of the last setWindowSize values that can be read from another thread while
+ * follow is still reading the output of a running dstat.
+ */
+public class DstatReader extends FollowTextLineReader {
+
+    /**
+     * Receives the rows of dstat output
+     */
+    public interface RowConsumer {
+        /**
+         * Called before the first row and again if the columns change (e.g. dstat restarted with other options)
+         */
+        void start(List<String> columns);
+        /**
+         * @param row the value of each column or NaN, the array is reused for the next row
+         */
+        void consume(double[] row);
+        void close();
+    }
+
+    /**
+     * @return the header of a dstat group in camel case (e.g. total-cpu-usage and total cpu usage are totalCpuUsage)
+     */
+    public static String groupName(String header){
+        StringBuilder sb = new StringBuilder(header.length());
+        for(int c=0; c<header.length(); c++){
+            char l = header.charAt(c);
+            if("_/- ".indexOf(l)>-1){
+                c++;
+                if(c<header.length()){
+                    sb.append(Character.toUpperCase(header.charAt(c)));
+                }
+            }else{
+                sb.append(l);
+            }
+        }
+        return sb.toString();
+    }
+    private static String columnName(String column){
+        return column.replaceAll("[_\\-/ ]","");
+    }
+
+    private final LinkedList<RowConsumer> consumers = new LinkedList<>();
+    private int windowSize = 60;
+    private int year = Year.now().getValue();
+
+    /**
+     * The columns and their windows, replaced together when the header changes so another thread never sees the
+     * windows of one header with the columns of another
+     */
+    private static class Schema {
+        final List<String> columns;
+        final RollingWindow[] windows;
+        final boolean[] timeColumns;
+        Schema(List<String> columns,int windowSize){
+            this.columns = Collections.unmodifiableList(columns);
+            windows = new RollingWindow[columns.size()];
+            timeColumns = new boolean[columns.size()];
+            for(int i=0; i<windows.length; i++){
+                String name = columns.get(i);
+                windows[i] = new RollingWindow(windowSize);
+                timeColumns[i] = name.equals("time") || name.endsWith(".time");
+            }
+        }
+    }
+    private static final Schema EMPTY = new Schema(Collections.emptyList(),1);
+
+    private volatile Schema schema = EMPTY;
+    private double[] row = new double[0];
+    private volatile long rowCount = 0;
+
+    //header state
+    private boolean csv = false;
+    private boolean csvPreamble = false;
+    private List<String> groups = null; // the group headers waiting for the column line
+    private char[] scratch = new char[256];
+
+    public void add(RowConsumer consumer){
+        consumers.add(consumer);
+    }
+
+    /**
+     * @param rows the number of rows in the RollingWindow of each column, only applies to the next schema
+     */
+    public void setWindowSize(int rows){
+        if(rows <= 0){
+            throw new IllegalArgumentException("windowSize must be positive but was "+rows);
+        }
+        this.windowSize = rows;
+    }
+    public int getWindowSize(){return windowSize;}
+
+    /**
+     * dstat does not print the year in the time column
+     */
+    public void setYear(int year){this.year = year;}
+    public int getYear(){return year;}
+
+    public List<String> getColumns(){return schema.columns;}
+    public int indexOf(String column){return schema.columns.indexOf(column);}
+    public long getRowCount(){return rowCount;}
+
+    /**
+     * @return the rolling window of the column or null if the column is not in the current schema
+     */
+    public RollingWindow getWindow(String column){
+        Schema current = schema;
+        int index = current.columns.indexOf(column);
+        return index < 0 ? null : current.windows[index];
+    }
+
+    private void reset(){
+        schema = EMPTY;
+        row = new double[0];
+        rowCount = 0;
+        csv = false;
+        csvPreamble = false;
+        groups = null;
+    }
+    private void closeConsumers(){
+        for(RowConsumer consumer : consumers){
+            consumer.close();
+        }
+    }
+
+    @Override protected void processInputStream(InputStream stream) {
+        reset();
+        super.processInputStream(stream);
+        closeConsumers();
+    }
+    @Override public void follow(String path){
+        reset();
+        super.follow(path);
+        closeConsumers();
+    }
+
+    @Override
+    protected void onLine(char[] chars,int length){
+        for(int i=0; i<length; i++){
+            if(chars[i] == '\u001B'){ // colors from a terminal
+                length = stripEscapes(chars,length);
+                chars = scratch;
+                break;
+            }
+        }
+        int from = 0;
+        while(from < length && chars[from] == ' '){
+            from++;
+        }
+        if(from == length){
+            return;
+        }
+        if(chars[from] == '"' && startsWith(chars,from,length,"\"Dstat")){ // a new csv file, possibly appended to an old one
+            csv = true;
+            csvPreamble = true;
+            groups = null;
+            return;
+        }
+        if(csv && csvPreamble){
+            List<String> cells = csvCells(new String(chars,from,length-from));
+            if(cells.get(0).endsWith(":")){ // Author:, Host:, Cmdline:
+                return;
+            }
+            if(groups == null){
+                groups = new ArrayList<>();
+                String group = "";
+                for(String cell : cells){
+                    if(!cell.isEmpty()){
+                        group = cell;
+                    }
+                    groups.add(group);
+                }
+            }else{
+                List<String> names = new ArrayList<>(cells.size());
+                for(int i=0; i<cells.size(); i++){
+                    String group = i < groups.size() ? groups.get(i) : "";
+                    names.add(group.isEmpty() ? columnName(cells.get(i)) : groupName(group)+"."+columnName(cells.get(i)));
+                }
+                groups = null;
+                csvPreamble = false;
+                setSchema(names);
+            }
+            return;
+        }
+        if(!csv && chars[from] == '-' && contains(chars,from,length,"--")){
+            groups = new ArrayList<>();
+            for(String group : new String(chars,from,length-from).split("-{2,}| +")){
+                group = trimDashes(group);
+                if(!group.isEmpty()){
+                    groups.add(group);
+                }
+            }
+            return;
+        }
+        if(!csv && groups != null){
+            setSchema(textColumns(new String(chars,0,length)));
+            groups = null;
+            return;
+        }
+        if(row.length == 0){ // before the first header
+            return;
+        }
+        if(csv){
+            readCsvRow(chars,from,length);
+        }else{
+            readTextRow(chars,from,length);
+        }
+        RollingWindow[] windows = schema.windows;
+        for(int i=0; i<row.length; i++){
+            windows[i].add(row[i]);
+        }
+        rowCount++;
+        for(RowConsumer consumer : consumers){
+            consumer.consume(row);
+        }
+    }
+
+    private List<String> textColumns(String line){
+        List<String> names = new ArrayList<>();
+        String[] columnGroups = line.split("[|:]");
+        for(int g=0; g<columnGroups.length; g++){
+            String group = g < groups.size() ? groupName(groups.get(g)) : "";
+            for(String column : columnGroups[g].trim().split(" +")){
+                if(!column.isEmpty()){
+                    names.add(group.isEmpty() ? columnName(column) : group+"."+columnName(column));
+                }
+            }
+        }
+        return names;
+    }
+
+    private void setSchema(List<String> names){
+        if(names.equals(schema.columns)){ // dstat repeats the header every screen
+            return;
+        }
+        schema = new Schema(names,windowSize);
+        row = new double[names.size()];
+        for(RowConsumer consumer : consumers){
+            consumer.start(schema.columns);
+        }
+    }
+
+    private void readTextRow(char[] chars,int pos,int length){
+        boolean[] timeColumns = schema.timeColumns;
+        for(int c=0; c<row.length; c++){
+            while(pos < length && isSeparator(chars[pos],true)){
+                pos++;
+            }
+            int start = pos;
+            if(timeColumns[c]){ // dd-mm HH:MM:SS has a space and the : separator
+                while(pos < length && !isSeparator(chars[pos],false)){
+                    pos++;
+                }
+                while(pos < length && chars[pos] == ' '){
+                    pos++;
+                }
+                while(pos < length && !isSeparator(chars[pos],false)){
+                    pos++;
+                }
+                row[c] = parseTime(chars,start,pos);
+            }else{
+                while(pos < length && !isSeparator(chars[pos],true)){
+                    pos++;
+                }
+                row[c] = parseNumber(chars,start,pos);
+            }
+        }
+    }
+    private static boolean isSeparator(char c,boolean colon){
+        return c == ' ' || c == '|' || (colon && c == ':');
+    }
+
+    private void readCsvRow(char[] chars,int pos,int length){
+        boolean[] timeColumns = schema.timeColumns;
+        for(int c=0; c<row.length; c++){
+            int start = pos;
+            while(pos < length && chars[pos] != ','){
+                pos++;
+            }
+            int end = pos;
+            if(end - start >= 2 && chars[start] == '"' && chars[end-1] == '"'){
+                start++;
+                end--;
+            }
+            row[c] = timeColumns[c] ? parseTime(chars,start,end) : parseNumber(chars,start,end);
+            if(pos < length){
+                pos++; // the ,
+            }
+        }
+    }
+
+    /**
+     * @return the number with any K, M, G... suffix applied (1024 based) or NaN if there is not a number
+     */
+    private static final String KMG = "KMGTPEZY";
+    static double parseNumber(char[] chars,int start,int end){
+        while(start < end && chars[start] == ' '){
+            start++;
+        }
+        if(start == end){
+            return Double.NaN;
+        }
+        int pos = start;
+        boolean negative = false;
+        if(chars[pos] == '-'){
+            negative = true;
+            pos++;
+        }
+        long whole = 0;
+        int digits = 0;
+        while(pos < end && chars[pos] >= '0' && chars[pos] <= '9' && digits < 18){
+            whole = whole*10 + (chars[pos++]-'0');
+            digits++;
+        }
+        double value = whole;
+        if(pos < end && chars[pos] == '.'){
+            pos++;
+            double scale = 0.1;
+            while(pos < end && chars[pos] >= '0' && chars[pos] <= '9'){
+                value+=(chars[pos++]-'0')*scale;
+                scale/=10;
+                digits++;
+            }
+        }
+        if(digits == 0){
+            return Double.NaN;
+        }
+        if(pos < end && (chars[pos] == 'e' || chars[pos] == 'E' || (chars[pos] >= '0' && chars[pos] <= '9'))){
+            try {
+                return Double.parseDouble(new String(chars,start,end-start).trim());
+            } catch (NumberFormatException e){
+                return Double.NaN;
+            }
+        }
+        if(pos < end){
+            int power = KMG.indexOf(Character.toUpperCase(chars[pos]))+1;
+            if(power > 0){
+                value*=Math.pow(1024,power);
+                pos++;
+            }
+            if(pos < end && chars[pos] == 'b'){
+                value/=8;
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return the epoch milliseconds of dd-mm HH:MM:SS in year or NaN
+     */
+    double parseTime(char[] chars,int start,int end){
+        int[] fields = new int[5];
+        int field = 0;
+        int digits = 0;
+        for(int i=start; i<end && field < fields.length; i++){
+            char c = chars[i];
+            if(c >= '0' && c <= '9'){
+                fields[field] = fields[field]*10 + (c-'0');
+                digits++;
+            }else if(digits > 0){
+                field++;
+                digits = 0;
+            }
+        }
+        if(digits > 0){
+            field++;
+        }
+        if(field != fields.length){
+            return Double.NaN;
+        }
+        try {
+            return LocalDateTime.of(year,fields[1],fields[0],fields[2],fields[3],fields[4])
+                .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeException e){
+            return Double.NaN;
+        }
+    }
+
+    private int stripEscapes(char[] chars,int length){
+        if(scratch.length < length){
+            scratch = new char[Math.max(length,scratch.length*2)];
+        }
+        int size = 0;
+        for(int i=0; i<length; i++){
+            if(chars[i] == '\u001B'){
+                i++;
+                if(i < length && chars[i] == '['){
+                    while(i+1 < length && !Character.isLetter(chars[i+1])){
+                        i++;
+                    }
+                    i++; // the letter that ends the sequence
+                }
+            }else{
+                scratch[size++] = chars[i];
+            }
+        }
+        return size;
+    }
+
+    private static boolean startsWith(char[] chars,int from,int length,String prefix){
+        if(length-from < prefix.length()){
+            return false;
+        }
+        for(int i=0; i<prefix.length(); i++){
+            if(chars[from+i] != prefix.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+    private static boolean contains(char[] chars,int from,int length,String search){
+        for(int i=from; i<=length-search.length(); i++){
+            if(startsWith(chars,i,length,search)){
+                return true;
+            }
+        }
+        return false;
+    }
+    private static String trimDashes(String group){
+        int start = 0;
+        int end = group.length();
+        while(start < end && group.charAt(start) == '-'){
+            start++;
+        }
+        while(end > start && group.charAt(end-1) == '-'){
+            end--;
+        }
+        return group.substring(start,end);
+    }
+    private static List<String> csvCells(String line){
+        List<String> rtrn = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for(int i=0; i<line.length(); i++){
+            char c = line.charAt(i);
+            if(c == '"'){
+                quoted = !quoted;
+            }else if(c == ',' && !quoted){
+                rtrn.add(cell.toString().trim());
+                cell.setLength(0);
+            }else{
+                cell.append(c);
+            }
+        }
+        rtrn.add(cell.toString().trim());
+        return rtrn;
+    }
+
+    /**
+     * @return the latest value of each column (a NaN does not replace the previous value) or an empty array before the first header
+     */
+    public double[] getLastValues(){
+        RollingWindow[] windows = schema.windows;
+        double[] rtrn = new double[windows.length];
+        for(int i=0; i<windows.length; i++){
+            rtrn[i] = windows[i].getLast();
+        }
+        return rtrn;
+    }
+}
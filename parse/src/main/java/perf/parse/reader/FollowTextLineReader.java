@@ -0,0 +1,153 @@
+package perf.parse.reader;
+
+import perf.parse.Parser;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a file that is still being written (like tail -F) and passes each complete line to the Parsers.
+ * The Parsers are not closed between polls so a record that spans several polls is still one record.
+ * The file is re-opened from the start when it is replaced (log rotation) or becomes shorter than what was already read (truncation).
+ * A truncated file that grows back past the previous position before the next poll cannot be detected.
+ * follow blocks until stop is called, then passes any final partial line to the Parsers and closes them.
+ * A stop that is called before follow starts makes follow read what the file already has and return.
+ */
+public class FollowTextLineReader extends TextLineReader {
+
+    private volatile boolean running = false;
+    private volatile boolean stopped = false;
+    private long pollInterval = 500;
+
+    public void setPollInterval(long milliseconds){
+        if(milliseconds <= 0){
+            throw new IllegalArgumentException("pollInterval must be positive but was "+milliseconds);
+        }
+        this.pollInterval = milliseconds;
+    }
+    public long getPollInterval(){return pollInterval;}
+
+    public boolean isRunning(){return running;}
+    public void stop(){
+        stopped = true;
+    }
+
+    public void follow(String path){
+        Path file = Paths.get(path).toAbsolutePath();
+        running = true;
+
+        Iterator<Parser> iter = parsers();
+        while(iter.hasNext()){
+            iter.next().setup();
+        }
+
+        FileChannel channel = null;
+        Object fileKey = null;
+        ChannelLineReader reader = null;
+
+        try (WatchService watcher = file.getFileSystem().newWatchService()){
+            file.getParent().register(watcher,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+
+            while(true){
+                if(channel == null && Files.exists(file)){
+                    channel = FileChannel.open(file, StandardOpenOption.READ);
+                    fileKey = fileKey(file);
+                    reader = new ChannelLineReader(channel,0);
+                }
+                if(channel != null){
+                    readLines(reader);
+
+                    Object currentKey = fileKey(file);
+                    if(currentKey == null || !Objects.equals(currentKey,fileKey)){ // rotated, finish the old file before opening the new one
+                        readLines(reader);
+                        readPartialLine(reader);
+                        channel.close();
+                        channel = null;
+                        continue;
+                    }
+                    if(channel.size() < reader.position()){ // truncated
+                        reader = new ChannelLineReader(channel,0);
+                        continue;
+                    }
+                }
+                if(stopped){
+                    break;
+                }
+                WatchKey key = watcher.poll(pollInterval, TimeUnit.MILLISECONDS);
+                if(key != null){
+                    key.pollEvents();
+                    key.reset();
+                }
+            }
+            if(channel != null){
+                readLines(reader);
+                readPartialLine(reader);
+            }
+        } catch (IOException | ClosedWatchServiceException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            stopped = false;
+            if(channel != null){
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        iter = parsers();
+        while(iter.hasNext()){
+            iter.next().close();
+        }
+    }
+
+    /**
+     * @return the identity of the file (e.g. the inode) or null if the file does not exist
+     */
+    private static Object fileKey(Path file) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file,BasicFileAttributes.class);
+            return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+        } catch (NoSuchFileException e){
+            return null;
+        }
+    }
+
+    private void readLines(ChannelLineReader reader) throws IOException {
+        String line;
+        while( (line = reader.readCompleteLine()) != null ){
+            onLine(line);
+        }
+    }
+    private void readPartialLine(ChannelLineReader reader) throws IOException {
+        String line = reader.readLine();
+        if(line != null){
+            onLine(line);
+        }
+    }
+    private void onLine(String line){
+        char[] chars = lineBuffer(line.length());
+        line.getChars(0,line.length(),chars,0);
+        onLine(chars,line.length());
+    }
+}
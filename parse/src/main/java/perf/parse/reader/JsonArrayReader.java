@@ -1,21 +1,61 @@
 package perf.parse.reader;
 
-import org.json.JSONObject;
-import org.json.JSONTokener;
 import perf.parse.JsonConsumer;
+import perf.parse.internal.JsonTokenizer;
+import perf.parse.internal.LazyJsons;
 import perf.util.json.Jsons;
 
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- *
+ * Reads a JSON array of objects and sends each object to the JsonConsumers.
+ * The array is tokenized from the bytes of the stream (see JsonTokenizer) on a separate thread by default.
+ * Each object is sent as a lazy view that only builds a field the first time the field is read and fields that are
+ * not in setFields are skipped without being built or kept.
  */
 public class JsonArrayReader extends AReader {
 
-    JSONTokener tokener;
+    private static final AtomicInteger threadCount = new AtomicInteger(0);
+
+    /**
+     * The raw bytes of the fields of one object
+     */
+    private static class Record {
+        final byte[] bytes;
+        final String[] keys;
+        final int[] starts;
+        final int[] ends;
+        final int count;
+        Record(byte[] bytes,String[] keys,int[] starts,int[] ends,int count){
+            this.bytes = bytes;
+            this.keys = keys;
+            this.starts = starts;
+            this.ends = ends;
+            this.count = count;
+        }
+    }
+    private static final Record END = new Record(null,null,null,null,0);
 
     private LinkedList<JsonConsumer> consumers;
+    private Set<String> fields = null; // null reads every field
+    private boolean readAhead = true;
+    private int queueSize = 256;
+
+    //scratch for the record being read, only used by the tokenizing thread
+    private byte[] scratch = new byte[4096];
+    private String[] keys = new String[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
 
     public JsonArrayReader(){
         consumers = new LinkedList<>();
@@ -25,28 +65,175 @@ public class JsonArrayReader extends AReader {
         consumers.add(consumer);
     }
 
+    /**
+     * Only read these top level fields of each object, everything else is skipped without being built
+     * @param fields the field names or none to read every field
+     */
+    public void setFields(String...fields){
+        this.fields = fields == null || fields.length == 0 ? null : Collections.unmodifiableSet(new HashSet<>(Arrays.asList(fields)));
+    }
+    public Set<String> getFields(){return fields == null ? Collections.emptySet() : fields;}
+
+    /**
+     * Tokenize on a separate thread so the consumers do not wait for the input (default is true)
+     */
+    public void setReadAhead(boolean readAhead){this.readAhead = readAhead;}
+    public boolean isReadAhead(){return readAhead;}
+
+    /**
+     * @param queueSize the number of objects the tokenizing thread can read ahead of the consumers
+     */
+    public void setQueueSize(int queueSize){
+        if(queueSize <= 0){
+            throw new IllegalArgumentException("queueSize must be positive but was "+queueSize);
+        }
+        this.queueSize = queueSize;
+    }
+
     @Override protected void processInputStream(InputStream stream) {
         for(JsonConsumer c : consumers){
             c.start();
         }
-        tokener = new JSONTokener(stream);
-        char ch = tokener.next();//ignore the initial [ in the array, throw exception if not the expected char
-        if(ch!='['){
-            throw new IllegalArgumentException("Expect stream to start with [ but encountered ["+ch+"]");
+        JsonTokenizer tokenizer = new JsonTokenizer(stream);
+        if(readAhead){
+            tokenizeOnThread(tokenizer);
+        }else{
+            tokenize(tokenizer,this::emit);
+        }
+        for(JsonConsumer c : consumers){
+            c.close();
+        }
+    }
+
+    private interface RecordSink {
+        void accept(Record record);
+    }
+
+    private void emit(Record record){
+        Jsons json = new LazyJsons(record.bytes,record.keys,record.starts,record.ends,record.count);
+        for(JsonConsumer jc : consumers){
+            jc.consume(json);
         }
-        while(tokener.more()){
-            JSONObject obj = (JSONObject) tokener.nextValue();
-            Jsons json = new Jsons(obj);
-            for(JsonConsumer jc : consumers){
-                jc.consume(json);
+    }
+
+    private void tokenizeOnThread(JsonTokenizer tokenizer){
+        BlockingQueue<Record> queue = new ArrayBlockingQueue<>(queueSize);
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        RuntimeException[] error = new RuntimeException[1];
+        Thread thread = new Thread(()->{
+            RecordSink put = (record)->{
+                try {
+                    while(!queue.offer(record,100,TimeUnit.MILLISECONDS)){
+                        if(stopped.get()){
+                            throw new IllegalStateException("stopped");
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException("interrupted",e);
+                }
+            };
+            try {
+                tokenize(tokenizer,put);
+            } catch (RuntimeException e) {
+                if(!stopped.get()){
+                    error[0] = e;
+                }
+            } finally {
+                while(!stopped.get()){
+                    try {
+                        if(queue.offer(END,100,TimeUnit.MILLISECONDS)){
+                            break;
+                        }
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+        },"JsonArrayReader-"+threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            Record record;
+            while( (record = queue.take()) != END ){
+                emit(record);
             }
-            ch = tokener.next(); // ignore the separating , or terminal ]
-            if(ch!=',' && ch!=']'){
-                throw new IllegalArgumentException("Expect trailing , or ] after each entry but encountered ["+ch+"]");
+            thread.join(); // the error is visible after join
+            if(error[0] != null){
+                throw error[0];
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for "+thread.getName(),e);
+        } finally {
+            stopped.set(true);
         }
-        for(JsonConsumer c : consumers){
-            c.close();
+    }
+
+    private void tokenize(JsonTokenizer tokenizer,RecordSink sink){
+        int ch = tokenizer.next();//ignore the initial [ in the array, throw exception if not the expected char
+        if(ch!='['){
+            throw new IllegalArgumentException("Expect stream to start with [ but encountered ["+(ch < 0 ? "" : (char)ch)+"]");
+        }
+        if(tokenizer.peek() == ']'){
+            tokenizer.next();
+            return;
+        }
+        do {
+            if(tokenizer.peek() != '{'){
+                throw tokenizer.error("Expect each entry to be an object");
+            }
+            sink.accept(readRecord(tokenizer));
+            ch = tokenizer.next(); // ignore the separating , or terminal ]
+        }while(ch == ',');
+        if(ch!=']'){
+            throw new IllegalArgumentException("Expect trailing , or ] after each entry but encountered ["+(ch < 0 ? "" : (char)ch)+"]");
+        }
+    }
+
+    /**
+     * Copy the raw bytes of the fields to read from the next object
+     */
+    private Record readRecord(JsonTokenizer tokenizer){
+        tokenizer.expect('{');
+        int count = 0;
+        int length = 0;
+        if(tokenizer.peek() == '}'){
+            tokenizer.next();
+        }else{
+            int ch;
+            do {
+                String key = tokenizer.readString();
+                tokenizer.expect(':');
+                if(fields == null || fields.contains(key)){
+                    tokenizer.peek();
+                    tokenizer.mark();
+                    tokenizer.skipValue();
+                    int from = tokenizer.getMark();
+                    int size = tokenizer.position()-from;
+                    if(length+size > scratch.length){
+                        scratch = Arrays.copyOf(scratch,Math.max(scratch.length*2,length+size));
+                    }
+                    System.arraycopy(tokenizer.getBuffer(),from,scratch,length,size);
+                    tokenizer.clearMark();
+                    if(count == keys.length){
+                        keys = Arrays.copyOf(keys,count*2);
+                        starts = Arrays.copyOf(starts,count*2);
+                        ends = Arrays.copyOf(ends,count*2);
+                    }
+                    keys[count] = key;
+                    starts[count] = length;
+                    length+=size;
+                    ends[count] = length;
+                    count++;
+                }else{
+                    tokenizer.skipValue();
+                }
+                ch = tokenizer.next();
+            }while(ch == ',');
+            if(ch != '}'){
+                throw tokenizer.error("Expected , or } but encountered ["+(ch < 0 ? "" : (char)ch)+"]");
+            }
         }
+        return new Record(Arrays.copyOf(scratch,length),Arrays.copyOf(keys,count),Arrays.copyOf(starts,count),Arrays.copyOf(ends,count),count);
     }
 }
@@ -0,0 +1,151 @@
+package perf.parse.reader;
+
+import perf.parse.Parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+/**
+ * Reads an uncompressed local file by memory mapping it in segments and finding the line terminators in the mapped bytes.
+ * ASCII lines are copied straight into a reused char[], other lines are decoded with the default charset.
+ * Lines are split the same as TextLineReader (\n, \r or \r\n).
+ * Archives, compressed files and charsets that are not ASCII compatible use the TextLineReader.
+ * A line has to fit in one mapping (Integer.MAX_VALUE bytes), reading stops at a longer line.
+ * Segments are not unmapped when the reader moves past them because Java has no public API to unmap a MappedByteBuffer,
+ * only the current segment is referenced so the others are unmapped when they are garbage collected.
+ */
+public class MappedTextLineReader extends TextLineReader {
+
+    private final Charset charset;
+    private final CharsetDecoder decoder;
+    private long segmentSize = 256*1024*1024;
+
+    public MappedTextLineReader(){
+        this.charset = Charset.defaultCharset();
+        this.decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public void setSegmentSize(long segmentSize){
+        if(segmentSize <= 0 || segmentSize > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("segmentSize must be between 1 and "+Integer.MAX_VALUE+" but was "+segmentSize);
+        }
+        this.segmentSize = segmentSize;
+    }
+    public long getSegmentSize(){return segmentSize;}
+
+    private boolean isAsciiCompatible(){
+        return StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset) || StandardCharsets.ISO_8859_1.equals(charset);
+    }
+
+    @Override
+    public void read(String path){
+        if(!ParallelTextLineReader.isSplittable(path) || !isAsciiCompatible()){
+            super.read(path);
+            return;
+        }
+        Iterator<Parser> iter = parsers();
+        while(iter.hasNext()){
+            iter.next().setup();
+        }
+        try (FileChannel channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ)){
+            readChannel(channel);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        iter = parsers();
+        while(iter.hasNext()){
+            iter.next().close();
+        }
+    }
+
+    private void readChannel(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        long mapSize = segmentSize;
+        while(position < size){
+            long length = Math.min(mapSize,size-position);
+            boolean last = position+length == size;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,position,length);
+            int consumed = readSegment(buffer,(int)length,last);
+            if(consumed == 0){ // a line longer than the segment
+                if(mapSize == Integer.MAX_VALUE){
+                    throw new IOException("line at byte "+position+" is longer than "+Integer.MAX_VALUE+" bytes");
+                }
+                mapSize = Math.min(Integer.MAX_VALUE,mapSize*2);
+            }else{
+                position += consumed;
+                mapSize = segmentSize;
+            }
+        }
+    }
+
+    /**
+     * Send each complete line in the segment to the parsers
+     * @return the number of bytes consumed, the rest are the start of a line that continues in the next segment
+     */
+    private int readSegment(MappedByteBuffer buffer,int length,boolean last){
+        int lineStart = 0;
+        int index = 0;
+        boolean ascii = true;
+        while(index < length){
+            byte b = buffer.get(index);
+            if(b == '\n' || b == '\r'){
+                int next = index+1;
+                if(b == '\r'){
+                    if(next == length && !last){
+                        break; // need the next byte to know if this is \r\n
+                    }
+                    if(next < length && buffer.get(next) == '\n'){
+                        next++;
+                    }
+                }
+                onLine(buffer,lineStart,index,ascii);
+                lineStart = next;
+                index = next;
+                ascii = true;
+            }else{
+                ascii &= b >= 0;
+                index++;
+            }
+        }
+        if(last && lineStart < length){ // last line without a terminator
+            onLine(buffer,lineStart,length,ascii);
+            lineStart = length;
+        }
+        return lineStart;
+    }
+
+    private void onLine(MappedByteBuffer buffer,int start,int end,boolean ascii){
+        int byteLength = end-start;
+        char[] line = lineBuffer(byteLength); // decoding never produces more chars than bytes
+        int charLength;
+        if(ascii){
+            for(int i=0; i<byteLength; i++){
+                line[i] = (char)buffer.get(start+i);
+            }
+            charLength = byteLength;
+        }else{
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.limit(end);
+            bytes.position(start);
+            CharBuffer chars = CharBuffer.wrap(line);
+            decoder.reset();
+            decoder.decode(bytes,chars,true);
+            decoder.flush(chars);
+            charLength = chars.position();
+        }
+        onLine(line,charLength);
+    }
+}
@@ -0,0 +1,225 @@
+package perf.parse.reader;
+
+import perf.parse.Parser;
+import perf.parse.internal.CheatChars;
+import perf.parse.internal.RingBuffer;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads and decodes the input once then passes the lines to each Parser on its own thread.
+ * Lines are collected into batches that every Parser reads in file order so each Parser sees the same lines
+ * as with the TextLineReader, the Parsers just run at the same time.
+ * Each Parser emits to its consumers from its own thread so a JsonConsumer added to more than one Parser must be
+ * thread safe (e.g. wrap it in an AsyncConsumer).
+ * The Parsers are setup and closed by the calling thread in the order they were added.
+ * A single Parser is read with the TextLineReader.
+ * A Parser that throws stops the read and the first failure is thrown from processInputStream once the other Parsers
+ * finish the lines that were already read, the same as the TextLineReader stops on the first failure.
+ */
+public class MultiParserTextLineReader extends TextLineReader {
+
+    private static class Batch {
+        char[] chars = new char[64*1024];
+        int[] ends;
+        int count = 0;
+        int length = 0;
+        final AtomicInteger remaining = new AtomicInteger(0);
+
+        Batch(int lines){
+            ends = new int[lines];
+        }
+        boolean isFull(){return count == ends.length;}
+        void add(char[] line,int lineLength){
+            if(length+lineLength > chars.length){
+                chars = Arrays.copyOf(chars,Math.max(length+lineLength,chars.length*2));
+            }
+            System.arraycopy(line,0,chars,length,lineLength);
+            length+=lineLength;
+            ends[count++] = length;
+        }
+        void clear(){
+            count = 0;
+            length = 0;
+        }
+    }
+
+    /**
+     * Passes each batch to one Parser
+     */
+    private class Worker implements Runnable {
+        final Parser parser;
+        final RingBuffer<Batch> batches;
+        final CheatChars cheatChars = new CheatChars();
+        final Thread thread;
+
+        Worker(Parser parser,int index){
+            this.parser = parser;
+            this.batches = new RingBuffer<>(batchCount+1);//+1 for END
+            this.thread = new Thread(this,"MultiParserTextLineReader-"+index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run(){
+            int spins = 0;
+            boolean failed = false;
+            while(true){
+                Batch batch = batches.poll();
+                if(batch == null){
+                    spins = RingBuffer.idle(spins);
+                    continue;
+                }
+                spins = 0;
+                if(batch == END){
+                    return;
+                }
+                if(!failed){ // a failed worker still releases the batches until END so the reader cannot starve
+                    try {
+                        int start = 0;
+                        for(int i=0; i<batch.count; i++){
+                            int end = batch.ends[i];
+                            parser.onLine(cheatChars.reset(batch.chars,start,end-start));
+                            start = end;
+                        }
+                    } catch (Throwable e){
+                        failed = true;
+                        failure.compareAndSet(null,e);
+                    }
+                }
+                release(batch);
+            }
+        }
+    }
+
+    private final Batch END = new Batch(0);
+
+    private int batchLines = 1024;
+    private int batchCount = 8;
+
+    private List<Worker> workers;
+    private RingBuffer<Batch> free;
+    private Batch current;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public void setBatchLines(int batchLines){
+        if(batchLines <= 0){
+            throw new IllegalArgumentException("batchLines must be positive but was "+batchLines);
+        }
+        this.batchLines = batchLines;
+    }
+    public int getBatchLines(){return batchLines;}
+
+    /**
+     * @param batchCount the number of batches that can be read ahead of the slowest Parser
+     */
+    public void setBatchCount(int batchCount){
+        if(batchCount <= 1){
+            throw new IllegalArgumentException("batchCount must be greater than 1 but was "+batchCount);
+        }
+        this.batchCount = batchCount;
+    }
+    public int getBatchCount(){return batchCount;}
+
+    @Override
+    protected void processInputStream(InputStream stream) {
+        if(parserCount() < 2){
+            super.processInputStream(stream);
+            return;
+        }
+        failure.set(null);
+        free = new RingBuffer<>(batchCount);
+        for(int i=0; i<batchCount; i++){
+            free.offer(new Batch(batchLines));
+        }
+        workers = new ArrayList<>(parserCount());
+        Iterator<Parser> iter = parsers();
+        while(iter.hasNext()){
+            workers.add(new Worker(iter.next(),workers.size()));
+        }
+        for(Worker worker : workers){
+            worker.thread.start();
+        }
+        current = take();
+        try {
+            super.processInputStream(stream);
+            if(current.count > 0){
+                publish(current);
+            }
+        } finally {
+            for(Worker worker : workers){
+                worker.batches.offer(END);
+            }
+            for(Worker worker : workers){
+                try {
+                    worker.thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            workers = null;
+            free = null;
+            current = null;
+        }
+        checkFailure(); // from the last batches
+    }
+
+    @Override
+    protected void onLine(char[] chars,int length){
+        if(workers == null){
+            super.onLine(chars,length);
+            return;
+        }
+        current.add(chars,length);
+        if(current.isFull()){
+            publish(current);
+            current = take();
+        }
+    }
+
+    /**
+     * Throw the first Throwable from a Parser
+     */
+    private void checkFailure(){
+        Throwable e = failure.get();
+        if(e == null){
+            return;
+        }
+        if(e instanceof RuntimeException){
+            throw (RuntimeException)e;
+        }
+        if(e instanceof Error){
+            throw (Error)e;
+        }
+        throw new RuntimeException(e);
+    }
+
+    private void publish(Batch batch){
+        checkFailure();
+        batch.remaining.set(workers.size());
+        for(Worker worker : workers){
+            worker.batches.offer(batch); // cannot be full because there are only batchCount batches
+        }
+    }
+    private void release(Batch batch){
+        if(batch.remaining.decrementAndGet() == 0){
+            batch.clear();
+            free.offer(batch);
+        }
+    }
+    private Batch take(){
+        int spins = 0;
+        Batch rtrn;
+        while( (rtrn = free.poll()) == null ){
+            checkFailure();
+            spins = RingBuffer.idle(spins);
+        }
+        return rtrn;
+    }
+}
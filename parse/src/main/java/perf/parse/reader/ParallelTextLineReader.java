@@ -0,0 +1,192 @@
+package perf.parse.reader;
+
+import org.json.JSONObject;
+import perf.parse.Parser;
+import perf.parse.internal.CheatChars;
+import perf.util.file.FileUtility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+/**
+ * Parses an uncompressed local file by splitting it into byte ranges that are parsed in parallel.
+ * Each split is moved forward to the next line where Parser.test finds a Merge.NewStart pattern so every
+ * record is parsed by exactly one split. The records are sent to the consumers of the registered Parser
+ * in the same order as the file.
+ * The Parser for each split is created by the Supplier passed to addParser so the Parser should not depend
+ * on state from earlier records (e.g. enables / disables or patterns added by a MatchAction).
+ * Archives, compressed files, streaming Parsers and Parsers registered without a Supplier use the serial TextLineReader.
+ */
+public class ParallelTextLineReader extends TextLineReader {
+
+    private static class Registration {
+        final Parser parser;
+        final Supplier<Parser> factory;
+        Registration(Parser parser,Supplier<Parser> factory){
+            this.parser = parser;
+            this.factory = factory;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final List<Registration> registrations;
+    private long splitSize = 8*1024*1024;
+
+    public ParallelTextLineReader(){
+        this(ForkJoinPool.commonPool());
+    }
+    public ParallelTextLineReader(ForkJoinPool pool){
+        this.pool = pool;
+        this.registrations = new LinkedList<>();
+    }
+
+    /**
+     * Register a Parser that can be created for each split.
+     * @param factory creates a new Parser with the same patterns
+     * @return the Parser that receives the records in file order, add the JsonConsumers to it
+     */
+    public Parser addParser(Supplier<Parser> factory){
+        Parser rtrn = factory.get();
+        registrations.add(new Registration(rtrn,factory));
+        super.addParser(rtrn);
+        return rtrn;
+    }
+
+    public void setSplitSize(long splitSize){
+        if(splitSize <= 0){
+            throw new IllegalArgumentException("splitSize must be positive but was "+splitSize);
+        }
+        this.splitSize = splitSize;
+    }
+    public long getSplitSize(){return splitSize;}
+
+    public static boolean isSplittable(String path){
+        if(FileUtility.isArchiveEntryPath(path) || FileUtility.isArchive(path)){
+            return false;
+        }
+        if(path.endsWith(".gz") || path.endsWith(".bz2") || path.endsWith(".tbz2") || path.endsWith(".Z")){
+            return false;
+        }
+        return new File(path).isFile();
+    }
+
+    private boolean isStreaming(){
+        for(Registration registration : registrations){
+            if(registration.parser.isStreaming()){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void read(String path){
+        if(!isSplittable(path) || registrations.size() != parserCount() || isStreaming()){
+            super.read(path);
+            return;
+        }
+        for(Registration registration : registrations){
+            registration.parser.setup();
+        }
+        try (FileChannel channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ)){
+            long size = channel.size();
+            for(Registration registration : registrations){
+                readSplits(channel,size,registration);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for(Registration registration : registrations){
+            registration.parser.close();
+        }
+    }
+
+    private void readSplits(FileChannel channel,long size,Registration registration){
+        int splits = (int)Math.max(1,(size + splitSize - 1) / splitSize);
+
+        //find where each split starts in parallel, the first split always starts at the beginning of the file
+        List<ForkJoinTask<Long>> boundaryTasks = new ArrayList<>(splits);
+        for(int i=1; i<splits; i++){
+            final long start = i*splitSize;
+            boundaryTasks.add(pool.submit(()->findBoundary(channel,start,size,registration.factory.get())));
+        }
+        long boundaries[] = new long[splits+1];
+        boundaries[0] = 0;
+        for(int i=1; i<splits; i++){
+            boundaries[i] = boundaryTasks.get(i-1).join();
+        }
+        boundaries[splits] = size;
+
+        //limit how many splits are parsed ahead of the consumers
+        int window = Math.max(2,pool.getParallelism()*2);
+        LinkedList<ForkJoinTask<List<JSONObject>>> pending = new LinkedList<>();
+        int next = 0;
+        while(next < splits || !pending.isEmpty()){
+            while(next < splits && pending.size() < window){
+                final long start = boundaries[next];
+                final long end = boundaries[next+1];
+                pending.add(pool.submit(()->parseSplit(channel,start,end,registration.factory.get())));
+                next++;
+            }
+            List<JSONObject> records = pending.removeFirst().join();
+            for(JSONObject record : records){
+                registration.parser.emit(record);
+            }
+        }
+    }
+
+    /**
+     * @return the offset of the first line at or after start where parser.test is true
+     */
+    private static long findBoundary(FileChannel channel,long start,long size,Parser parser){
+        try {
+            ChannelLineReader reader = new ChannelLineReader(channel,start-1);
+            reader.readLine(); // skip to the start of the next line (or consume the \n at start-1)
+            long lineStart = reader.position();
+            String line;
+            while( (line = reader.readLine()) != null ){
+                if(parser.test(line)){
+                    return lineStart;
+                }
+                lineStart = reader.position();
+            }
+            return size;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<JSONObject> parseSplit(FileChannel channel,long start,long end,Parser parser){
+        List<JSONObject> rtrn = new ArrayList<>();
+        if(start >= end){
+            return rtrn;
+        }
+        try {
+            ChannelLineReader reader = new ChannelLineReader(channel,start);
+            CheatChars cheatChars = new CheatChars();
+            String line;
+            while( reader.position() < end && (line = reader.readLine()) != null ){
+                JSONObject record = parser.onLine(cheatChars.reset(line));
+                if(record != null){
+                    rtrn.add(record);
+                }
+            }
+            JSONObject last = parser.close();
+            if(last != null){
+                rtrn.add(last);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return rtrn;
+    }
+}
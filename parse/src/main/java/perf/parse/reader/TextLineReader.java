@@ -3,30 +3,103 @@ package perf.parse.reader;
 import perf.parse.internal.CheatChars;
 import perf.parse.Parser;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
 import java.util.Iterator;
 
 /**
- *
+ * Reads the input one line at a time and passes each line to every Parser.
+ * Lines are split on \n, \r or \r\n (the same as BufferedReader.readLine) into a reused char[] and each Parser
+ * receives a reused CheatChars so reading does not create a String per line.
  */
 public class TextLineReader extends AReader {
 
+    private static final int BUFFER_SIZE = 64*1024;
+
+    private final CheatChars cheatChars = new CheatChars();
+    private char[] line = new char[256];
+    private int lineLength = 0;
+
     @Override protected void processInputStream(InputStream stream) {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-        String line = null;
-        Iterator<Parser> iter = null;
+        Reader reader = new InputStreamReader(stream);
+        char[] buffer = new char[BUFFER_SIZE];
+        boolean skipLF = false;
+        lineLength = 0;
         try {
-            while((line = reader.readLine())!=null){
-                iter = parsers();
-                while(iter.hasNext()){
-                    iter.next().onLine(new CheatChars(line));
+            int read;
+            while( (read = reader.read(buffer,0,buffer.length)) > -1 ){
+                int pos = 0;
+                if(skipLF && read > 0 && buffer[0]=='\n'){
+                    pos++;
                 }
+                skipLF = false;
+                while(pos < read){
+                    int end = pos;
+                    while(end < read && buffer[end]!='\n' && buffer[end]!='\r'){
+                        end++;
+                    }
+                    append(buffer,pos,end-pos);
+                    if(end == read){ // the line continues in the next read
+                        break;
+                    }
+                    onLine();
+                    if(buffer[end]=='\r'){
+                        if(end+1 < read){
+                            if(buffer[end+1]=='\n'){
+                                end++;
+                            }
+                        }else{
+                            skipLF = true;
+                        }
+                    }
+                    pos = end+1;
+                }
+            }
+            if(lineLength > 0){ // last line without a terminator
+                onLine();
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    private void append(char[] source,int offset,int count){
+        if(lineLength+count > line.length){
+            line = Arrays.copyOf(line,Math.max(lineLength+count,line.length*2));
+        }
+        System.arraycopy(source,offset,line,lineLength,count);
+        lineLength+=count;
+    }
+
+    private void onLine(){
+        onLine(line,lineLength);
+        lineLength = 0;
+    }
+
+    /**
+     * The reused line buffer for readers that fill the line themselves before calling onLine(char[],int)
+     * @param capacity the number of chars the line needs
+     * @return the line buffer, the content is not kept when it grows
+     */
+    protected char[] lineBuffer(int capacity){
+        if(capacity > line.length){
+            line = new char[Math.max(capacity,line.length*2)];
+        }
+        return line;
+    }
+
+    /**
+     * Pass a line to the Parsers
+     * @param chars the line without a line terminator, only valid until the method returns
+     * @param length the number of chars in the line
+     */
+    protected void onLine(char[] chars,int length){
+        Iterator<Parser> iter = parsers();
+        while(iter.hasNext()){
+            iter.next().onLine(cheatChars.reset(chars,0,length));
+        }
+    }
 }
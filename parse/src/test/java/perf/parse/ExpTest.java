@@ -8,6 +8,7 @@ import perf.parse.internal.CheatChars;
 import perf.parse.internal.JsonBuilder;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -69,6 +70,19 @@ public class ExpTest {
 
         assertTrue("Status should have <lock> as child object", status.has("lock"));
     }
+    @Test
+    public void requiresState(){
+        Parser parser = new Parser();
+        JsonBuilder b = new JsonBuilder();
+        Exp start = new Exp("start","start").enables("started");
+        Exp kv = new Exp("kv","(?<key>\\w+)=(?<value>\\w+)").requires("started").set(Rule.Repeat).set("key","value");
+        assertFalse("should not match before the state is enabled",kv.apply(new CheatChars("foo=bar"),b,parser));
+        start.apply(new CheatChars("start"),b,parser);
+        assertTrue("state should be enabled by start",parser.getState("started"));
+        assertTrue(kv.apply(new CheatChars("foo=bar fizz=fuzz"),b,parser));
+        assertEquals("Rule.Repeat should match both pairs","fuzz",b.getRoot().getString("fizz"));
+    }
+
     @Test
     @Ignore
     public void valueNestLength(){
@@ -297,4 +311,103 @@ public class ExpTest {
         assertTrue("<kv> should have kv.size",b.getRoot().getJSONObject("kv").has("size"));
         assertTrue("<kv> should have kv.age",b.getRoot().getJSONObject("kv").has("age"));
     }
+
+    private static Exp compilable(){
+        return new Exp("gc","\\[(?<name>\\w+): (?<pregc>\\d+[KMG]?)->(?<postgc>\\d+[KMG]?)\\]")
+            .group("region")
+            .key("name")
+            .set(Rule.Repeat)
+            .eat(Eat.Match)
+            .set("pregc",Value.KMG)
+            .set("postgc",Value.KMG)
+            .add(new Exp("secs","(?<secs>\\d+\\.\\d+) secs")
+                .set(Rule.LineStart)
+                .set("secs",Value.Number))
+            .add(new Exp("user","user=(?<user>\\d+\\.\\d+)")
+                .set("user",Value.Sum)
+                .set(Rule.LineStart))
+            .add(new Exp("full","(?<full>Full)")
+                .set("full",Value.BooleanKey)
+                .set(Rule.LineStart))
+            .add(new Exp("at","(?<at>Times)")
+                .set("at",Value.Position)
+                .set(Rule.LineStart));
+    }
+    private static Exp[] compilables(){
+        return new Exp[]{
+            compilable(),
+            new Exp("real","real=(?<real>\\d+\\.\\d+)").set("real",Value.Number).eat(Eat.Line),
+            new Exp("other","(?<other>\\w+)").eat(3)
+        };
+    }
+    private static JSONObject apply(Exp[] exps,CheatChars line){
+        JsonBuilder b = new JsonBuilder();
+        Parser parser = new Parser();
+        for(Exp exp : exps){
+            exp.apply(line,b,parser);
+        }
+        return b.getRoot();
+    }
+
+    @Test
+    public void compiledMatchesInterpreter(){
+        String[] lines = new String[]{
+            "[Full GC [PSYoungGen: 10047K->0K] [ParOldGen: 24K->9138K] 0.0357059 secs] [Times: user=0.46 sys=0.03, real=0.04 secs]",
+            "[GC [PSYoungGen: 2097152K->20000K] 0.0123000 secs] [Times: user=0.10 sys=0.01, real=0.01 secs]",
+            "no match"
+        };
+        for(String line : lines){
+            CheatChars interpretedLine = new CheatChars(line);
+            JSONObject interpreted = apply(compilables(),interpretedLine);
+            Exp[] compiled = compilables();
+            for(Exp exp : compiled){
+                assertTrue("should compile but "+exp.getCompileProblem(),exp.compile());
+            }
+            CheatChars compiledLine = new CheatChars(line);
+            JSONObject json = apply(compiled,compiledLine);
+            assertTrue("expected "+interpreted+" but was "+json,interpreted.similar(json));
+            assertEquals("should eat the same input",interpretedLine.toString(),compiledLine.toString());
+        }
+    }
+
+    @Test
+    public void compileProblem(){
+        Exp string = new Exp("string","(?<message>.+)").set("message",Value.String);
+        assertFalse(string.compile());
+        assertTrue(string.getCompileProblem().contains("Value.String"));
+        Exp parent = new Exp("parent","(?<a>\\w+)").debug().add(new Exp("child","(?<b>\\d+)"));
+        assertFalse("debug should be interpreted",parent.compile());
+        assertEquals(1,parent.childCount());
+    }
+
+    @Test
+    public void changeAfterCompile(){
+        Exp p = new Exp("num","(?<num>\\d+)");
+        assertTrue(p.compile());
+        p.set(Rule.Repeat);
+        assertFalse("changing the definition should discard the generated code",p.isCompiled());
+        JsonBuilder b = new JsonBuilder();
+        p.apply(new CheatChars("1 2"),b,null);
+        assertEquals("Rule.Repeat should be used after the change",2,b.getRoot().getJSONArray("num").length());
+        assertTrue(p.compile());
+        b = new JsonBuilder();
+        p.apply(new CheatChars("1 2 3"),b,null);
+        assertEquals(3,b.getRoot().getJSONArray("num").length());
+    }
+
+    @Test
+    public void compiledStatesAndActions(){
+        int[] calls = new int[]{0};
+        Parser parser = new Parser();
+        Exp p = new Exp("kv","(?<key>\\w+)=(?<value>\\w+)").requires("started").enables("done").set("key","value")
+            .execute((json,exp,pp)->calls[0]++);
+        assertTrue(p.compile());
+        JsonBuilder b = new JsonBuilder();
+        assertFalse("should require started",p.apply(new CheatChars("foo=bar"),b,parser));
+        parser.setState("started",true);
+        assertTrue(p.apply(new CheatChars("foo=bar"),b,parser));
+        assertEquals("bar",b.getRoot().getString("foo"));
+        assertEquals(1,calls[0]);
+        assertTrue(parser.getState("done"));
+    }
 }
@@ -0,0 +1,234 @@
+package perf.parse;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import perf.parse.consumers.WriteJsonEventSink;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class ParserTest {
+
+    private static Parser newParser(){
+        Parser p = new Parser();
+        p.add(new Exp("timestamp","^(?<timestamp>\\d+\\.\\d+): ").set(Merge.NewStart).set("timestamp",Value.Number).eat(Eat.Match));
+        p.add(new Exp("heap","\\[(?<name>\\w+): (?<size>\\d+[KMG])\\]").group("heap").set("size",Value.KMG));
+        p.add(new Exp("kv","(?<key>\\w+)=(?<value>\\w+)").set("key","value").set(Rule.Repeat));
+        return p;
+    }
+    private static final String[] LINES = new String[]{
+        "1.500: [PSYoungGen: 10K] pause=full",
+        "other=line",
+        "2.250: [Metaspace: 2M] a=b c=d",
+    };
+
+    /**
+     * Names that match more than once in a record: entries, lists, repeated groups and last value fields
+     */
+    private static Parser newRepeatingParser(){
+        Parser p = new Parser();
+        p.add(new Exp("start","^start (?<id>\\d+)").set(Merge.NewStart).set("id",Value.Number).eat(Eat.Match));
+        p.add(new Exp("frame","^at (?<frame>\\S+)").group("stack").set(Merge.Entry));
+        p.add(new Exp("tag","#(?<tag>\\w+)").set(Rule.Repeat));
+        p.add(new Exp("count","n=(?<n>\\d+)").set("n",Value.Number).set(Rule.Repeat));
+        p.add(new Exp("heap","\\[(?<name>\\w+): (?<size>\\d+[KMG])\\]").group("heap").set("size",Value.KMG).set(Rule.Repeat));
+        return p;
+    }
+    private static final String[] REPEATING_LINES = new String[]{
+        "start 1 #a #b n=1 n=2",
+        "at foo.Bar #c n=3 [Eden: 10K]",
+        "at foo.Baz [Old: 20K] [Eden: 30K]",
+        "start 2 #d",
+        "at x.Y",
+    };
+
+    /**
+     * Values that read the previous value, contexts and a second NewStart on the same line
+     */
+    private static Parser newMergingParser(){
+        Parser p = new Parser();
+        p.add(new Exp("start","^start ").set(Merge.NewStart).eat(Eat.Match));
+        p.add(new Exp("id","^(?<id>\\d+) ").set(Merge.NewStart).set("id",Value.Number).eat(Eat.Match));
+        p.add(new Exp("total","total=(?<total>\\d+)").set("total",Value.Sum).set(Rule.Repeat));
+        p.add(new Exp("level","level=(?<level>\\w+)").set("level",Value.Count).set(Rule.Repeat));
+        p.add(new Exp("section","^section (?<section>\\w+)").group("section").set(Merge.Entry).set(Rule.AvoidContext).set(Rule.PushContext).eat(Eat.Line));
+        p.add(new Exp("text","^> (?<text>.*)").set("text",Value.String));
+        return p;
+    }
+    private static final String[] MERGING_LINES = new String[]{
+        "start 1 total=1 total=2 level=INFO",
+        "level=WARN level=INFO total=3",
+        "section a",
+        "> first",
+        "> second",
+        "section b",
+        "total=4",
+        "start 2 section c",
+        "start 3 ",
+        "> third",
+    };
+
+    @Test
+    public void streamingMatchesTree(){
+        assertStreamingMatchesTree(ParserTest::newParser,LINES);
+        assertStreamingMatchesTree(ParserTest::newRepeatingParser,REPEATING_LINES);
+        assertStreamingMatchesTree(ParserTest::newMergingParser,MERGING_LINES);
+    }
+    private void assertStreamingMatchesTree(Supplier<Parser> newParser,String[] lines){
+        List<JSONObject> tree = new ArrayList<>();
+        Parser treeParser = newParser.get();
+        treeParser.add((json)->tree.add(new JSONObject(json.toString(0))));
+        treeParser.setup();
+        for(String line : lines){
+            treeParser.onLine(line);
+        }
+        treeParser.close();
+
+        StringWriter writer = new StringWriter();
+        Parser streamParser = newParser.get();
+        streamParser.add(new WriteJsonEventSink(writer));
+        streamParser.setup();
+        for(String line : lines){
+            assertNull("streaming should not return records",streamParser.onLine(line));
+        }
+        streamParser.close();
+
+        JSONArray streamed = new JSONArray(writer.toString());
+        assertEquals(tree.size(),streamed.length());
+        for(int i=0; i<tree.size(); i++){
+            assertEquals(tree.get(i).toString(),streamed.getJSONObject(i).toString());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void streamingUnsupported(){
+        Parser p = newParser();
+        p.add(new Exp("nest","^(?<nest>\\s*)\\w").set("nest",Value.NestLength));
+        p.add(new WriteJsonEventSink(new StringWriter()));
+    }
+
+    @Test
+    public void instrumented(){
+        Parser p = newParser();
+        assertTrue("stats should be empty when not instrumented",p.getStats().isEmpty());
+        p.setInstrumented(true);
+        p.setup();
+        for(String line : LINES){
+            p.onLine(line);
+        }
+        p.close();
+
+        assertEquals(LINES.length,p.getLines());
+        List<ExpStats> stats = p.getStats();
+        assertEquals(3,stats.size());
+        ExpStats timestamp = stats.get(0);
+        assertEquals("timestamp",timestamp.getName());
+        assertEquals(2,timestamp.getMatches());
+        assertEquals("eat the timestamps","1.500: 2.250: ".length(),timestamp.getConsumed());
+        assertEquals(2,stats.get(1).getMatches());
+        assertEquals(3,stats.get(2).getMatches());
+        for(ExpStats stat : stats){
+            assertEquals(stat.getName()+" should try or filter each line",LINES.length,stat.getAttempts()+stat.getFiltered());
+        }
+
+        p.resetStats();
+        assertEquals(0,p.getLines());
+        assertEquals(0,p.getStats().get(0).getAttempts());
+    }
+
+    @Test
+    public void mbean() throws Exception {
+        Parser p = newParser();
+        p.registerMBean("ParserTest");
+        ObjectName name = p.getMBeanName();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertTrue(p.isInstrumented());
+            assertTrue(server.isRegistered(name));
+            p.onLine(LINES[0]);
+            assertEquals(1L,server.getAttribute(name,"Lines"));
+            CompositeData[] stats = (CompositeData[])server.getAttribute(name,"ExpStats");
+            assertEquals(3,stats.length);
+            assertEquals("timestamp",stats[0].get("name"));
+            assertEquals(1L,stats[0].get("matches"));
+            server.invoke(name,"reset",new Object[0],new String[0]);
+            assertEquals(0L,server.getAttribute(name,"Lines"));
+        } finally {
+            p.unregisterMBean();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    private static Parser newExclusiveParser(){
+        Parser p = new Parser();
+        p.add(new Exp("number","^(?<number>\\d+)$").set(Merge.NewStart).eat(Eat.Line));
+        p.add(new Exp("word","(?<word>[a-z]+)").set(Merge.NewStart).eat(Eat.Line));
+        return p;
+    }
+    private static List<String> parse(Parser p,List<String> lines){
+        List<String> rtrn = new ArrayList<>();
+        p.add((json)->rtrn.add(json.toString(0)));
+        p.setup();
+        for(String line : lines){
+            p.onLine(line);
+        }
+        p.close();
+        return rtrn;
+    }
+
+    @Test
+    public void adaptiveOrder(){
+        List<String> lines = new ArrayList<>();
+        for(int i=0; i<5000; i++){
+            lines.add(i % 10 == 0 ? ""+i : "word"+(char)('a'+i%26));
+        }
+        Parser adaptive = newExclusiveParser();
+        adaptive.setAdaptiveOrder(true);
+        adaptive.setInstrumented(true);
+        assertEquals(parse(newExclusiveParser(),lines),parse(adaptive,lines));
+        assertEquals("word should move ahead of number",Arrays.asList("word","number"),adaptive.getOrder());
+        assertTrue("number should not be tried on every line",adaptive.getStats().get(0).getAttempts() < lines.size());
+    }
+
+    @Test
+    public void adaptiveOrderOverlap(){
+        List<String> lines = new ArrayList<>();
+        for(int i=0; i<5000; i++){
+            lines.add(i % 100 == 0 ? "abc 123" : "abc");
+        }
+        Parser declared = new Parser();
+        declared.add(new Exp("number","(?<number>\\d+)").set(Merge.NewStart).eat(Eat.Line));
+        declared.add(new Exp("word","(?<word>[a-z]+)").set(Merge.NewStart).eat(Eat.Line));
+        Parser adaptive = new Parser();
+        adaptive.add(new Exp("number","(?<number>\\d+)").set(Merge.NewStart).eat(Eat.Line));
+        adaptive.add(new Exp("word","(?<word>[a-z]+)").set(Merge.NewStart).eat(Eat.Line));
+        adaptive.setAdaptiveOrder(true);
+        assertEquals(parse(declared,lines),parse(adaptive,lines));
+        assertEquals("overlapping patterns keep the declared order",Arrays.asList("number","word"),adaptive.getOrder());
+    }
+
+    @Test
+    public void reorderProblem(){
+        assertNull(new Exp("line","a").eat(Eat.Line).add(new Exp("child","b").eat(Eat.Match)).getReorderProblem());
+        assertNotNull(new Exp("match","a").eat(Eat.Match).getReorderProblem());
+        assertNotNull(new Exp("child","a").add(new Exp("child","b").eat(Eat.Match)).getReorderProblem());
+        assertNotNull(new Exp("state","a").enables("b").getReorderProblem());
+    }
+}
@@ -0,0 +1,108 @@
+package perf.parse.consumers;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import perf.parse.JsonConsumer;
+import perf.util.json.Jsons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ */
+public class AsyncConsumerTest {
+
+    private static class ListConsumer implements JsonConsumer {
+        final List<Long> values = new ArrayList<>();
+        Thread thread;
+        boolean started = false;
+        boolean closed = false;
+        @Override public void start(){ started = true; }
+        @Override public void close(){ closed = true; }
+        @Override public void consume(Jsons object) {
+            thread = Thread.currentThread();
+            values.add(object.getLong("value"));
+        }
+    }
+    private static Jsons json(long value){
+        return new Jsons(new JSONObject().put("value",value));
+    }
+
+    @Test(timeout = 30_000)
+    public void consumeInOrder(){
+        ListConsumer first = new ListConsumer();
+        ListConsumer second = new ListConsumer();
+        AsyncConsumer async = new AsyncConsumer(8,AsyncConsumer.Backpressure.Block,first,second);
+        async.start();
+        for(long i=0; i<1000; i++){
+            async.consume(json(i));
+        }
+        async.close();
+
+        assertEquals(0,async.getDropped());
+        for(ListConsumer consumer : new ListConsumer[]{first,second}){
+            assertTrue(consumer.started);
+            assertTrue(consumer.closed);
+            assertNotEquals(Thread.currentThread(),consumer.thread);
+            assertEquals(1000,consumer.values.size());
+            for(int i=0; i<1000; i++){
+                assertEquals(i,consumer.values.get(i).longValue());
+            }
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void dropWhenFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        ListConsumer slow = new ListConsumer(){
+            @Override public void consume(Jsons object) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.consume(object);
+            }
+        };
+        AsyncConsumer async = new AsyncConsumer(4,AsyncConsumer.Backpressure.Drop,slow);
+        async.start();
+        for(long i=0; i<100; i++){
+            async.consume(json(i));
+        }
+        release.countDown();
+        async.close();
+
+        assertTrue("dropped "+async.getDropped(),async.getDropped() >= 100-5);
+        assertEquals(100,async.getDropped()+slow.values.size());
+        for(int i=1; i<slow.values.size(); i++){
+            assertTrue(slow.values.get(i) > slow.values.get(i-1));
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void consumeAfterClose(){
+        ListConsumer consumer = new ListConsumer();
+        AsyncConsumer async = new AsyncConsumer(consumer);
+        async.start();
+        async.consume(json(1));
+        async.close();
+        try {
+            async.consume(json(2));
+            fail("consume after close should throw");
+        } catch (IllegalStateException e){
+            //expected
+        }
+        async.start(); // a Parser starts its consumers again for the next file
+        async.consume(json(3));
+        async.close();
+        assertEquals(2,consumer.values.size());
+        assertEquals(3,consumer.values.get(1).longValue());
+    }
+}
@@ -0,0 +1,87 @@
+package perf.parse.consumers;
+
+import org.junit.Test;
+import perf.parse.Eat;
+import perf.parse.Exp;
+import perf.parse.JsonConsumer;
+import perf.parse.JsonEventSink;
+import perf.parse.Merge;
+import perf.parse.Parser;
+import perf.parse.Value;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class RecordStoreTest {
+
+    private static Parser newParser(){
+        Parser p = new Parser();
+        p.add(new Exp("timestamp","^(?<timestamp>\\d+\\.\\d+): ").set(Merge.NewStart).set("timestamp",Value.Number).eat(Eat.Match));
+        p.add(new Exp("heap","\\[(?<name>\\w+): (?<size>\\d+[KMG])\\]").group("heap").set("size",Value.KMG));
+        return p;
+    }
+    private static void parse(Parser p){
+        p.setup();
+        p.onLine("1.5: [PSYoungGen: 10K]");
+        p.onLine("2.25: nothing");
+        p.onLine("3.0: [Metaspace: 2M]");
+        p.close();
+    }
+    private static void assertColumns(RecordStore store){
+        assertEquals(3,store.size());
+
+        RecordStore.Column timestamp = store.getColumn("timestamp");
+        assertEquals(RecordStore.Type.Double,timestamp.getType());
+        assertEquals(2.25,timestamp.getDouble(1),0.0);
+
+        RecordStore.Column size = store.getColumn("heap.size");
+        assertEquals(RecordStore.Type.Long,size.getType());
+        assertEquals(10*1024,size.getLong(0));
+        assertFalse("second record does not have a heap",size.has(1));
+        assertEquals(2*1024*1024,size.getLong(2));
+
+        RecordStore.Column name = store.getColumn("heap.name");
+        assertEquals(RecordStore.Type.String,name.getType());
+        assertEquals("Metaspace",name.getString(2));
+        assertEquals(store.getDictionary().get("Metaspace"),name.getId(2));
+    }
+
+    @Test
+    public void fromJson(){
+        Parser p = newParser();
+        RecordStore store = new RecordStore(p);
+        assertTrue("names should create columns",store.hasColumn("heap.size"));
+        p.add((JsonConsumer)store);
+        parse(p);
+        assertColumns(store);
+    }
+
+    @Test
+    public void fromEvents(){
+        Parser p = newParser();
+        RecordStore store = new RecordStore(p);
+        p.add((JsonEventSink)store);
+        parse(p);
+        assertColumns(store);
+    }
+
+    @Test
+    public void growColumns(){
+        RecordStore store = new RecordStore();
+        for(int i=0; i<5000; i++){
+            store.startObject(null);
+            if(i%2==0){
+                store.field("even",(long)i);
+            }
+            store.endObject();
+        }
+        RecordStore.Column even = store.getColumn("even");
+        assertEquals(5000,store.size());
+        assertEquals(4998,even.getLong(4998));
+        assertFalse(even.has(4999));
+    }
+}
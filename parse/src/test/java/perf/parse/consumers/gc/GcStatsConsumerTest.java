@@ -0,0 +1,65 @@
+package perf.parse.consumers.gc;
+
+import org.junit.Test;
+import perf.parse.Parser;
+import perf.parse.factory.OpenJdkGcFactory;
+import perf.parse.internal.CheatChars;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class GcStatsConsumerTest {
+
+    private static final long K = 1024;
+
+    private static GcStatsConsumer read(GcStatsConsumer stats,String...lines){
+        Parser p = new OpenJdkGcFactory().newGcParser();
+        p.add(stats);
+        p.setup();
+        for(String line : lines){
+            p.onLine(new CheatChars(line));
+        }
+        p.close();
+        return stats;
+    }
+
+    @Test
+    public void ratesAndPauses(){
+        GcStatsConsumer stats = read(new GcStatsConsumer(),
+            "2015-03-24T13:20:10.000-0400: 10.000: [GC (Allocation Failure) [PSYoungGen: 1000K->100K(2000K)] 1000K->300K(10000K), 0.0100000 secs] [Times: user=0.10 sys=0.01, real=0.01 secs] ",
+            "2015-03-24T13:20:10.010-0400: 10.010: Total time for which application threads were stopped: 0.0110000 seconds, Stopping threads took: 0.0000220 seconds",
+            "2015-03-24T13:20:20.000-0400: 20.000: [GC (Allocation Failure) [PSYoungGen: 1100K->200K(2000K)] 1300K->500K(10000K), 0.0300000 secs] [Times: user=0.10 sys=0.01, real=0.03 secs] ",
+            "2015-03-24T13:20:40.000-0400: 40.000: [Full GC (Ergonomics) [PSYoungGen: 2200K->0K(2000K)] [ParOldGen: 300K->400K(8000K)] 2500K->400K(10000K), [Metaspace: 19144K->19144K(1067008K)], 0.2000000 secs] [Times: user=0.46 sys=0.03, real=0.20 secs] "
+        );
+        assertEquals(3,stats.getGcCount());
+        assertEquals(1,stats.getFullGcCount());
+        // 1000K from the start, 1100K-100K, 2200K-200K
+        assertEquals((1000+1000+2000)*K,stats.getAllocatedBytes(),0.0);
+        // first: 900K left young, 700K freed; second: 900K left young, 800K freed
+        assertEquals((200+100)*K,stats.getPromotedBytes(),0.0);
+        assertEquals((1000+1000+2000)*K/40.0,stats.getAllocationRate(),1e-6);
+        assertEquals(0.24,stats.getTotalPause(),1e-9);
+        assertEquals(0.011,stats.getTotalStopped(),1e-9);
+        assertEquals(1-0.24/40,stats.getThroughput(),1e-9);
+        assertEquals(0.2,stats.getMaxPause(),1e-3);
+        assertEquals(0.03,stats.getPausePercentile(50),0.03/64);
+        assertTrue(Double.isNaN(stats.getMinWindowThroughput()));
+    }
+
+    @Test
+    public void slidingWindow(){
+        // 10 second window of 5 slots with a 1 second pause at 12s
+        GcStatsConsumer stats = read(new GcStatsConsumer(10,5),
+            "1.000: [GC (Allocation Failure) [PSYoungGen: 100K->0K(2000K)] 100K->0K(10000K), 0.0100000 secs] ",
+            "12.000: [GC (Allocation Failure) [PSYoungGen: 100K->0K(2000K)] 100K->0K(10000K), 1.0000000 secs] ",
+            "14.000: Application time: 0.9870000 seconds",
+            "30.000: [GC (Allocation Failure) [PSYoungGen: 100K->0K(2000K)] 100K->0K(10000K), 0.0100000 secs] "
+        );
+        assertEquals("the window from 4s to 14s",0.9,stats.getMinWindowThroughput(),1e-9);
+        assertEquals("only the last gc is in the window",1-0.01/10,stats.getWindowThroughput(),1e-9);
+        assertEquals(10*K,stats.getWindowAllocationRate(),1e-9);
+    }
+}
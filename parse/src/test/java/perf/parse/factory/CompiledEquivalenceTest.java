@@ -0,0 +1,86 @@
+package perf.parse.factory;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import perf.parse.Parser;
+import perf.parse.internal.CheatChars;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static perf.parse.factory.StringMatchingEquivalenceTest.DSTAT_LINES;
+import static perf.parse.factory.StringMatchingEquivalenceTest.GC_LINES;
+import static perf.parse.factory.StringMatchingEquivalenceTest.JMAP_HISTO_LINES;
+import static perf.parse.factory.StringMatchingEquivalenceTest.JSTACK_LINES;
+import static perf.parse.factory.StringMatchingEquivalenceTest.SERVER_LOG_LINES;
+
+/**
+ * Every factory parser has to create the same records with the generated perf.parse.Exp and with the interpreter
+ */
+public class CompiledEquivalenceTest {
+
+    private static List<JSONObject> records(Supplier<Parser> factory,List<String> uncompiled,String...lines){
+        Parser p = factory.get();
+        if(uncompiled != null){
+            assertEquals("patterns that cannot compile",uncompiled,p.compile());
+        }
+        List<JSONObject> rtrn = new ArrayList<>();
+        p.add((json)->rtrn.add(json.asJSON()));
+        p.setup();
+        for(String line : lines){
+            p.onLine(new CheatChars(line));
+        }
+        p.close();
+        return rtrn;
+    }
+
+    /**
+     * @param uncompiled the names of the patterns that are expected to stay interpreted
+     */
+    private static void assertEquivalent(Supplier<Parser> factory,List<String> uncompiled,String...lines){
+        List<JSONObject> interpreted = records(factory,null,lines);
+        List<JSONObject> compiled = records(factory,uncompiled,lines);
+        assertTrue("expected records from "+lines.length+" lines",!interpreted.isEmpty());
+        assertEquals(interpreted.size(),compiled.size());
+        for(int i=0; i<interpreted.size(); i++){
+            assertTrue("record "+i+" interpreted "+interpreted.get(i)+" but compiled "+compiled.get(i),interpreted.get(i).similar(compiled.get(i)));
+        }
+    }
+
+    @Test
+    public void jstack(){
+        assertEquivalent(()->new JStackFactory().newThreadParser(),Collections.emptyList(),JSTACK_LINES);
+    }
+
+    @Test
+    public void openJdkGc(){
+        assertEquivalent(()->new OpenJdkGcFactory().newGcParser(),Collections.emptyList(),GC_LINES);
+    }
+
+    @Test
+    public void serverLog(){
+        assertEquivalent(()->new ServerLogFactory().newLogEntryParser(),Arrays.asList("message"),SERVER_LOG_LINES);
+    }
+
+    @Test
+    public void jmapHisto(){
+        assertEquivalent(()->new JmapHistoFactory().newParser(),Collections.emptyList(),JMAP_HISTO_LINES);
+    }
+
+    @Test
+    public void dstat(){
+        assertEquivalent(()->{
+                DstatFactory f = new DstatFactory();
+                Parser p = new Parser();
+                p.add(f.defaultMessageExp());
+                p.add(f.headerGroupExp());
+                p.add(f.columnGroupExp());
+                return p;
+            },Collections.emptyList(),DSTAT_LINES);
+    }
+}
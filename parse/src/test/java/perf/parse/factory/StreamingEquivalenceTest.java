@@ -0,0 +1,84 @@
+package perf.parse.factory;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import perf.parse.Parser;
+import perf.parse.consumers.WriteJsonEventSink;
+import perf.parse.internal.CheatChars;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static perf.parse.factory.StringMatchingEquivalenceTest.GC_LINES;
+import static perf.parse.factory.StringMatchingEquivalenceTest.JMAP_HISTO_LINES;
+import static perf.parse.factory.StringMatchingEquivalenceTest.JSTACK_LINES;
+import static perf.parse.factory.StringMatchingEquivalenceTest.SERVER_LOG_LINES;
+
+/**
+ * Every factory parser has to send the same records to a JsonEventSink as it builds for a JsonConsumer
+ */
+public class StreamingEquivalenceTest {
+
+    private static void assertEquivalent(Supplier<Parser> factory,String...lines){
+        List<JSONObject> tree = new ArrayList<>();
+        Parser treeParser = factory.get();
+        treeParser.add((json)->tree.add(new JSONObject(json.toString(0))));
+        treeParser.setup();
+        for(String line : lines){
+            treeParser.onLine(new CheatChars(line));
+        }
+        treeParser.close();
+
+        StringWriter writer = new StringWriter();
+        Parser streamParser = factory.get();
+        streamParser.add(new WriteJsonEventSink(writer));
+        streamParser.setup();
+        for(String line : lines){
+            streamParser.onLine(new CheatChars(line));
+        }
+        streamParser.close();
+        JSONArray streamed = new JSONArray(writer.toString());
+
+        assertTrue("expected records from "+lines.length+" lines",!tree.isEmpty());
+        assertEquals(tree.size(),streamed.length());
+        for(int i=0; i<tree.size(); i++){
+            assertTrue("record "+i+" built "+tree.get(i)+" but streamed "+streamed.get(i),tree.get(i).similar(streamed.getJSONObject(i)));
+        }
+    }
+
+    @Test
+    public void jstack(){
+        assertEquivalent(()->new JStackFactory().newThreadParser(),JSTACK_LINES);
+    }
+
+    @Test
+    public void openJdkGc(){
+        assertEquivalent(()->new OpenJdkGcFactory().newGcParser(),GC_LINES);
+    }
+
+    @Test
+    public void serverLog(){
+        assertEquivalent(()->new ServerLogFactory().newLogEntryParser(),SERVER_LOG_LINES);
+    }
+
+    @Test
+    public void jmapHisto(){
+        assertEquivalent(()->new JmapHistoFactory().newParser(),JMAP_HISTO_LINES);
+    }
+
+    /**
+     * The dstat header uses a MatchAction to create the column patterns
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void dstatCannotStream(){
+        DstatFactory f = new DstatFactory();
+        Parser p = new Parser();
+        p.add(f.headerGroupExp());
+        p.add(new WriteJsonEventSink(new StringWriter()));
+    }
+}
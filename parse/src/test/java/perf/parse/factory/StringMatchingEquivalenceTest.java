@@ -0,0 +1,146 @@
+package perf.parse.factory;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import perf.parse.Exp;
+import perf.parse.Parser;
+import perf.parse.internal.CheatChars;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every factory parser has to create the same records with StringMatcher and with java.util.regex
+ */
+public class StringMatchingEquivalenceTest {
+
+    static final String[] JSTACK_LINES = new String[]{
+        "\"Name with \" and '\" prio=10 tid=0x00007fe444377000 nid=0x1036 in Object.wait() [0x00007fe42eef5000]",
+        "   java.lang.Thread.State: WAITING (on object monitor)",
+        "\tat java.lang.Object.wait(Native Method)",
+        "\t- waiting on <0x00000000c0a0b0c0> (a java.lang.ref.ReferenceQueue$Lock)",
+        "\tat java.lang.ref.ReferenceQueue.remove(ReferenceQueue.java:143)",
+        "\t- locked <0x00000000c0a0b0c0> (a java.lang.ref.ReferenceQueue$Lock)",
+        "",
+        "\"GC task thread#0 (ParallelGC)\" os_prio=0 tid=0x00007f9b4c023000 nid=0x4d0c runnable ",
+        "",
+        "\"C1 CompilerThread2\" #7 daemon prio=9 os_prio=0 tid=0x00007f9b4c0b4800 nid=0x4d16 waiting on condition [0x0000000000000000]",
+        "   java.lang.Thread.State: RUNNABLE",
+        "\tat sun.nio.ch.EPollArrayWrapper.epollWait(Native Method)",
+        "\tat sun.nio.ch.SelectorImpl.lockAndDoSelect(SelectorImpl.java:86)",
+        "\t- locked <0x00000000d440b740> (a io.netty.channel.nio.SelectedSelectionKeySet)",
+        "\t- locked <0x00000000d440b760> (a java.util.Collections$UnmodifiableSet)",
+        ""
+    };
+
+    static final String[] GC_LINES = new String[]{
+        "Java HotSpot(TM) 64-Bit Server VM (25.66-b17) for linux-amd64 JRE (1.8.0_66-b17), built on Oct  6 2015 17:28:34 by \"java_re\" with gcc 4.3.0 20080428 (Red Hat 4.3.0-8)",
+        "Memory: 4k page, physical 32827840k(23048160k free), swap 16490492k(16490492k free)",
+        "CommandLine flags: -XX:InitialHeapSize=10737418240 -XX:MaxHeapSize=10737418240 -XX:+PrintGC -XX:+UseParallelGC ",
+        "2015-03-24T13:20:27.638-0400: 0.975: [Full GC (Metadata GC Threshold) [PSYoungGen: 10047K->0K(8388608K)] [ParOldGen: 24K->9138K(2097152K)] 10071K->9138K(10485760K), [Metaspace: 19144K->19144K(1067008K)], 0.0357059 secs] [Times: user=0.46 sys=0.03, real=0.04 secs] ",
+        "2015-03-24T13:20:27.650-0400: 0.987: Total time for which application threads were stopped: 0.0360000 seconds, Stopping threads took: 0.0000220 seconds",
+        "2015-02-03T21:55:06.443-0500: 1.290: [Full GC (Metadata GC Threshold) AdaptiveSizeStart: 1.334 collection: 3 ",
+        "PSAdaptiveSizePolicy::compute_eden_space_size limits: desired_eden_size: 9574551008 old_eden_size: 6442450944 eden_limit: 6442450944 cur_eden: 6442450944 max_eden_size: 6442450944 avg_young_live: 7334511",
+        "AdaptiveSizeStop: collection: 3 ",
+        "[PSYoungGen: 13873K->0K(8388608K)] [ParOldGen: 24K->12771K(2097152K)] 13897K->12771K(10485760K), [Metaspace: 19024K->19024K(1067008K)], 0.0440153 secs] [Times: user=0.69 sys=0.02, real=0.05 secs]",
+        "2015-03-24T13:20:30.000-0400: 3.100: [GC (Allocation Failure) [PSYoungGen: 2097152K->20000K(2446848K)] 2106290K->29138K(10485760K), 0.0123000 secs] [Times: user=0.10 sys=0.01, real=0.01 secs] ",
+        "2015-03-24T13:20:31.000-0400: 4.100: Application time: 0.9870000 seconds",
+        "Heap",
+        " PSYoungGen      total 2446848K, used 1677722K [0x0000000715580000, 0x00000007c0000000, 0x00000007c0000000)",
+        "  eden space 2097152K, 80% used [0x0000000715580000,0x000000077b7e6b08,0x0000000795580000)",
+        " Metaspace       used 19144K, capacity 19496K, committed 19712K, reserved 1067008K",
+        "  class space    used 2291K, capacity 2400K, committed 2432K, reserved 1048576K"
+    };
+
+    static final String[] SERVER_LOG_LINES = new String[]{
+        "2013-10-24 09:21:34,973 WARN  [org.jboss.jca.core.connectionmanager.pool.strategy.OnePool] (JCA PoolFiller) IJ000610: Unable to fill pool: javax.resource.ResourceException: Could not create connection",
+        "        at org.jboss.jca.adapters.jdbc.xa.XAManagedConnectionFactory.getXAManagedConnection(XAManagedConnectionFactory.java:461)",
+        "Caused by: com.mysql.jdbc.exceptions.jdbc4.CommunicationsException: Communications link failure",
+        "The last packet sent successfully to the server was 0 milliseconds ago. The driver has not received any packets from the server.",
+        "        at sun.reflect.NativeConstructorAccessorImpl.newInstance0(Native Method) [rt.jar:1.7.0_45]",
+        "        ... 5 more",
+        "2013-10-24 09:21:34,990 INFO  [org.jboss.as] (Controller Boot Thread) JBAS015874: JBoss EAP 6.2.0.GA started in 4301ms"
+    };
+
+    static final String[] JMAP_HISTO_LINES = new String[]{
+        " num     #instances         #bytes  class name",
+        "----------------------------------------------",
+        "   1:        101050       12063424  [C",
+        "   2:          7005        2860208  [B",
+        "   3:        100730        2417520  java.lang.String",
+        "  44:             1             16  sun.misc.Launcher$Factory (java.base@9)",
+        "Total        208786       17341168"
+    };
+
+    static final String[] DSTAT_LINES = new String[]{
+        "You did not select any stats, using -cdngy by default",
+        "----total-cpu-usage---- -dsk/total- -net/total- ---paging-- ---system--",
+        "usr sys idl wai hiq siq| read  writ| recv  send|  in   out | int   csw ",
+        "  2   1  97   0   0   0| 120k  340k|   0     0 |   0     0 | 500  1000 ",
+        " 10   5  85   0   0   0|   0  1.5M|  12B    2k|   0     0 | 612  1210 "
+    };
+
+    private static List<JSONObject> records(Supplier<Parser> factory,boolean stringMatching,String...lines){
+        boolean previous = Exp.isStringMatching();
+        Exp.setStringMatching(stringMatching);
+        try {
+            Parser p = factory.get();
+            List<JSONObject> rtrn = new ArrayList<>();
+            p.add((json)->rtrn.add(json.asJSON()));
+            p.setup();
+            for(String line : lines){
+                p.onLine(new CheatChars(line));
+            }
+            p.close();
+            return rtrn;
+        } finally {
+            Exp.setStringMatching(previous);
+        }
+    }
+
+    private static void assertEquivalent(Supplier<Parser> factory,String...lines){
+        List<JSONObject> regex = records(factory,false,lines);
+        List<JSONObject> string = records(factory,true,lines);
+        assertTrue("expected records from "+lines.length+" lines",!regex.isEmpty());
+        assertEquals(regex.size(),string.size());
+        for(int i=0; i<regex.size(); i++){
+            assertTrue("record "+i+" regex "+regex.get(i)+" but string "+string.get(i),regex.get(i).similar(string.get(i)));
+        }
+    }
+
+    @Test
+    public void jstack(){
+        assertEquivalent(()->new JStackFactory().newThreadParser(),JSTACK_LINES);
+    }
+
+    @Test
+    public void openJdkGc(){
+        assertEquivalent(()->new OpenJdkGcFactory().newGcParser(),GC_LINES);
+    }
+
+    @Test
+    public void serverLog(){
+        assertEquivalent(()->new ServerLogFactory().newLogEntryParser(),SERVER_LOG_LINES);
+    }
+
+    @Test
+    public void jmapHisto(){
+        assertEquivalent(()->new JmapHistoFactory().newParser(),JMAP_HISTO_LINES);
+    }
+
+    @Test
+    public void dstat(){
+        assertEquivalent(()->{
+                DstatFactory f = new DstatFactory(); // keeps the headers it has seen
+                Parser p = new Parser();
+                p.add(f.defaultMessageExp());
+                p.add(f.headerGroupExp());
+                p.add(f.columnGroupExp());
+                return p;
+            },DSTAT_LINES);
+    }
+}
@@ -44,4 +44,30 @@ public class CheatCharsTest {
         assertEquals("0456",test.toString());
         //System.out.println("0123456".substring(1,4));
     }
+
+    @Test
+    public void dropRepeated(){
+        CheatChars test = new CheatChars("0123456789");
+        test.drop(2,4);
+        test.drop(5,7);
+        test.drop(1,2);
+
+        assertEquals("04569",test.toString());
+        assertEquals("charAt should skip dropped characters",'5',test.charAt(2));
+        assertEquals("subSequence across dropped characters","45",test.subSequence(1,3).toString());
+        assertEquals("04569".hashCode(),test.hashCode());
+        assertTrue(test.equals("04569"));
+    }
+
+    @Test
+    public void reset(){
+        CheatChars test = new CheatChars("0123456");
+        test.drop(0,3);
+        test.reset("abcdefghijklmnopqrstuvwxyz");
+        assertEquals("abcdefghijklmnopqrstuvwxyz",test.toString());
+
+        test.reset("ab".toCharArray(),1,1);
+        assertEquals("b",test.toString());
+        assertEquals(1,test.length());
+    }
 }
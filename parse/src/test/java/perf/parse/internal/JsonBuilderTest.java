@@ -0,0 +1,51 @@
+package perf.parse.internal;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class JsonBuilderTest {
+
+    @Test
+    public void contextStack(){
+        JsonBuilder b = new JsonBuilder();
+        JSONObject[] contexts = new JSONObject[20];//more than the initial capacity
+        for(int i=0; i<contexts.length; i++){
+            contexts[i] = new JSONObject();
+            b.setCurrentContext(contexts[i]);
+            b.setCurrentContext(contexts[i]);//same context is not pushed twice
+        }
+        assertEquals(contexts.length,b.depth());
+        for(int i=contexts.length-1; i>=0; i--){
+            assertSame(contexts[i],b.getCurrentContext());
+            b.popContext();
+        }
+        assertSame(b.getRoot(),b.getCurrentContext());
+        b.popContext();//empty pop is ignored
+        assertEquals(0,b.depth());
+    }
+
+    @Test
+    public void closeSwapsContext(){
+        JsonBuilder b = new JsonBuilder();
+        JSONObject root = b.getRoot();
+        root.put("key","value");
+        b.setCurrentContext(new JSONObject());
+        assertTrue(b.close());
+        assertEquals("context should start empty after close",0,b.depth());
+        b.setCurrentContext(new JSONObject());
+        assertEquals("cannot close twice before take",false,b.close());
+        assertSame(root,b.takeClosedRoot());
+        assertNull(b.takeClosedRoot());
+        assertEquals(1,b.depth());
+        assertTrue(b.close());
+        assertNull("empty root is not returned",b.takeClosedRoot());
+    }
+}
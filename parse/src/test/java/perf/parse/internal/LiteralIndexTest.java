@@ -0,0 +1,55 @@
+package perf.parse.internal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class LiteralIndexTest {
+
+    @Test
+    public void requiredLiteral(){
+        assertEquals("Total time for which application threads were stopped: ",
+                LiteralIndex.requiredLiteral("Total time for which application threads were stopped: (?<threadpause>\\d+\\.\\d+) seconds"));
+        assertEquals("escaped characters are literals","[Times: user=",
+                LiteralIndex.requiredLiteral("\\[Times: user=(?<user>\\d+\\.\\d{2}) sys=(?<sys>\\d+\\.\\d{2})"));
+        assertEquals("literals inside groups are required"," tid=",
+                LiteralIndex.requiredLiteral("(?<name> tid=)(?<tid>0x[0-9a-f]+)"));
+        assertEquals("optional character should not be included","ab",
+                LiteralIndex.requiredLiteral("abc?d"));
+        assertEquals("repeated character should end the literal","ab",
+                LiteralIndex.requiredLiteral("ab+cd"));
+    }
+
+    @Test
+    public void requiredLiteralNotFound(){
+        assertNull("alternation is not required",LiteralIndex.requiredLiteral("(?:foo|bar)"));
+        assertNull("optional group is not required",LiteralIndex.requiredLiteral("(?:foo)?\\d+"));
+        assertNull("character class is not a literal",LiteralIndex.requiredLiteral("[foo]+"));
+        assertNull("inline flags change the literal",LiteralIndex.requiredLiteral("(?i)foo"));
+        assertNull("lookahead is not consumed",LiteralIndex.requiredLiteral("(?=foo)\\w+"));
+    }
+
+    @Test
+    public void scan(){
+        LiteralIndex index = new LiteralIndex(Arrays.asList("he","she","his","hers",null));
+        long[] found = index.newResult();
+
+        index.scan("ushers",found);
+        assertTrue(LiteralIndex.has(found,0));
+        assertTrue(LiteralIndex.has(found,1));
+        assertFalse(LiteralIndex.has(found,2));
+        assertTrue(LiteralIndex.has(found,3));
+        assertFalse(LiteralIndex.has(found,4));
+
+        index.scan("hés",found);
+        assertFalse("non-ascii should reset the match",LiteralIndex.has(found,0));
+    }
+}
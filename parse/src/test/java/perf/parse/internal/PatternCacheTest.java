@@ -0,0 +1,80 @@
+package perf.parse.internal;
+
+import org.junit.After;
+import org.junit.Test;
+import perf.parse.Exp;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class PatternCacheTest {
+
+    @After
+    public void reset(){
+        PatternCache.setMaximumSize(1024);
+    }
+
+    @Test
+    public void samePatternIsCompiledOnce(){
+        PatternCache.clear();
+        PatternCache.Compiled first = PatternCache.get("(?<name>\\w+): (?<size>\\d+)K");
+        PatternCache.Compiled second = PatternCache.get("(?<name>\\w+): (?<size>\\d+)K");
+        assertSame(first,second);
+        assertEquals(1,PatternCache.getMisses());
+        assertEquals(1,PatternCache.getHits());
+        assertEquals(Arrays.asList("name","size"),first.getGroupNames());
+        assertEquals(": ",first.getRequiredLiteral());
+    }
+
+    @Test
+    public void matchersAreIndependent(){
+        PatternCache.Compiled compiled = PatternCache.get("(?<key>\\w+)=(?<value>\\d+)");
+        for(boolean stringMatching : new boolean[]{true,false}){
+            IMatcher first = compiled.newMatcher(stringMatching);
+            IMatcher second = compiled.newMatcher(stringMatching);
+            assertNotSame(first,second);
+            first.reset("a=1");
+            second.reset("b=2");
+            assertTrue(first.find());
+            assertTrue(second.find());
+            assertEquals("1",first.group("value"));
+            assertEquals("2",second.group("value"));
+        }
+        assertTrue(compiled.newMatcher(true) instanceof StringMatcher);
+        assertTrue(compiled.newMatcher(false) instanceof RegexMatcher);
+    }
+
+    @Test
+    public void expUsesTheCache(){
+        PatternCache.clear();
+        new Exp("first","(?<a>\\d+) (?<b.c>[^ ]+)(?=x)");
+        Exp exp = new Exp("second","(?<a>\\d+) (?<b.c>[^ ]+)(?=x)");
+        assertEquals(1,PatternCache.getMisses());
+        assertEquals(1,PatternCache.getHits());
+        StringBuilder fields = new StringBuilder();
+        exp.forEachField(fields::append);
+        assertEquals("ab.c",fields.toString());
+    }
+
+    @Test
+    public void bounded(){
+        PatternCache.clear();
+        PatternCache.setMaximumSize(2);
+        PatternCache.Compiled first = PatternCache.get("first");
+        PatternCache.get("second");
+        PatternCache.get("first"); // most recently used
+        PatternCache.get("third");
+        assertEquals(2,PatternCache.size());
+        assertSame(first,PatternCache.get("first"));
+        long misses = PatternCache.getMisses();
+        PatternCache.get("second");
+        assertEquals(misses+1,PatternCache.getMisses());
+    }
+}
@@ -0,0 +1,28 @@
+package perf.parse.internal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class RegexMatcherTest {
+
+    @Test
+    public void groupIndex(){
+        RegexMatcher m = new RegexMatcher("(\\d+)\\((?<first>[^\\)(]+)\\)(?:x)(?=y)(?<second.name>\\w+)");
+        assertEquals(2,m.groupIndex("first"));
+        assertEquals(3,m.groupIndex("second.name"));
+        assertEquals(-1,m.groupIndex("missing"));
+
+        m.reset(new CheatChars("12(ab)xyz"));
+        assertTrue(m.find());
+        assertEquals("ab",m.group(m.groupIndex("first")));
+        assertEquals("yz",m.group(m.groupIndex("second.name")));
+        assertEquals(m.group("second.name"),m.group(m.groupIndex("second.name")));
+
+        assertEquals("lookbehind is not a capture group",1,new RegexMatcher("(?<=a)(?<b>b)").groupIndex("b"));
+    }
+}
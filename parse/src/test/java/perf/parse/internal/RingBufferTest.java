@@ -0,0 +1,69 @@
+package perf.parse.internal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class RingBufferTest {
+
+    @Test
+    public void capacity(){
+        RingBuffer<String> buffer = new RingBuffer<>(3);
+        assertEquals(4,buffer.capacity());
+        assertNull(buffer.poll());
+        for(int i=0; i<4; i++){
+            assertTrue(buffer.offer("v"+i));
+        }
+        assertFalse(buffer.offer("full"));
+        assertEquals("v0",buffer.poll());
+        assertTrue(buffer.offer("v4"));
+        for(int i=1; i<5; i++){
+            assertEquals("v"+i,buffer.poll());
+        }
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test(timeout = 30_000)
+    public void producersInOrder() throws InterruptedException {
+        RingBuffer<Integer> buffer = new RingBuffer<>(16);
+        int producers = 4;
+        int count = 10_000;
+        Thread[] threads = new Thread[producers];
+        for(int p=0; p<producers; p++){
+            int offset = p*count;
+            threads[p] = new Thread(()->{
+                for(int i=0; i<count; i++){
+                    while(!buffer.offer(offset+i)){
+                        Thread.yield();
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        int[] last = new int[producers];
+        Arrays.fill(last,-1);
+        int received = 0;
+        while(received < producers*count){
+            Integer next = buffer.poll();
+            if(next == null){
+                continue;
+            }
+            int producer = next/count;
+            assertTrue("each producer is in order",next%count > last[producer]);
+            last[producer] = next%count;
+            received++;
+        }
+        for(Thread thread : threads){
+            thread.join();
+        }
+        assertNull(buffer.poll());
+    }
+}
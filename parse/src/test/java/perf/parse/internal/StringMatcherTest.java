@@ -0,0 +1,113 @@
+package perf.parse.internal;
+
+import org.junit.Test;
+import perf.parse.Exp;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class StringMatcherTest {
+
+    private static void assertSameAsRegex(String pattern,String[] groups,String...inputs){
+        StringMatcher stringMatcher = new StringMatcher(pattern);
+        Matcher regexMatcher = Pattern.compile(pattern).matcher("");
+        for(String input : inputs){
+            stringMatcher.reset(new CheatChars(input));
+            regexMatcher.reset(input);
+            boolean found;
+            do {
+                found = regexMatcher.find();
+                assertEquals(pattern+" find() on "+input,found,stringMatcher.find());
+                if(found){
+                    assertEquals(pattern+" start() on "+input,regexMatcher.start(),stringMatcher.start());
+                    assertEquals(pattern+" end() on "+input,regexMatcher.end(),stringMatcher.end());
+                    for(String group : groups){
+                        assertEquals(pattern+" group("+group+") on "+input,regexMatcher.group(group),stringMatcher.group(group));
+                    }
+                }
+            }while(found);
+        }
+    }
+
+    @Test
+    public void canMatch(){
+        assertTrue(StringMatcher.canMatch("\\[Times: user=(?<user>\\d+\\.\\d{2}) sys=(?<sys>\\d+\\.\\d{2})"));
+        assertTrue(StringMatcher.canMatch("^(?<key>\\w+)=(?<value>[^,]+)"));
+        assertTrue(StringMatcher.canMatch("\\s*(?<name>[a-z_]+)"));
+
+        assertFalse("alternation",StringMatcher.canMatch("foo|bar"));
+        assertFalse("reluctant quantifier",StringMatcher.canMatch("\\((?<reason>.+?)\\)"));
+        assertFalse("run overlaps what follows",StringMatcher.canMatch("(?<name>.+) used"));
+        assertFalse("unnamed group",StringMatcher.canMatch("(\\d+)"));
+        assertFalse("quantified group",StringMatcher.canMatch("(?:ab)+"));
+        assertFalse("empty match",StringMatcher.canMatch("\\s*"));
+        assertFalse("end anchor",StringMatcher.canMatch("\\d+$"));
+        assertNull(StringMatcher.compile("(?i)foo"));
+    }
+
+    @Test
+    public void groups(){
+        StringMatcher m = new StringMatcher("(?<key>\\w+)=(?<value>\\w+)");
+        m.reset(new CheatChars("foo=bar"));
+        assertTrue(m.find());
+        assertEquals("foo",m.group("key"));
+        assertEquals("bar",m.group(m.groupIndex("value")));
+        assertEquals(0,m.start());
+        assertEquals(7,m.end());
+        assertFalse(m.find());
+    }
+
+    @Test
+    public void region(){
+        StringMatcher m = new StringMatcher("^(?<num>\\d+)");
+        m.reset(new CheatChars("ab12cd34"));
+        assertFalse("anchored pattern should only match at the region start",m.find());
+        m.region(2,8);
+        assertTrue(m.find());
+        assertEquals("12",m.group("num"));
+        m.region(6,7);
+        assertTrue(m.find());
+        assertEquals("region end should limit the match","3",m.group("num"));
+    }
+
+    @Test
+    public void sameAsRegex(){
+        assertSameAsRegex("\\[Times: user=(?<user>\\d+\\.\\d{2}) sys=(?<sys>\\d+\\.\\d{2})",new String[]{"user","sys"},
+                "[Times: user=0.01 sys=0.00, real=0.01 secs]",
+                "[Times: user=0.1 sys=0.00",
+                "[Times: user=12.34 sys=56.78][Times: user=1.00 sys=2.00]");
+        assertSameAsRegex("(?<key>\\w+)=(?<value>\\w+)",new String[]{"key","value"},
+                "a=1 b=2, c=three",
+                "==x=",
+                "");
+        assertSameAsRegex("\\s*(?<pre>[A-Z]*)(?<num>\\d{1,3})(?:[KMG])",new String[]{"pre","num"},
+                "  PS1234K 12M AB5G",
+                "1024");
+        assertSameAsRegex("(?<name>[^\\s\\-]+)\\s+(?<rest>\\w)",new String[]{"name","rest"},
+                "foo-bar   baz éé  x",
+                "tab\there");
+        assertSameAsRegex("^\\s+at (?<frame>[^\\(]+)\\((?<line>[^\\)]+)\\)",new String[]{"frame","line"},
+                "\tat java.lang.Thread.run(Thread.java:745)",
+                "at java.lang.Thread.run(Thread.java:745)");
+    }
+
+    @Test
+    public void expUsesStringMatcher(){
+        assertTrue(new Exp("kv","(?<key>\\w+)=(?<value>\\w+)").matcherClass().contains("StringMatcher"));
+        assertTrue(new Exp("reason","\\((?<reason>.+?)\\)").matcherClass().contains("RegexMatcher"));
+        Exp.setStringMatching(false);
+        try {
+            assertTrue(new Exp("kv", "(?<key>\\w+)=(?<value>\\w+)").matcherClass().contains("RegexMatcher"));
+        } finally {
+            Exp.setStringMatching(true);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package perf.parse.reader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ *
+ */
+public class ChannelLineReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String content) throws IOException {
+        File rtrn = folder.newFile();
+        Files.write(rtrn.toPath(),content.getBytes(StandardCharsets.UTF_8));
+        return rtrn;
+    }
+
+    @Test
+    public void lineTerminators() throws IOException {
+        File file = write("one\ntwo\rthree\r\nfour\r\r\nfive");
+        //every buffer size puts a '\r' at the end of a buffer at least once
+        for(int bufferSize=1; bufferSize<=16; bufferSize++){
+            try (FileChannel channel = FileChannel.open(file.toPath(),StandardOpenOption.READ)){
+                ChannelLineReader reader = new ChannelLineReader(channel,0,StandardCharsets.UTF_8,bufferSize);
+                List<String> lines = new ArrayList<>();
+                String line;
+                while( (line = reader.readLine()) != null ){
+                    lines.add(line);
+                }
+                assertEquals("bufferSize="+bufferSize,Arrays.asList("one","two","three","four","","five"),lines);
+                assertEquals(file.length(),reader.position());
+            }
+        }
+    }
+
+    @Test
+    public void carriageReturnAtEndWhileFollowing() throws IOException {
+        File file = write("one\r");
+        try (FileChannel channel = FileChannel.open(file.toPath(),StandardOpenOption.READ,StandardOpenOption.WRITE)){
+            ChannelLineReader reader = new ChannelLineReader(channel,0,StandardCharsets.UTF_8,64);
+            assertEquals("one",reader.readCompleteLine());
+            assertNull(reader.readCompleteLine());
+            channel.write(ByteBuffer.wrap("\ntwo\n".getBytes(StandardCharsets.UTF_8)),channel.size());
+            assertEquals("the \\n of \\r\\n should not be an empty line","two",reader.readCompleteLine());
+            assertNull(reader.readCompleteLine());
+        }
+    }
+}
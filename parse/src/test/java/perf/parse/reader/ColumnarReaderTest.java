@@ -0,0 +1,164 @@
+package perf.parse.reader;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import perf.parse.JsonConsumer;
+import perf.parse.consumers.WriteColumnarConsumer;
+import perf.util.json.Jsons;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class ColumnarReaderTest {
+
+    private static List<JSONObject> records(){
+        List<JSONObject> rtrn = new ArrayList<>();
+        for(int i=0; i<5; i++){
+            JSONObject record = new JSONObject();
+            record.put("timestamp",i*1.5);
+            record.put("thread","main-"+(i%2));
+            record.put("size",-1024L*i);
+            record.put("full",i%2==0);
+            JSONArray stack = new JSONArray();
+            stack.put(new JSONObject().put("frame","java.lang.Thread.run").put("line",748L));
+            stack.put("été");
+            stack.put(JSONObject.NULL);
+            record.put("stack",stack);
+            record.put("heap",new JSONObject().put("name","PSYoungGen"));
+            rtrn.add(record);
+        }
+        return rtrn;
+    }
+
+    @Test
+    public void roundTrip(){
+        List<JSONObject> expected = records();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WriteColumnarConsumer writer = new WriteColumnarConsumer(bytes,2);//more than one block
+        writer.start();
+        for(JSONObject record : expected){
+            writer.consume(new Jsons(record));
+        }
+        writer.close();
+
+        List<JSONObject> read = new ArrayList<>();
+        boolean[] closed = new boolean[]{false};
+        ColumnarReader reader = new ColumnarReader();
+        reader.add(new JsonConsumer() {
+            @Override public void consume(Jsons object){read.add(object.asJSON());}
+            @Override public void close(){closed[0]=true;}
+        });
+        reader.processInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertTrue("consumers should be closed",closed[0]);
+        assertEquals(expected.size(),read.size());
+        for(int i=0; i<expected.size(); i++){
+            assertTrue("record "+i+" expected "+expected.get(i)+" but was "+read.get(i),expected.get(i).similar(read.get(i)));
+        }
+    }
+
+    @Test
+    public void dictionary(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WriteColumnarConsumer writer = new WriteColumnarConsumer(bytes,1024);
+        writer.start();
+        String cause = "Allocation Failure in a long repeated gc cause";
+        for(int i=0; i<100; i++){
+            writer.consume(new Jsons(new JSONObject().put("cause",cause)));
+        }
+        writer.close();
+        assertTrue("repeated strings should be written inline once and to the dictionary once but size was "+bytes.size(),bytes.size() < 3*cause.length()+500);
+    }
+
+    private static List<JSONObject> roundTrip(List<JSONObject> records,WriteColumnarConsumer writer,ByteArrayOutputStream bytes){
+        writer.start();
+        for(JSONObject record : records){
+            writer.consume(new Jsons(record));
+        }
+        writer.close();
+        List<JSONObject> read = new ArrayList<>();
+        ColumnarReader reader = new ColumnarReader();
+        reader.add(object -> read.add(object.asJSON()));
+        reader.processInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(records.size(),read.size());
+        for(int i=0; i<records.size(); i++){
+            assertTrue("record "+i+" expected "+records.get(i)+" but was "+read.get(i),records.get(i).similar(read.get(i)));
+        }
+        return read;
+    }
+
+    @Test
+    public void uniqueStringsAreInline(){
+        List<JSONObject> records = new ArrayList<>();
+        for(int i=0; i<1000; i++){
+            records.add(new JSONObject().put("thread","main").put("stack","java.lang.Thread.run(Thread.java:"+i+") at a long unique frame"));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WriteColumnarConsumer writer = new WriteColumnarConsumer(bytes,64);
+        roundTrip(records,writer,bytes);
+        assertEquals("only the keys and the short value should be in the dictionary",3,writer.getDictionarySize());
+    }
+
+    @Test
+    public void repeatedLongStringIsInDictionary(){
+        String cause = "Allocation Failure in a long repeated gc cause";
+        List<JSONObject> records = new ArrayList<>();
+        for(int i=0; i<10; i++){
+            records.add(new JSONObject().put("cause",cause));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WriteColumnarConsumer writer = new WriteColumnarConsumer(bytes,4);
+        roundTrip(records,writer,bytes);
+        assertEquals(2,writer.getDictionarySize());
+    }
+
+    @Test
+    public void dictionaryCap(){
+        List<JSONObject> records = records();
+        for(int i=0; i<100; i++){
+            records.add(new JSONObject().put("key"+i,"value"+i).put("timestamp",(long)i));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WriteColumnarConsumer writer = new WriteColumnarConsumer(bytes,8,4);
+        roundTrip(records,writer,bytes);
+        assertEquals(4,writer.getDictionarySize());
+    }
+
+    @Test
+    public void emptyDictionary(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WriteColumnarConsumer writer = new WriteColumnarConsumer(bytes,2,0);
+        roundTrip(records(),writer,bytes);
+        assertEquals(0,writer.getDictionarySize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notColumnar(){
+        ColumnarReader reader = new ColumnarReader();
+        reader.processInputStream(new ByteArrayInputStream("[{}]".getBytes()));
+    }
+
+    @Test
+    public void empty(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WriteColumnarConsumer writer = new WriteColumnarConsumer(bytes,16);
+        writer.start();
+        writer.close();
+        List<Jsons> read = new ArrayList<>();
+        ColumnarReader reader = new ColumnarReader();
+        reader.add(read::add);
+        reader.processInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertFalse(bytes.size() == 0);
+        assertEquals(0,read.size());
+    }
+}
@@ -0,0 +1,112 @@
+package perf.parse.reader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class DstatReaderTest {
+
+    private static List<double[]> read(DstatReader reader,String output,List<List<String>> schemas){
+        List<double[]> rows = new ArrayList<>();
+        reader.add(new DstatReader.RowConsumer() {
+            @Override public void start(List<String> columns) {schemas.add(columns);}
+            @Override public void consume(double[] row) {rows.add(row.clone());}
+            @Override public void close() {}
+        });
+        reader.processInputStream(new ByteArrayInputStream(output.getBytes()));
+        return rows;
+    }
+
+    @Test
+    public void text(){
+        String output =
+            "You did not select any stats, using -cdngy by default.\n" +
+            "----system---- ----total-cpu-usage---- -dsk/total- --net/lo----net/eth0-\n" +
+            "     time     |usr sys idl wai hiq siq| read  writ| recv  send: recv  send\n" +
+            "18-10 12:00:00|  2   1  97   0   0   0| 120k 1.5M |   0     0 :  12B  \u001B[0;32m  2k\u001B[0m\n" +
+            "18-10 12:00:01| 10   5  85   0   0   0|   0     0 |   -     0 :   0     0 \n" +
+            "----system---- ----total-cpu-usage---- -dsk/total- --net/lo----net/eth0-\n" +
+            "     time     |usr sys idl wai hiq siq| read  writ| recv  send: recv  send\n" +
+            "18-10 12:00:02|  4   2  94   0   0   0|   0     0 |   0     0 :   0     0 \n";
+        DstatReader reader = new DstatReader();
+        reader.setYear(2016);
+        List<List<String>> schemas = new ArrayList<>();
+        List<double[]> rows = read(reader,output,schemas);
+
+        assertEquals("the repeated header is the same schema",1,schemas.size());
+        assertEquals(Arrays.asList("system.time","totalCpuUsage.usr","totalCpuUsage.sys","totalCpuUsage.idl",
+            "totalCpuUsage.wai","totalCpuUsage.hiq","totalCpuUsage.siq","dskTotal.read","dskTotal.writ",
+            "netLo.recv","netLo.send","netEth0.recv","netEth0.send"),reader.getColumns());
+        assertEquals(3,rows.size());
+        double time = LocalDateTime.of(2016,10,18,12,0,0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        assertArrayEquals(new double[]{time,2,1,97,0,0,0,120*1024,1.5*1024*1024,0,0,12,2*1024},rows.get(0),0.0);
+        assertTrue(Double.isNaN(rows.get(1)[reader.indexOf("netLo.recv")]));
+
+        assertEquals(2,reader.getWindow("totalCpuUsage.usr").getMin(),0.0);
+        assertEquals(10,reader.getWindow("totalCpuUsage.usr").getMax(),0.0);
+        assertEquals(4,reader.getWindow("totalCpuUsage.usr").getPercentile(50),0.0);
+        assertEquals(3,reader.getRowCount());
+    }
+
+    @Test
+    public void csv(){
+        String output =
+            "\"Dstat 0.7.2 CSV output\"\n" +
+            "\"Author:\",\"Dag Wieers <dag@wieers.com>\",,,,\"URL:\",\"http://dag.wieers.com/home-made/dstat/\"\n" +
+            "\"Host:\",\"server4\",,,,\"User:\",\"root\"\n" +
+            "\"Cmdline:\",\"dstat -tcd --output dstat.csv\",,,,\"Date:\",\"18 Oct 2016 12:00:00 UTC\"\n" +
+            "\n" +
+            "\"system\",\"total cpu usage\",,,,,,\"dsk/total\",\n" +
+            "\"time\",\"usr\",\"sys\",\"idl\",\"wai\",\"hiq\",\"siq\",\"read\",\"writ\"\n" +
+            "\"18-10 12:00:00\",2.5,1.0,96.5,0.0,0.0,0.0,122880.0,1.2e6\n" +
+            "18-10 12:00:01,3.5,1.0,95.5,0.0,0.0,0.0,,0.0\n" +
+            "\"Dstat 0.7.2 CSV output\"\n" +
+            "\n" +
+            "\"total cpu usage\",,,,,\n" +
+            "\"usr\",\"sys\",\"idl\",\"wai\",\"hiq\",\"siq\"\n" +
+            "1,2,97,0,0,0\n";
+        DstatReader reader = new DstatReader();
+        reader.setWindowSize(4);
+        List<List<String>> schemas = new ArrayList<>();
+        List<double[]> rows = read(reader,output,schemas);
+
+        assertEquals("dstat restarted on the same file",2,schemas.size());
+        assertEquals("system.time",schemas.get(0).get(0));
+        assertEquals("dskTotal.writ",schemas.get(0).get(8));
+        assertEquals(3,rows.size());
+        assertEquals(2.5,rows.get(0)[1],0.0);
+        assertEquals(1.2e6,rows.get(0)[8],0.0);
+        assertTrue(Double.isNaN(rows.get(1)[7]));
+        assertEquals(1000,rows.get(1)[0]-rows.get(0)[0],0.0);
+        assertEquals(6,reader.getColumns().size());
+        assertArrayEquals(new double[]{1,2,97,0,0,0},reader.getLastValues(),0.0);
+        assertEquals(4,reader.getWindow("totalCpuUsage.idl").capacity());
+    }
+
+    private static double parseNumber(String value){
+        return DstatReader.parseNumber(value.toCharArray(),0,value.length());
+    }
+
+    @Test
+    public void parseNumberSuffixes(){
+        assertEquals(12,parseNumber(" 12"),0.0);
+        assertEquals(1.5*1024,parseNumber("1.5k"),0.0);
+        assertEquals(2.0*1024*1024*1024,parseNumber("2G"),0.0);
+        assertEquals(3.0*1024*1024*1024*1024,parseNumber("3T"),0.0);
+        assertEquals(-1024/8.0,parseNumber("-1Kb"),0.0);
+        assertEquals(7,parseNumber("7x"),0.0);
+        assertTrue(Double.isNaN(parseNumber("-")));
+    }
+}
@@ -0,0 +1,95 @@
+package perf.parse.reader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import perf.parse.Exp;
+import perf.parse.Merge;
+import perf.parse.Parser;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class FollowTextLineReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(File file,boolean append,String content) throws IOException {
+        try (FileWriter writer = new FileWriter(file,append)){
+            writer.write(content);
+        }
+    }
+    private static void waitFor(List<String> lines,int size) throws InterruptedException {
+        long end = System.currentTimeMillis()+10_000;
+        while(lines.size() < size && System.currentTimeMillis() < end){
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void followRotateTruncate() throws IOException, InterruptedException {
+        File log = folder.newFile("server.log");
+        write(log,false,"a\nb\n");
+
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        Parser p = new Parser();
+        p.add(new Exp("line","(?<line>.+)").set(Merge.NewStart));
+        p.add((json)->lines.add(json.getString("line")));
+
+        FollowTextLineReader reader = new FollowTextLineReader();
+        reader.setPollInterval(20);
+        reader.addParser(p);
+        Thread follower = new Thread(()->reader.follow(log.getPath()));
+        follower.start();
+
+        waitFor(lines,1); // b is still the open record
+        write(log,true,"c\npartial");
+        waitFor(lines,2);
+        write(log,true," line\n");
+        waitFor(lines,3);
+
+        File rotated = new File(log.getPath()+".1");
+        assertEquals(true,log.renameTo(rotated));
+        write(log,false,"dddddd\n");
+        waitFor(lines,4);
+
+        Thread.sleep(100);
+        write(log,false,"e\n");
+        waitFor(lines,5);
+
+        reader.stop();
+        follower.join();
+
+        assertEquals(Arrays.asList("a","b","c","partial line","dddddd","e"),lines);
+    }
+
+    @Test(timeout = 30_000)
+    public void stopBeforeFollow() throws IOException {
+        File log = folder.newFile("server.log");
+        write(log,false,"a\nb");
+
+        List<String> lines = new ArrayList<>();
+        Parser p = new Parser();
+        p.add(new Exp("line","(?<line>.+)").set(Merge.NewStart));
+        p.add((json)->lines.add(json.getString("line")));
+
+        FollowTextLineReader reader = new FollowTextLineReader();
+        reader.addParser(p);
+        reader.stop();
+        reader.follow(log.getPath()); // returns instead of following forever
+
+        assertEquals(Arrays.asList("a","b"),lines);
+        assertEquals(false,reader.isRunning());
+    }
+}
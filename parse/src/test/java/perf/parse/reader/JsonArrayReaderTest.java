@@ -0,0 +1,103 @@
+package perf.parse.reader;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import perf.parse.internal.JsonTokenizer;
+import perf.util.json.Jsons;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class JsonArrayReaderTest {
+
+    private static final String JSON = "[\n" +
+        "  {\"name\":\"main\", \"tid\":1, \"cpu\":12.5, \"big\":12345678901, \"exp\":1.5e3, \"neg\":-7,\n" +
+        "   \"daemon\":false, \"lock\":null, \"quote\":\"a \\\"b\\\" \\\\ c\\n\", \"unicode\":\"été \\u00e9\\u2603\",\n" +
+        "   \"stack\":[{\"frame\":\"java.lang.Thread.run\",\"line\":748},[],{}]},\n" +
+        "  {},\n" +
+        "  {\"name\":\"GC task thread#0 (ParallelGC)\",\"stack\":[]}\n" +
+        "]";
+
+    private static List<Jsons> read(JsonArrayReader reader,String json){
+        List<Jsons> rtrn = new ArrayList<>();
+        reader.add(rtrn::add);
+        reader.processInputStream(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        return rtrn;
+    }
+
+    @Test
+    public void matchesJSONArray(){
+        for(boolean readAhead : new boolean[]{true,false}){
+            JsonArrayReader reader = new JsonArrayReader();
+            reader.setReadAhead(readAhead);
+            List<Jsons> read = read(reader,JSON);
+            JSONArray expected = new JSONArray(JSON);
+            assertEquals(expected.length(),read.size());
+            for(int i=0; i<expected.length(); i++){
+                JSONObject json = read.get(i).asJSON();
+                assertTrue("readAhead="+readAhead+" entry "+i+" expected "+expected.get(i)+" but was "+json,expected.getJSONObject(i).similar(json));
+            }
+        }
+    }
+
+    @Test
+    public void lazyFields(){
+        List<Jsons> read = read(new JsonArrayReader(),JSON);
+        Jsons first = read.get(0);
+        assertTrue(first.has("stack"));
+        assertEquals("main",first.getString("name"));
+        assertEquals(12.5,first.getDouble("cpu"),0.0);
+        assertEquals(12345678901L,first.getLong("big"));
+        assertEquals(748,first.getJsonArray("stack").getJson(0).getLong("line"));
+        assertEquals("été é☃",first.getString("unicode"));
+        assertFalse(first.has("missing"));
+    }
+
+    @Test
+    public void selectedFields(){
+        JsonArrayReader reader = new JsonArrayReader();
+        reader.setFields("name","tid");
+        List<Jsons> read = read(reader,JSON);
+        assertEquals(3,read.size());
+        assertEquals(new HashSet<>(Arrays.asList("name","tid")),read.get(0).keySet());
+        assertFalse("stack was not selected",read.get(2).has("stack"));
+        assertEquals("GC task thread#0 (ParallelGC)",read.get(2).getString("name"));
+    }
+
+    @Test
+    public void emptyArray(){
+        assertEquals(0,read(new JsonArrayReader()," [ ] ").size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notAnArray(){
+        read(new JsonArrayReader(),"{\"a\":1}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncated(){
+        read(new JsonArrayReader(),"[{\"a\":1},{\"b\":");
+    }
+
+    @Test
+    public void smallBuffer(){
+        //a buffer smaller than the tokens so every token crosses a refill
+        String json = "{\"key with spaces\":\"a long string value \\u0041\",\"n\":[1,2.5,true,null,\"x\"]}";
+        JsonTokenizer tokenizer = new JsonTokenizer(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),4);
+        JSONObject value = (JSONObject) tokenizer.readValue();
+        assertTrue(new JSONObject(json).similar(value));
+        assertEquals(-1,tokenizer.peek());
+    }
+}
@@ -0,0 +1,50 @@
+package perf.parse.reader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import perf.parse.Exp;
+import perf.parse.Merge;
+import perf.parse.Parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class MappedTextLineReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> read(TextLineReader reader,String path){
+        List<String> lines = new ArrayList<>();
+        Parser p = new Parser();
+        p.add(new Exp("line","(?<line>.*)").set(Merge.NewStart));
+        p.add(json->lines.add(json.getString("line")));
+        reader.addParser(p);
+        reader.read(path);
+        return lines;
+    }
+
+    @Test
+    public void sameAsTextLineReader() throws IOException {
+        File file = folder.newFile("mixed.log");
+        try (FileOutputStream out = new FileOutputStream(file)){
+            out.write("first\nsecond\r\nthird\rnon-ascii éè line\na line that is longer than the segment size\r\n\nlast".getBytes());
+        }
+        List<String> expected = read(new TextLineReader(),file.getPath());
+
+        MappedTextLineReader mapped = new MappedTextLineReader();
+        mapped.setSegmentSize(8);
+        assertEquals(expected,read(mapped,file.getPath()));
+
+        assertEquals(expected,read(new MappedTextLineReader(),file.getPath()));
+    }
+}
@@ -0,0 +1,129 @@
+package perf.parse.reader;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import perf.parse.Exp;
+import perf.parse.Merge;
+import perf.parse.Parser;
+import perf.parse.internal.CheatChars;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ */
+public class MultiParserTextLineReaderTest {
+
+    private static Parser newParser(String pattern,List<String> values,List<Thread> threads){
+        Parser p = new Parser();
+        p.add(new Exp("value",pattern).set(Merge.NewStart));
+        p.add(json->{
+            values.add(json.getString("value"));
+            threads.add(Thread.currentThread());
+        });
+        return p;
+    }
+
+    private static void read(TextLineReader reader,String input){
+        List<Parser> parsers = new ArrayList<>();
+        reader.parsers().forEachRemaining(parsers::add);
+        parsers.forEach(Parser::setup);
+        reader.processInputStream(new ByteArrayInputStream(input.getBytes()));
+        parsers.forEach(Parser::close);
+    }
+
+    @Test(timeout = 30_000)
+    public void sameAsTextLineReader(){
+        StringBuilder input = new StringBuilder();
+        for(int i=0; i<10_000; i++){
+            input.append(i%3==0 ? "even " : "odd ").append(i).append(i%7==0 ? "\r\n" : "\n");
+        }
+
+        List<String> evens = new ArrayList<>();
+        List<String> numbers = new ArrayList<>();
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        TextLineReader serial = new TextLineReader();
+        serial.addParser(newParser("even (?<value>\\d+)",evens,threads));
+        serial.addParser(newParser("(?<value>\\d+)",numbers,threads));
+        read(serial,input.toString());
+
+        List<String> multiEvens = new ArrayList<>();
+        List<String> multiNumbers = new ArrayList<>();
+        List<Thread> multiThreads = Collections.synchronizedList(new ArrayList<>());
+        MultiParserTextLineReader multi = new MultiParserTextLineReader();
+        multi.setBatchLines(100);
+        multi.setBatchCount(2);
+        multi.addParser(newParser("even (?<value>\\d+)",multiEvens,multiThreads));
+        multi.addParser(newParser("(?<value>\\d+)",multiNumbers,multiThreads));
+        read(multi,input.toString());
+
+        assertEquals(10_000,numbers.size());
+        assertEquals(evens,multiEvens);
+        assertEquals(numbers,multiNumbers);
+        for(Thread thread : multiThreads.subList(0,multiThreads.size()-2)){ // the last records are emitted by close
+            assertNotEquals(Thread.currentThread(),thread);
+        }
+    }
+
+    @Test
+    public void registrationOrder(){
+        List<String> order = new ArrayList<>();
+        MultiParserTextLineReader reader = new MultiParserTextLineReader();
+        for(String name : Arrays.asList("first","second","third","fourth","fifth")){
+            Parser p = new Parser(){
+                @Override public void setup(){
+                    order.add(name);
+                    super.setup();
+                }
+            };
+            reader.addParser(p);
+        }
+        read(reader,"");
+        assertEquals(Arrays.asList("first","second","third","fourth","fifth"),order);
+    }
+
+    @Test(timeout = 30_000)
+    public void parserFailureStopsTheRead(){
+        StringBuilder input = new StringBuilder();
+        for(int i=0; i<100_000; i++){
+            input.append(i).append("\n");
+        }
+        Error failure = new AssertionError("fail on line 500");
+        AtomicInteger lines = new AtomicInteger(0);
+        MultiParserTextLineReader reader = new MultiParserTextLineReader();
+        reader.setBatchLines(100);
+        reader.setBatchCount(2);
+        reader.addParser(new Parser(){
+            @Override public JSONObject onLine(CheatChars line){
+                if(line.toString().equals("500")){
+                    throw failure;
+                }
+                return null;
+            }
+        });
+        reader.addParser(new Parser(){
+            @Override public JSONObject onLine(CheatChars line){
+                lines.incrementAndGet();
+                return null;
+            }
+        });
+        try {
+            read(reader,input.toString());
+            fail("expected the parser failure");
+        } catch (AssertionError e){
+            assertSame(failure,e);
+        }
+        assertTrue("the read should stop after the failure but read "+lines.get()+" lines",lines.get() < 100_000);
+    }
+}
@@ -0,0 +1,81 @@
+package perf.parse.reader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import perf.parse.Parser;
+import perf.parse.factory.ServerLogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class ParallelTextLineReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeServerLog(int entries) throws IOException {
+        return writeServerLog(entries,System.lineSeparator());
+    }
+    private File writeServerLog(int entries,String separator) throws IOException {
+        File rtrn = folder.newFile();
+        try (PrintWriter writer = new PrintWriter(rtrn)){
+            for(int i=0; i<entries; i++){
+                writer.printf("2013-10-24 09:21:%02d,%03d WARN  [org.jboss.Pool] (JCA PoolFiller) entry %d%s",i%60,i%1000,i,separator);
+                if(i%3==0){
+                    writer.printf("        at org.jboss.Pool.fill(Pool.java:%d)%s",i,separator);
+                    writer.printf("        at java.lang.Thread.run(Thread.java:745)%s",separator);
+                }
+            }
+        }
+        return rtrn;
+    }
+
+    @Test
+    public void sameOrderAsSerial() throws IOException {
+        assertSameAsSerial(writeServerLog(500),1024);
+    }
+
+    @Test
+    public void carriageReturns() throws IOException {
+        assertSameAsSerial(writeServerLog(500,"\r"),1000);
+        assertSameAsSerial(writeServerLog(500,"\r\n"),1001);
+    }
+
+    private void assertSameAsSerial(File log,long splitSize){
+        ServerLogFactory f = new ServerLogFactory();
+
+        List<String> serial = new ArrayList<>();
+        TextLineReader textLineReader = new TextLineReader();
+        Parser serialParser = f.newLogEntryParser();
+        serialParser.add(json->serial.add(json.toString(0)));
+        textLineReader.addParser(serialParser);
+        textLineReader.read(log.getPath());
+
+        List<String> parallel = new ArrayList<>();
+        ParallelTextLineReader parallelReader = new ParallelTextLineReader();
+        parallelReader.setSplitSize(splitSize);
+        Parser parallelParser = parallelReader.addParser(f::newLogEntryParser);
+        parallelParser.add(json->parallel.add(json.toString(0)));
+        parallelReader.read(log.getPath());
+
+        assertEquals("should emit one record per entry",500,parallel.size());
+        assertEquals("parallel records should match serial records",serial,parallel);
+    }
+
+    @Test
+    public void splittable() throws IOException {
+        File log = writeServerLog(1);
+        assertTrue(ParallelTextLineReader.isSplittable(log.getPath()));
+        assertEquals(false,ParallelTextLineReader.isSplittable(log.getPath()+".gz"));
+    }
+}
@@ -0,0 +1,101 @@
+package perf.parse.reader;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import perf.parse.Exp;
+import perf.parse.Merge;
+import perf.parse.Parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class TextLineReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void lineTerminators(){
+        List<String> lines = new ArrayList<>();
+        Parser p = new Parser();
+        p.add(new Exp("line","(?<line>.*)").set(Merge.NewStart));
+        p.add(json->lines.add(json.getString("line")));
+
+        TextLineReader r = new TextLineReader();
+        r.addParser(p);
+        p.setup();
+        r.processInputStream(new ByteArrayInputStream("first\nsecond\r\nthird\rfourth".getBytes()));
+        p.close();
+
+        assertEquals(Arrays.asList("first","second","third","fourth"),lines);
+    }
+
+    private static void writeTar(OutputStream out,int bigSize) throws IOException {
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(out)){
+            byte[] small = "first\nsecond\n".getBytes();
+            TarArchiveEntry entry = new TarArchiveEntry("small.log");
+            entry.setSize(small.length);
+            tar.putArchiveEntry(entry);
+            tar.write(small);
+            tar.closeArchiveEntry();
+
+            byte[] big = new byte[bigSize];
+            new Random(7).nextBytes(big);
+            entry = new TarArchiveEntry("big.bin");
+            entry.setSize(big.length);
+            tar.putArchiveEntry(entry);
+            tar.write(big);
+            tar.closeArchiveEntry();
+        }
+    }
+    private static int liveThreads(){
+        int rtrn = 0;
+        for(Thread thread : Thread.getAllStackTraces().keySet()){
+            if(thread.isAlive() && (thread.getName().startsWith("ReadAheadInputStream-") || thread.getName().startsWith("ParallelBZip2InputStream-"))){
+                rtrn++;
+            }
+        }
+        return rtrn;
+    }
+
+    @Test(timeout = 120_000)
+    public void partialReadStopsThreads() throws IOException {
+        //more than the read ahead buffers and more bzip2 blocks than are decompressed ahead so the threads cannot reach the end
+        int bigSize = Math.max(4_000_000,(ForkJoinPool.commonPool().getParallelism()*2+8)*100_000);
+        File gz = folder.newFile("archive.tar.gz");
+        writeTar(new GzipCompressorOutputStream(new FileOutputStream(gz)),bigSize);
+        File bz2 = folder.newFile("archive.tar.bz2");
+        writeTar(new BZip2CompressorOutputStream(new FileOutputStream(bz2),1),bigSize);
+
+        int before = liveThreads();
+        for(File archive : new File[]{gz,bz2}){
+            List<String> lines = new ArrayList<>();
+            Parser p = new Parser();
+            p.add(new Exp("line","(?<line>.*)").set(Merge.NewStart));
+            p.add(json->lines.add(json.getString("line")));
+            TextLineReader r = new TextLineReader();
+            r.addParser(p);
+            r.read(archive.getPath()+"#small.log");
+            assertEquals(archive.getName(),Arrays.asList("first","second"),lines);
+        }
+        assertEquals("threads left running after a partial read",before,liveThreads());
+    }
+}
@@ -0,0 +1,123 @@
+package perf.util;
+
+import java.util.Arrays;
+
+/**
+ * Counts long values in a fixed number of buckets, like HdrHistogram: every power of 2 range is split into the same
+ * number of linear sub buckets so the relative error of a bucket is the same for small and large values and the memory
+ * does not depend on how many values are recorded.
+ * With the default 2^7 sub buckets the upper bound of a bucket is within 1/64 (1.6%) of any value in the bucket.
+ */
+public class LogLinearHistogram {
+
+    private final int subBucketBits;
+    private final int subBucketCount;
+    private final int subBucketHalf;
+    private final long[] counts;
+    private long total = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+    private double sum = 0;
+
+    public LogLinearHistogram(){
+        this(7);
+    }
+
+    /**
+     * @param subBucketBits each power of 2 range has 2^(subBucketBits-1) buckets
+     */
+    public LogLinearHistogram(int subBucketBits){
+        if(subBucketBits < 1 || subBucketBits > 16){
+            throw new IllegalArgumentException("subBucketBits must be from 1 to 16 but was "+subBucketBits);
+        }
+        this.subBucketBits = subBucketBits;
+        this.subBucketCount = 1 << subBucketBits;
+        this.subBucketHalf = subBucketCount >> 1;
+        this.counts = new long[(64-subBucketBits)*subBucketHalf+subBucketCount];
+    }
+
+    private int index(long value){
+        int magnitude = 63-Long.numberOfLeadingZeros(value);
+        if(magnitude < subBucketBits){
+            return (int)value;
+        }
+        int shift = magnitude-subBucketBits+1;
+        return shift*subBucketHalf+(int)(value >>> shift);
+    }
+    /**
+     * @return the largest value that is counted in the bucket
+     */
+    private long highestValue(int index){
+        if(index < subBucketCount){
+            return index;
+        }
+        int shift = (index-subBucketCount)/subBucketHalf+1;
+        long subBucket = index-(long)shift*subBucketHalf;
+        return ((subBucket+1) << shift)-1;
+    }
+
+    /**
+     * @param value negative values are counted as 0
+     */
+    public void add(long value){
+        add(value,1);
+    }
+    public void add(long value,long count){
+        if(value < 0){
+            value = 0;
+        }
+        counts[index(value)]+=count;
+        total+=count;
+        sum+=(double)value*count;
+        min = Math.min(min,value);
+        max = Math.max(max,value);
+    }
+
+    public void add(LogLinearHistogram other){
+        if(other.subBucketBits != subBucketBits){
+            throw new IllegalArgumentException("cannot add a histogram with "+other.subBucketBits+" subBucketBits to one with "+subBucketBits);
+        }
+        for(int i=0; i<counts.length; i++){
+            counts[i]+=other.counts[i];
+        }
+        total+=other.total;
+        sum+=other.sum;
+        min = Math.min(min,other.min);
+        max = Math.max(max,other.max);
+    }
+
+    public void reset(){
+        Arrays.fill(counts,0);
+        total = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getCount(){return total;}
+    public long getMin(){return total == 0 ? 0 : min;}
+    public long getMax(){return max;}
+    public double getMean(){return total == 0 ? 0 : sum/total;}
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the upper bound of the bucket with the nearest rank percentile, never more than the largest value added
+     */
+    public long getPercentile(double percentile){
+        if(percentile < 0 || percentile > 100){
+            throw new IllegalArgumentException("percentile must be from 0 to 100 but was "+percentile);
+        }
+        if(total == 0){
+            return 0;
+        }
+        long rank = Math.max(1,(long)Math.ceil(percentile/100*total));
+        long seen = 0;
+        for(int i=0; i<counts.length; i++){
+            seen+=counts[i];
+            if(seen >= rank){
+                return Math.min(highestValue(i),max);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,110 @@
+package perf.util;
+
+import java.util.Arrays;
+
+/**
+ * The last size values added, kept both in arrival order (to know which value leaves the window) and sorted so min,
+ * max and percentiles are read without sorting. Adding is a binary search and an array copy of at most size values.
+ * The methods are synchronized so the window can be read while another thread adds to it.
+ * NaN values are ignored.
+ */
+public class RollingWindow {
+
+    private final double[] values; // ring in arrival order
+    private final double[] sorted;
+    private int start = 0;
+    private int count = 0;
+    private long total = 0;
+
+    public RollingWindow(int size){
+        if(size <= 0){
+            throw new IllegalArgumentException("size must be positive but was "+size);
+        }
+        values = new double[size];
+        sorted = new double[size];
+    }
+
+    public synchronized void add(double value){
+        if(Double.isNaN(value)){
+            return;
+        }
+        total++;
+        if(count == values.length){
+            double oldest = values[start];
+            values[start] = value;
+            start = (start+1) % values.length;
+            int remove = Arrays.binarySearch(sorted,0,count,oldest);
+            int insert = insertionPoint(value);
+            if(insert <= remove){
+                System.arraycopy(sorted,insert,sorted,insert+1,remove-insert);
+                sorted[insert] = value;
+            }else{
+                System.arraycopy(sorted,remove+1,sorted,remove,insert-remove-1);
+                sorted[insert-1] = value;
+            }
+        }else{
+            values[(start+count) % values.length] = value;
+            int insert = insertionPoint(value);
+            System.arraycopy(sorted,insert,sorted,insert+1,count-insert);
+            sorted[insert] = value;
+            count++;
+        }
+    }
+    private int insertionPoint(double value){
+        int index = Arrays.binarySearch(sorted,0,count,value);
+        return index < 0 ? -index-1 : index;
+    }
+
+    public synchronized void clear(){
+        start = 0;
+        count = 0;
+        total = 0;
+    }
+
+    public int capacity(){return values.length;}
+    public synchronized int size(){return count;}
+    /**
+     * @return the number of values added since the window was created or cleared, including the values that left the window
+     */
+    public synchronized long getTotal(){return total;}
+
+    public synchronized double getMin(){return count == 0 ? Double.NaN : sorted[0];}
+    public synchronized double getMax(){return count == 0 ? Double.NaN : sorted[count-1];}
+    public synchronized double getLast(){return count == 0 ? Double.NaN : values[(start+count-1) % values.length];}
+    public synchronized double getMean(){
+        if(count == 0){
+            return Double.NaN;
+        }
+        double sum = 0;
+        for(int i=0; i<count; i++){
+            sum+=sorted[i];
+        }
+        return sum/count;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the nearest rank percentile of the values in the window or NaN if the window is empty
+     */
+    public synchronized double getPercentile(double percentile){
+        if(percentile < 0 || percentile > 100){
+            throw new IllegalArgumentException("percentile must be from 0 to 100 but was "+percentile);
+        }
+        if(count == 0){
+            return Double.NaN;
+        }
+        int rank = (int)Math.ceil(percentile/100*count);
+        return sorted[Math.max(0,rank-1)];
+    }
+
+    /**
+     * @return the values in the order they were added, oldest first
+     */
+    public synchronized double[] toArray(){
+        double[] rtrn = new double[count];
+        for(int i=0; i<count; i++){
+            rtrn[i] = values[(start+i) % values.length];
+        }
+        return rtrn;
+    }
+}
@@ -0,0 +1,523 @@
+package perf.util.file;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The offset, size and compression of each entry in an archive so an entry can be opened without reading the
+ * archive from the start.
+ * The entries of uncompressed tar and zip (or jar) archives have the offset of their data in the archive,
+ * compressed tar archives are scanned once for the entry names and sizes but still have to be read from the start.
+ * The index is saved next to the archive (archive path + INDEX_SUFFIX) when the directory is writable and is
+ * rebuilt when the size or modified time of the archive changes.
+ */
+public class ArchiveIndex {
+
+    public static final String INDEX_SUFFIX = ".index";
+    private static final int VERSION = 1;
+
+    public enum Compression { Stored, Deflated, Other }
+
+    public static class Entry {
+        private final String name;
+        private final long offset;
+        private final long size;
+        private final long compressedSize;
+        private final Compression compression;
+
+        Entry(String name,long offset,long size,long compressedSize,Compression compression){
+            this.name = name;
+            this.offset = offset;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.compression = compression;
+        }
+
+        public String getName(){return name;}
+        /**
+         * @return the offset of the entry data in the archive or -1 if the archive must be read from the start
+         */
+        public long getOffset(){return offset;}
+        public long getSize(){return size;}
+        public long getCompressedSize(){return compressedSize;}
+        public Compression getCompression(){return compression;}
+        public boolean isSeekable(){return offset >= 0 && compression != Compression.Other;}
+
+        JSONObject toJson(){
+            return new JSONObject()
+                .put("name",name)
+                .put("offset",offset)
+                .put("size",size)
+                .put("compressedSize",compressedSize)
+                .put("compression",compression.name());
+        }
+        static Entry fromJson(JSONObject json){
+            return new Entry(
+                json.getString("name"),
+                json.getLong("offset"),
+                json.getLong("size"),
+                json.getLong("compressedSize"),
+                Compression.valueOf(json.getString("compression")));
+        }
+    }
+
+    private static final Map<String,ArchiveIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Get the index for the archive, loading or building it if the archive changed since the last call
+     * @param archivePath
+     * @return the index or null if the archive does not exist or cannot be read
+     */
+    public static ArchiveIndex get(String archivePath){
+        File archive = new File(archivePath);
+        if(!isIndexable(archivePath) || !archive.isFile()){
+            return null;
+        }
+        String key = archive.getAbsolutePath();
+        ArchiveIndex rtrn = indexes.get(key);
+        if(rtrn == null || !rtrn.matches(archive)){
+            //compute holds the lock for the key so concurrent callers do not build the same index
+            rtrn = indexes.compute(key,(k,existing)->existing != null && existing.matches(archive) ? existing : loadOrBuild(archive));
+        }
+        return rtrn;
+    }
+    private static ArchiveIndex loadOrBuild(File archive){
+        ArchiveIndex rtrn = load(archive);
+        if(rtrn == null){
+            try {
+                rtrn = build(archive);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            rtrn.save();
+        }
+        return rtrn;
+    }
+
+    /**
+     * @return true if the path is an archive of entries (tar, zip, jar or a compressed tar)
+     */
+    public static boolean isIndexable(String archivePath){
+        return archivePath.endsWith(".tar")
+            || archivePath.endsWith(".zip")
+            || archivePath.endsWith(".jar")
+            || archivePath.endsWith(".tar.gz")
+            || archivePath.endsWith(".tgz")
+            || archivePath.endsWith(".tar.bz2")
+            || archivePath.endsWith(".tbz2");
+    }
+    public static boolean isIndex(File file){
+        String path = file.getPath();
+        return path.endsWith(INDEX_SUFFIX) && isIndexable(path.substring(0,path.length()-INDEX_SUFFIX.length()));
+    }
+
+    static String normalize(String entryName){
+        if(entryName.startsWith("./")){
+            return entryName.substring(2);
+        }else if (entryName.startsWith("/")){
+            return entryName.substring(1);
+        }
+        return entryName;
+    }
+
+    private final File archive;
+    private final long archiveLength;
+    private final long archiveModified;
+    private final List<Entry> entries;
+    private final Map<String,Entry> byName;
+
+    private ArchiveIndex(File archive,long archiveLength,long archiveModified,List<Entry> entries){
+        this.archive = archive;
+        this.archiveLength = archiveLength;
+        this.archiveModified = archiveModified;
+        this.entries = Collections.unmodifiableList(entries);
+        this.byName = new HashMap<>();
+        for(Entry entry : entries){
+            byName.putIfAbsent(normalize(entry.getName()),entry);
+        }
+    }
+
+    private boolean matches(File file){
+        return file.length() == archiveLength && file.lastModified() == archiveModified;
+    }
+
+    public List<Entry> getEntries(){return entries;}
+    public List<String> getNames(){
+        List<String> rtrn = new ArrayList<>(entries.size());
+        for(Entry entry : entries){
+            rtrn.add(entry.getName());
+        }
+        return Collections.unmodifiableList(rtrn);
+    }
+
+    /**
+     * @param entryPath the path of the entry with or without a leading ./ or /
+     * @return the entry or null if it is not in the archive
+     */
+    public Entry getEntry(String entryPath){
+        return byName.get(normalize(entryPath));
+    }
+
+    /**
+     * Open the entry data by seeking to its offset in the archive
+     * @return the entry data or null if the entry is not in the archive or is not seekable
+     */
+    public InputStream getInputStream(String entryPath) throws IOException {
+        Entry entry = getEntry(entryPath);
+        if(entry == null || !entry.isSeekable()){
+            return null;
+        }
+        FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+        channel.position(entry.getOffset());
+        InputStream stream = new BoundedInputStream(Channels.newInputStream(channel),entry.getCompressedSize());
+        if(entry.getCompression() == Compression.Deflated){
+            Inflater inflater = new Inflater(true);
+            stream = new InflaterInputStream(stream,inflater,64*1024){
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inflater.end();
+                }
+            };
+        }
+        return stream;
+    }
+
+    private File indexFile(){
+        return new File(archive.getPath()+INDEX_SUFFIX);
+    }
+
+    private void save(){
+        File file = indexFile();
+        File directory = file.getAbsoluteFile().getParentFile();
+        if(directory == null || !directory.canWrite()){
+            return;
+        }
+        JSONArray array = new JSONArray();
+        for(Entry entry : entries){
+            array.put(entry.toJson());
+        }
+        JSONObject json = new JSONObject()
+            .put("version",VERSION)
+            .put("length",archiveLength)
+            .put("modified",archiveModified)
+            .put("entries",array);
+        Path temp = null;
+        try {
+            //write then rename so another process never reads a partly written index
+            temp = Files.createTempFile(directory.toPath(),file.getName(),".tmp");
+            Files.write(temp,json.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temp,file.toPath(),StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp,file.toPath(),StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if(temp != null){
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static ArchiveIndex load(File archive){
+        File file = new File(archive.getPath()+INDEX_SUFFIX);
+        if(!file.isFile()){
+            return null;
+        }
+        try {
+            JSONObject json = FileUtility.readJsonObjectFile(file.getPath());
+            if(json.optInt("version") != VERSION || json.optLong("length") != archive.length() || json.optLong("modified") != archive.lastModified()){
+                return null;
+            }
+            JSONArray array = json.getJSONArray("entries");
+            List<Entry> entries = new ArrayList<>(array.length());
+            for(int i=0; i<array.length(); i++){
+                entries.add(Entry.fromJson(array.getJSONObject(i)));
+            }
+            return new ArchiveIndex(archive,archive.length(),archive.lastModified(),entries);
+        } catch (JSONException | IllegalArgumentException e){ // a damaged index is rebuilt
+            return null;
+        }
+    }
+
+    private static ArchiveIndex build(File archive) throws IOException {
+        long length = archive.length();
+        long modified = archive.lastModified();
+        String path = archive.getPath();
+        List<Entry> entries;
+        if(path.endsWith(".tar")){
+            entries = buildTar(archive);
+        }else if(path.endsWith(".zip") || path.endsWith(".jar")){
+            entries = buildZip(archive);
+        }else{
+            entries = buildStream(path);
+        }
+        return new ArchiveIndex(archive,length,modified,entries);
+    }
+
+    /**
+     * Read the 512 byte tar headers and skip over the entry data
+     */
+    private static List<Entry> buildTar(File archive) throws IOException {
+        List<Entry> rtrn = new ArrayList<>();
+        byte[] header = new byte[512];
+        String longName = null;
+        Map<String,String> pax = null;
+        try (RandomAccessFile file = new RandomAccessFile(archive,"r")){
+            long offset = 0;
+            long length = file.length();
+            while(offset+512 <= length){
+                file.seek(offset);
+                file.readFully(header);
+                if(isZero(header)){
+                    break;
+                }
+                TarArchiveEntry tarEntry = new TarArchiveEntry(header);
+                long size = tarEntry.getSize();
+                long dataOffset = offset+512;
+                if(tarEntry.isGNULongNameEntry()){
+                    longName = readString(file,dataOffset,size);
+                }else if(tarEntry.isPaxHeader()){
+                    pax = parsePax(readString(file,dataOffset,size));
+                }else if(!tarEntry.isGlobalPaxHeader() && !tarEntry.isGNULongLinkEntry()){
+                    String name = tarEntry.getName();
+                    if(longName != null){
+                        name = longName;
+                    }
+                    if(pax != null){
+                        if(pax.containsKey("path")){
+                            name = pax.get("path");
+                        }
+                        if(pax.containsKey("size")){
+                            size = Long.parseLong(pax.get("size"));
+                        }
+                    }
+                    rtrn.add(new Entry(name,tarEntry.isGNUSparse() ? -1 : dataOffset,size,size,tarEntry.isGNUSparse() ? Compression.Other : Compression.Stored));
+                    longName = null;
+                    pax = null;
+                }
+                offset = dataOffset + ((size+511)/512)*512;
+            }
+        }
+        return rtrn;
+    }
+    private static boolean isZero(byte[] bytes){
+        for(byte b : bytes){
+            if(b != 0){
+                return false;
+            }
+        }
+        return true;
+    }
+    private static String readString(RandomAccessFile file,long offset,long size) throws IOException {
+        byte[] bytes = new byte[(int)size];
+        file.seek(offset);
+        file.readFully(bytes);
+        int end = bytes.length;
+        while(end > 0 && bytes[end-1] == 0){
+            end--;
+        }
+        return new String(bytes,0,end,StandardCharsets.UTF_8);
+    }
+    /**
+     * @param records "length key=value\n" records
+     */
+    private static Map<String,String> parsePax(String records){
+        Map<String,String> rtrn = new HashMap<>();
+        for(String record : records.split("\n")){
+            int space = record.indexOf(' ');
+            int equals = record.indexOf('=',space);
+            if(space > 0 && equals > space){
+                rtrn.put(record.substring(space+1,equals),record.substring(equals+1));
+            }
+        }
+        return rtrn;
+    }
+
+    /**
+     * Read the zip central directory at the end of the archive
+     */
+    private static List<Entry> buildZip(File archive) throws IOException {
+        List<Entry> rtrn = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)){
+            long length = channel.size();
+            int tailLength = (int)Math.min(length,22+65535);// end of central directory record + max comment
+            ByteBuffer tail = read(channel,length-tailLength,tailLength);
+            int end = -1;
+            for(int i=tailLength-22; i>=0; i--){
+                if(tail.getInt(i) == 0x06054b50){
+                    end = i;
+                    break;
+                }
+            }
+            if(end < 0){
+                throw new IOException("cannot find the zip central directory in "+archive);
+            }
+            long count = tail.getShort(end+10) & 0xffff;
+            long directorySize = tail.getInt(end+12) & 0xffffffffL;
+            long directoryOffset = tail.getInt(end+16) & 0xffffffffL;
+            if(end >= 20 && tail.getInt(end-20) == 0x07064b50){// zip64 end of central directory locator
+                ByteBuffer zip64 = read(channel,tail.getLong(end-20+8),56);
+                if(zip64.getInt(0) == 0x06064b50){
+                    count = zip64.getLong(32);
+                    directorySize = zip64.getLong(40);
+                    directoryOffset = zip64.getLong(48);
+                }
+            }
+            ByteBuffer directory = read(channel,directoryOffset,(int)directorySize);
+            int position = 0;
+            for(long i=0; i<count; i++){
+                if(directory.getInt(position) != 0x02014b50){
+                    throw new IOException("invalid zip central directory entry at "+(directoryOffset+position)+" in "+archive);
+                }
+                boolean encrypted = (directory.getShort(position+8) & 0x1) != 0;
+                int method = directory.getShort(position+10) & 0xffff;
+                long compressedSize = directory.getInt(position+20) & 0xffffffffL;
+                long size = directory.getInt(position+24) & 0xffffffffL;
+                int nameLength = directory.getShort(position+28) & 0xffff;
+                int extraLength = directory.getShort(position+30) & 0xffff;
+                int commentLength = directory.getShort(position+32) & 0xffff;
+                long localOffset = directory.getInt(position+42) & 0xffffffffL;
+                byte[] nameBytes = new byte[nameLength];
+                directory.position(position+46);
+                directory.get(nameBytes);
+                String name = new String(nameBytes,StandardCharsets.UTF_8);
+
+                //zip64 extra field has the values that are 0xffffffff in the order size, compressed size, offset
+                int extra = position+46+nameLength;
+                int extraEnd = extra+extraLength;
+                while(extra+4 <= extraEnd){
+                    int id = directory.getShort(extra) & 0xffff;
+                    int dataLength = directory.getShort(extra+2) & 0xffff;
+                    if(id == 0x0001){
+                        int value = extra+4;
+                        if(size == 0xffffffffL){
+                            size = directory.getLong(value);
+                            value+=8;
+                        }
+                        if(compressedSize == 0xffffffffL){
+                            compressedSize = directory.getLong(value);
+                            value+=8;
+                        }
+                        if(localOffset == 0xffffffffL){
+                            localOffset = directory.getLong(value);
+                        }
+                    }
+                    extra += 4+dataLength;
+                }
+
+                ByteBuffer local = read(channel,localOffset,30);
+                long dataOffset = localOffset+30+(local.getShort(26) & 0xffff)+(local.getShort(28) & 0xffff);
+                Compression compression = encrypted ? Compression.Other : method == 0 ? Compression.Stored : method == 8 ? Compression.Deflated : Compression.Other;
+                rtrn.add(new Entry(name,dataOffset,size,compressedSize,compression));
+
+                position = extraEnd+commentLength;
+            }
+        }
+        return rtrn;
+    }
+    private static ByteBuffer read(FileChannel channel,long offset,int length) throws IOException {
+        ByteBuffer rtrn = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while(rtrn.hasRemaining()){
+            if(channel.read(rtrn,offset+rtrn.position()) < 0){
+                throw new IOException("unexpected end of archive at "+(offset+rtrn.position()));
+            }
+        }
+        rtrn.flip();
+        return rtrn;
+    }
+
+    /**
+     * Read a compressed archive from the start, the entries cannot be seeked to
+     */
+    private static List<Entry> buildStream(String archivePath) throws IOException {
+        List<Entry> rtrn = new ArrayList<>();
+        try (InputStream stream = FileUtility.getArchiveInputStream(archivePath)){
+            if(stream instanceof ArchiveInputStream){
+                ArchiveInputStream ais = (ArchiveInputStream)stream;
+                ArchiveEntry ae;
+                while( (ae = ais.getNextEntry()) != null ){
+                    rtrn.add(new Entry(ae.getName(),-1,ae.getSize(),-1,Compression.Other));
+                }
+            }
+        }
+        return rtrn;
+    }
+
+    /**
+     * Limits the bytes read from the archive to the entry data
+     */
+    private static class BoundedInputStream extends InputStream {
+        private final InputStream stream;
+        private long remaining;
+        BoundedInputStream(InputStream stream,long length){
+            this.stream = stream;
+            this.remaining = length;
+        }
+        @Override
+        public int read() throws IOException {
+            if(remaining <= 0){
+                return -1;
+            }
+            int rtrn = stream.read();
+            if(rtrn >= 0){
+                remaining--;
+            }
+            return rtrn;
+        }
+        @Override
+        public int read(byte b[], int off, int len) throws IOException {
+            if(remaining <= 0){
+                return -1;
+            }
+            int rtrn = stream.read(b,off,(int)Math.min(len,remaining));
+            if(rtrn > 0){
+                remaining-=rtrn;
+            }
+            return rtrn;
+        }
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(remaining,Integer.MAX_VALUE);
+        }
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+}
@@ -15,6 +15,7 @@ import perf.util.Sets;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
 import java.util.*;
 
 /**
@@ -91,6 +92,13 @@ public class FileUtility {
         if(!archiveFile.exists()){
             return 0;
         }
+        if(!entryPath.isEmpty()){
+            ArchiveIndex index = ArchiveIndex.get(archivePath);
+            ArchiveIndex.Entry entry = index == null ? null : index.getEntry(entryPath);
+            if(entry != null){
+                return entry.getSize();
+            }
+        }
         try {
             InputStream rtrn = null;
             if (archivePath.endsWith(".tar.gz") || archivePath.endsWith(".tgz")) {
@@ -103,7 +111,7 @@ public class FileUtility {
                 rtrn = new ZipArchiveInputStream(rtrn);
             } else if (archivePath.endsWith(".Z")) {
                 rtrn = new ZCompressorInputStream(rtrn);
-            } else if (archivePath.endsWith(".tar.bz2") || archivePath.endsWith("tbz2")) {
+            } else if (archivePath.endsWith(".tar.bz2") || archivePath.endsWith(".tbz2")) {
                 rtrn = new TarArchiveInputStream(new BZip2CompressorInputStream(rtrn));
             } else if (archivePath.endsWith(".bz2")) {
                 rtrn = new BZip2CompressorInputStream(rtrn);
@@ -154,6 +162,55 @@ public class FileUtility {
         }
         return 0;
     }
+    private static volatile boolean parallelDecompression = Runtime.getRuntime().availableProcessors() > 1;
+
+    /**
+     * Decompress gzip and Z files on a background thread and bzip2 files on all cores in getInputStream.
+     * bzip2 files are decompressed serially when the ForkJoinPool.commonPool() has a parallelism of 1.
+     * Defaults to false on a single core.
+     */
+    public static void setParallelDecompression(boolean enabled){
+        parallelDecompression = enabled;
+    }
+    public static boolean isParallelDecompression(){return parallelDecompression;}
+
+    private static InputStream readAhead(InputStream stream){
+        return parallelDecompression ? new ReadAheadInputStream(stream) : stream;
+    }
+    private static InputStream bzip2(InputStream stream) throws IOException {
+        return parallelDecompression && ForkJoinPool.commonPool().getParallelism() > 1 && Runtime.getRuntime().availableProcessors() > 1 ?
+                new ParallelBZip2InputStream(new BufferedInputStream(stream)) :
+                new BZip2CompressorInputStream(stream,true); // pbzip2 writes concatenated streams
+    }
+
+    /**
+     * Get an InputStream for the whole file, decompressing it or reading it as an ArchiveInputStream based on the suffix
+     */
+    static InputStream getArchiveInputStream(String archivePath) throws IOException {
+        InputStream rtrn = new FileInputStream(archivePath);
+        if(archivePath.endsWith(".tar.gz") || archivePath.endsWith(".tgz")) {
+            rtrn = new TarArchiveInputStream(readAhead(new GzipCompressorInputStream(rtrn)));
+        }else if (archivePath.endsWith((".gz"))){
+            rtrn = readAhead(new GzipCompressorInputStream(rtrn));
+        }else if (archivePath.endsWith(".tar")){
+            rtrn = new TarArchiveInputStream(rtrn);
+        }else if (archivePath.endsWith(".zip")){
+            rtrn = new ZipArchiveInputStream(rtrn);
+        }else if (archivePath.endsWith(".Z")){
+            rtrn = readAhead(new ZCompressorInputStream(rtrn));
+        }else if (archivePath.endsWith(".tar.bz2") || archivePath.endsWith(".tbz2")){
+            rtrn = new TarArchiveInputStream(bzip2(rtrn));
+        }else if (archivePath.endsWith(".bz2")){
+            rtrn = bzip2(rtrn);
+        }else if (archivePath.endsWith(".jar")){
+            rtrn = new JarArchiveInputStream(rtrn);
+        }
+        return rtrn;
+    }
+
+    /**
+     * The background thread used for compressed files stops at the end of the file so close the stream if it is not read to the end
+     */
     public static InputStream getInputStream(String fullPath){
         InputStream rtrn = null;
         String archivePath = fullPath;
@@ -169,24 +226,19 @@ public class FileUtility {
                 rtrn = null;
                 throw new RuntimeException("Cannot find "+archivePath+" on local file system");
             }
-            rtrn = new FileInputStream(archivePath);
-            if(archivePath.endsWith(".tar.gz") || archivePath.endsWith(".tgz")) {
-                rtrn = new TarArchiveInputStream(new GzipCompressorInputStream(rtrn));
-            }else if (archivePath.endsWith((".gz"))){
-                rtrn = new GzipCompressorInputStream(rtrn);
-            }else if (archivePath.endsWith(".tar")){
-                rtrn = new TarArchiveInputStream(rtrn);
-            }else if (archivePath.endsWith(".zip")){
-                rtrn = new ZipArchiveInputStream(rtrn);
-            }else if (archivePath.endsWith(".Z")){
-                rtrn = new ZCompressorInputStream(rtrn);
-            }else if (archivePath.endsWith(".tar.bz2") || archivePath.endsWith("tbz2")){
-                rtrn = new TarArchiveInputStream(new BZip2CompressorInputStream(rtrn));
-            }else if (archivePath.endsWith(".bz2")){
-                rtrn = new BZip2CompressorInputStream(rtrn);
-            }else if (archivePath.endsWith(".jar")){
-                rtrn = new JarArchiveInputStream(rtrn);
+            if(!entryPath.isEmpty()){
+                ArchiveIndex index = ArchiveIndex.get(archivePath);
+                if(index != null){
+                    if(index.getEntry(entryPath) == null){
+                        throw new RuntimeException("Could not find "+entryPath+" in "+archivePath+" on local file system");
+                    }
+                    rtrn = index.getInputStream(entryPath);
+                    if(rtrn != null){
+                        return rtrn;
+                    }
+                }
             }
+            rtrn = getArchiveInputStream(archivePath);
             if(!entryPath.isEmpty()){
                 if(rtrn instanceof ArchiveInputStream){
                     ArchiveInputStream ais = (ArchiveInputStream) rtrn;
@@ -235,6 +287,10 @@ public class FileUtility {
      * @return a List containing all the named entires in the archive or an empty list
      */
     public static List<String> getArchiveEntries(String archivePath){
+        ArchiveIndex index = ArchiveIndex.get(archivePath);
+        if(index != null){
+            return index.getNames();
+        }
         InputStream is = getInputStream(archivePath);
         List<String> rtrn = new LinkedList<String>();
         if(is !=null && is instanceof ArchiveInputStream){
@@ -324,7 +380,7 @@ public class FileUtility {
                     }
                     // probably don't need both boolean comparisons but I'm
                     // curious if isFile!=isDirectory is a contract
-                    if (sub.isFile() == wantFiles && sub.isDirectory() != wantFiles) {
+                    if (sub.isFile() == wantFiles && sub.isDirectory() != wantFiles && !ArchiveIndex.isIndex(sub)) {
                         // if there is name filtering
                         if (nameSubstring != null && !nameSubstring.isEmpty()) {
                             if (sub.getName().contains(nameSubstring) /*&& !isArchive(sub)*/ ) {
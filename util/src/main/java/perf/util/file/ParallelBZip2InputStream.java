@@ -0,0 +1,494 @@
+package perf.util.file;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decompresses a bzip2 stream by splitting it into blocks that are decompressed in parallel.
+ * A background thread finds the blocks by their 48 bit magic number, copies each block into a single block bzip2
+ * stream and submits it to the pool. The blocks are returned in order and concatenated streams (e.g. from pbzip2)
+ * are supported.
+ * The block magic number is not escaped in the compressed data so a false match (about 1 in 2^48 bits) splits a block
+ * in two segments that both fail to decompress. A segment that fails is merged with the segments after it and decompressed
+ * again on the reading thread. A false end of stream magic is skipped when it is not followed by the end of the input
+ * or another bzip2 stream.
+ * The background thread stops at the end of the stream or when the stream is closed so close the stream
+ * if it is not read to the end. A stream that is abandoned without close stops its thread once it is garbage collected.
+ */
+public class ParallelBZip2InputStream extends InputStream {
+
+    private static final AtomicInteger threadCount = new AtomicInteger(0);
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = 0xffffffffffffL;
+    private static final long STREAM_MAGIC = ('B' << 16) | ('Z' << 8) | 'h';
+    private static final int MAX_MERGED = 8;
+
+    private static class Chunk {
+        final byte[] bytes;
+        final int length;
+        Chunk(byte[] bytes,int length){
+            this.bytes = bytes;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The compressed bits of a block from its block magic, most significant bit first.
+     * chunk is the decompression of the segment on its own.
+     */
+    private static class Segment {
+        final byte[] bits;
+        final long bitLength;
+        final int level;
+        Future<Chunk> chunk;
+        Segment(byte[] bits,long bitLength,int level){
+            this.bits = bits;
+            this.bitLength = bitLength;
+            this.level = level;
+        }
+        long crc(){ // the 32 bits after the 48 bit magic
+            return ((bits[6] & 0xffL) << 24) | ((bits[7] & 0xffL) << 16) | ((bits[8] & 0xffL) << 8) | (bits[9] & 0xffL);
+        }
+    }
+    private static final Segment END = new Segment(new byte[0],0,0);
+
+    /**
+     * Writes bits most significant bit first
+     */
+    private static class BitWriter {
+        byte[] bytes;
+        int length = 0;
+        long buffer = 0;
+        int bufferBits = 0;
+        BitWriter(int size){
+            bytes = new byte[size];
+        }
+        void write(long value,int count){// count <= 32
+            buffer = (buffer << count) | (value & ((1L << count)-1));
+            bufferBits+=count;
+            while(bufferBits >= 8){
+                if(length == bytes.length){
+                    bytes = Arrays.copyOf(bytes,bytes.length*2);
+                }
+                bytes[length++] = (byte)(buffer >>> (bufferBits-8));
+                bufferBits-=8;
+            }
+        }
+        void pad(){
+            if(bufferBits > 0){
+                write(0,8-bufferBits);
+            }
+        }
+    }
+
+    /**
+     * The state of the background thread. It does not reference the ParallelBZip2InputStream so a stream that is
+     * abandoned without close can be garbage collected, the thread then stops and closes the wrapped stream.
+     */
+    private static class Splitter implements Runnable {
+
+        private final InputStream stream;
+        private final ForkJoinPool pool;
+        private final BlockingQueue<Segment> pending;
+        private final BlockingQueue<byte[]> buffers;
+        private final WeakReference<ParallelBZip2InputStream> owner;
+
+        private volatile boolean closed = false;
+        private volatile IOException error;
+
+        //compressed bytes from dataOffset
+        private byte[] data = new byte[1024*1024];
+        private long dataOffset = 0;
+        private int dataLength = 0;
+        private boolean dataEnd = false;
+        private long keepFrom = 0;
+
+        Splitter(InputStream stream,ForkJoinPool pool,ParallelBZip2InputStream owner){
+            this.stream = stream;
+            this.pool = pool;
+            int window = Math.max(2,pool.getParallelism()*2);
+            this.pending = new ArrayBlockingQueue<>(window);
+            this.buffers = new ArrayBlockingQueue<>(window+2);
+            this.owner = new WeakReference<>(owner);
+        }
+
+        private boolean isAbandoned(){
+            return closed || owner.get() == null;
+        }
+
+        /**
+         * Make sure the byte at index is in data
+         * @return false if index is past the end of the stream
+         */
+        private boolean load(long index) throws IOException {
+            while(index >= dataOffset+dataLength){
+                if(dataEnd){
+                    return false;
+                }
+                int discard = (int)(keepFrom-dataOffset);
+                if(discard > 0){
+                    System.arraycopy(data,discard,data,0,dataLength-discard);
+                    dataLength-=discard;
+                    dataOffset+=discard;
+                }
+                if(dataLength == data.length){
+                    data = Arrays.copyOf(data,data.length*2);
+                }
+                int read = stream.read(data,dataLength,data.length-dataLength);
+                if(read < 0){
+                    dataEnd = true;
+                }else{
+                    dataLength+=read;
+                }
+            }
+            return true;
+        }
+        private boolean isLoaded(long index){
+            return index < dataOffset+dataLength;
+        }
+        private int byteAt(long index){
+            return data[(int)(index-dataOffset)] & 0xff;
+        }
+        private long bits(long bit,int count) throws IOException {// count <= 56
+            long rtrn = 0;
+            long first = bit >>> 3;
+            long last = (bit+count-1) >>> 3;
+            if(!isLoaded(last) && !load(last)){ // load keeps everything from keepFrom so first is still loaded
+                throw new IOException("bzip2 stream is truncated");
+            }
+            for(long i=first; i<=last; i++){
+                rtrn = (rtrn << 8) | byteAt(i);
+            }
+            int trailing = (int)(((last+1) << 3) - (bit+count));
+            return (rtrn >>> trailing) & ((1L << count)-1);
+        }
+
+        /**
+         * @return the offset of the first block or end of stream magic that starts at or after from
+         */
+        private long findMagic(long from) throws IOException {
+            long window = 0;
+            for(long i = from >>> 3; ; i++){
+                if(!isLoaded(i) && !load(i)){
+                    throw new IOException("bzip2 stream is truncated");
+                }
+                window = (window << 8) | byteAt(i);
+                for(int shift=7; shift>=0; shift--){
+                    long magic = (window >>> shift) & MAGIC_MASK;
+                    if(magic == BLOCK_MAGIC || magic == END_MAGIC){
+                        long start = (i << 3) + 8 - shift - 48;
+                        if(start >= from){
+                            return start;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Read the "BZh" header
+         * @return the block size digit or -1 at the end of the input
+         */
+        private int readHeader(long offset) throws IOException {
+            if(!load(offset)){
+                return -1;
+            }
+            if(bits(offset << 3,24) != STREAM_MAGIC){
+                throw new IOException("not a bzip2 stream at byte "+offset);
+            }
+            int level = (int)bits((offset+3) << 3,8);
+            if(level < '1' || level > '9'){
+                throw new IOException("invalid bzip2 block size "+(char)level+" at byte "+offset);
+            }
+            return level;
+        }
+
+        @Override
+        public void run(){
+            try {
+                long offset = 0;
+                int level;
+                while( !isAbandoned() && (level = readHeader(offset)) > 0 ){
+                    long bit = (offset+4) << 3;
+                    while( !isAbandoned() && bits(bit,48) == BLOCK_MAGIC ){
+                        keepFrom = bit >>> 3;
+                        long next = findMagic(bit+48);
+                        while(bits(next,48) == END_MAGIC && !isStreamEnd(next)){ // a false match in the compressed data
+                            next = findMagic(next+48);
+                        }
+                        Segment segment = copySegment(bit,next,level);
+                        segment.chunk = pool.submit(()->decompress(toStream(Collections.singletonList(segment)),segment.level));
+                        put(segment);
+                        bit = next;
+                    }
+                    if(isAbandoned()){
+                        break;
+                    }
+                    if(bits(bit,48) != END_MAGIC){
+                        throw new IOException("invalid bzip2 block magic at bit "+bit);
+                    }
+                    offset = (bit+48+32+7) >>> 3; // magic, combined crc then pad to the next byte
+                    keepFrom = offset;
+                }
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                put(END);
+                if(!closed && owner.get() == null){ // nobody is left to close the wrapped stream
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return true if the end of stream magic at bit is followed by the end of the input or another bzip2 stream
+         */
+        private boolean isStreamEnd(long bit) throws IOException {
+            long offset = (bit+48+32+7) >>> 3; // magic, combined crc then pad to the next byte
+            return !load(offset+2) || bits(offset << 3,24) == STREAM_MAGIC;
+        }
+
+        /**
+         * Wait for space in pending unless the stream is closed or abandoned
+         */
+        private void put(Segment segment){
+            while(!isAbandoned()){
+                try {
+                    if(pending.offer(segment,100,TimeUnit.MILLISECONDS)){
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    //close interrupts to stop waiting, closed is checked by the loop
+                }
+            }
+        }
+
+        /**
+         * Copy the compressed bits in [start,end) shifting 8 bytes at a time from data
+         */
+        private Segment copySegment(long start,long end,int level) throws IOException {
+            if(!isLoaded((end-1) >>> 3) && !load((end-1) >>> 3)){
+                throw new IOException("bzip2 stream is truncated");
+            }
+            int shift = (int)(start & 7);
+            int from = (int)((start >>> 3)-dataOffset);
+            int length = (int)((end-start+7) >>> 3);
+            byte[] bytes = new byte[length];
+            ByteBuffer src = ByteBuffer.wrap(data);
+            ByteBuffer dst = ByteBuffer.wrap(bytes);
+            int i = 0;
+            for(; i+8 <= length && from+i+8 < dataLength; i+=8){
+                dst.putLong(i,(src.getLong(from+i) << shift) | ((data[from+i+8] & 0xff) >>> (8-shift)));
+            }
+            for(; i<length; i++){
+                int next = from+i+1 < dataLength ? (data[from+i+1] & 0xff) : 0;
+                bytes[i] = (byte)((data[from+i] << shift) | (next >>> (8-shift)));
+            }
+            int rest = (int)((end-start) & 7);
+            if(rest > 0){ // clear the bits after end
+                bytes[length-1] &= 0xff << (8-rest);
+            }
+            return new Segment(bytes,end-start,level);
+        }
+
+        private Chunk decompress(byte[] block,int level) throws IOException {
+            byte[] bytes = buffers.poll();
+            if(bytes == null){
+                bytes = new byte[(level-'0')*100_000];
+            }
+            int length = 0;
+            try (InputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(block))){
+                int read;
+                while(true){
+                    if(length == bytes.length){
+                        bytes = Arrays.copyOf(bytes,bytes.length*2);
+                    }
+                    read = in.read(bytes,length,bytes.length-length);
+                    if(read < 0){
+                        break;
+                    }
+                    length+=read;
+                }
+            }
+            return new Chunk(bytes,length);
+        }
+    }
+
+    /**
+     * Write the segments as one single block bzip2 stream
+     */
+    private static byte[] toStream(List<Segment> segments){
+        Segment first = segments.get(0);
+        long bitLength = 0;
+        for(Segment segment : segments){
+            bitLength+=segment.bitLength;
+        }
+        BitWriter writer = new BitWriter((int)(bitLength >>> 3)+16);
+        writer.write(STREAM_MAGIC,24);
+        writer.write(first.level,8);
+        for(Segment segment : segments){
+            int whole = (int)(segment.bitLength >>> 3);
+            for(int i=0; i<whole; i++){
+                writer.write(segment.bits[i],8);
+            }
+            int rest = (int)(segment.bitLength & 7);
+            if(rest > 0){
+                writer.write((segment.bits[whole] & 0xff) >>> (8-rest),rest);
+            }
+        }
+        writer.write(END_MAGIC >>> 24,24);
+        writer.write(END_MAGIC,24);
+        writer.write(first.crc(),32);// the combined crc of a single block is the block crc
+        writer.pad();
+        return Arrays.copyOf(writer.bytes,writer.length);
+    }
+
+    private final Splitter splitter;
+    private final Thread thread;
+
+    private Chunk current;
+    private int position;
+    private boolean end = false;
+
+    public ParallelBZip2InputStream(InputStream stream){
+        this(stream,ForkJoinPool.commonPool());
+    }
+    public ParallelBZip2InputStream(InputStream stream,ForkJoinPool pool){
+        this.splitter = new Splitter(stream,pool,this);
+        this.thread = new Thread(splitter,"ParallelBZip2InputStream-"+threadCount.incrementAndGet());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return the current chunk or null at the end of the stream
+     */
+    private Chunk next() throws IOException {
+        while(current == null || position >= current.length){
+            if(end){
+                return null;
+            }
+            if(current != null){
+                splitter.buffers.offer(current.bytes);
+            }
+            try {
+                Segment segment = splitter.pending.take();
+                if(segment == END){
+                    end = true;
+                    current = null;
+                    if(splitter.error != null){
+                        throw splitter.error;
+                    }
+                    return null;
+                }
+                current = decompress(segment);
+                position = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted waiting for "+thread.getName(),e);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Get the decompressed segment, merging it with the next segments if it fails to decompress on its own
+     * because a false block magic split the block.
+     */
+    private Chunk decompress(Segment segment) throws IOException, InterruptedException {
+        try {
+            return segment.chunk.get();
+        } catch (ExecutionException e) {
+            IOException error = e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+            List<Segment> merged = new ArrayList<>();
+            merged.add(segment);
+            while(merged.size() < MAX_MERGED){
+                Segment next = splitter.pending.take();
+                if(next == END){
+                    break;
+                }
+                next.chunk.cancel(false);
+                merged.add(next);
+                try {
+                    return splitter.decompress(toStream(merged),segment.level);
+                } catch (IOException | RuntimeException retry){
+                    //the block continues in the next segment
+                }
+            }
+            end = true;
+            throw error;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        Chunk chunk = next();
+        if(chunk == null){
+            return -1;
+        }
+        return chunk.bytes[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if(len == 0){
+            return 0;
+        }
+        Chunk chunk = next();
+        if(chunk == null){
+            return -1;
+        }
+        int amount = Math.min(len,chunk.length-position);
+        System.arraycopy(chunk.bytes,position,b,off,amount);
+        position+=amount;
+        return amount;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null ? 0 : current.length-position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(splitter.closed){
+            return;
+        }
+        splitter.closed = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Segment segment;
+        while( (segment = splitter.pending.poll()) != null ){
+            if(segment.chunk != null){
+                segment.chunk.cancel(false);
+            }
+        }
+        splitter.stream.close();
+    }
+}
@@ -0,0 +1,190 @@
+package perf.util.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the wrapped stream on a background thread into a pool of reusable buffers so the reading thread does not
+ * wait on the wrapped stream (e.g. inflating a gzip file).
+ * The background thread stops at the end of the wrapped stream or when the stream is closed so close the stream
+ * if it is not read to the end. A stream that is abandoned without close stops its thread once it is garbage collected.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    private static final AtomicInteger threadCount = new AtomicInteger(0);
+
+    private static class Chunk {
+        final byte[] bytes;
+        int length;
+        Chunk(int size){
+            bytes = new byte[size];
+        }
+    }
+    private static final Chunk END = new Chunk(0);
+
+    /**
+     * The state of the background thread. It does not reference the ReadAheadInputStream so a stream that is abandoned
+     * without close can be garbage collected, the thread then stops and closes the wrapped stream.
+     */
+    private static class Filler implements Runnable {
+        private final InputStream stream;
+        private final BlockingQueue<Chunk> free;
+        private final BlockingQueue<Chunk> filled;
+        private final WeakReference<ReadAheadInputStream> owner;
+
+        private volatile boolean closed = false;
+        private volatile IOException error;
+
+        Filler(InputStream stream,int bufferSize,int bufferCount,ReadAheadInputStream owner){
+            this.stream = stream;
+            this.free = new ArrayBlockingQueue<>(bufferCount);
+            this.filled = new ArrayBlockingQueue<>(bufferCount+1);//+1 for END
+            for(int i=0; i<bufferCount; i++){
+                free.add(new Chunk(bufferSize));
+            }
+            this.owner = new WeakReference<>(owner);
+        }
+
+        private boolean isAbandoned(){
+            return closed || owner.get() == null;
+        }
+
+        @Override
+        public void run(){
+            try {
+                boolean end = false;
+                while(!end && !isAbandoned()){
+                    Chunk chunk = free.poll(100,TimeUnit.MILLISECONDS);
+                    if(chunk == null){
+                        continue;
+                    }
+                    chunk.length = 0;
+                    int read = 0;
+                    while(chunk.length < chunk.bytes.length && (read = stream.read(chunk.bytes,chunk.length,chunk.bytes.length-chunk.length)) > -1){
+                        chunk.length+=read;
+                    }
+                    end = read < 0;
+                    if(chunk.length > 0){
+                        while(!filled.offer(chunk,100,TimeUnit.MILLISECONDS)){
+                            if(isAbandoned()){
+                                return;
+                            }
+                        }
+                    }else{
+                        free.put(chunk);
+                    }
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                filled.offer(END);
+                if(!closed && owner.get() == null){ // nobody is left to close the wrapped stream
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    private final Filler filler;
+    private final Thread thread;
+
+    private Chunk current;
+    private int position;
+
+    public ReadAheadInputStream(InputStream stream){
+        this(stream,256*1024,4);
+    }
+    public ReadAheadInputStream(InputStream stream,int bufferSize,int bufferCount){
+        if(bufferSize <= 0 || bufferCount <= 0){
+            throw new IllegalArgumentException("bufferSize and bufferCount must be positive but were "+bufferSize+" and "+bufferCount);
+        }
+        this.filler = new Filler(stream,bufferSize,bufferCount,this);
+        this.thread = new Thread(filler,"ReadAheadInputStream-"+threadCount.incrementAndGet());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return the current chunk or null at the end of the stream
+     */
+    private Chunk next() throws IOException {
+        if(current != null && position < current.length){
+            return current;
+        }
+        if(current == END){
+            return null;
+        }
+        if(current != null){
+            filler.free.offer(current);
+        }
+        try {
+            current = filler.filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for "+thread.getName(),e);
+        }
+        position = 0;
+        if(current == END){
+            if(filler.error != null){
+                throw filler.error;
+            }
+            return null;
+        }
+        return current;
+    }
+
+    @Override
+    public int read() throws IOException {
+        Chunk chunk = next();
+        if(chunk == null){
+            return -1;
+        }
+        return chunk.bytes[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if(len == 0){
+            return 0;
+        }
+        Chunk chunk = next();
+        if(chunk == null){
+            return -1;
+        }
+        int amount = Math.min(len,chunk.length-position);
+        System.arraycopy(chunk.bytes,position,b,off,amount);
+        position+=amount;
+        return amount;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null || current == END ? 0 : current.length-position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(filler.closed){
+            return;
+        }
+        filler.closed = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        filler.stream.close();
+    }
+}
@@ -0,0 +1,55 @@
+package perf.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogLinearHistogramTest {
+
+    @Test
+    public void smallValuesAreExact(){
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for(int i=1; i<=100; i++){
+            histogram.add(i);
+        }
+        assertEquals(50,histogram.getPercentile(50));
+        assertEquals(99,histogram.getPercentile(99));
+        assertEquals(100,histogram.getPercentile(100));
+        assertEquals(1,histogram.getMin());
+        assertEquals(50.5,histogram.getMean(),0.0);
+    }
+
+    @Test
+    public void relativeError(){
+        Random random = new Random(11);
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        long[] values = new long[10_000];
+        for(int i=0; i<values.length; i++){
+            values[i] = (long)Math.exp(random.nextDouble()*30); // 1 to ~10^13
+            histogram.add(values[i]);
+        }
+        Arrays.sort(values);
+        for(double percentile : new double[]{1,25,50,90,99,99.9}){
+            long exact = values[(int)Math.ceil(percentile/100*values.length)-1];
+            long estimate = histogram.getPercentile(percentile);
+            assertTrue(percentile+" expected "+exact+" but was "+estimate,estimate >= exact && estimate <= exact+exact/64+1);
+        }
+        assertEquals(values[values.length-1],histogram.getPercentile(100));
+    }
+
+    @Test
+    public void addHistogram(){
+        LogLinearHistogram a = new LogLinearHistogram();
+        LogLinearHistogram b = new LogLinearHistogram();
+        a.add(10);
+        b.add(1_000_000,3);
+        a.add(b);
+        assertEquals(4,a.getCount());
+        assertEquals(10,a.getPercentile(25));
+        assertEquals(1_000_000,a.getPercentile(50));
+    }
+}
@@ -0,0 +1,50 @@
+package perf.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RollingWindowTest {
+
+    @Test
+    public void oldestLeaves(){
+        RollingWindow window = new RollingWindow(3);
+        assertTrue(Double.isNaN(window.getMax()));
+        for(double value : new double[]{5,1,9,Double.NaN,2}){
+            window.add(value);
+        }
+        assertArrayEquals(new double[]{1,9,2},window.toArray(),0.0);
+        assertEquals(1,window.getMin(),0.0);
+        assertEquals(9,window.getMax(),0.0);
+        assertEquals(2,window.getPercentile(50),0.0);
+        assertEquals(2,window.getLast(),0.0);
+        assertEquals(4,window.getTotal());
+
+        window.clear();
+        assertEquals(0,window.size());
+        assertEquals(0,window.getTotal());
+        window.add(3);
+        assertArrayEquals(new double[]{3},window.toArray(),0.0);
+        assertEquals(1,window.getTotal());
+    }
+
+    @Test
+    public void matchesSorting(){
+        Random random = new Random(7);
+        RollingWindow window = new RollingWindow(50);
+        for(int i=0; i<1000; i++){
+            window.add(random.nextInt(20)); // plenty of duplicates
+            double[] sorted = window.toArray();
+            Arrays.sort(sorted);
+            assertEquals(sorted[0],window.getMin(),0.0);
+            assertEquals(sorted[sorted.length-1],window.getMax(),0.0);
+            int rank = (int)Math.ceil(0.9*sorted.length);
+            assertEquals(sorted[rank-1],window.getPercentile(90),0.0);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package perf.util.file;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class FileUtilityTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * log like lines that do not compress too well so bzip2 creates several blocks
+     */
+    private static byte[] content(int lines){
+        Random random = new Random(lines);
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<lines; i++){
+            sb.append(i).append(" [GC (Allocation Failure) ").append(random.nextInt(1_000_000)).append("K->").append(Long.toHexString(random.nextLong())).append("\n");
+        }
+        return sb.toString().getBytes();
+    }
+    private static byte[] readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];// smaller than a chunk to read across chunks
+        int read;
+        while( (read = stream.read(buffer)) > -1 ){
+            out.write(buffer,0,read);
+        }
+        stream.close();
+        return out.toByteArray();
+    }
+    /**
+     * Read with a ParallelBZip2InputStream even if FileUtility would decompress serially on this machine
+     */
+    private static byte[] readParallel(File file) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            return readAll(new ParallelBZip2InputStream(new FileInputStream(file),pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+    private static void bzip2(OutputStream out,byte[] bytes,int from,int to) throws IOException {
+        BZip2CompressorOutputStream bzip2 = new BZip2CompressorOutputStream(out,1);// 100k blocks
+        bzip2.write(bytes,from,to-from);
+        bzip2.finish();
+    }
+
+    @Test(timeout = 60_000)
+    public void gzip() throws IOException {
+        byte[] expected = content(50_000);
+        File file = folder.newFile("test.log.gz");
+        try (GzipCompressorOutputStream out = new GzipCompressorOutputStream(new FileOutputStream(file))){
+            out.write(expected);
+        }
+        assertEquals(Runtime.getRuntime().availableProcessors() > 1,FileUtility.isParallelDecompression());
+        assertArrayEquals(expected,readAll(FileUtility.getInputStream(file.getPath())));
+    }
+
+    @Test(timeout = 60_000)
+    public void bzip2Blocks() throws IOException {
+        byte[] expected = content(50_000);
+        File file = folder.newFile("test.log.bz2");
+        try (FileOutputStream out = new FileOutputStream(file)){
+            bzip2(out,expected,0,expected.length);
+        }
+        assertArrayEquals(expected,readAll(FileUtility.getInputStream(file.getPath())));
+        //the blocks do not start on a byte boundary so this also checks the shifted segment copy
+        assertArrayEquals(expected,readParallel(file));
+    }
+
+    @Test(timeout = 60_000)
+    public void bzip2Concatenated() throws IOException {
+        byte[] expected = content(20_000);
+        File file = folder.newFile("concat.log.bz2");
+        try (FileOutputStream out = new FileOutputStream(file)){
+            bzip2(out,expected,0,expected.length/3);
+            bzip2(out,expected,expected.length/3,expected.length/3); // empty stream
+            bzip2(out,expected,expected.length/3,expected.length);
+        }
+        assertArrayEquals(expected,readAll(FileUtility.getInputStream(file.getPath())));
+        assertArrayEquals(expected,readParallel(file));
+    }
+
+    @Test(timeout = 60_000)
+    public void serialDecompression() throws IOException {
+        byte[] expected = content(1_000);
+        File file = folder.newFile("serial.log.bz2");
+        try (FileOutputStream out = new FileOutputStream(file)){
+            bzip2(out,expected,0,expected.length);
+        }
+        boolean parallel = FileUtility.isParallelDecompression();
+        FileUtility.setParallelDecompression(false);
+        try {
+            InputStream stream = FileUtility.getInputStream(file.getPath());
+            assertFalse(stream instanceof ParallelBZip2InputStream);
+            assertArrayEquals(expected,readAll(stream));
+        } finally {
+            FileUtility.setParallelDecompression(parallel);
+        }
+    }
+
+    private static final String LONG_NAME = "run/with/a/directory/name/that/is/longer/than/the/one/hundred/bytes/of/a/tar/header/server.log";
+
+    private static void tar(OutputStream out,byte[]...contents) throws IOException {
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(out)){
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+            for(int i=0; i<contents.length; i++){
+                TarArchiveEntry entry = new TarArchiveEntry(i == contents.length-1 ? LONG_NAME : "./entry"+i+".log");
+                entry.setSize(contents[i].length);
+                tar.putArchiveEntry(entry);
+                tar.write(contents[i]);
+                tar.closeArchiveEntry();
+            }
+        }
+    }
+
+    @Test
+    public void tarIndex() throws IOException {
+        byte[] first = content(100);
+        byte[] second = content(2_000);
+        byte[] last = content(10);
+        File file = folder.newFile("run.tar");
+        tar(new FileOutputStream(file),first,second,last);
+
+        assertEquals(Arrays.asList("./entry0.log","./entry1.log",LONG_NAME),FileUtility.getArchiveEntries(file.getPath()));
+        File index = new File(file.getPath()+ArchiveIndex.INDEX_SUFFIX);
+        assertTrue(index.exists());
+        assertTrue(ArchiveIndex.isIndex(index));
+        assertEquals(Arrays.asList(file.getAbsolutePath()),FileUtility.getFiles(folder.getRoot().getPath(),"run.tar",false));
+
+        assertEquals(second.length,FileUtility.getInputSize(file.getPath()+FileUtility.ARCHIVE_KEY+"entry1.log"));
+        assertTrue(ArchiveIndex.get(file.getPath()).getEntry("entry1.log").isSeekable());
+        assertArrayEquals(second,readAll(FileUtility.getInputStream(file.getPath()+FileUtility.ARCHIVE_KEY+"entry1.log")));
+        assertArrayEquals(last,readAll(FileUtility.getInputStream(file.getPath()+FileUtility.ARCHIVE_KEY+LONG_NAME)));
+        assertArrayEquals(first,readAll(FileUtility.getInputStream(file.getPath()+FileUtility.ARCHIVE_KEY+"./entry0.log")));
+    }
+
+    @Test
+    public void zipIndex() throws IOException {
+        byte[] stored = content(100);
+        byte[] deflated = content(2_000);
+        File file = folder.newFile("run.zip");
+        try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(file)){
+            ZipArchiveEntry entry = new ZipArchiveEntry("stored.log");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(stored.length);
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            entry.setCrc(crc.getValue());
+            zip.putArchiveEntry(entry);
+            zip.write(stored);
+            zip.closeArchiveEntry();
+            entry = new ZipArchiveEntry("dir/deflated.log");
+            entry.setMethod(ZipEntry.DEFLATED);
+            zip.putArchiveEntry(entry);
+            zip.write(deflated);
+            zip.closeArchiveEntry();
+        }
+        assertEquals(Arrays.asList("stored.log","dir/deflated.log"),FileUtility.getArchiveEntries(file.getPath()));
+        assertEquals(ArchiveIndex.Compression.Deflated,ArchiveIndex.get(file.getPath()).getEntry("dir/deflated.log").getCompression());
+        assertEquals(deflated.length,FileUtility.getInputSize(file.getPath()+FileUtility.ARCHIVE_KEY+"dir/deflated.log"));
+        assertArrayEquals(stored,readAll(FileUtility.getInputStream(file.getPath()+FileUtility.ARCHIVE_KEY+"stored.log")));
+        assertArrayEquals(deflated,readAll(FileUtility.getInputStream(file.getPath()+FileUtility.ARCHIVE_KEY+"dir/deflated.log")));
+    }
+
+    @Test
+    public void compressedTarIndex() throws IOException {
+        byte[] first = content(100);
+        byte[] last = content(10);
+        File file = folder.newFile("run.tar.gz");
+        tar(new GzipCompressorOutputStream(new FileOutputStream(file)),first,last);
+
+        assertEquals(Arrays.asList("./entry0.log",LONG_NAME),FileUtility.getArchiveEntries(file.getPath()));
+        assertFalse(ArchiveIndex.get(file.getPath()).getEntry(LONG_NAME).isSeekable());
+        assertEquals(last.length,FileUtility.getInputSize(file.getPath()+FileUtility.ARCHIVE_KEY+LONG_NAME));
+        assertArrayEquals(last,readAll(FileUtility.getInputStream(file.getPath()+FileUtility.ARCHIVE_KEY+LONG_NAME)));
+    }
+
+    @Test
+    public void damagedIndexIsRebuilt() throws IOException {
+        byte[] first = content(100);
+        File file = folder.newFile("damaged.tar");
+        tar(new FileOutputStream(file),first);
+        File index = new File(file.getPath()+ArchiveIndex.INDEX_SUFFIX);
+        Files.write(index.toPath(),"{\"version\":1,\"entries\":[".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(Arrays.asList(LONG_NAME),FileUtility.getArchiveEntries(file.getPath()));
+        assertEquals(1,FileUtility.readJsonObjectFile(index.getPath()).getJSONArray("entries").length());
+        assertEquals("no temporary index files",Arrays.asList("damaged.tar","damaged.tar"+ArchiveIndex.INDEX_SUFFIX),sortedNames(folder.getRoot()));
+    }
+    private static List<String> sortedNames(File directory){
+        List<String> rtrn = new ArrayList<>(Arrays.asList(directory.list()));
+        Collections.sort(rtrn);
+        return rtrn;
+    }
+
+    @Test
+    public void tbz2Suffix(){
+        assertTrue(ArchiveIndex.isIndexable("run.tbz2"));
+        assertFalse(ArchiveIndex.isIndexable("runtbz2"));
+    }
+}